@@ -31,18 +31,28 @@ package org.openhab.binding.http.internal;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 import static org.openhab.binding.http.internal.HttpGenericBindingProvider.CHANGED_COMMAND_KEY;
 
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.openhab.binding.http.HttpBindingProvider;
 import org.openhab.core.binding.AbstractActiveBinding;
+import org.openhab.core.binding.BindingProvider;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.items.ContactItem;
 import org.openhab.core.library.items.NumberItem;
@@ -60,6 +70,7 @@ import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
 import org.openhab.core.types.Type;
 import org.openhab.core.types.TypeParser;
+import org.openhab.io.net.http.CachedResponse;
 import org.openhab.io.net.http.HttpUtil;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
@@ -69,6 +80,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An active binding which requests a given URL frequently.
+ * <p>
+ * Every item is polled by a task of its own on the shared polling scheduler,
+ * so that the requests of different items run concurrently and a slow server
+ * doesn't delay the others. The host of the url is the device of the task, so
+ * the items of one host are polled one after another and an unreachable host
+ * occupies at most one thread of the scheduler.
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
@@ -85,7 +102,23 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 	/** the interval to find new refresh candidates (defaults to 1000 milliseconds)*/ 
 	private int granularity = 1000;
 	
-	private Map<String, Long> lastUpdateMap = new HashMap<String, Long>();
+	/** whether responses are revalidated by conditional GETs (defaults to false) */
+	private boolean revalidate = false;
+	
+	/** the last response and state of the items, used to revalidate the responses */
+	private final Map<String, ItemResponse> itemResponses = new ConcurrentHashMap<String, ItemResponse>();
+	
+	/** the names of the items which are polled at the moment */
+	private final Collection<String> scheduledItems = new HashSet<String>();
+	
+	/** 
+	 * is set if the bindings or the configuration have changed, so that the
+	 * polls have to be scheduled again 
+	 */
+	private volatile boolean pollsOutdated = true;
+	
+	/** the items whose bindings have changed, so that their polls have to be scheduled again */
+	private final Set<String> outdatedItems = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	
 	/** RegEx to extract a parse a function String <code>'(.*?)\((.*)\)'</code> */
 	private static final Pattern EXTRACT_FUNCTION_PATTERN = Pattern.compile("(.*?)\\((.*)\\)");
@@ -120,6 +153,55 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
     	return "HTTP Refresh Service";
     }
     
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The refresh only schedules the polls again if necessary, the items are
+	 * polled by tasks of their own.
+	 */
+	@Override
+	protected boolean isSharedPolling() {
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addBindingProvider(HttpBindingProvider provider) {
+		pollsOutdated = true;
+		super.addBindingProvider(provider);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeBindingProvider(HttpBindingProvider provider) {
+		pollsOutdated = true;
+		super.removeBindingProvider(provider);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void bindingChanged(BindingProvider provider, String itemName) {
+		itemResponses.remove(itemName);
+		outdatedItems.add(itemName);
+		super.bindingChanged(provider, itemName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void allBindingsChanged(BindingProvider provider) {
+		itemResponses.clear();
+		pollsOutdated = true;
+		super.allBindingsChanged(provider);
+	}
+    
 	/**
 	 * @{inheritDoc}
 	 */
@@ -137,104 +219,236 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 	}
 	
 	/**
-	 * @{inheritDoc}
+	 * Schedules the polls again if the bindings or the configuration have
+	 * changed. If only the bindings of single items have changed, only their
+	 * polls are scheduled again.
 	 */
 	@Override
 	public void execute() {
-		
+		if (pollsOutdated) {
+			pollsOutdated = false;
+			outdatedItems.clear();
+			schedulePolls();
+		} else if (!outdatedItems.isEmpty()) {
+			scheduleOutdatedPolls();
+		}
+	}
+	
+	/**
+	 * Schedules a poll task for every item with an in-binding, replacing the
+	 * former ones.
+	 */
+	private synchronized void schedulePolls() {
+		Collection<String> itemNames = new HashSet<String>();
 		for (HttpBindingProvider provider : providers) {
 			for (String itemName : provider.getInBindingItemNames()) {
-				
-				String url = provider.getUrl(itemName);
-				url = String.format(url, Calendar.getInstance().getTime());
-
-				Properties headers = provider.getHttpHeaders(itemName);
-				int refreshInterval = provider.getRefreshInterval(itemName);
-				String transformation = provider.getTransformation(itemName);
-				
-				Long lastUpdateTimeStamp = lastUpdateMap.get(itemName);
-				if (lastUpdateTimeStamp == null) {
-					lastUpdateTimeStamp = 0L;
-				}
-				
-				long age = System.currentTimeMillis() - lastUpdateTimeStamp;
-				boolean needsUpdate = age >= refreshInterval;
-				
-				if (needsUpdate) {
-					
-					String response = null;
-					
-					// Check if special URL is used and data should get from
-					// cache rather than directly from server
-					CacheConfig cacheItem = itemCache.get(url);
-
-					if (cacheItem != null) {
-
-						long cacheAge = System.currentTimeMillis() - cacheItem.lastUpdate;
-						boolean cacheNeedsUpdate = cacheAge >= cacheItem.updateInterval;
-
-						if (cacheNeedsUpdate) {
-
-							// update and store data on cache
-							logger.debug("updating cache for '{}' ('{}')", url, cacheItem.url);
-							cacheItem.data = HttpUtil.executeUrl("GET", cacheItem.url, null, null, null, timeout);
-
-							if (cacheItem.data != null)
-								cacheItem.lastUpdate = System.currentTimeMillis();
-						}
+				itemNames.add(itemName);
+				schedulePoll(provider, itemName);
+			}
+		}
+		for (String itemName : scheduledItems) {
+			if (!itemNames.contains(itemName)) {
+				cancelPoll(itemName);
+				itemResponses.remove(itemName);
+			}
+		}
+		scheduledItems.clear();
+		scheduledItems.addAll(itemNames);
+		logger.debug("{} HTTP item(s) are polled", itemNames.size());
+	}
+	
+	/**
+	 * Schedules the poll tasks of the items whose bindings have changed, the
+	 * polls of all other items keep their timing.
+	 */
+	private synchronized void scheduleOutdatedPolls() {
+		Iterator<String> iterator = outdatedItems.iterator();
+		while (iterator.hasNext()) {
+			String itemName = iterator.next();
+			iterator.remove();
+			HttpBindingProvider provider = findInBindingProvider(itemName);
+			if (provider != null) {
+				schedulePoll(provider, itemName);
+				scheduledItems.add(itemName);
+			} else if (scheduledItems.remove(itemName)) {
+				cancelPoll(itemName);
+				itemResponses.remove(itemName);
+			}
+		}
+	}
+	
+	private void schedulePoll(final HttpBindingProvider provider, final String itemName) {
+		long interval = Math.max(provider.getRefreshInterval(itemName), granularity);
+		schedulePoll(itemName, getHost(provider.getUrl(itemName)), interval, new Runnable() {
+			public void run() {
+				refresh(provider, itemName);
+			}
+		});
+	}
+	
+	private HttpBindingProvider findInBindingProvider(String itemName) {
+		for (HttpBindingProvider provider : providers) {
+			if (provider.getInBindingItemNames().contains(itemName)) {
+				return provider;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the host of an item's url, which is the device of its poll task.
+	 * 
+	 * @param url the url of the item or the id of a cache
+	 * @return the host or <code>null</code>, if the url can't be parsed
+	 */
+	private String getHost(String url) {
+		if (url == null) {
+			return null;
+		}
+		CacheConfig cacheItem = itemCache.get(url);
+		if (cacheItem != null) {
+			url = cacheItem.url;
+		}
+		try {
+			return new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			logger.debug("Couldn't get the host of url '{}', it is polled concurrently to other hosts", url);
+			return null;
+		}
+	}
+	
+	/**
+	 * Requests the url of the given item, transforms the response and posts
+	 * it as new state of the item.
+	 * 
+	 * @param provider the provider of the item's binding
+	 * @param itemName the name of the item to refresh
+	 */
+	private void refresh(HttpBindingProvider provider, String itemName) {
+		String url = provider.getUrl(itemName);
+		if (url == null) {
+			// the binding has been removed in the meantime
+			return;
+		}
+		url = String.format(url, Calendar.getInstance().getTime());
 
-						logger.debug("item '{}' is fetched from cache", itemName);
-						response = cacheItem.data;
-						
+		Properties headers = provider.getHttpHeaders(itemName);
+		String transformation = provider.getTransformation(itemName);
+		
+		String response = null;
+		ItemResponse itemResponse = null;
+		
+		// Check if special URL is used and data should get from
+		// cache rather than directly from server
+		CacheConfig cacheItem = itemCache.get(url);
+
+		if (cacheItem != null) {
+
+			// items sharing a cache are polled concurrently; only one of them
+			// updates it, while the others go on with the data cached so far
+			long cacheAge = System.currentTimeMillis() - cacheItem.lastUpdate;
+			boolean cacheNeedsUpdate = cacheAge >= cacheItem.updateInterval;
+
+			if (cacheNeedsUpdate && cacheItem.updating.compareAndSet(false, true)) {
+				try {
+					// update and store data on cache
+					logger.debug("updating cache for '{}' ('{}')", url, cacheItem.url);
+					if (revalidate) {
+						response = HttpUtil.executeConditionalGet(cacheItem.url, null, timeout, cacheItem.response);
 					} else {
-						
-						logger.debug("item '{}' is about to be refreshed now", itemName);
-						
-						response = HttpUtil.executeUrl("GET", url, headers, null, null, timeout);
+						response = HttpUtil.executeUrl("GET", cacheItem.url, null, null, null, timeout);
 					}
-					
-					if(response==null) {
-						logger.error("No response received from '{}'", url);
-					} else {
-						String transformedResponse;
-						
-						try {
-							String[] parts = splitTransformationConfig(transformation);
-							String transformationType = parts[0];
-							String transformationFunction = parts[1];
-							
-							TransformationService transformationService = 
-								TransformationHelper.getTransformationService(HttpActivator.getContext(), transformationType);
-							if (transformationService != null) {
-								transformedResponse = transformationService.transform(transformationFunction, response);
-							} else {
-								transformedResponse = response;
-								logger.warn("couldn't transform response because transformationService of type '{}' is unavailable", transformationType);
-							}
-						}
-						catch (TransformationException te) {
-							logger.error("transformation throws exception [transformation="
-									+ transformation + ", response=" + response + "]", te);
-							
-							// in case of an error we return the response without any
-							// transformation
-							transformedResponse = response;
-						}
-						
-						logger.debug("transformed response is '{}'", transformedResponse);
-						
-						Class<? extends Item> itemType = provider.getItemType(itemName);
-						State state = createState(itemType, transformedResponse);
-						
-						if (state != null) {
-							eventPublisher.postUpdate(itemName, state);
-						}
+	
+					if (response != null) {
+						cacheItem.data = response;
+						cacheItem.lastUpdate = System.currentTimeMillis();
 					}
-					
-					lastUpdateMap.put(itemName, System.currentTimeMillis());
-				}					
+				} finally {
+					cacheItem.updating.set(false);
+				}
+			} else {
+				logger.debug("item '{}' is fetched from cache", itemName);
+				response = cacheItem.data;
+				if (response == null) {
+					// another item is still filling the cache
+					logger.debug("cache for '{}' is not filled yet, item '{}' is refreshed with its next poll", url, itemName);
+					return;
+				}
+			}
+			
+		} else {
+			
+			logger.debug("item '{}' is about to be refreshed now", itemName);
+			
+			if (revalidate) {
+				itemResponse = itemResponses.get(itemName);
+				if (itemResponse == null) {
+					itemResponse = new ItemResponse();
+					itemResponses.put(itemName, itemResponse);
+				}
+				response = HttpUtil.executeConditionalGet(url, headers, timeout, itemResponse.response);
+			} else {
+				response = HttpUtil.executeUrl("GET", url, headers, null, null, timeout);
 			}
 		}
+		
+		if(response==null) {
+			logger.error("No response received from '{}'", url);
+			return;
+		}
+		
+		State state;
+		if (itemResponse != null && itemResponse.response.isNotModified() && itemResponse.state != null) {
+			logger.debug("response for item '{}' has not been modified", itemName);
+			state = itemResponse.state;
+		} else {
+			state = createState(provider.getItemType(itemName), transform(transformation, response));
+			if (itemResponse != null) {
+				itemResponse.state = state;
+			}
+		}
+		
+		if (state != null) {
+			eventPublisher.postUpdate(itemName, state);
+		}
+	}
+	
+	/**
+	 * Applies the configured <code>transformation</code> to a response. 
+	 * 
+	 * @param transformation the transformation configuration of the item
+	 * @param response the response to transform
+	 * @return the transformed response or the response itself if it couldn't
+	 * be transformed
+	 */
+	private String transform(String transformation, String response) {
+		String transformedResponse;
+		
+		try {
+			String[] parts = splitTransformationConfig(transformation);
+			String transformationType = parts[0];
+			String transformationFunction = parts[1];
+			
+			TransformationService transformationService = 
+				TransformationHelper.getTransformationService(HttpActivator.getContext(), transformationType);
+			if (transformationService != null) {
+				transformedResponse = transformationService.transform(transformationFunction, response);
+			} else {
+				transformedResponse = response;
+				logger.warn("couldn't transform response because transformationService of type '{}' is unavailable", transformationType);
+			}
+		}
+		catch (TransformationException te) {
+			logger.error("transformation throws exception [transformation="
+					+ transformation + ", response=" + response + "]", te);
+			
+			// in case of an error we return the response without any
+			// transformation
+			transformedResponse = response;
+		}
+		
+		logger.debug("transformed response is '{}'", transformedResponse);
+		return transformedResponse;
 	}
 	
 	/**
@@ -358,6 +572,15 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 				granularity = Integer.parseInt(granularityString);
 			}
 			
+			String revalidateString = (String) config.get("revalidate");
+			revalidate = Boolean.parseBoolean(revalidateString);
+			if (!revalidate) {
+				itemResponses.clear();
+			}
+			
+			// the granularity is the minimum interval of the polls
+			pollsOutdated = true;
+			
 			// Parse page cache config
 			
 			@SuppressWarnings("unchecked")
@@ -368,7 +591,8 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 
 				// the config-key enumeration contains additional keys that we
 				// don't want to process here ...
-				if ("service.pid".equals(key)) {
+				if ("service.pid".equals(key) || "timeout".equals(key) 
+						|| "granularity".equals(key) || "revalidate".equals(key)) {
 					continue;
 				}
 
@@ -427,10 +651,16 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 		int updateInterval = 0;
 		
 		/** Variable to store cached data */
-		String data;
+		volatile String data;
 		
 		/** Last time when data is updated */
-		long lastUpdate;
+		volatile long lastUpdate;
+		
+		/** Whether an item is currently updating the cached data */
+		final AtomicBoolean updating = new AtomicBoolean();
+		
+		/** The validators of the cached data, used to revalidate it */
+		final CachedResponse response = new CachedResponse();
 		
 		public CacheConfig(String id) {
 			this.id = id;
@@ -443,5 +673,19 @@ public class HttpBinding extends AbstractActiveBinding<HttpBindingProvider> impl
 		}
 
 	}
+	
+	/**
+	 * Internal data structure to revalidate the response of an item and to
+	 * reuse its state if the response has not been modified
+	 */
+	static class ItemResponse {
+		
+		/** The validators and body of the last response */
+		final CachedResponse response = new CachedResponse();
+		
+		/** The state created from the last response */
+		volatile State state;
+		
+	}
 
 }
@@ -0,0 +1,304 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.binding.modbus.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.ModbusIOException;
+import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.procimg.InputRegister;
+import net.wimpi.modbus.procimg.SimpleInputRegister;
+import net.wimpi.modbus.util.BitVector;
+
+import org.junit.Test;
+import org.openhab.binding.modbus.ModbusBindingProvider;
+import org.openhab.binding.modbus.internal.ModbusPollPlanner.Endpoint;
+import org.openhab.binding.modbus.internal.ModbusPollPlanner.ReadBlock;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class ModbusPollPlannerTest {
+
+	private static final String HOLDING = ModbusBindingProvider.TYPE_HOLDING;
+	private static final String COIL = ModbusBindingProvider.TYPE_COIL;
+
+	private final List<String> reads = new ArrayList<String>();
+
+	@Test
+	public void testMergesAdjacentAndOverlappingRanges() {
+		Collection<Endpoint> endpoints = ModbusPollPlanner.plan(slaves(
+				new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 10),
+				new TestSlave("b", "tcp:host1", 1, HOLDING, 10, 10),
+				new TestSlave("c", "tcp:host1", 1, HOLDING, 5, 3)));
+
+		assertEquals("[tcp:host1 1 holding 0+20 a,c,b]", describe(endpoints));
+	}
+
+	@Test
+	public void testSplitsByUnitIdTypeAndGaps() {
+		Collection<Endpoint> endpoints = ModbusPollPlanner.plan(slaves(
+				new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 10),
+				new TestSlave("b", "tcp:host1", 2, HOLDING, 10, 10),
+				new TestSlave("c", "tcp:host1", 1, ModbusBindingProvider.TYPE_INPUT, 10, 10),
+				new TestSlave("d", "tcp:host1", 1, HOLDING, 11, 5)));
+
+		assertEquals("[tcp:host1 1 holding 0+10 a, tcp:host1 2 holding 10+10 b, "
+				+ "tcp:host1 1 input 10+10 c, tcp:host1 1 holding 11+5 d]", describe(endpoints));
+	}
+
+	@Test
+	public void testSplitsByEndpoint() {
+		Collection<Endpoint> endpoints = ModbusPollPlanner.plan(slaves(
+				new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 10),
+				new TestSlave("b", "tcp:host2", 1, HOLDING, 10, 10)));
+
+		assertEquals(2, endpoints.size());
+		assertEquals("[tcp:host1 1 holding 0+10 a, tcp:host2 1 holding 10+10 b]", describe(endpoints));
+	}
+
+	@Test
+	public void testRespectsRegisterLimit() {
+		Collection<Endpoint> endpoints = ModbusPollPlanner.plan(slaves(
+				new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 100),
+				new TestSlave("b", "tcp:host1", 1, HOLDING, 100, 25),
+				new TestSlave("c", "tcp:host1", 1, HOLDING, 125, 1)));
+
+		assertEquals("[tcp:host1 1 holding 0+125 a,b, tcp:host1 1 holding 125+1 c]", describe(endpoints));
+	}
+
+	@Test
+	public void testRespectsBitLimit() {
+		Collection<Endpoint> endpoints = ModbusPollPlanner.plan(slaves(
+				new TestSlave("a", "tcp:host1", 1, COIL, 0, 1500),
+				new TestSlave("b", "tcp:host1", 1, COIL, 1500, 500),
+				new TestSlave("c", "tcp:host1", 1, COIL, 2000, 1)));
+
+		assertEquals("[tcp:host1 1 coil 0+2000 a,b, tcp:host1 1 coil 2000+1 c]", describe(endpoints));
+	}
+
+	@Test
+	public void testUpdatesSlavesWithTheirSlicesOfRegisters() {
+		RecordingBinding binding = new RecordingBinding();
+		poll(binding,
+				new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 3),
+				new TestSlave("b", "tcp:host1", 1, HOLDING, 3, 2),
+				new TestSlave("c", "tcp:host1", 1, HOLDING, 1, 3));
+
+		assertEquals("[tcp:host1 1 holding 0+5]", reads.toString());
+		assertEquals("[0, 1, 2]", binding.values.get("a"));
+		assertEquals("[3, 4]", binding.values.get("b"));
+		assertEquals("[1, 2, 3]", binding.values.get("c"));
+	}
+
+	@Test
+	public void testUpdatesSlavesWithTheirSlicesOfBits() {
+		RecordingBinding binding = new RecordingBinding();
+		poll(binding,
+				new TestSlave("a", "tcp:host1", 1, COIL, 0, 3),
+				new TestSlave("b", "tcp:host1", 1, COIL, 3, 4));
+
+		assertEquals("[tcp:host1 1 coil 0+7]", reads.toString());
+		assertEquals("[true, false, true]", binding.values.get("a"));
+		assertEquals("[false, true, false, true]", binding.values.get("b"));
+	}
+
+	@Test
+	public void testReadsNextBlockAfterErrorResponse() {
+		RecordingBinding binding = new RecordingBinding();
+		TestSlave rejected = new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 2);
+		rejected.error = new ModbusSlaveException(2);
+		poll(binding, rejected, new TestSlave("b", "tcp:host1", 2, HOLDING, 0, 2));
+
+		assertEquals("[tcp:host1 1 holding 0+2, tcp:host1 2 holding 0+2]", reads.toString());
+		assertEquals(0, rejected.resets);
+		assertEquals("[0, 1]", binding.values.get("b"));
+	}
+
+	@Test
+	public void testSkipsRemainingBlocksAfterTransportError() {
+		RecordingBinding binding = new RecordingBinding();
+		TestSlave failed = new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 2);
+		failed.error = new ModbusIOException("timeout");
+		poll(binding, failed, new TestSlave("b", "tcp:host1", 2, HOLDING, 0, 2));
+
+		assertEquals("[tcp:host1 1 holding 0+2]", reads.toString());
+		assertEquals(1, failed.resets);
+		assertEquals(null, binding.values.get("b"));
+	}
+
+	@Test
+	public void testSkipsOnlyBlockOfShortResponse() {
+		RecordingBinding binding = new RecordingBinding();
+		TestSlave truncated = new TestSlave("a", "tcp:host1", 1, HOLDING, 0, 3);
+		truncated.missing = 2;
+		poll(binding, truncated, new TestSlave("b", "tcp:host1", 1, HOLDING, 2, 3),
+				new TestSlave("c", "tcp:host1", 2, COIL, 0, 2));
+
+		assertEquals("[tcp:host1 1 holding 0+5, tcp:host1 2 coil 0+2]", reads.toString());
+		assertEquals(0, truncated.resets);
+		assertEquals(null, binding.values.get("a"));
+		assertEquals(null, binding.values.get("b"));
+		assertEquals("[true, false]", binding.values.get("c"));
+	}
+
+	private void poll(ModbusBinding binding, TestSlave... slaves) {
+		for (Endpoint endpoint : ModbusPollPlanner.plan(slaves(slaves))) {
+			endpoint.poll(binding);
+		}
+	}
+
+	private List<ModbusSlave> slaves(TestSlave... slaves) {
+		List<ModbusSlave> list = new ArrayList<ModbusSlave>();
+		Collections.addAll(list, slaves);
+		return list;
+	}
+
+	private String describe(Collection<Endpoint> endpoints) {
+		List<String> blocks = new ArrayList<String>();
+		for (Endpoint endpoint : endpoints) {
+			for (ReadBlock block : endpoint.blocks) {
+				StringBuilder names = new StringBuilder();
+				for (ModbusSlave slave : block.slaves) {
+					names.append(names.length() > 0 ? "," : "").append(slave.getName());
+				}
+				blocks.add(endpoint.key + " " + block.unitId + " " + block.type + " " + block.start + "+"
+						+ block.getLength() + " " + names);
+			}
+		}
+		return blocks.toString();
+	}
+
+	/**
+	 * A slave whose device answers with the reference of each register, or
+	 * with alternating bits for coils.
+	 */
+	private class TestSlave extends ModbusSlave {
+
+		private final String endpoint;
+
+		// thrown when the unit of this slave is read
+		ModbusException error;
+
+		// the number of values missing in the responses for the unit of this slave
+		int missing;
+
+		int resets;
+
+		TestSlave(String name, String endpoint, int id, String type, int start, int length) {
+			super(name);
+			this.endpoint = endpoint;
+			setId(id);
+			setType(type);
+			setStart(start);
+			setLength(length);
+		}
+
+		public boolean connect() {
+			return true;
+		}
+
+		public boolean isConnected() {
+			return true;
+		}
+
+		public void resetConnection() {
+			resets++;
+		}
+
+		@Override
+		String getEndpoint() {
+			return endpoint;
+		}
+
+		@Override
+		Object read(String type, int unitId, int start, int length) throws ModbusException {
+			reads.add(endpoint + " " + unitId + " " + type + " " + start + "+" + length);
+			if (error != null && unitId == getId()) {
+				throw error;
+			}
+			if (unitId == getId()) {
+				length -= missing;
+			}
+			if (COIL.equals(type)) {
+				BitVector bits = new BitVector(length);
+				for (int index = 0; index < length; index++) {
+					bits.setBit(index, (start + index) % 2 == 0);
+				}
+				return bits;
+			}
+			InputRegister[] registers = new InputRegister[length];
+			for (int index = 0; index < length; index++) {
+				registers[index] = new SimpleInputRegister(start + index);
+			}
+			return registers;
+		}
+	}
+
+	/**
+	 * A binding which records the data every slave has been updated with.
+	 */
+	private static class RecordingBinding extends ModbusBinding {
+
+		final Map<String, String> values = new HashMap<String, String>();
+
+		@Override
+		Collection<String> getItemNames(String slaveName) {
+			return Collections.singletonList(slaveName);
+		}
+
+		@Override
+		protected void internalUpdateItem(String slaveName, InputRegister[] registers, String itemName) {
+			List<Integer> list = new ArrayList<Integer>();
+			for (InputRegister register : registers) {
+				list.add(register.getValue());
+			}
+			values.put(slaveName, list.toString());
+		}
+
+		@Override
+		protected void internalUpdateItem(String slaveName, BitVector coils, String itemName) {
+			List<Boolean> list = new ArrayList<Boolean>();
+			for (int index = 0; index < coils.size(); index++) {
+				list.add(coils.getBit(index));
+			}
+			values.put(slaveName, list.toString());
+		}
+	}
+
+}
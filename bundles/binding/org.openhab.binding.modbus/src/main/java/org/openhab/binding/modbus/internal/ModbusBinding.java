@@ -28,10 +28,14 @@
  */
 package org.openhab.binding.modbus.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
@@ -44,6 +48,7 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.openhab.binding.modbus.ModbusBindingProvider;
 import org.openhab.binding.modbus.internal.ModbusGenericBindingProvider.ModbusBindingConfig;
+import org.openhab.binding.modbus.internal.ModbusPollPlanner.Endpoint;
 import org.openhab.core.binding.AbstractActiveBinding;
 import org.openhab.core.binding.BindingProvider;
 import org.openhab.core.library.items.SwitchItem;
@@ -60,6 +65,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Modbus binding allows to connect to multiple Modbus slaves as TCP master.
  * This implementation works with coils (boolean values) only.
+ * <p>
+ * The slaves are read as planned by the {@link ModbusPollPlanner}: the ranges of
+ * slaves on the same connection are read together where possible, and every
+ * connection is polled by a task of its own on the shared polling scheduler, so
+ * that a slow device doesn't delay the others.
  * 
  * @author Dmitry Krasnov
  * @since 1.1.0
@@ -79,6 +89,18 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 
 	/** slaves update interval in milliseconds, defaults to 200ms */
 	public static int pollInterval = 200;
+	
+	/** the names of the items bound to a slave, by slave name */
+	private volatile Map<String, List<String>> itemNamesBySlave = Collections.emptyMap();
+	
+	/** the names of the poll tasks which are scheduled at the moment */
+	private final Collection<String> scheduledEndpoints = new HashSet<String>();
+	
+	/** 
+	 * is set if the slaves or the bindings have changed, so that the polls 
+	 * have to be planned again 
+	 */
+	private volatile boolean planOutdated = true;
 
 	
 	public void activate() {
@@ -98,6 +120,17 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 		return "Modbus Polling Service";
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The refresh only plans the polls again if necessary, the slaves are 
+	 * polled by tasks of their own.
+	 */
+	@Override
+	protected boolean isSharedPolling() {
+		return true;
+	}
+	
 
 	/**
 	 * Parses configuration creating Modbus slave instances defined in cfg file
@@ -166,6 +199,47 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 	}
 	
 
+	/**
+	 * Returns the names of the items bound to a slave.
+	 * 
+	 * @param slaveName the name of the slave
+	 * @return the item names
+	 */
+	Collection<String> getItemNames(String slaveName) {
+		List<String> itemNames = itemNamesBySlave.get(slaveName);
+		if (itemNames == null) {
+			return Collections.emptyList();
+		}
+		return itemNames;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addBindingProvider(ModbusBindingProvider provider) {
+		planOutdated = true;
+		super.addBindingProvider(provider);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void bindingChanged(BindingProvider provider, String itemName) {
+		planOutdated = true;
+		super.bindingChanged(provider, itemName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void allBindingsChanged(BindingProvider provider) {
+		planOutdated = true;
+		super.allBindingsChanged(provider);
+	}
+
 	/**
 	 * Returns names of all the items, registered with this binding
 	 * @return list of item names
@@ -183,17 +257,56 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 	
 	
 	/**
-	 * updates all slaves from the modbusSlaves
+	 * plans the polls of the slaves again if the slaves or the bindings
+	 * have changed
 	 */
 	@Override
 	protected void execute() {
-		Collection<ModbusSlave> slaves = new HashSet<ModbusSlave>();
-		synchronized (slaves) {
-			slaves.addAll(modbusSlaves.values());
+		if (planOutdated) {
+			planOutdated = false;
+			schedulePolls();
 		}
-		for (ModbusSlave slave : slaves) {
-			slave.update(this);
+	}
+	
+	/**
+	 * Indexes the items by slave and schedules a poll task for every
+	 * connection, replacing the former ones.
+	 */
+	private synchronized void schedulePolls() {
+		Map<String, List<String>> itemNames = new HashMap<String, List<String>>();
+		for (ModbusBindingProvider provider : providers) {
+			for (String itemName : provider.getItemNames()) {
+				ModbusBindingConfig config = provider.getConfig(itemName);
+				if (config == null) {
+					continue;
+				}
+				List<String> slaveItems = itemNames.get(config.slaveName);
+				if (slaveItems == null) {
+					slaveItems = new ArrayList<String>();
+					itemNames.put(config.slaveName, slaveItems);
+				}
+				slaveItems.add(itemName);
+			}
+		}
+		itemNamesBySlave = itemNames;
+		
+		Collection<String> endpointKeys = new HashSet<String>();
+		for (final Endpoint endpoint : ModbusPollPlanner.plan(modbusSlaves.values())) {
+			endpointKeys.add(endpoint.key);
+			schedulePoll(endpoint.key, endpoint.key, pollInterval, new Runnable() {
+				public void run() {
+					endpoint.poll(ModbusBinding.this);
+				}
+			});
+			logger.debug("Modbus endpoint '{}' is read with {} request(s)", endpoint.key, endpoint.blocks.size());
+		}
+		for (String key : scheduledEndpoints) {
+			if (!endpointKeys.contains(key)) {
+				cancelPoll(key);
+			}
 		}
+		scheduledEndpoints.clear();
+		scheduledEndpoints.addAll(endpointKeys);
 	}
 	
 
@@ -284,6 +397,7 @@ public class ModbusBinding extends AbstractActiveBinding<ModbusBindingProvider>
 				slave.connect();
 			}
 
+			planOutdated = true;
 			setProperlyConfigured(true);
 		}
 	}
@@ -0,0 +1,230 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.binding.modbus.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.ModbusSlaveException;
+import net.wimpi.modbus.procimg.InputRegister;
+import net.wimpi.modbus.util.BitVector;
+
+import org.openhab.binding.modbus.ModbusBindingProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plans how the configured slaves are read. Slaves which are reached over
+ * the same connection, have the same unit id and data type and whose ranges
+ * are adjacent or overlapping are read with a single request, as long as the
+ * request stays within the limits of the Modbus protocol.
+ * <p>
+ * The requests are grouped by connection ({@link Endpoint}); the requests of
+ * an endpoint are sent one after another, while different TCP endpoints can
+ * be polled in parallel. All serial slaves share the serial line and form a
+ * single endpoint.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class ModbusPollPlanner {
+
+	private static final Logger logger = LoggerFactory.getLogger(ModbusPollPlanner.class);
+
+	/** the maximum number of registers which can be read with one request */
+	static final int MAX_REGISTERS = 125;
+
+	/** the maximum number of coils or discrete inputs which can be read with one request */
+	static final int MAX_BITS = 2000;
+
+	/**
+	 * A read request, which covers the ranges of one or more slaves.
+	 */
+	static class ReadBlock {
+
+		final String type;
+		final int unitId;
+		final int start;
+		int end;
+		final List<ModbusSlave> slaves = new ArrayList<ModbusSlave>();
+
+		ReadBlock(ModbusSlave slave) {
+			this.type = slave.getType();
+			this.unitId = slave.getId();
+			this.start = slave.getStart();
+			this.end = slave.getStart() + slave.getLength();
+			this.slaves.add(slave);
+		}
+
+		int getLength() {
+			return end - start;
+		}
+
+		/**
+		 * Adds a slave to the request if the ranges are adjacent or overlapping
+		 * and the request doesn't get too long.
+		 * 
+		 * @return true if the slave has been added
+		 */
+		boolean merge(ModbusSlave slave) {
+			int slaveEnd = slave.getStart() + slave.getLength();
+			if (slave.getStart() > end || Math.max(end, slaveEnd) - start > getMaxLength(type)) {
+				return false;
+			}
+			end = Math.max(end, slaveEnd);
+			slaves.add(slave);
+			return true;
+		}
+	}
+
+	/**
+	 * The requests which are sent over the same connection.
+	 */
+	static class Endpoint {
+
+		final String key;
+
+		// the slave whose connection is used for reading
+		final ModbusSlave connection;
+
+		final List<ReadBlock> blocks = new ArrayList<ReadBlock>();
+
+		Endpoint(String key, ModbusSlave connection) {
+			this.key = key;
+			this.connection = connection;
+		}
+
+		/**
+		 * Reads all requests of the endpoint and passes the data on to the
+		 * slaves. If the device rejects a request, the next request is read
+		 * anyway; only if the connection fails, it is reset and the remaining
+		 * requests are skipped until the next poll. A response with less data
+		 * than requested is skipped as well.
+		 * 
+		 * @param binding the binding which updates the items of the slaves
+		 */
+		void poll(ModbusBinding binding) {
+			if (!connection.connect()) {
+				connection.resetConnection();
+				logger.info("ModbusSlave not connected");
+				return;
+			}
+			for (ReadBlock block : blocks) {
+				Object data;
+				try {
+					data = connection.read(block.type, block.unitId, block.start, block.getLength());
+				} catch (ModbusSlaveException e) {
+					logger.info("ModbusSlave error response from slave(s) {}: {}", getNames(block.slaves), e.getMessage());
+					continue;
+				} catch (ModbusException e) {
+					connection.resetConnection();
+					logger.info("ModbusSlave error getting response from slave(s) {}: {}", getNames(block.slaves), e.getMessage());
+					return;
+				}
+				if (data == null) {
+					logger.info("ModbusSlave unexpected response from slave(s) {}", getNames(block.slaves));
+					continue;
+				}
+				int size = data instanceof BitVector ? ((BitVector) data).size() : ((InputRegister[]) data).length;
+				if (size < block.getLength()) {
+					logger.info("ModbusSlave short response from slave(s) {}: {} of {} values", 
+							new Object[] { getNames(block.slaves), size, block.getLength() });
+					continue;
+				}
+				for (ModbusSlave slave : block.slaves) {
+					slave.update(binding, data, slave.getStart() - block.start);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plans the requests for the given slaves.
+	 * 
+	 * @param slaves the configured slaves
+	 * @return the endpoints with their requests
+	 */
+	static Collection<Endpoint> plan(Collection<ModbusSlave> slaves) {
+		List<ModbusSlave> sorted = new ArrayList<ModbusSlave>(slaves);
+		Collections.sort(sorted, new Comparator<ModbusSlave>() {
+			public int compare(ModbusSlave slave1, ModbusSlave slave2) {
+				return slave1.getStart() < slave2.getStart() ? -1 : (slave1.getStart() == slave2.getStart() ? 0 : 1);
+			}
+		});
+
+		Map<String, Endpoint> endpoints = new LinkedHashMap<String, Endpoint>();
+		// the request which can still be extended, by endpoint, unit id and type
+		Map<String, ReadBlock> openBlocks = new LinkedHashMap<String, ReadBlock>();
+		for (ModbusSlave slave : sorted) {
+			if (slave.getType() == null || slave.getLength() <= 0) {
+				logger.debug("ModbusSlave '{}' has nothing to read", slave.getName());
+				continue;
+			}
+			String key = slave.getEndpoint();
+			Endpoint endpoint = endpoints.get(key);
+			if (endpoint == null) {
+				endpoint = new Endpoint(key, slave);
+				endpoints.put(key, endpoint);
+			}
+			String blockKey = key + "/" + slave.getId() + "/" + slave.getType();
+			ReadBlock block = openBlocks.get(blockKey);
+			if (block == null || !block.merge(slave)) {
+				block = new ReadBlock(slave);
+				openBlocks.put(blockKey, block);
+				endpoint.blocks.add(block);
+			}
+		}
+		return endpoints.values();
+	}
+
+	static int getMaxLength(String type) {
+		if (ModbusBindingProvider.TYPE_COIL.equals(type) || ModbusBindingProvider.TYPE_DISCRETE.equals(type)) {
+			return MAX_BITS;
+		}
+		return MAX_REGISTERS;
+	}
+
+	private static String getNames(List<ModbusSlave> slaves) {
+		StringBuilder names = new StringBuilder();
+		for (ModbusSlave slave : slaves) {
+			if (names.length() > 0) {
+				names.append(", ");
+			}
+			names.append(slave.getName());
+		}
+		return names.toString();
+	}
+
+}
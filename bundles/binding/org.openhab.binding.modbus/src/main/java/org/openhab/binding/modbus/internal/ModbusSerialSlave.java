@@ -123,4 +123,12 @@ public class ModbusSerialSlave extends ModbusSlave {
 		connection = null;
 	}
 
+	/**
+	 * All serial slaves share the same serial port
+	 */
+	@Override
+	String getEndpoint() {
+		return "serial";
+	}
+
 }
@@ -28,8 +28,8 @@
  */
 package org.openhab.binding.modbus.internal;
 
-import java.util.Collection;
-
+import net.wimpi.modbus.ModbusException;
+import net.wimpi.modbus.ModbusIOException;
 import net.wimpi.modbus.io.ModbusTransaction;
 import net.wimpi.modbus.msg.ModbusRequest;
 import net.wimpi.modbus.msg.ModbusResponse;
@@ -252,59 +252,85 @@ public abstract class ModbusSlave implements ModbusSlaveConnection {
 	}
 
 	/**
-	 * Reads data from the connected device and updates items with the new data
+	 * Reads data from the connected device. The request may cover the ranges
+	 * of other slaves, which are reached over the same connection.
 	 * 
-	 * @param binding ModbusBindig that stores providers information
+	 * @param type the type of the data
+	 * @param unitId the unit id of the device
+	 * @param start the reference of the first coil or register
+	 * @param length the number of coils or registers
+	 * @return a {@link BitVector} or an {@link InputRegister} array, or <code>null</code>
+	 * if the type or the response is not known
+	 * @throws ModbusException if the device couldn't be reached, or a
+	 * {@link net.wimpi.modbus.ModbusSlaveException} if it answered with an exception
 	 */
-	public void update(ModbusBinding binding) {
-		if (!connect()) {
-			resetConnection();
-			logger.info("ModbusSlave not connected");
-			return;
+	Object read(String type, int unitId, int start, int length) throws ModbusException {
+		ModbusRequest request = null;
+		if (ModbusBindingProvider.TYPE_COIL.equals(type)) {
+			request = new ReadCoilsRequest(start, length);
+			if (this instanceof ModbusSerialSlave) {
+				request.setHeadless();
+			}
+		} else if (ModbusBindingProvider.TYPE_DISCRETE.equals(type)) {
+			request = new ReadInputDiscretesRequest(start, length);
+		} else if (ModbusBindingProvider.TYPE_HOLDING.equals(type)) {
+			request = new ReadMultipleRegistersRequest(start, length);
+		} else if (ModbusBindingProvider.TYPE_INPUT.equals(type)) {
+			request = new ReadInputRegistersRequest(start, length);
+		} else {
+			return null;
 		}
 		
-		try {
-
-		Object local = null;
-
+		ModbusResponse response = getModbusData(request, unitId);
+		if (response instanceof ReadCoilsResponse) {
+			return ((ReadCoilsResponse) response).getCoils();
+		} else if (response instanceof ReadInputDiscretesResponse) {
+			return ((ReadInputDiscretesResponse) response).getDiscretes();
+		} else if (response instanceof ReadMultipleRegistersResponse) {
+			return ((ReadMultipleRegistersResponse) response).getRegisters();
+		} else if (response instanceof ReadInputRegistersResponse) {
+			return ((ReadInputRegistersResponse) response).getRegisters();
+		}
+		return null;
+	}
 
-			if (ModbusBindingProvider.TYPE_COIL.equals(getType())) {
-				ModbusRequest request = new ReadCoilsRequest(getStart(), getLength());
-				if (this instanceof ModbusSerialSlave) {
-					request.setHeadless();
-				}
-				request.setUnitID(id);
-				ReadCoilsResponse responce = (ReadCoilsResponse) getModbusData(request);
-				local = responce.getCoils();
-			} else if (ModbusBindingProvider.TYPE_DISCRETE.equals(getType())) {
-				ModbusRequest request = new ReadInputDiscretesRequest(getStart(), getLength());
-				ReadInputDiscretesResponse responce = (ReadInputDiscretesResponse) getModbusData(request);
-				local = responce.getDiscretes();
-			} else if (ModbusBindingProvider.TYPE_HOLDING.equals(getType())) {
-				ModbusRequest request = new ReadMultipleRegistersRequest(getStart(), getLength());
-				ReadMultipleRegistersResponse responce = (ReadMultipleRegistersResponse) getModbusData(request);
-				local = responce.getRegisters();
-			} else if (ModbusBindingProvider.TYPE_INPUT.equals(getType())) {
-				ModbusRequest request = new ReadInputRegistersRequest(getStart(), getLength());
-				ReadInputRegistersResponse responce = (ReadInputRegistersResponse) getModbusData(request);
-				local = responce.getRegisters();
+	/**
+	 * Takes the data of this slave from a response and updates the items
+	 * bound to this slave with it
+	 * 
+	 * @param binding ModbusBindig that stores providers information
+	 * @param data the data read by {@link #read(String, int, int, int)}
+	 * @param offset the position of the data of this slave within the read data
+	 */
+	void update(ModbusBinding binding, Object data, int offset) {
+		Object local;
+		if (data instanceof BitVector) {
+			BitVector bits = (BitVector) data;
+			BitVector slice = new BitVector(getLength());
+			for (int index = 0; index < getLength() && offset + index < bits.size(); index++) {
+				slice.setBit(index, bits.getBit(offset + index));
 			}
-			if (storage == null) 
-				storage = local;
-			else {
-				synchronized(storage) {
-					storage = local;
-				}
+			local = slice;
+		} else {
+			InputRegister[] registers = (InputRegister[]) data;
+			if (offset == 0 && registers.length == getLength()) {
+				local = registers;
+			} else {
+				InputRegister[] slice = new InputRegister[Math.min(getLength(), registers.length - offset)];
+				System.arraycopy(registers, offset, slice, 0, slice.length);
+				local = slice;
 			}
-			Collection<String> items = binding.getItemNames();
-			for (String item : items) {
-				updateItem(binding, item);
+		}
+		if (storage == null) 
+			storage = local;
+		else {
+			synchronized(storage) {
+				storage = local;
 			}
-		} catch (Exception e) {
-			resetConnection();
-			logger.info("ModbusSlave error getting responce from slave");
 		}
-
+		for (String item : binding.getItemNames(name)) {
+			updateItem(binding, item);
+		}
 	}
 
 	/**
@@ -322,25 +348,29 @@ public abstract class ModbusSlave implements ModbusSlaveConnection {
 		}
 	}
 
+	/**
+	 * @return the key of the connection to the device, slaves with the same key
+	 * are reached over the same connection
+	 */
+	abstract String getEndpoint();
+
 	/**
 	 * Executes Modbus transaction that reads data from the device and returns response data
 	 * @param request describes what data are requested from the device
+	 * @param unitId the unit id of the device
 	 * @return response data
+	 * @throws ModbusException if the transaction failed
 	 */
-	private ModbusResponse getModbusData(ModbusRequest request) {
-		request.setUnitID(getId());
+	private ModbusResponse getModbusData(ModbusRequest request, int unitId) throws ModbusException {
+		request.setUnitID(unitId);
 		transaction.setRequest(request);
 
-		try {
-			transaction.execute();
-		} catch (Exception e) {
-			logger.debug("ModbusSlave:" + e.getMessage());
-			return null;
-		}
+		transaction.execute();
 
 		ModbusResponse r = transaction.getResponse();
 		if ((r.getTransactionID() != transaction.getTransactionID()) && !r.isHeadless()) {
-			return null;
+			// the connection is out of step with the device
+			throw new ModbusIOException("Response to another transaction received");
 		}
 
 		return r;
@@ -30,6 +30,8 @@ package org.openhab.binding.modbus.internal;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
 import net.wimpi.modbus.Modbus;
 import net.wimpi.modbus.io.ModbusTCPTransaction;
 import net.wimpi.modbus.net.TCPMasterConnection;
@@ -54,7 +56,8 @@ public class ModbusTcpSlave extends ModbusSlave {
 	/** connection port. Default 502 */
 	private int port = Modbus.DEFAULT_PORT;
 
-	private TCPMasterConnection connection = null;
+	/** connections by endpoint, shared by all slaves of the same device */
+	private static final Map<String, TCPMasterConnection> connections = new HashMap<String, TCPMasterConnection>();
 
 	public ModbusTcpSlave(String slave) {
 		super(slave);
@@ -69,36 +72,61 @@ public class ModbusTcpSlave extends ModbusSlave {
 	 */
 
 	public boolean isConnected() {
-		return connection != null;
+		synchronized (connections) {
+			return connections.containsKey(getEndpoint());
+		}
 	}
 
 	/**
-	 * Establishes connection to the device
+	 * Establishes connection to the device, or reuses the connection
+	 * another slave of the same device has established
 	 */
 	public boolean connect() {
-		try {
-			if (connection == null)
-				connection = new TCPMasterConnection(InetAddress.getByName(getHost()));
-		} catch (UnknownHostException e) {
-			logger.debug("ModbusSlave: Error connecting to master: " + e.getMessage());				
-			connection = null;
-			return false;
-		}
-		if (!connection.isConnected())
-			try {
+		TCPMasterConnection connection;
+		synchronized (connections) {
+			connection = connections.get(getEndpoint());
+			if (connection == null) {
+				try {
+					connection = new TCPMasterConnection(InetAddress.getByName(getHost()));
+				} catch (UnknownHostException e) {
+					logger.debug("ModbusSlave: Error connecting to master: " + e.getMessage());				
+					return false;
+				}
 				connection.setPort(getPort());
-				connection.connect();
-				((ModbusTCPTransaction)transaction).setConnection(connection);
-				((ModbusTCPTransaction)transaction).setReconnecting(false);
-			} catch (Exception e) {
-				logger.debug("ModbusSlave: Error connecting to master: " + e.getMessage());				
-				return false;
+				connections.put(getEndpoint(), connection);
 			}
+		}
+		synchronized (connection) {
+			if (!connection.isConnected())
+				try {
+					connection.connect();
+				} catch (Exception e) {
+					logger.debug("ModbusSlave: Error connecting to master: " + e.getMessage());				
+					return false;
+				}
+		}
+		((ModbusTCPTransaction)transaction).setConnection(connection);
+		((ModbusTCPTransaction)transaction).setReconnecting(false);
 		return true;
 	}
 	
+	/**
+	 * Closes the connection to the device, the next {@link #connect()} of
+	 * any slave of the device opens a new one
+	 */
 	public void resetConnection() {
-		connection = null;
+		TCPMasterConnection connection;
+		synchronized (connections) {
+			connection = connections.remove(getEndpoint());
+		}
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	@Override
+	String getEndpoint() {
+		return "tcp:" + getHost() + ":" + getPort();
 	}
 
 	String getHost() {
@@ -135,6 +135,15 @@ public class MqttEventBusBinding extends AbstractBinding<MqttBindingProvider> im
 		return itemName;
 	}
 
+	/**
+	 * The event bus binding publishes the events of all items, not only
+	 * those with an MQTT binding configuration.
+	 */
+	@Override
+	public boolean acceptsItem(String itemName) {
+		return true;
+	}
+
 	@Override
 	public void receiveUpdate(String itemName, State newState) {
 		if (newState == null || statePublisher == null
@@ -0,0 +1,146 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.binding.networkhealth.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.networkhealth.internal.ReachabilityProber.Probe;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class ReachabilityProberTest {
+
+	/**
+	 * Resolves the host names 'slow' and 'hanging' to the loopback address
+	 * after a delay and fails for 'unknown'.
+	 */
+	private static class DelayingProber extends ReachabilityProber {
+		@Override
+		protected InetAddress resolve(String host) throws UnknownHostException {
+			if (host.equals("unknown")) {
+				throw new UnknownHostException(host);
+			}
+			if (host.equals("slow")) {
+				sleep(300);
+			} else if (host.equals("hanging")) {
+				sleep(10000);
+			}
+			return InetAddress.getByName("127.0.0.1");
+		}
+
+		private void sleep(long millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private ReachabilityProber prober = new DelayingProber();
+
+	private ServerSocket server;
+
+	@Before
+	public void init() throws IOException {
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		prober.shutdown();
+		server.close();
+	}
+
+	@Test
+	public void testListeningPortIsReachable() {
+		Probe probe = new Probe("localhost", server.getLocalPort(), 1000);
+		prober.probe(Arrays.asList(probe));
+
+		assertTrue(probe.isReachable());
+		assertTrue(probe.getLatency() >= 0);
+	}
+
+	@Test
+	public void testClosedPortIsNotReachable() throws IOException {
+		int port = server.getLocalPort();
+		server.close();
+		Probe probe = new Probe("localhost", port, 1000);
+		prober.probe(Arrays.asList(probe));
+
+		assertFalse(probe.isReachable());
+		assertEquals(-1, probe.getLatency());
+	}
+
+	@Test
+	public void testUnknownHostIsNotReachable() {
+		Probe unknown = new Probe("unknown", server.getLocalPort(), 1000);
+		Probe known = new Probe("localhost", server.getLocalPort(), 1000);
+		prober.probe(Arrays.asList(unknown, known));
+
+		assertFalse(unknown.isReachable());
+		assertTrue(known.isReachable());
+	}
+
+	@Test
+	public void testLatencyIsMeasuredAfterResolution() {
+		Probe probe = new Probe("slow", server.getLocalPort(), 1000);
+		prober.probe(Arrays.asList(probe));
+
+		assertTrue(probe.isReachable());
+		assertTrue("latency " + probe.getLatency(), probe.getLatency() < 300);
+	}
+
+	@Test
+	public void testResolutionTimesOut() {
+		Probe hanging = new Probe("hanging", server.getLocalPort(), 200);
+		Probe slow = new Probe("slow", server.getLocalPort(), 1000);
+		long start = System.currentTimeMillis();
+		prober.probe(Arrays.asList(hanging, slow));
+
+		// the host names are resolved in parallel and the hanging one is given up after its timeout
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertFalse(hanging.isReachable());
+		assertTrue(slow.isReachable());
+	}
+
+}
@@ -29,6 +29,7 @@
 package org.openhab.binding.networkhealth;
 
 import org.openhab.core.binding.BindingProvider;
+import org.openhab.core.items.Item;
 
 
 
@@ -59,4 +60,10 @@ public interface NetworkHealthBindingProvider extends BindingProvider {
 	 */
 	public int getTimeout(String itemName);
 	
+	/**
+	 * @return the type of the given <code>itemName</code>; for NumberItems
+	 * the round-trip latency is posted instead of the reachability
+	 */
+	public Class<? extends Item> getItemType(String itemName);
+	
 }
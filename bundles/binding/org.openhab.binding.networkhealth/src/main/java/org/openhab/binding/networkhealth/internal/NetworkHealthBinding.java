@@ -28,14 +28,19 @@
  */
 package org.openhab.binding.networkhealth.internal;
 
-import java.io.IOException;
-import java.net.SocketTimeoutException;
 import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.openhab.binding.networkhealth.NetworkHealthBindingProvider;
+import org.openhab.binding.networkhealth.internal.ReachabilityProber.Probe;
 import org.openhab.core.binding.AbstractActiveBinding;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.types.DecimalType;
 import org.openhab.core.library.types.OnOffType;
-import org.openhab.io.net.actions.Ping;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.slf4j.Logger;
@@ -61,6 +66,9 @@ public class NetworkHealthBinding extends AbstractActiveBinding<NetworkHealthBin
 	/** the refresh interval which is used to poll the vitality of the given hosts (defaults to 60000ms) */
 	private long refreshInterval = 60000;
 	
+	/** checks the vitality of all hosts in parallel */
+	private final ReachabilityProber prober = new ReachabilityProber();
+	
 	
 	@Override
 	protected String getName() {
@@ -78,37 +86,58 @@ public class NetworkHealthBinding extends AbstractActiveBinding<NetworkHealthBin
 		setProperlyConfigured(true);
 	}
 	
+	@Override
+	public void deactivate() {
+		super.deactivate();
+		prober.shutdown();
+	}
+	
 	/**
 	 * @{inheritDoc}
 	 */
 	@Override
 	public void execute() {
+		// items checking the same host, port and timeout share one probe
+		Map<String, Probe> probes = new HashMap<String, Probe>();
+		Map<String, Probe> probesByItem = new HashMap<String, Probe>();
+		Map<String, Class<? extends Item>> itemTypes = new HashMap<String, Class<? extends Item>>();
+		
 		for (NetworkHealthBindingProvider provider : providers) {
 			for (String itemName : provider.getItemNames()) {
 				
 				String hostname = provider.getHostname(itemName);
 				int port = provider.getPort(itemName);
-
-				if (provider.getTimeout(itemName) > 0) {
-					timeout = provider.getTimeout(itemName);
-				}
-				
-				boolean success = false;
+				int itemTimeout = provider.getTimeout(itemName) > 0 ? provider.getTimeout(itemName) : timeout;
 				
-				try {
-					success = Ping.checkVitality(hostname, port, timeout);
-
-					logger.debug("established connection [host '{}' port '{}' timeout '{}']", new Object[] {hostname, port, timeout});
-				} 
-				catch (SocketTimeoutException se) {
-					logger.debug("timed out while connecting to host '{}' port '{}' timeout '{}'", new Object[] {hostname, port, timeout});
-				}
-				catch (IOException ioe) {
-					logger.debug("couldn't establish network connection [host '{}' port '{}' timeout '{}']", new Object[] {hostname, port, timeout});
+				String key = hostname + ":" + port + ":" + itemTimeout;
+				Probe probe = probes.get(key);
+				if (probe == null) {
+					probe = new Probe(hostname, port, itemTimeout);
+					probes.put(key, probe);
 				}
-				if(eventPublisher!=null) {
-					eventPublisher.postUpdate(itemName, success ? OnOffType.ON : OnOffType.OFF);
+				probesByItem.put(itemName, probe);
+				itemTypes.put(itemName, provider.getItemType(itemName));
+			}
+		}
+		
+		if (probes.isEmpty()) {
+			return;
+		}
+		prober.probe(probes.values());
+		
+		if (eventPublisher != null) {
+			for (Map.Entry<String, Probe> entry : probesByItem.entrySet()) {
+				String itemName = entry.getKey();
+				Probe probe = entry.getValue();
+				
+				State state;
+				Class<? extends Item> itemType = itemTypes.get(itemName);
+				if (itemType != null && NumberItem.class.isAssignableFrom(itemType)) {
+					state = probe.isReachable() ? new DecimalType(probe.getLatency()) : UnDefType.UNDEF;
+				} else {
+					state = probe.isReachable() ? OnOffType.ON : OnOffType.OFF;
 				}
+				eventPublisher.postUpdate(itemName, state);
 			}
 		}
 	}
@@ -31,6 +31,7 @@ package org.openhab.binding.networkhealth.internal;
 import org.openhab.binding.networkhealth.NetworkHealthBindingProvider;
 import org.openhab.core.binding.BindingConfig;
 import org.openhab.core.items.Item;
+import org.openhab.core.library.items.NumberItem;
 import org.openhab.core.library.items.StringItem;
 import org.openhab.core.library.items.SwitchItem;
 import org.openhab.model.item.binding.AbstractGenericBindingProvider;
@@ -48,6 +49,11 @@ import org.openhab.model.item.binding.BindingConfigParseException;
  * 	<li><code>{ nh="imap.email.com:993" }</code> - which checks if the given host allows connections on port 993 with a default timeout of 5000ms</li>
  * 	<li><code>{ nh="ssh.secureserver.com:22:10000" } -  - which checks if the given host allows connections on port 22 with a timeout of 10000ms</code></li>
  * </ul>
+ * Bound to a NumberItem, the same configuration posts the round-trip latency in
+ * milliseconds (or <code>Undefined</code> if the host is unreachable).
+ * <ul>
+ * 	<li><code>{ nh="imap.email.com:993" }</code> - which posts the time it took to connect to port 993</li>
+ * </ul>
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
@@ -68,10 +74,10 @@ public class NetworkHealthGenericBindingProvider extends AbstractGenericBindingP
 	 */
 	@Override
 	public void validateItemType(Item item, String bindingConfig) throws BindingConfigParseException {
-		if (!(item instanceof SwitchItem || item instanceof StringItem)) {
+		if (!(item instanceof SwitchItem || item instanceof StringItem || item instanceof NumberItem)) {
 			throw new BindingConfigParseException("item '" + item.getName()
 					+ "' is of type '" + item.getClass().getSimpleName()
-					+ "', only Switch- and StringItems are allowed - please check your *.items configuration");
+					+ "', only Switch-, String- and NumberItems are allowed - please check your *.items configuration");
 		}
 	}
 	
@@ -90,7 +96,7 @@ public class NetworkHealthGenericBindingProvider extends AbstractGenericBindingP
 		
 		NhBindingConfig config = new NhBindingConfig();
 		
-		item.getName();
+		config.itemType = item.getClass();
 		config.hostname = configParts[0];
 		if (configParts.length > 1) {
 			config.port = Integer.valueOf(configParts[1]);
@@ -124,6 +130,14 @@ public class NetworkHealthGenericBindingProvider extends AbstractGenericBindingP
 		NhBindingConfig config = (NhBindingConfig) bindingConfigs.get(itemName);
 		return config != null ? config.timeout : 0;
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Class<? extends Item> getItemType(String itemName) {
+		NhBindingConfig config = (NhBindingConfig) bindingConfigs.get(itemName);
+		return config != null ? config.itemType : null;
+	}
 	
 	
 	/**
@@ -135,6 +149,7 @@ public class NetworkHealthGenericBindingProvider extends AbstractGenericBindingP
 		public String hostname;
 		public int port;
 		public int timeout;
+		public Class<? extends Item> itemType;
 	}
 
 
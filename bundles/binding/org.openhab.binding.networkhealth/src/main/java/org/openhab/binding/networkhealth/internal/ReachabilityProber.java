@@ -0,0 +1,371 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.binding.networkhealth.internal;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Checks the vitality of many hosts at once. All TCP connection attempts are
+ * started together as non-blocking {@link SocketChannel}s and are completed
+ * through a single {@link Selector}, so a probe cycle takes at most as long as
+ * the largest timeout instead of the sum of all timeouts.
+ * 
+ * Probes for port '0' use a regular ping ({@link InetAddress#isReachable(int)}),
+ * which can't be done non-blocking and therefore runs on a thread pool in
+ * parallel to the TCP probes. The host names of the TCP probes are resolved
+ * in parallel on the same pool before the connection attempts are started,
+ * a name which isn't resolved within the timeout of its probe is treated as
+ * unreachable. The latency is measured from the end of the resolution.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class ReachabilityProber {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReachabilityProber.class);
+
+	private ExecutorService executor;
+
+
+	/**
+	 * Checks all given <code>probes</code> and blocks until every probe either
+	 * succeeded, failed or reached its timeout. The results are stored in the
+	 * probes.
+	 * 
+	 * @param probes the probes to check
+	 */
+	public void probe(Collection<Probe> probes) {
+		List<Future<?>> pings = new ArrayList<Future<?>>();
+		List<Probe> connects = new ArrayList<Probe>();
+		List<Future<InetAddress>> resolutions = new ArrayList<Future<InetAddress>>();
+		for (Probe probe : probes) {
+			probe.reachable = false;
+			probe.latency = -1;
+			if (probe.host == null || probe.timeout <= 0) {
+				continue;
+			}
+			if (probe.port == 0) {
+				pings.add(getExecutor().submit(new PingTask(probe)));
+			} else {
+				connects.add(probe);
+				resolutions.add(getExecutor().submit(new ResolveTask(probe.host)));
+			}
+		}
+
+		if (!connects.isEmpty()) {
+			List<Probe> resolved = resolve(connects, resolutions);
+			if (!resolved.isEmpty()) {
+				try {
+					connect(resolved);
+				} catch (IOException ioe) {
+					logger.error("couldn't open selector to probe hosts", ioe);
+				}
+			}
+		}
+
+		for (Future<?> ping : pings) {
+			try {
+				ping.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				logger.debug("ping failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the threads used for regular pings and name resolution.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "NetworkHealth probe");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Resolves the host name of a probe. This blocks and is therefore only
+	 * called on the threads of the pool.
+	 */
+	protected InetAddress resolve(String host) throws UnknownHostException {
+		return InetAddress.getByName(host);
+	}
+
+	/**
+	 * Waits for the resolution of the host names, each of them at most for
+	 * the timeout of its probe.
+	 * 
+	 * @return the probes whose host names have been resolved
+	 */
+	private List<Probe> resolve(List<Probe> probes, List<Future<InetAddress>> resolutions) {
+		List<Probe> resolved = new ArrayList<Probe>();
+		long start = System.nanoTime();
+		for (int index = 0; index < probes.size(); index++) {
+			Probe probe = probes.get(index);
+			Future<InetAddress> resolution = resolutions.get(index);
+			long remaining = probe.timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			try {
+				probe.address = new InetSocketAddress(resolution.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS), probe.port);
+				resolved.add(probe);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<InetAddress> pending : resolutions) {
+					pending.cancel(true);
+				}
+				return new ArrayList<Probe>();
+			} catch (ExecutionException e) {
+				logger.debug("couldn't resolve host '{}'", probe.host);
+			} catch (TimeoutException e) {
+				resolution.cancel(true);
+				logger.debug("timed out while resolving host '{}' timeout '{}'", probe.host, probe.timeout);
+			}
+		}
+		return resolved;
+	}
+
+	private void connect(List<Probe> probes) throws IOException {
+		Selector selector = Selector.open();
+		try {
+			for (Probe probe : probes) {
+				startConnect(selector, probe);
+			}
+
+			while (!selector.keys().isEmpty()) {
+				long wait = expireTimedOut(selector);
+				if (wait == 0) {
+					continue;
+				}
+				selector.select(wait);
+
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					finishConnect(key);
+				}
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key.channel());
+			}
+			selector.close();
+		}
+	}
+
+	private void startConnect(Selector selector, Probe probe) {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			probe.start = System.nanoTime();
+			if (channel.connect(probe.address)) {
+				succeeded(probe);
+				close(channel);
+			} else {
+				channel.register(selector, SelectionKey.OP_CONNECT, probe);
+			}
+		} catch (IOException ioe) {
+			logger.debug("couldn't establish network connection [host '{}' port '{}']", probe.host, probe.port);
+			close(channel);
+		}
+	}
+
+	private void finishConnect(SelectionKey key) {
+		Probe probe = (Probe) key.attachment();
+		try {
+			if (((SocketChannel) key.channel()).finishConnect()) {
+				succeeded(probe);
+			} else {
+				return;
+			}
+		} catch (IOException ioe) {
+			logger.debug("couldn't establish network connection [host '{}' port '{}']", probe.host, probe.port);
+		}
+		key.cancel();
+		close(key.channel());
+	}
+
+	/**
+	 * Closes all connection attempts which exceeded their timeout.
+	 * 
+	 * @return the milliseconds until the next pending attempt times out
+	 */
+	private long expireTimedOut(Selector selector) throws IOException {
+		long now = System.nanoTime();
+		long wait = Long.MAX_VALUE;
+		for (SelectionKey key : selector.keys()) {
+			if (!key.isValid()) {
+				continue;
+			}
+			Probe probe = (Probe) key.attachment();
+			long remaining = TimeUnit.NANOSECONDS.toMillis(probe.start - now) + probe.timeout;
+			if (remaining <= 0) {
+				logger.debug("timed out while connecting to host '{}' port '{}' timeout '{}'",
+						new Object[] { probe.host, probe.port, probe.timeout });
+				key.cancel();
+				close(key.channel());
+			} else {
+				wait = Math.min(wait, remaining);
+			}
+		}
+		if (wait == Long.MAX_VALUE) {
+			// only cancelled keys left, they are removed with the next selection
+			selector.selectNow();
+			return 0;
+		}
+		return wait;
+	}
+
+	private static void succeeded(Probe probe) {
+		probe.latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probe.start);
+		probe.reachable = true;
+		logger.debug("established connection [host '{}' port '{}' latency '{}ms']",
+				new Object[] { probe.host, probe.port, probe.latency });
+	}
+
+	private static void close(Channel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing we can do here
+			}
+		}
+	}
+
+
+	/**
+	 * A single vitality check of a host and its result.
+	 */
+	public static class Probe {
+
+		private final String host;
+		private final int port;
+		private final int timeout;
+
+		private InetSocketAddress address;
+		private long start;
+		private boolean reachable;
+		private long latency = -1;
+
+		public Probe(String host, int port, int timeout) {
+			this.host = host;
+			this.port = port;
+			this.timeout = timeout;
+		}
+
+		/**
+		 * @return <code>true</code> if the host was reachable within the timeout
+		 */
+		public boolean isReachable() {
+			return reachable;
+		}
+
+		/**
+		 * @return the time in milliseconds it took to connect to (or ping) the
+		 * host or <code>-1</code> if it wasn't reachable
+		 */
+		public long getLatency() {
+			return latency;
+		}
+	}
+
+	private class PingTask implements Runnable {
+
+		private final Probe probe;
+
+		PingTask(Probe probe) {
+			this.probe = probe;
+		}
+
+		public void run() {
+			try {
+				InetAddress address = resolve(probe.host);
+				probe.start = System.nanoTime();
+				if (address.isReachable(probe.timeout)) {
+					succeeded(probe);
+				}
+			} catch (IOException ioe) {
+				logger.debug("couldn't ping host '{}'", probe.host);
+			}
+		}
+	}
+
+	private class ResolveTask implements Callable<InetAddress> {
+
+		private final String host;
+
+		ResolveTask(String host) {
+			this.host = host;
+		}
+
+		public InetAddress call() throws UnknownHostException {
+			return resolve(host);
+		}
+	}
+
+}
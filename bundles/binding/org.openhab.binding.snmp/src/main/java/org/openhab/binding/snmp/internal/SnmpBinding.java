@@ -29,8 +29,11 @@
 package org.openhab.binding.snmp.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
@@ -97,6 +100,13 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 	private static int timeout = 1500;
 	private static int retries = 0;
 
+	private static final int SNMP_DEFAULT_MAX_VARBINDS = 20;
+	/** The maximum number of OIDs that are requested with a single GET PDU */
+	private static int maxVarbinds = SNMP_DEFAULT_MAX_VARBINDS;
+
+	/** The SNMP version used for polling (version1 or version2c) */
+	private static int version = SnmpConstants.version1;
+
 	/**
 	 * the interval to find new refresh candidates (defaults to 1000
 	 * milliseconds)
@@ -220,12 +230,114 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 	}
 
 	/**
-	 * Called when a response from a GET is received
+	 * Called when a response to a GET or SET is received (or the request timed
+	 * out). Responses to polls are dispatched to the items of the originating
+	 * {@link PollRequest} only, all others are matched against every item.
+	 * 
 	 * @see org.snmp4j.event.ResponseListener#onResponse(org.snmp4j.event.ResponseEvent )
 	 */
 	@Override
 	public void onResponse(ResponseEvent event) {
-		dispatchPdu(event.getPeerAddress(), event.getResponse());
+		// snmp4j keeps asynchronous requests until they are cancelled explicitly
+		((Snmp) event.getSource()).cancel(event.getRequest(), this);
+
+		PDU response = event.getResponse();
+		if (event.getUserObject() instanceof PollRequest) {
+			PollRequest request = (PollRequest) event.getUserObject();
+			if (response == null) {
+				logger.debug("SNMP: no response from {} within {}ms", request.target.getAddress(), timeout);
+			} else if (response.getErrorStatus() == PDU.tooBig) {
+				retryInHalves(request, event.getRequest());
+			} else if (response.getErrorStatus() != PDU.noError) {
+				retryWithoutFailedOID(request, event.getRequest(), response);
+			} else {
+				dispatchPollResponse(request, response);
+			}
+		} else {
+			dispatchPdu(event.getPeerAddress(), response);
+		}
+	}
+
+	private void dispatchPollResponse(PollRequest request, PDU response) {
+		logger.debug("Received PDU from '{}' '{}'", request.target.getAddress(), response);
+		for (VariableBinding variableBinding : response.getVariableBindings()) {
+			List<String> itemNames = request.itemNames.get(variableBinding.getOid());
+			if (itemNames == null) {
+				logger.trace("PDU contains unrequested OID '{}'", variableBinding.getOid());
+				continue;
+			}
+			Variable variable = variableBinding.getVariable();
+			if (variable.isException()) {
+				// SNMPv2c reports unknown OIDs per variable (noSuchObject, noSuchInstance)
+				logger.debug("SNMP: agent {} returned {} for OID '{}'",
+						new Object[] { request.target.getAddress(), variable, variableBinding.getOid() });
+				continue;
+			}
+			for (String itemName : itemNames) {
+				updateItem(request.providers.get(itemName), itemName, variable);
+			}
+		}
+	}
+
+	/**
+	 * An SNMPv1 agent rejects the whole PDU if a single OID is unknown. The
+	 * offending OID is reported through the error index, so the request is
+	 * sent again without it to still update all other items.
+	 */
+	private void retryWithoutFailedOID(PollRequest request, PDU failedPdu, PDU response) {
+		int errorIndex = response.getErrorIndex();
+		if (errorIndex < 1 || errorIndex > failedPdu.size()) {
+			logger.warn("SNMP: agent {} answered with error '{}'",
+					request.target.getAddress(), response.getErrorStatusText());
+			return;
+		}
+
+		OID failedOid = failedPdu.get(errorIndex - 1).getOid();
+		logger.warn("SNMP: agent {} answered with error '{}' for OID '{}' (items {})",
+				new Object[] { request.target.getAddress(), response.getErrorStatusText(),
+						failedOid, request.itemNames.get(failedOid) });
+
+		if (failedPdu.size() > 1 && snmp != null) {
+			PDU pdu = new PDU();
+			for (int i = 0; i < failedPdu.size(); i++) {
+				if (i != errorIndex - 1) {
+					pdu.add(new VariableBinding(failedPdu.get(i).getOid()));
+				}
+			}
+			pdu.setType(PDU.GET);
+			sendPDU(request.target, pdu, request);
+		}
+	}
+
+	/**
+	 * An agent answers with <code>tooBig</code> if the response doesn't fit
+	 * into a single message. The error index doesn't point to any OID in this
+	 * case, so the request is split in half and both parts are sent again,
+	 * which repeats until the responses fit or a PDU holds only one OID.
+	 */
+	private void retryInHalves(PollRequest request, PDU failedPdu) {
+		int size = failedPdu.size();
+		if (size < 2) {
+			logger.warn("SNMP: response of agent {} for OID '{}' is too big",
+					request.target.getAddress(), size == 1 ? failedPdu.get(0).getOid() : null);
+			return;
+		}
+		if (snmp == null) {
+			return;
+		}
+
+		logger.debug("SNMP: response of agent {} is too big, splitting the request of {} OIDs",
+				request.target.getAddress(), size);
+		int half = size / 2;
+		PDU first = new PDU();
+		PDU second = new PDU();
+		for (int i = 0; i < size; i++) {
+			(i < half ? first : second).add(new VariableBinding(failedPdu.get(i).getOid()));
+		}
+		first.setType(PDU.GET);
+		second.setType(PDU.GET);
+		sendPDU(request.target, first, request);
+		sendPDU(request.target, second, request);
 	}
 
 	private void dispatchPdu(Address address, PDU pdu) {
@@ -242,33 +354,7 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 					OID oid = provider.getOID(itemName);
 					Variable variable = pdu.getVariable(oid);
 					if (variable != null) {
-						Class<? extends Item> itemType = provider.getItemType(itemName);
-
-						// Do any transformations
-						String value = variable.toString();
-						try {
-							value = provider.doTransformation(itemName, value);
-						} catch (TransformationException e) {
-							logger.error("Transformation error with item {}: {}", itemName, e);
-						}
-
-						// Change to a state
-						State state = null;
-						if (itemType.isAssignableFrom(StringItem.class)) {
-							state = StringType.valueOf(value);
-						} else if (itemType.isAssignableFrom(NumberItem.class)) {
-							state = DecimalType.valueOf(value);
-						} else if (itemType.isAssignableFrom(SwitchItem.class)) {
-							state = OnOffType.valueOf(value);
-						}
-
-						if (state != null) {
-							eventPublisher.postUpdate(itemName, state);
-						} else {
-							logger.debug(
-									"'{}' couldn't be parsed to a State. Valid State-Types are String and Number",
-									variable.toString());
-						}
+						updateItem(provider, itemName, variable);
 					} else {
 						logger.trace("PDU doesn't contain a variable with OID ‘{}‘", oid.toString());
 					}
@@ -277,6 +363,36 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 		}
 	}
 
+	private void updateItem(SnmpBindingProvider provider, String itemName, Variable variable) {
+		Class<? extends Item> itemType = provider.getItemType(itemName);
+
+		// Do any transformations
+		String value = variable.toString();
+		try {
+			value = provider.doTransformation(itemName, value);
+		} catch (TransformationException e) {
+			logger.error("Transformation error with item {}: {}", itemName, e);
+		}
+
+		// Change to a state
+		State state = null;
+		if (itemType.isAssignableFrom(StringItem.class)) {
+			state = StringType.valueOf(value);
+		} else if (itemType.isAssignableFrom(NumberItem.class)) {
+			state = DecimalType.valueOf(value);
+		} else if (itemType.isAssignableFrom(SwitchItem.class)) {
+			state = OnOffType.valueOf(value);
+		}
+
+		if (state != null) {
+			eventPublisher.postUpdate(itemName, state);
+		} else {
+			logger.debug(
+					"'{}' couldn't be parsed to a State. Valid State-Types are String and Number",
+					variable.toString());
+		}
+	}
+
 	/**
 	 * @{inheritDoc
 	 */
@@ -325,15 +441,30 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 			logger.error("SNMP: snmp not initialised - aborting request");
 		}
 		else {
-			sendPDU(target, pdu);
+			sendPDU(target, pdu, null);
 		}
 	}
-	
+
 	/**
+	 * Polling only sends requests, responses are dispatched asynchronously
+	 * by snmp4j, so <code>execute()</code> can run on the shared pool.
+	 */
+	@Override
+	protected boolean isSharedPolling() {
+		return true;
+	}
+
+	/**
+	 * Collects all items which are due for a refresh and polls them with one
+	 * request per agent (address, community and version). Requests with more
+	 * than <code>maxVarbinds</code> OIDs are split into several GET PDUs.
+	 * 
 	 * @{inheritDoc
 	 */
 	@Override
 	public void execute() {
+		Map<String, PollRequest> requests = new LinkedHashMap<String, PollRequest>();
+
 		for (SnmpBindingProvider provider : providers) {
 			for (String itemName : provider.getInBindingItemNames()) {
 				int refreshInterval = provider.getRefreshInterval(itemName);
@@ -354,32 +485,44 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 				if (needsUpdate) {
 					logger.debug("Item '{}' is about to be refreshed", itemName);
 
-					// Set up the target
-					CommunityTarget target = new CommunityTarget();
-						target.setCommunity(provider.getCommunity(itemName));
-						target.setAddress(provider.getAddress(itemName));
-						target.setRetries(retries);
-						target.setTimeout(timeout);
-						target.setVersion(SnmpConstants.version1);
-
-					// Create the PDU
-					PDU pdu = new PDU();
-						pdu.add(new VariableBinding(provider.getOID(itemName)));
-						pdu.setType(PDU.GET);
-
-					logger.debug("SNMP: Send PDU {} {}", provider.getAddress(itemName), pdu);
-
-					if (snmp == null) {
-						logger.error("SNMP: snmp not initialised - aborting request");
-					} else {
-						sendPDU(target, pdu);
+					Address address = provider.getAddress(itemName);
+					OctetString itemCommunity = provider.getCommunity(itemName);
+					String key = address + "/" + itemCommunity + "/" + version;
+
+					PollRequest request = requests.get(key);
+					if (request == null) {
+						// Set up the target
+						CommunityTarget target = new CommunityTarget();
+							target.setCommunity(itemCommunity);
+							target.setAddress(address);
+							target.setRetries(retries);
+							target.setTimeout(timeout);
+							target.setVersion(version);
+
+						request = new PollRequest(target);
+						requests.put(key, request);
 					}
+					request.add(provider, itemName, provider.getOID(itemName));
 
 					lastUpdateMap.put(itemName, System.currentTimeMillis());
 				}
 			}
 		}
 
+		if (requests.isEmpty()) {
+			return;
+		}
+		if (snmp == null) {
+			logger.error("SNMP: snmp not initialised - aborting request");
+			return;
+		}
+
+		for (PollRequest request : requests.values()) {
+			for (PDU pdu : request.createPDUs(maxVarbinds)) {
+				logger.debug("SNMP: Send PDU {} {}", request.target.getAddress(), pdu);
+				sendPDU(request.target, pdu, request);
+			}
+		}
 	}
 
 	/**
@@ -439,6 +582,25 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 						SnmpBinding.retries);
 			}
 
+			String maxVarbindsString = (String) config.get("maxvarbinds");
+			if (StringUtils.isNotBlank(maxVarbindsString) && maxVarbindsString.matches("\\d+")
+					&& Integer.parseInt(maxVarbindsString) > 0) {
+				SnmpBinding.maxVarbinds = Integer.parseInt(maxVarbindsString);
+			} else {
+				SnmpBinding.maxVarbinds = SNMP_DEFAULT_MAX_VARBINDS;
+			}
+
+			String versionString = (String) config.get("version");
+			if ("v2c".equalsIgnoreCase(versionString) || "2c".equalsIgnoreCase(versionString)) {
+				SnmpBinding.version = SnmpConstants.version2c;
+			} else {
+				if (StringUtils.isNotBlank(versionString) && !"v1".equalsIgnoreCase(versionString)
+						&& !"1".equals(versionString)) {
+					logger.info("SNMP version '{}' is not supported for polling -> using v1", versionString);
+				}
+				SnmpBinding.version = SnmpConstants.version1;
+			}
+
 		}
 
 		for (SnmpBindingProvider provider : providers) {
@@ -453,12 +615,59 @@ public class SnmpBinding extends AbstractActiveBinding<SnmpBindingProvider>
 		}
 	}
 
-	private void sendPDU(CommunityTarget target, PDU pdu) {
+	private void sendPDU(CommunityTarget target, PDU pdu, PollRequest request) {
 		try {
-			snmp.send(pdu, target, null, this);
+			snmp.send(pdu, target, request, this);
 		} catch (IOException e) {
 			logger.error("Error sending PDU", e);
 		}
 	}
-	
+
+	/**
+	 * All OIDs polled from one agent within one refresh cycle together with
+	 * the items they have to be dispatched to. It is passed to snmp4j as user
+	 * handle, so responses don't have to be matched against all items.
+	 */
+	private static class PollRequest {
+
+		final CommunityTarget target;
+
+		final Map<OID, List<String>> itemNames = new LinkedHashMap<OID, List<String>>();
+
+		final Map<String, SnmpBindingProvider> providers = new HashMap<String, SnmpBindingProvider>();
+
+		PollRequest(CommunityTarget target) {
+			this.target = target;
+		}
+
+		void add(SnmpBindingProvider provider, String itemName, OID oid) {
+			List<String> names = itemNames.get(oid);
+			if (names == null) {
+				names = new ArrayList<String>();
+				itemNames.put(oid, names);
+			}
+			names.add(itemName);
+			providers.put(itemName, provider);
+		}
+
+		/**
+		 * Creates GET PDUs for all distinct OIDs, each with at most
+		 * <code>maxVarbinds</code> variable bindings.
+		 */
+		List<PDU> createPDUs(int maxVarbinds) {
+			List<PDU> pdus = new ArrayList<PDU>();
+			PDU pdu = null;
+			for (OID oid : itemNames.keySet()) {
+				if (pdu == null || pdu.size() >= maxVarbinds) {
+					pdu = new PDU();
+					pdu.setType(PDU.GET);
+					pdus.add(pdu);
+				}
+				pdu.add(new VariableBinding(oid));
+			}
+			return pdus;
+		}
+	}
+
+
 }
@@ -65,6 +65,15 @@ public class AutoUpdateBinding extends AbstractBinding<AutoUpdateBindingProvider
 		this.itemRegistry = null;
 	}
 	
+	/**
+	 * Autoupdate defaults to <code>true</code> for items without any autoupdate
+	 * configuration, so we need to receive the commands for all items.
+	 */
+	@Override
+	public boolean acceptsItem(String itemName) {
+		return true;
+	}
+	
 
 	/**
 	 * <p>Iterates through all registered {@link AutoUpdateBindingProvider}s and
@@ -37,6 +37,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.GroupFunction;
+import org.openhab.core.items.GroupItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.items.DimmerItem;
 import org.openhab.core.library.items.SwitchItem;
@@ -225,6 +226,73 @@ public class ArithmeticGroupFunctionTest {
 		Assert.assertEquals(new DecimalType("234.95"), state);
 	}
 	
+	@Test
+	public void testIncrementalAggregation() {
+		GroupFunction[] functions = new GroupFunction[] {
+				new ArithmeticGroupFunction.Avg(),
+				new ArithmeticGroupFunction.Sum(),
+				new ArithmeticGroupFunction.Min(),
+				new ArithmeticGroupFunction.Max(),
+				new ArithmeticGroupFunction.And(new DecimalType("1"), UnDefType.UNDEF),
+				new ArithmeticGroupFunction.NOr(new DecimalType("1"), UnDefType.UNDEF)
+		};
+		String[][] updates = new String[][] {
+				{ "1.25", "3", "1" },
+				{ "2.5", "3", "1" },
+				{ "2.5", "-7", "1" },
+				{ "1", "1", "1" },
+				{ "1", null, "0.333" }
+		};
+		
+		for(GroupFunction function : functions) {
+			List<TestItem> members = new ArrayList<TestItem>();
+			GroupItem group = new GroupItem("group", null, function);
+			for(int i = 0; i < updates[0].length; i++) {
+				TestItem member = new TestItem("TestItem" + i, UnDefType.NULL);
+				members.add(member);
+				group.addMember(member);
+			}
+			for(String[] states : updates) {
+				for(int i = 0; i < states.length; i++) {
+					members.get(i).setState(states[i]!=null ? new DecimalType(states[i]) : UnDefType.UNDEF);
+					Assert.assertEquals(function.getClass().getSimpleName(),
+							function.calculate(group.getMembers()).toString(), group.getState().toString());
+				}
+			}
+			
+			group.removeMember(members.get(0));
+			members.get(1).setState(new DecimalType("5"));
+			Assert.assertEquals(function.getClass().getSimpleName(),
+					function.calculate(group.getMembers()).toString(), group.getState().toString());
+		}
+	}
+	
+	
+	@Test
+	public void testIncrementalMinMaxWithEqualValuesOfDifferentScale() {
+		GroupFunction[] functions = new GroupFunction[] {
+				new ArithmeticGroupFunction.Min(),
+				new ArithmeticGroupFunction.Max()
+		};
+		
+		for(GroupFunction function : functions) {
+			TestItem first = new TestItem("TestItem0", UnDefType.NULL);
+			TestItem second = new TestItem("TestItem1", UnDefType.NULL);
+			GroupItem group = new GroupItem("group", null, function);
+			group.addMember(first);
+			group.addMember(second);
+			first.setState(new DecimalType("1.0"));
+			second.setState(new DecimalType("1.00"));
+			Assert.assertEquals(function.getClass().getSimpleName(), "1.0", group.getState().toString());
+			
+			first.setState(new DecimalType(function instanceof ArithmeticGroupFunction.Min ? "2" : "0"));
+			Assert.assertEquals(function.getClass().getSimpleName(), "1.00", group.getState().toString());
+			
+			second.setState(new DecimalType("1"));
+			Assert.assertEquals(function.getClass().getSimpleName(), "1", group.getState().toString());
+		}
+	}
+	
 	class TestItem extends GenericItem {
 
 		public TestItem(String name, State state) {
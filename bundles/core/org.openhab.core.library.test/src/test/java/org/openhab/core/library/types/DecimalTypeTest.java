@@ -51,4 +51,15 @@ public class DecimalTypeTest {
 		assertEquals(false, dt1.equals(pt));
 	}
 	
+	@Test
+	public void testHashCodeIgnoresScale() {
+		DecimalType dt1 = new DecimalType("20");
+		DecimalType dt2 = new DecimalType("20.00");
+		PercentType pt = new PercentType("20.0");
+		
+		assertEquals(true, dt1.equals(dt2));
+		assertEquals(dt1.hashCode(), dt2.hashCode());
+		assertEquals(dt1.hashCode(), pt.hashCode());
+	}
+	
 }
@@ -30,9 +30,11 @@ package org.openhab.core.library.types;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.List;
+import java.util.List;
+import java.util.TreeMap;
 
 import org.openhab.core.items.GroupFunction;
+import org.openhab.core.items.IncrementalGroupFunction;
 import org.openhab.core.items.Item;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
@@ -58,7 +60,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class And implements GroupFunction {
+	static class And implements IncrementalGroupFunction {
 		
 		protected final State activeState;
 		protected final State passiveState;
@@ -120,6 +122,28 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return count;
 			
 		}
+		
+		/**
+		 * Determines the group state from the number of members in the active state.
+		 * 
+		 * @param activeCount the number of members in the active state
+		 * @param memberCount the number of all members
+		 * @return the group state
+		 */
+		protected State calculate(int activeCount, int memberCount) {
+			return memberCount>0 && activeCount==memberCount ? activeState : passiveState;
+		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregator createAggregator() {
+			return new ActiveStateAggregator(activeState) {
+				public State getState() {
+					return calculate(activeCount, getMemberCount());
+				}
+			};
+		}
 	}
 
 	/**
@@ -133,7 +157,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Or implements GroupFunction {
+	static class Or implements IncrementalGroupFunction {
 
 		protected final State activeState;
 		protected final State passiveState;
@@ -187,6 +211,28 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 			return count;
 		}
+		
+		/**
+		 * Determines the group state from the number of members in the active state.
+		 * 
+		 * @param activeCount the number of members in the active state
+		 * @param memberCount the number of all members
+		 * @return the group state
+		 */
+		protected State calculate(int activeCount, int memberCount) {
+			return activeCount>0 ? activeState : passiveState;
+		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregator createAggregator() {
+			return new ActiveStateAggregator(activeState) {
+				public State getState() {
+					return calculate(activeCount, getMemberCount());
+				}
+			};
+		}
 	}
 	
 	/**
@@ -211,6 +257,12 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return notResult;
 		}
 		
+		@Override
+		protected State calculate(int activeCount, int memberCount) {
+			State result = super.calculate(activeCount, memberCount);
+			return result.equals(activeState) ? passiveState : activeState;
+		}
+		
 	}
 
 	/**
@@ -235,6 +287,12 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return notResult;
 		}
 		
+		@Override
+		protected State calculate(int activeCount, int memberCount) {
+			State result = super.calculate(activeCount, memberCount);
+			return result.equals(activeState) ? passiveState : activeState;
+		}
+		
 	}
 	
 	/**
@@ -244,7 +302,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Avg implements GroupFunction {
+	static class Avg implements IncrementalGroupFunction {
 		
 		public Avg() {}
 
@@ -270,6 +328,21 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 		}
 		
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregator createAggregator() {
+			return new DecimalAggregator() {
+				public State getState() {
+					if(count>0) {
+						return new DecimalType(getSum().divide(new BigDecimal(count), RoundingMode.HALF_UP));
+					} else {
+						return UnDefType.UNDEF;
+					}
+				}
+			};
+		}
+		
 		/**
 		 * @{inheritDoc
 		 */
@@ -290,7 +363,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 1.1.0
 	 *
 	 */
-	static class Sum implements GroupFunction {
+	static class Sum implements IncrementalGroupFunction {
 		
 		public Sum() {}
 
@@ -310,6 +383,17 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			return new DecimalType(sum);
 		}
 		
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregator createAggregator() {
+			return new DecimalAggregator() {
+				public State getState() {
+					return new DecimalType(getSum());
+				}
+			};
+		}
+		
 		/**
 		 * @{inheritDoc
 		 */
@@ -330,7 +414,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Min implements GroupFunction {
+	static class Min implements IncrementalGroupFunction {
 		
 		public Min() {}
 
@@ -354,6 +438,17 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 			return UnDefType.UNDEF;
 		}
+		
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregator createAggregator() {
+			return new DecimalAggregator() {
+				public State getState() {
+					return values.isEmpty() ? UnDefType.UNDEF : new DecimalType(stateOf(values.firstKey()));
+				}
+			};
+		}
 
 		/**
 		 * @{inheritDoc
@@ -375,7 +470,7 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Max implements GroupFunction {
+	static class Max implements IncrementalGroupFunction {
 		
 		public Max() {}
 
@@ -399,6 +494,17 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 			}
 			return UnDefType.UNDEF;
 		}
+		
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregator createAggregator() {
+			return new DecimalAggregator() {
+				public State getState() {
+					return values.isEmpty() ? UnDefType.UNDEF : new DecimalType(stateOf(values.lastKey()));
+				}
+			};
+		}
 
 		/**
 		 * @{inheritDoc
@@ -414,4 +520,149 @@ public interface ArithmeticGroupFunction extends GroupFunction {
 	}
 	
 	
+	/**
+	 * Aggregator which counts the members that are in a certain active state.
+	 * 
+	 * @author agent
+	 * @since 1.4.0
+	 */
+	static abstract class ActiveStateAggregator extends IncrementalGroupFunction.AbstractAggregator<Boolean> {
+		
+		private final State activeState;
+		
+		/** the number of members in the active state */
+		protected int activeCount = 0;
+		
+		public ActiveStateAggregator(State activeState) {
+			this.activeState = activeState;
+		}
+		
+		@Override
+		protected Boolean valueOf(Item item) {
+			return activeState.equals(item.getState());
+		}
+		
+		@Override
+		protected void add(Boolean value) {
+			if(value) activeCount++;
+		}
+		
+		@Override
+		protected void remove(Boolean value) {
+			if(value) activeCount--;
+		}
+		
+		@Override
+		protected void clear() {
+			activeCount = 0;
+		}
+	}
+	
+	/**
+	 * Aggregator which keeps the running sum and count as well as the ordered
+	 * values of all member states of decimal type. Updating it for a single 
+	 * member takes O(log n) time.
+	 * 
+	 * @author agent
+	 * @since 1.4.0
+	 */
+	static abstract class DecimalAggregator extends IncrementalGroupFunction.AbstractAggregator<BigDecimal> {
+		
+		/** the number of members with a decimal state */
+		protected int count = 0;
+		
+		/** the running sum of all decimal states */
+		protected BigDecimal sum = BigDecimal.ZERO;
+		
+		/** 
+		 * all decimal states in ascending order, keyed without trailing zeros as
+		 * e.g. 1.0 and 1.00 are equal in order, together with the number of 
+		 * occurrences of each of their scales
+		 */
+		protected final TreeMap<BigDecimal, TreeMap<Integer, Integer>> values = new TreeMap<BigDecimal, TreeMap<Integer, Integer>>();
+		
+		/** the scales of all decimal states together with the number of their occurrences */
+		private final TreeMap<Integer, Integer> scales = new TreeMap<Integer, Integer>();
+		
+		@Override
+		protected BigDecimal valueOf(Item item) {
+			DecimalType itemState = (DecimalType) item.getStateAs(DecimalType.class);
+			return itemState!=null ? itemState.toBigDecimal() : null;
+		}
+		
+		@Override
+		protected void add(BigDecimal value) {
+			count++;
+			sum = sum.add(value);
+			BigDecimal key = value.stripTrailingZeros();
+			TreeMap<Integer, Integer> occurrences = values.get(key);
+			if(occurrences==null) {
+				occurrences = new TreeMap<Integer, Integer>();
+				values.put(key, occurrences);
+			}
+			increment(occurrences, value.scale());
+			increment(scales, value.scale());
+		}
+		
+		@Override
+		protected void remove(BigDecimal value) {
+			count--;
+			sum = sum.subtract(value);
+			BigDecimal key = value.stripTrailingZeros();
+			TreeMap<Integer, Integer> occurrences = values.get(key);
+			if(occurrences!=null) {
+				decrement(occurrences, value.scale());
+				if(occurrences.isEmpty()) {
+					values.remove(key);
+				}
+			}
+			decrement(scales, value.scale());
+		}
+		
+		@Override
+		protected void clear() {
+			count = 0;
+			sum = BigDecimal.ZERO;
+			values.clear();
+			scales.clear();
+		}
+		
+		/**
+		 * Returns the running sum with the same scale a sum calculated from
+		 * scratch would have, i.e. the scale of the removed values does not
+		 * influence the result.
+		 * 
+		 * @return the sum of all decimal states
+		 */
+		protected BigDecimal getSum() {
+			int scale = scales.isEmpty() ? 0 : Math.max(0, scales.lastKey());
+			return sum.setScale(scale);
+		}
+		
+		/**
+		 * Returns one of the decimal states of a key of {@link #values}, 
+		 * the one with the smallest scale.
+		 * 
+		 * @param key the key of the values
+		 * @return the decimal state
+		 */
+		protected BigDecimal stateOf(BigDecimal key) {
+			return key.setScale(values.get(key).firstKey());
+		}
+		
+		private static <K> void increment(TreeMap<K, Integer> map, K key) {
+			Integer occurrences = map.get(key);
+			map.put(key, occurrences==null ? 1 : occurrences + 1);
+		}
+		
+		private static <K> void decrement(TreeMap<K, Integer> map, K key) {
+			Integer occurrences = map.get(key);
+			if(occurrences!=null && occurrences > 1) {
+				map.put(key, occurrences - 1);
+			} else {
+				map.remove(key);
+			}
+		}
+	}
+	
 }
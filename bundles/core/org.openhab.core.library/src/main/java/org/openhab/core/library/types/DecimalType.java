@@ -93,7 +93,8 @@ public class DecimalType extends Number implements PrimitiveType, State, Command
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((value == null) ? 0 : value.hashCode());
+		// equals() ignores the scale, so the hash code must not depend on it
+		result = prime * result + ((value == null) ? 0 : Double.valueOf(value.doubleValue()).hashCode());
 		return result;
 	}
 
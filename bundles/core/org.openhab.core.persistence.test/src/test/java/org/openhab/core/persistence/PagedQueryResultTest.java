@@ -0,0 +1,142 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.types.State;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class PagedQueryResultTest {
+
+	@Test
+	public void testReadsAllPages() {
+		CountingResult result = new CountingResult(new FilterCriteria(), 10, 25);
+		
+		assertEquals(25, count(result));
+		assertEquals("0:10 10:10 20:10 ", result.fetches.toString());
+	}
+
+	@Test
+	public void testReadsOnlyRequestedPage() {
+		FilterCriteria filter = new FilterCriteria().setPageNumber(2).setPageSize(7);
+		CountingResult result = new CountingResult(filter, 5, 100);
+		
+		List<Integer> values = new ArrayList<Integer>();
+		for(HistoricItem item : result) {
+			values.add(((DecimalType) item.getState()).intValue());
+		}
+		assertEquals(7, values.size());
+		assertEquals(14, values.get(0).intValue());
+		assertEquals(20, values.get(6).intValue());
+		assertEquals("14:5 19:2 ", result.fetches.toString());
+	}
+
+	@Test
+	public void testClosedResultIsNotRead() {
+		CountingResult result = new CountingResult(new FilterCriteria(), 10, 25);
+		result.close();
+		
+		assertFalse(result.iterator().hasNext());
+		assertEquals(1, result.released);
+		assertEquals("", result.fetches.toString());
+	}
+
+	private static int count(Iterable<HistoricItem> result) {
+		int count = 0;
+		for(@SuppressWarnings("unused") HistoricItem item : result) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * A result of <code>size</code> items which records every fetch as "offset:count".
+	 */
+	private static class CountingResult extends PagedQueryResult {
+		
+		private final int size;
+		
+		private final StringBuilder fetches = new StringBuilder();
+		
+		private int released = 0;
+		
+		public CountingResult(FilterCriteria filter, int fetchSize, int size) {
+			super(filter, fetchSize);
+			this.size = size;
+		}
+
+		@Override
+		protected List<HistoricItem> fetch(long offset, int count) {
+			fetches.append(offset).append(":").append(count).append(" ");
+			List<HistoricItem> items = new ArrayList<HistoricItem>();
+			for(long index = offset; index < Math.min(offset + count, size); index++) {
+				items.add(new TestItem((int) index));
+			}
+			return items;
+		}
+		
+		@Override
+		protected void release() {
+			released++;
+		}
+	}
+	
+	private static class TestItem implements HistoricItem {
+		
+		private final int value;
+		
+		public TestItem(int value) {
+			this.value = value;
+		}
+
+		public Date getTimestamp() {
+			return new Date(value * 1000L);
+		}
+
+		public State getState() {
+			return new DecimalType(value);
+		}
+
+		public String getName() {
+			return "Test";
+		}
+	}
+
+}
@@ -31,6 +31,8 @@ package org.openhab.core.persistence.extensions;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.joda.time.DateMidnight;
@@ -38,9 +40,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceQueue;
 import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.test.TestAggregatingPersistenceService;
 import org.openhab.core.persistence.test.TestPersistenceService;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
@@ -53,6 +59,7 @@ import org.openhab.core.types.UnDefType;
 public class PersistenceExtensionsTest {
 
 	private PersistenceService testPersistenceService = new TestPersistenceService();
+	private TestAggregatingPersistenceService testAggregatingPersistenceService = new TestAggregatingPersistenceService();
 	private PersistenceExtensions ext;
 	private GenericItem item;
 	
@@ -60,6 +67,7 @@ public class PersistenceExtensionsTest {
 	public void setUp() {
 		ext = new PersistenceExtensions();
 		ext.addPersistenceService(testPersistenceService);
+		ext.addPersistenceService(testAggregatingPersistenceService);
 		item = new GenericItem("Test") {
 			@Override
 			public List<Class<? extends State>> getAcceptedDataTypes() {
@@ -76,6 +84,42 @@ public class PersistenceExtensionsTest {
 	@After
 	public void tearDown() {
 		ext.removePersistenceService(testPersistenceService);	
+		ext.removePersistenceService(testAggregatingPersistenceService);	
+		ext.unsetPersistenceQueue(null);
+	}
+	
+	@Test
+	public void testPersistIsQueued() {
+		final List<String> queued = new ArrayList<String>();
+		ext.setPersistenceQueue(new PersistenceQueue() {
+			public boolean enqueue(String serviceName, Item item, String alias) {
+				queued.add(serviceName + "/" + item.getName());
+				return true;
+			}
+			
+			public Iterable<HistoricItem> queryRecent(String serviceName, FilterCriteria filter) {
+				return null;
+			}
+		});
+		
+		PersistenceExtensions.persist(item, "test");
+		PersistenceExtensions.persist(item, "unknown");
+		assertEquals("[test/Test]", queued.toString());
+	}
+	
+	@Test
+	public void testRecentStatesAreQueriedFromQueue() {
+		ext.setPersistenceQueue(new PersistenceQueue() {
+			public boolean enqueue(String serviceName, Item item, String alias) {
+				return true;
+			}
+			
+			public Iterable<HistoricItem> queryRecent(String serviceName, FilterCriteria filter) {
+				return Collections.<HistoricItem>emptyList();
+			}
+		});
+		
+		assertEquals(UnDefType.NULL, PersistenceExtensions.historicState(item, new DateMidnight(2012, 1, 1), "test"));
 	}
 	
 	@Test
@@ -123,4 +167,29 @@ public class PersistenceExtensionsTest {
 		DecimalType average = PersistenceExtensions.averageSince(item, new DateMidnight(2003, 1, 1), "test");
 		assertEquals("2100", average.toString());
 	}
+
+	@Test
+	public void testAggregatesArePushedDown() {
+		item.setState(new DecimalType(5000));
+		HistoricItem historicItem = PersistenceExtensions.minimumSince(item, new DateMidnight(1940, 1, 1), "testaggregating");
+		assertEquals("5000", historicItem.getState().toString());
+		
+		historicItem = PersistenceExtensions.minimumSince(item, new DateMidnight(2005, 1, 1), "testaggregating");
+		assertEquals("2005", historicItem.getState().toString());
+		assertEquals(new DateMidnight(2005, 1, 1).toDate(), historicItem.getTimestamp());
+
+		item.setState(new DecimalType(1));
+		historicItem = PersistenceExtensions.maximumSince(item, new DateMidnight(2012, 1, 1), "testaggregating");
+		assertEquals("1", historicItem.getState().toString());
+		
+		historicItem = PersistenceExtensions.maximumSince(item, new DateMidnight(2005, 1, 1), "testaggregating");
+		assertEquals("2012", historicItem.getState().toString());
+		assertEquals(new DateMidnight(2012, 1, 1).toDate(), historicItem.getTimestamp());
+
+		item.setState(new DecimalType(3025));
+		DecimalType average = PersistenceExtensions.averageSince(item, new DateMidnight(2003, 1, 1), "testaggregating");
+		assertEquals("2100", average.toString());
+		
+		assertEquals(0, testAggregatingPersistenceService.queryCount);
+	}
 }
@@ -0,0 +1,364 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.RawStatePersistenceService;
+import org.openhab.core.persistence.TimestampedPersistenceService;
+import org.openhab.core.persistence.internal.PersistenceServiceQueue.OverflowPolicy;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class PersistenceServiceQueueTest {
+
+	private PersistenceServiceQueue queue;
+	
+	@After
+	public void tearDown() {
+		if(queue!=null) {
+			queue.stop();
+		}
+	}
+	
+	@Test
+	public void testStoresOnWorkerThread() throws InterruptedException {
+		RecordingService service = new RecordingService(1);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.BLOCK);
+		queue.start();
+		
+		queue.enqueue(createItem("A"), "alias");
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		assertEquals("A/alias", service.names.get(0));
+		assertNotSame(Thread.currentThread(), service.thread);
+		assertEquals(1, queue.getStoredCount());
+	}
+
+	@Test
+	public void testCoalesceSkipsQueuedItems() throws InterruptedException {
+		RecordingService service = new RecordingService(3);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.COALESCE);
+		queue.start();
+		
+		// the first write blocks the worker, so that all following ones stay in the queue
+		service.blocked = new CountDownLatch(1);
+		queue.enqueue(createItem("A"), null);
+		waitForEmptyQueue();
+		queue.enqueue(createItem("A"), null);
+		queue.enqueue(createItem("A"), null);
+		queue.enqueue(createItem("B"), null);
+		queue.enqueue(createItem("A"), "other");
+		
+		assertEquals(3, queue.getQueueDepth());
+		assertEquals(1, queue.getCoalescedCount());
+		service.blocked.countDown();
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		assertEquals(0, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testDropOldestKeepsNewestWrites() throws InterruptedException {
+		RecordingService service = new RecordingService(3);
+		queue = new PersistenceServiceQueue(service, 2, OverflowPolicy.DROPOLDEST);
+		queue.start();
+		
+		service.blocked = new CountDownLatch(1);
+		queue.enqueue(createItem("A"), null);
+		waitForEmptyQueue();
+		queue.enqueue(createItem("B"), null);
+		queue.enqueue(createItem("C"), null);
+		queue.enqueue(createItem("D"), null);
+		
+		assertEquals(1, queue.getDroppedCount());
+		service.blocked.countDown();
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		assertEquals("A", service.names.get(0));
+		assertEquals("C", service.names.get(1));
+		assertEquals("D", service.names.get(2));
+	}
+
+	@Test
+	public void testStoresStateOfQueuedUpdate() throws InterruptedException {
+		RecordingService service = new RecordingService(3);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.BLOCK);
+		queue.start();
+		
+		service.blocked = new CountDownLatch(1);
+		TestItem item = new TestItem("A");
+		item.setState(new StringType("1"));
+		queue.enqueue(item, null);
+		waitForEmptyQueue();
+		item.setState(new StringType("2"));
+		queue.enqueue(item, null);
+		item.setState(new StringType("3"));
+		queue.enqueue(item, null);
+		item.setState(new StringType("4"));
+		service.blocked.countDown();
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		assertEquals("[1, 2, 3]", service.states.toString());
+		assertEquals(TestItem.class, service.itemClasses.get(1));
+	}
+
+	@Test
+	public void testStopStoresQueuedWrites() throws InterruptedException {
+		RecordingService service = new RecordingService(3);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.BLOCK);
+		queue.start();
+		
+		service.blocked = new CountDownLatch(1);
+		queue.enqueue(createItem("A"), null);
+		waitForEmptyQueue();
+		queue.enqueue(createItem("B"), null);
+		queue.enqueue(createItem("C"), null);
+		service.blocked.countDown();
+		queue.stop();
+		
+		assertEquals(0, service.stored.getCount());
+		assertEquals("[A, B, C]", service.names.toString());
+	}
+
+	@Test
+	public void testRestartedQueueStoresRemainingWrites() throws InterruptedException {
+		RecordingService service = new RecordingService(2);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.BLOCK);
+		queue.enqueue(createItem("A"), null);
+		queue.start();
+		queue.stop();
+		queue.enqueue(createItem("B"), null);
+		queue.start();
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		assertEquals("[A, B]", service.names.toString());
+	}
+
+	@Test
+	public void testCachesStateOnceStored() throws InterruptedException {
+		RecordingService service = new RawRecordingService(1);
+		RecentHistoryCache cache = RecentHistoryCache.getInstance();
+		cache.reset(service);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.BLOCK);
+		queue.start();
+		
+		service.blocked = new CountDownLatch(1);
+		TestItem item = new TestItem("A");
+		item.setState(new StringType("1"));
+		queue.enqueue(item, null);
+		waitForEmptyQueue();
+		assertNull(cache.query(service.getName(), createLatestFilter("A")));
+		service.blocked.countDown();
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		queue.stop();
+		Iterable<HistoricItem> result = cache.query(service.getName(), createLatestFilter("A"));
+		assertNotNull(result);
+		assertEquals(new StringType("1"), result.iterator().next().getState());
+		cache.clear(service.getName());
+	}
+
+	@Test
+	public void testDoesNotCacheConsolidatingService() throws InterruptedException {
+		RecordingService service = new RecordingService(1);
+		RecentHistoryCache cache = RecentHistoryCache.getInstance();
+		cache.reset(service);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.BLOCK);
+		queue.start();
+		
+		queue.enqueue(createItem("A"), null);
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		queue.stop();
+		assertEquals(0, cache.getItemCount(service.getName()));
+	}
+
+	@Test
+	public void testPassesTimeOfUpdate() throws InterruptedException {
+		TimestampedRecordingService service = new TimestampedRecordingService(2);
+		queue = new PersistenceServiceQueue(service, 10, OverflowPolicy.BLOCK);
+		queue.start();
+		
+		service.blocked = new CountDownLatch(1);
+		queue.enqueue(createItem("A"), null);
+		waitForEmptyQueue();
+		long queued = System.currentTimeMillis();
+		queue.enqueue(createItem("B"), null);
+		Thread.sleep(200);
+		service.blocked.countDown();
+		
+		assertTrue(service.stored.await(5, TimeUnit.SECONDS));
+		long time = service.timestamps.get(1).getTime();
+		assertTrue(time >= queued && time < queued + 200);
+	}
+
+	private FilterCriteria createLatestFilter(String itemName) {
+		return new FilterCriteria().setItemName(itemName).setOrdering(Ordering.DESCENDING).setPageSize(1);
+	}
+
+	private void waitForEmptyQueue() throws InterruptedException {
+		for(int i = 0; i < 500 && queue.getQueueDepth() > 0; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	private GenericItem createItem(String name) {
+		return new GenericItem(name) {
+			public List<Class<? extends State>> getAcceptedDataTypes() {
+				return null;
+			}
+			
+			public List<Class<? extends Command>> getAcceptedCommandTypes() {
+				return null;
+			}
+		};
+	}
+	
+	/**
+	 * An item which can be copied like the items of the core library.
+	 */
+	public static class TestItem extends GenericItem {
+		
+		public TestItem(String name) {
+			super(name);
+		}
+		
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			return null;
+		}
+		
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return null;
+		}
+	}
+	
+	/**
+	 * A persistence service which records the items it stores and can be
+	 * blocked to simulate a slow service.
+	 */
+	private static class RecordingService implements PersistenceService {
+
+		final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+		final List<State> states = Collections.synchronizedList(new ArrayList<State>());
+		final List<Class<?>> itemClasses = Collections.synchronizedList(new ArrayList<Class<?>>());
+		final CountDownLatch stored;
+		volatile CountDownLatch blocked;
+		volatile Thread thread;
+		
+		RecordingService(int count) {
+			stored = new CountDownLatch(count);
+		}
+
+		public String getName() {
+			return "recording";
+		}
+
+		public void store(Item item, String alias) {
+			thread = Thread.currentThread();
+			CountDownLatch latch = blocked;
+			if(latch!=null) {
+				try {
+					latch.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			names.add(alias==null ? item.getName() : item.getName() + "/" + alias);
+			states.add(item.getState());
+			itemClasses.add(item.getClass());
+			stored.countDown();
+		}
+
+		public void store(Item item) {
+			store(item, null);
+		}
+	}
+
+	/**
+	 * A recording service which stores the states unchanged, so that they are cached.
+	 */
+	private static class RawRecordingService extends RecordingService implements RawStatePersistenceService {
+
+		RawRecordingService(int count) {
+			super(count);
+		}
+
+		@Override
+		public String getName() {
+			return "raw";
+		}
+
+		public Iterable<HistoricItem> query(FilterCriteria filter) {
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * A recording service which is given the times of the updates.
+	 */
+	private static class TimestampedRecordingService extends RecordingService implements TimestampedPersistenceService {
+
+		final List<Date> timestamps = Collections.synchronizedList(new ArrayList<Date>());
+
+		TimestampedRecordingService(int count) {
+			super(count);
+		}
+
+		public void store(Item item, String alias, Date timestamp) {
+			timestamps.add(timestamp);
+			store(item, alias);
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class RecentHistoryCacheTest {
+
+	private RecentHistoryCache cache;
+
+	private Date start;
+
+	@Before
+	public void init() throws InterruptedException {
+		cache = new RecentHistoryCache();
+		cache.setSize(5);
+		cache.reset("test");
+		Thread.sleep(5);
+		start = new Date();
+		Thread.sleep(5);
+	}
+
+	@Test
+	public void testQueryWithinWindowIsAnswered() {
+		for (int value = 1; value <= 3; value++) {
+			cache.add("test", "Item", new DecimalType(value));
+		}
+
+		FilterCriteria filter = new FilterCriteria().setItemName("Item").setBeginDate(start).setOrdering(Ordering.ASCENDING);
+		assertEquals("[1, 2, 3]", getStates(cache.query("test", filter)));
+		assertEquals(1, cache.getHitCount("test"));
+
+		filter.setOrdering(Ordering.DESCENDING).setPageSize(2).setPageNumber(1);
+		assertEquals("[1]", getStates(cache.query("test", filter)));
+	}
+
+	@Test
+	public void testQueryBeforeWindowIsPassedOn() throws InterruptedException {
+		cache.add("test", "Item", new DecimalType(1));
+
+		FilterCriteria filter = new FilterCriteria().setItemName("Item").setBeginDate(new Date(start.getTime() - 1000));
+		assertNull(cache.query("test", filter));
+		assertNull(cache.query("other", filter));
+		assertEquals(2, cache.getMissCount("test") + cache.getMissCount("other"));
+
+		// an item never stored since the reset has no states within the window
+		assertEquals("[]", getStates(cache.query("test", new FilterCriteria().setItemName("Other").setBeginDate(start))));
+	}
+
+	@Test
+	public void testDroppedStatesMoveTheWindow() throws InterruptedException {
+		for (int value = 1; value <= 7; value++) {
+			cache.add("test", "Item", new DecimalType(value));
+			Thread.sleep(2);
+		}
+
+		// the first two states have been dropped
+		FilterCriteria filter = new FilterCriteria().setItemName("Item").setBeginDate(start).setOrdering(Ordering.ASCENDING);
+		assertNull(cache.query("test", filter));
+
+		// the latest state before a time is known without a begin date
+		filter = new FilterCriteria().setItemName("Item").setEndDate(new Date()).setOrdering(Ordering.DESCENDING).setPageSize(1);
+		List<HistoricItem> result = getList(cache.query("test", filter));
+		assertNotNull(result);
+		assertEquals(new DecimalType(7), result.get(0).getState());
+
+		// but not the whole history before it
+		filter.setPageSize(Integer.MAX_VALUE);
+		assertNull(cache.query("test", filter));
+	}
+
+	@Test
+	public void testDisabledCacheAnswersNothing() {
+		cache.setSize(0);
+		cache.add("test", "Item", new DecimalType(1));
+		assertNull(cache.query("test", new FilterCriteria().setItemName("Item").setBeginDate(start)));
+	}
+
+	private List<HistoricItem> getList(Iterable<HistoricItem> result) {
+		if (result == null) {
+			return null;
+		}
+		List<HistoricItem> list = new ArrayList<HistoricItem>();
+		for (HistoricItem item : result) {
+			list.add(item);
+		}
+		return list;
+	}
+
+	private String getStates(Iterable<HistoricItem> result) {
+		List<String> states = new ArrayList<String>();
+		for (HistoricItem item : getList(result)) {
+			states.add(item.getState().toString());
+		}
+		return states.toString();
+	}
+
+}
@@ -0,0 +1,119 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.test;
+
+import java.util.Date;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.types.State;
+
+/**
+ * A persistence service used for unit tests, which has the same data as the
+ * {@link TestPersistenceService}, but computes the aggregates itself.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class TestAggregatingPersistenceService extends TestPersistenceService implements AggregatingPersistenceService {
+
+	/** the number of queries for states, which are not needed when aggregating */
+	public int queryCount = 0;
+	
+	@Override
+	public String getName() {
+		return "testaggregating";
+	}
+	
+	@Override
+	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		queryCount++;
+		return super.query(filter);
+	}
+
+	public boolean supportsAggregate(AggregateFunction function) {
+		return true;
+	}
+
+	public HistoricItem aggregate(FilterCriteria filter, AggregateFunction function) {
+		HistoricItem first = null;
+		HistoricItem last = null;
+		HistoricItem minimum = null;
+		HistoricItem maximum = null;
+		double sum = 0;
+		int count = 0;
+		filter.setOrdering(Ordering.ASCENDING);
+		for(HistoricItem historicItem : super.query(filter)) {
+			DecimalType value = (DecimalType) historicItem.getState();
+			if(first==null) {
+				first = historicItem;
+			}
+			last = historicItem;
+			if(minimum==null || value.compareTo((DecimalType) minimum.getState()) < 0) {
+				minimum = historicItem;
+			}
+			if(maximum==null || value.compareTo((DecimalType) maximum.getState()) > 0) {
+				maximum = historicItem;
+			}
+			sum += value.doubleValue();
+			count++;
+		}
+		
+		switch(function) {
+			case FIRST : return first;
+			case LAST : return last;
+			case MINIMUM : return minimum;
+			case MAXIMUM : return maximum;
+			case COUNT : return createHistoricItem(filter, new DecimalType(count));
+			case SUM : return count==0 ? null : createHistoricItem(filter, new DecimalType(sum));
+			case AVERAGE : return count==0 ? null : createHistoricItem(filter, new DecimalType(sum / count));
+		}
+		return null;
+	}
+	
+	private HistoricItem createHistoricItem(final FilterCriteria filter, final State state) {
+		return new HistoricItem() {
+			public Date getTimestamp() {
+				return filter.getEndDate()!=null ? filter.getEndDate() : new Date();
+			}
+			
+			public State getState() {
+				return state;
+			}
+			
+			public String getName() {
+				return filter.getItemName();
+			}
+		};
+	}
+
+}
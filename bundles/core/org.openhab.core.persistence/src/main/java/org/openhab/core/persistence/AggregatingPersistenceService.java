@@ -0,0 +1,74 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+/**
+ * A queryable persistence service which can compute aggregates of the persisted
+ * states itself, e.g. within the database, so that the states do not need to be
+ * read one by one.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public interface AggregatingPersistenceService extends QueryablePersistenceService {
+	
+	/**
+	 * The functions which can be used to aggregate the numeric states of an item
+	 */
+	enum AggregateFunction {
+		AVERAGE, MINIMUM, MAXIMUM, SUM, COUNT, FIRST, LAST
+	}
+
+	/**
+	 * Checks whether the service can compute an aggregate function itself.
+	 * 
+	 * @param function the aggregate function
+	 * @return true, if {@link #aggregate(FilterCriteria, AggregateFunction)} can be called with it
+	 */
+	boolean supportsAggregate(AggregateFunction function);
+	
+	/**
+	 * Computes an aggregate of the numeric states of an item. Only the item name
+	 * and the begin and end date of the filter are regarded.
+	 * <p>
+	 * For {@link AggregateFunction#MINIMUM}, {@link AggregateFunction#MAXIMUM}, 
+	 * {@link AggregateFunction#FIRST} and {@link AggregateFunction#LAST} the result
+	 * is the persisted state with its timestamp, if there are several minimal or 
+	 * maximal states, the earliest one. For all other functions the result is
+	 * a {@link org.openhab.core.library.types.DecimalType} with the end of the time
+	 * range as its timestamp.
+	 * 
+	 * @param filter the item name and time range to aggregate
+	 * @param function the aggregate function to compute
+	 * @return the aggregate or <code>null</code>, if there are no states in the
+	 * time range (except for {@link AggregateFunction#COUNT}, which is 0 then)
+	 */
+	HistoricItem aggregate(FilterCriteria filter, AggregateFunction function);
+
+}
@@ -0,0 +1,153 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The result of a query, which reads the historic items from the storage in
+ * pages while it is iterated instead of holding all of them in memory. The
+ * page size and page number of the {@link FilterCriteria} are regarded by
+ * only reading the requested part of the result.
+ * <p>
+ * Every call of {@link #iterator()} reads the result again from its start.
+ * A result should be closed if it is not iterated to its end, so that the
+ * service can release what it keeps for reading the following pages.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public abstract class PagedQueryResult implements Iterable<HistoricItem>, Closeable {
+
+	/** the default number of historic items which are read at once */
+	public static final int DEFAULT_FETCH_SIZE = 500;
+	
+	private final long offset;
+	
+	private final long limit;
+	
+	private final int fetchSize;
+	
+	private volatile boolean closed = false;
+
+	/**
+	 * @param filter the filter of the query, which defines the part of the result to read
+	 * @param fetchSize the number of historic items to read at once
+	 */
+	protected PagedQueryResult(FilterCriteria filter, int fetchSize) {
+		this.offset = (long) filter.getPageNumber() * filter.getPageSize();
+		this.limit = filter.getPageSize();
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Reads a page of the result.
+	 * 
+	 * @param offset the index of the first historic item to read within the whole result
+	 * @param count the maximum number of historic items to read
+	 * @return the historic items, less than <code>count</code> if the end of the result has been reached
+	 */
+	protected abstract List<HistoricItem> fetch(long offset, int count);
+
+	/**
+	 * Is called when the result is closed, subclasses can release their resources here.
+	 */
+	protected void release() {
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Iterator<HistoricItem> iterator() {
+		return new PageIterator();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close() {
+		if(!closed) {
+			closed = true;
+			release();
+		}
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Iterates over the result, reading the next page when the current one is used up.
+	 */
+	private class PageIterator implements Iterator<HistoricItem> {
+		
+		private List<HistoricItem> page = Collections.emptyList();
+		
+		private int index = 0;
+		
+		// the number of historic items read so far
+		private long read = 0;
+		
+		private boolean lastPage = false;
+
+		public boolean hasNext() {
+			if(closed) {
+				return false;
+			}
+			if(index < page.size()) {
+				return true;
+			}
+			if(lastPage || read >= limit) {
+				return false;
+			}
+			int count = (int) Math.min(fetchSize, limit - read);
+			page = fetch(offset + read, count);
+			index = 0;
+			read += page.size();
+			lastPage = page.size() < count;
+			return !page.isEmpty();
+		}
+
+		public HistoricItem next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return page.get(index++);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+}
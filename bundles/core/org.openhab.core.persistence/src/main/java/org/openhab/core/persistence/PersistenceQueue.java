@@ -0,0 +1,65 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import org.openhab.core.items.Item;
+
+/**
+ * Gives access to the write queues of the persistence services. Every service
+ * stores the items in the order in which they have been queued for it, and
+ * the states it has stored recently are kept in memory by its queue.
+ * <p>
+ * Items which are stored on demand, e.g. by rules, should be queued as well,
+ * so that they are not stored before the items which have been queued before.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public interface PersistenceQueue {
+
+	/**
+	 * Queues the current state of an item to be stored by a persistence service.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 * @param item the item to store
+	 * @param alias the alias to store the item under, <code>null</code> to use the name of the item
+	 * @return <code>false</code> if there is no queue for a service with this name
+	 */
+	boolean enqueue(String serviceName, Item item, String alias);
+
+	/**
+	 * Answers a query from the states which have recently been stored by a
+	 * persistence service, if they contain the whole result.
+	 * 
+	 * @param serviceName the name of the persistence service to query
+	 * @param filter the filter of the query
+	 * @return the result or <code>null</code> if the query has to be passed on to the service
+	 */
+	Iterable<HistoricItem> queryRecent(String serviceName, FilterCriteria filter);
+}
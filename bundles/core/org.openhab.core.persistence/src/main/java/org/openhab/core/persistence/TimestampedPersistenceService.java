@@ -0,0 +1,59 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence;
+
+import java.util.Date;
+
+import org.openhab.core.items.Item;
+
+/**
+ * A persistence service which can store the state of an item with the time
+ * the item got this state, instead of the time the service is called.
+ * <p>
+ * The persistence manager passes the items to the services through a queue,
+ * so a service may be called a while after the update. Services which add 
+ * the time to the stored states should implement this interface to keep the
+ * times of the updates.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public interface TimestampedPersistenceService extends PersistenceService {
+
+	/**
+	 * Stores the current value of the given item as the value it had at the 
+	 * given time.
+	 * 
+	 * @param item the item which state should be persisted.
+	 * @param alias the alias under which the item should be persisted, 
+	 * <code>null</code> to use the name of the item.
+	 * @param timestamp the time of the state
+	 */
+	void store(Item item, String alias, Date timestamp);
+}
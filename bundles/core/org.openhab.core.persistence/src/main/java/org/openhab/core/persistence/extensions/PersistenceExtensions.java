@@ -39,8 +39,11 @@ import java.util.Map;
 import org.joda.time.base.AbstractInstant;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.AggregatingPersistenceService.AggregateFunction;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceQueue;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
@@ -54,6 +57,14 @@ import org.slf4j.LoggerFactory;
 /** 
  * This class provides static methods that can be used in automation rules
  * for using persistence services
+ * <p>
+ * Minimum, maximum and average are computed by the persistence service itself, if it
+ * is an {@link AggregatingPersistenceService} supporting the required functions.
+ * Otherwise, all states within the time range are queried and iterated over.
+ * <p>
+ * Items are persisted through the {@link PersistenceQueue}, in order with all other
+ * items stored by the same service. Queries about the recent history are answered
+ * by the queue if it knows all states of the result.
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
@@ -66,6 +77,7 @@ public class PersistenceExtensions implements ManagedService {
 	
 	private static Map<String, PersistenceService> services = new HashMap<String, PersistenceService>();
 	private static String defaultService = null; 
+	private static volatile PersistenceQueue persistenceQueue = null;
 	
 	public PersistenceExtensions() {
 		// default constructor, necessary for osgi-ds
@@ -79,10 +91,19 @@ public class PersistenceExtensions implements ManagedService {
 		services.remove(service.getName());
 	}
 	
+	public void setPersistenceQueue(PersistenceQueue persistenceQueue) {
+		PersistenceExtensions.persistenceQueue = persistenceQueue;
+	}
+	
+	public void unsetPersistenceQueue(PersistenceQueue persistenceQueue) {
+		PersistenceExtensions.persistenceQueue = null;
+	}
+	
 	
 	/**
 	 * Persists the state of a given <code>item</code> through a {@link PersistenceService} identified
-	 * by the <code>serviceName</code>. 
+	 * by the <code>serviceName</code>. The state is queued and stored after the states which have
+	 * been queued for the service before.
 	 * 
 	 * @param item the item to store
 	 * @param serviceName the name of the {@link PersistenceService} to use
@@ -90,7 +111,10 @@ public class PersistenceExtensions implements ManagedService {
 	static public void persist(Item item, String serviceName) {
 		PersistenceService service = services.get(serviceName);
 		if (service != null) {
-			service.store(item);
+			PersistenceQueue queue = persistenceQueue;
+			if (queue == null || !queue.enqueue(serviceName, item, null)) {
+				service.store(item);
+			}
 		} else {
 			logger.warn("There is no persistence service registered with the name '{}'", serviceName);
 		}
@@ -140,7 +164,7 @@ public class PersistenceExtensions implements ManagedService {
 			filter.setItemName(item.getName());
 			filter.setPageSize(1);
 			filter.setOrdering(Ordering.DESCENDING);
-			Iterable<HistoricItem> result = qService.query(filter);
+			Iterable<HistoricItem> result = query(qService, filter);
 			if(result.iterator().hasNext()) {
 				return result.iterator().next().getState();
 			} else {
@@ -180,7 +204,7 @@ public class PersistenceExtensions implements ManagedService {
 	static public Boolean changedSince(Item item, AbstractInstant timestamp, String serviceName) {
 		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
 		Iterator<HistoricItem> it = result.iterator();
-		State state = historicState(item, timestamp);
+		State state = historicState(item, timestamp, serviceName);
 		while(it.hasNext()) {
 			HistoricItem hItem = it.next();
 			if(state!=null && !hItem.getState().equals(state)) {
@@ -253,10 +277,19 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return a historic item with the maximum state value since the given point in time
 	 */
 	static public HistoricItem maximumSince(final Item item, AbstractInstant timestamp, String serviceName) {
+		DecimalType maximum = (DecimalType) item.getStateAs(DecimalType.class);
+		if(supportsAggregate(serviceName, AggregateFunction.MAXIMUM)) {
+			HistoricItem maximumHistoricItem = aggregateSince(item, timestamp, serviceName, AggregateFunction.MAXIMUM);
+			if(maximum==null || isNumberGreater(maximumHistoricItem, maximum)) {
+				return maximumHistoricItem;
+			} else {
+				return createHistoricItem(item, maximum);
+			}
+		}
+		
 		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
 		Iterator<HistoricItem> it = result.iterator();
 		HistoricItem maximumHistoricItem = null;
-		DecimalType maximum = (DecimalType) item.getStateAs(DecimalType.class);
 		while(it.hasNext()) {
 			HistoricItem historicItem = it.next();
 			State state = historicItem.getState();
@@ -270,21 +303,7 @@ public class PersistenceExtensions implements ManagedService {
 		}
 		if(maximumHistoricItem==null && maximum!=null) {
 			// the maximum state is the current one, so construct a historic item on the fly
-			final DecimalType state = maximum;
-			return new HistoricItem() {
-				
-				public Date getTimestamp() {
-					return Calendar.getInstance().getTime();
-				}
-				
-				public State getState() {
-					return state;
-				}
-				
-				public String getName() {
-					return item.getName();
-				}
-			};
+			return createHistoricItem(item, maximum);
 		} else {
 			return maximumHistoricItem;
 		}
@@ -318,10 +337,19 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the historic item with the minimum state value since the given point in time
 	 */
 	static public HistoricItem minimumSince(final Item item, AbstractInstant timestamp, String serviceName) {
+		DecimalType minimum = (DecimalType) item.getStateAs(DecimalType.class);
+		if(supportsAggregate(serviceName, AggregateFunction.MINIMUM)) {
+			HistoricItem minimumHistoricItem = aggregateSince(item, timestamp, serviceName, AggregateFunction.MINIMUM);
+			if(minimum==null || isNumberLess(minimumHistoricItem, minimum)) {
+				return minimumHistoricItem;
+			} else {
+				return createHistoricItem(item, minimum);
+			}
+		}
+		
 		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
 		Iterator<HistoricItem> it = result.iterator();
 		HistoricItem minimumHistoricItem = null;
-		DecimalType minimum = (DecimalType) item.getStateAs(DecimalType.class);
 		while(it.hasNext()) {
 			HistoricItem historicItem = it.next();
 			State state = historicItem.getState();
@@ -335,21 +363,7 @@ public class PersistenceExtensions implements ManagedService {
 		}
 		if(minimumHistoricItem==null && minimum!=null) {
 			// the minimal state is the current one, so construct a historic item on the fly
-			final DecimalType state = minimum;
-			return new HistoricItem() {
-				
-				public Date getTimestamp() {
-					return Calendar.getInstance().getTime();
-				}
-				
-				public State getState() {
-					return state;
-				}
-				
-				public String getName() {
-					return item.getName();
-				}
-			};
+			return createHistoricItem(item, minimum);
 		} else {
 			return minimumHistoricItem;
 		}
@@ -381,9 +395,6 @@ public class PersistenceExtensions implements ManagedService {
 	 * @return the average state value since the given point in time
 	 */
 	static public DecimalType averageSince(Item item, AbstractInstant timestamp, String serviceName) {
-		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
-		Iterator<HistoricItem> it = result.iterator();
-		
 		DecimalType value = (DecimalType) item.getStateAs(DecimalType.class);
 		if (value == null) {
 			value = DecimalType.ZERO;
@@ -391,6 +402,19 @@ public class PersistenceExtensions implements ManagedService {
 		
 		double average = value.doubleValue();
 		int quantity = 1;
+		if(supportsAggregate(serviceName, AggregateFunction.SUM) && supportsAggregate(serviceName, AggregateFunction.COUNT)) {
+			// the current state is part of the average as well, so we need sum and count instead of the average
+			HistoricItem sum = aggregateSince(item, timestamp, serviceName, AggregateFunction.SUM);
+			HistoricItem count = aggregateSince(item, timestamp, serviceName, AggregateFunction.COUNT);
+			if(sum!=null && sum.getState() instanceof DecimalType && count!=null && count.getState() instanceof DecimalType) {
+				average += ((DecimalType) sum.getState()).doubleValue();
+				quantity += ((DecimalType) count.getState()).intValue();
+			}
+			return new DecimalType(average / quantity);
+		}
+		
+		Iterable<HistoricItem> result = getAllStatesSince(item, timestamp, serviceName);
+		Iterator<HistoricItem> it = result.iterator();
 		while(it.hasNext()) {
 			State state = it.next().getState();
 			if (state instanceof DecimalType) {
@@ -404,6 +428,58 @@ public class PersistenceExtensions implements ManagedService {
 		return new DecimalType(average);
 	} 
 	
+	/**
+	 * Checks if the {@link PersistenceService} identified by the <code>serviceName</code> can compute
+	 * an aggregate itself, so that the states do not need to be queried. 
+	 * 
+	 * @param serviceName the name of the {@link PersistenceService} to use
+	 * @param function the aggregate function
+	 * @return true, if the service supports the function
+	 */
+	static private boolean supportsAggregate(String serviceName, AggregateFunction function) {
+		PersistenceService service = services.get(serviceName);
+		return service instanceof AggregatingPersistenceService && 
+				((AggregatingPersistenceService) service).supportsAggregate(function);
+	}
+
+	static private HistoricItem aggregateSince(Item item, AbstractInstant timestamp, String serviceName, AggregateFunction function) {
+		AggregatingPersistenceService service = (AggregatingPersistenceService) services.get(serviceName);
+		FilterCriteria filter = new FilterCriteria();
+		filter.setBeginDate(timestamp.toDate());
+		filter.setItemName(item.getName());
+		return service.aggregate(filter, function);
+	}
+	
+	static private boolean isNumberGreater(HistoricItem historicItem, DecimalType value) {
+		return historicItem!=null && historicItem.getState() instanceof DecimalType && 
+				((DecimalType) historicItem.getState()).compareTo(value) > 0;
+	}
+
+	static private boolean isNumberLess(HistoricItem historicItem, DecimalType value) {
+		return historicItem!=null && historicItem.getState() instanceof DecimalType && 
+				((DecimalType) historicItem.getState()).compareTo(value) < 0;
+	}
+
+	/**
+	 * Constructs a historic item on the fly for the current state of an item
+	 */
+	static private HistoricItem createHistoricItem(final Item item, final DecimalType state) {
+		return new HistoricItem() {
+			
+			public Date getTimestamp() {
+				return Calendar.getInstance().getTime();
+			}
+			
+			public State getState() {
+				return state;
+			}
+			
+			public String getName() {
+				return item.getName();
+			}
+		};
+	}
+	
 	static private Iterable<HistoricItem> getAllStatesSince(Item item, AbstractInstant timestamp, String serviceName) {
 		PersistenceService service = services.get(serviceName);
 		if (service instanceof QueryablePersistenceService) {
@@ -412,13 +488,25 @@ public class PersistenceExtensions implements ManagedService {
 			filter.setBeginDate(timestamp.toDate());
 			filter.setItemName(item.getName());
 			filter.setOrdering(Ordering.ASCENDING);
-			return qService.query(filter);
+			return query(qService, filter);
 		} else {
 			logger.warn("There is no queryable persistence service registered with the name '{}'", serviceName);
 			return Collections.emptySet();
 		}
 	}
 	
+	/**
+	 * Queries a service, unless the query can be answered by the queue of the service.
+	 */
+	static private Iterable<HistoricItem> query(QueryablePersistenceService service, FilterCriteria filter) {
+		Iterable<HistoricItem> result = null;
+		PersistenceQueue queue = persistenceQueue;
+		if (queue != null) {
+			result = queue.queryRecent(service.getName(), filter);
+		}
+		return result!=null ? result : service.query(filter);
+	}
+	
 	/**
 	 * Returns <code>true</code>, if a default service is configured and returns <code>false</code> and logs a warning otherwise.
 	 * @return true, if a default service is available
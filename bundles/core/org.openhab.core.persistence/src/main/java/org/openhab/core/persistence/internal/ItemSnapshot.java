@@ -0,0 +1,150 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.GroupItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates detached copies of items, which keep the state an item has at the
+ * moment it is queued to be persisted. A copy is of the same class as the 
+ * original item, so that persistence services can still tell the item types
+ * apart, but it has no listeners and is not known to the item registry.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+final class ItemSnapshot {
+
+	private static final Logger logger = LoggerFactory.getLogger(ItemSnapshot.class);
+	
+	/** the constructors taking the item name, by item class; <code>null</code> values are kept as {@link #NO_CONSTRUCTOR} */
+	private static final ConcurrentMap<Class<?>, Object> constructors = new ConcurrentHashMap<Class<?>, Object>();
+	
+	private static final Object NO_CONSTRUCTOR = new Object();
+
+	private ItemSnapshot() {
+	}
+	
+	/**
+	 * Creates a copy of the given item with its current state. If the item 
+	 * can't be copied, because its class has no public constructor taking the
+	 * item name, the item itself is returned.
+	 * 
+	 * @param item the item to copy
+	 * @return the copy or the item itself
+	 */
+	static Item of(Item item) {
+		if(item instanceof GroupItem) {
+			return new GroupItemSnapshot((GroupItem) item);
+		}
+		if(item instanceof GenericItem) {
+			Constructor<?> constructor = getConstructor(item.getClass());
+			if(constructor!=null) {
+				try {
+					GenericItem copy = (GenericItem) constructor.newInstance(item.getName());
+					copy.getGroupNames().addAll(item.getGroupNames());
+					copy.setState(item.getState());
+					return copy;
+				} catch (Exception e) {
+					logger.debug("Couldn't copy item '{}', its state is read when it is stored: {}", item.getName(), e.getMessage());
+				}
+			}
+		}
+		return item;
+	}
+
+	private static Constructor<?> getConstructor(Class<?> itemClass) {
+		Object constructor = constructors.get(itemClass);
+		if(constructor==null) {
+			try {
+				constructor = itemClass.getConstructor(String.class);
+			} catch (NoSuchMethodException e) {
+				logger.debug("Items of type '{}' can't be copied, their state is read when they are stored", itemClass.getName());
+				constructor = NO_CONSTRUCTOR;
+			}
+			constructors.put(itemClass, constructor);
+		}
+		return constructor==NO_CONSTRUCTOR ? null : (Constructor<?>) constructor;
+	}
+	
+	/**
+	 * A group without members, which keeps the state of a group and its 
+	 * conversions to the data types the group accepts.
+	 */
+	private static class GroupItemSnapshot extends GroupItem {
+		
+		private final State snapshotState;
+		
+		private final Map<Class<? extends State>, State> convertedStates = new HashMap<Class<? extends State>, State>();
+		
+		GroupItemSnapshot(GroupItem group) {
+			super(group.getName(), group.getBaseItem());
+			getGroupNames().addAll(group.getGroupNames());
+			snapshotState = group.getState();
+			
+			List<Class<? extends State>> types = new ArrayList<Class<? extends State>>();
+			if(group.getAcceptedDataTypes()!=null) {
+				types.addAll(group.getAcceptedDataTypes());
+			}
+			// services frequently store numeric values of any item
+			types.add(DecimalType.class);
+			for(Class<? extends State> type : types) {
+				convertedStates.put(type, group.getStateAs(type));
+			}
+		}
+		
+		@Override
+		public State getState() {
+			return snapshotState;
+		}
+		
+		@Override
+		public State getStateAs(Class<? extends State> typeClass) {
+			if(typeClass!=null && typeClass.isInstance(snapshotState)) {
+				return snapshotState;
+			}
+			return convertedStates.get(typeClass);
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+
+/**
+ * Command provider which shows the metrics of the persistence write queues and
+ * of the recent history cache on the OSGi console of Equinox.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class PersistenceCommandProvider implements CommandProvider {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getHelp() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("---openHAB persistence commands---\n");
+		buffer.append("\tpersistence stats - shows queue depth, throughput and lag of all persistence services\n");
+		buffer.append("\t                    and the hits and misses of the recent history cache\n");
+		return buffer.toString();
+	}
+	
+	/**
+	 * Persistence command implementation.
+	 * 
+	 * @param interpreter the equinox command interpreter
+	 * @return null, return parameter is not used
+	 */
+	public Object _persistence(CommandInterpreter interpreter) {
+		String arg = interpreter.nextArgument();
+		if(!"stats".equals(arg)) {
+			interpreter.println(getHelp());
+			return null;
+		}
+		
+		PersistenceManager persistenceManager = PersistenceManager.getInstance();
+		if(persistenceManager==null) {
+			interpreter.println("Sorry, the persistence manager is not available!");
+			return null;
+		}
+		
+		interpreter.println(String.format("%-20s %-10s %8s %10s %8s %9s %10s %10s %10s %10s", 
+				"Service", "Policy", "Queued", "Stored", "Dropped", "Coalesced", "Items/s", "Store (ms)", "Avg lag", "Max lag"));
+		for(PersistenceServiceQueue queue : persistenceManager.getQueues()) {
+			interpreter.println(String.format("%-20s %-10s %8d %10d %8d %9d %10.2f %10.2f %10.2f %10.2f", 
+					queue.getService().getName(), queue.getPolicy().toString().toLowerCase(), queue.getQueueDepth(), 
+					queue.getStoredCount(), queue.getDroppedCount(), queue.getCoalescedCount(), queue.getThroughput(), 
+					queue.getAverageStoreTime(), queue.getAverageLag(), queue.getMaxLag()));
+		}
+		
+		RecentHistoryCache cache = RecentHistoryCache.getInstance();
+		interpreter.println();
+		interpreter.println("Recent history cache (" + cache.getSize() + " states per item)");
+		interpreter.println(String.format("%-20s %8s %10s %10s %8s", "Service", "Items", "Hits", "Misses", "Hit %"));
+		for(String serviceName : cache.getServiceNames()) {
+			long hits = cache.getHitCount(serviceName);
+			long misses = cache.getMissCount(serviceName);
+			interpreter.println(String.format("%-20s %8d %10d %10d %8.1f", serviceName, cache.getItemCount(serviceName), 
+					hits, misses, hits + misses > 0 ? 100.0 * hits / (hits + misses) : 0.0));
+		}
+		return null;
+	}
+	
+}
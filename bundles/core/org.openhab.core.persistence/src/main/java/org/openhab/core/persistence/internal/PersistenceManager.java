@@ -32,17 +32,32 @@ import static org.quartz.JobBuilder.newJob;
 import static org.quartz.TriggerBuilder.newTrigger;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.ecore.EObject;
 import org.openhab.core.events.AbstractEventSubscriber;
 import org.openhab.core.items.GenericItem;
@@ -52,10 +67,13 @@ import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.items.ItemRegistryChangeListener;
 import org.openhab.core.items.StateChangeListener;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceQueue;
 import org.openhab.core.persistence.PersistenceService;
 import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.persistence.internal.PersistenceServiceQueue.OverflowPolicy;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
 import org.openhab.model.core.EventType;
@@ -69,6 +87,8 @@ import org.openhab.model.persistence.persistence.PersistenceConfiguration;
 import org.openhab.model.persistence.persistence.PersistenceModel;
 import org.openhab.model.persistence.persistence.Strategy;
 import org.openhab.model.persistence.scoping.GlobalStrategies;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.Job;
 import org.quartz.JobDetail;
@@ -84,15 +104,29 @@ import org.slf4j.LoggerFactory;
 /**
  * This class is the central part of the persistence management and delegation. It reads the persistence
  * models, schedules timers and manages the invocation of {@link PersistenceService}s upon events.
+ * <p>
+ * The services are never called directly by the threads which update the items; every service
+ * has its own {@link PersistenceServiceQueue} instead, from which the items are stored.
+ * Once they are stored, the states are also added to the {@link RecentHistoryCache}.
+ * The queues and the cache are offered to others as a {@link PersistenceQueue}.
  * 
  * @author Kai Kreuzer
  * @since 1.0.0
  *
  */
-public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener {
+public class PersistenceManager extends AbstractEventSubscriber implements ModelRepositoryChangeListener, ItemRegistryChangeListener, StateChangeListener, ManagedService, PersistenceQueue {
 	
 	private static final Logger logger = LoggerFactory.getLogger(PersistenceManager.class);
 
+	/** the default maximum number of writes that can be queued for a single persistence service */
+	private static final int DEFAULT_QUEUE_SIZE = 1000;
+	
+	/** the number of items whose states are restored together */
+	private static final int RESTORE_BATCH_SIZE = 100;
+	
+	/** the maximum number of batches which are restored in parallel */
+	private static final int RESTORE_THREADS = 4;
+
 	private static PersistenceManager instance;
 	
 	// the scheduler used for timer events
@@ -102,7 +136,23 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 
 	private ItemRegistry itemRegistry;
 
-	/*default */ Map<String, PersistenceService> persistenceServices = new HashMap<String, PersistenceService>();
+	/*default */ Map<String, PersistenceService> persistenceServices = new ConcurrentHashMap<String, PersistenceService>();
+	
+	/** keeps the write queue for each persistence service */
+	private Map<String, PersistenceServiceQueue> queues = new ConcurrentHashMap<String, PersistenceServiceQueue>();
+	
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	
+	/** runs the batches of item states which are restored in parallel */
+	private ExecutorService restoreExecutor;
+	
+	/** keeps the compiled routes for each item name */
+	private ConcurrentMap<String, ItemRoutes> routes = new ConcurrentHashMap<String, ItemRoutes>();
+	
+	// is incremented whenever the routes become invalid
+	private volatile int routesVersion = 0;
 	
 	/** keeps a list of configurations for each persistence service */
 	protected Map<String, List<PersistenceConfiguration>> persistenceConfigurations = new ConcurrentHashMap<String, List<PersistenceConfiguration>>();
@@ -130,6 +180,18 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 	
 	public void deactivate() {
+		// no more writes must be queued while the queues are drained
+		List<PersistenceServiceQueue> stoppedQueues = new ArrayList<PersistenceServiceQueue>(queues.values());
+		queues.clear();
+		for(PersistenceServiceQueue queue : stoppedQueues) {
+			queue.stop();
+		}
+		synchronized(this) {
+			if(restoreExecutor!=null) {
+				restoreExecutor.shutdown();
+				restoreExecutor = null;
+			}
+		}
 	}
 	
 	
@@ -165,6 +227,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	public void addPersistenceService(PersistenceService persistenceService) {
 		logger.debug("Initializing {} persistence service.", persistenceService.getName());
 		persistenceServices.put(persistenceService.getName(), persistenceService);
+		startQueue(persistenceService);
 		stopEventHandling(persistenceService.getName());
 		startEventHandling(persistenceService.getName());
 	}
@@ -172,6 +235,70 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	public void removePersistenceService(PersistenceService persistenceService) {
 		stopEventHandling(persistenceService.getName());
 		persistenceServices.remove(persistenceService.getName());
+		PersistenceServiceQueue queue = queues.remove(persistenceService.getName());
+		if(queue!=null) {
+			queue.stop();
+		}
+		RecentHistoryCache.getInstance().clear(persistenceService.getName());
+	}
+	
+	/**
+	 * Creates and starts the write queue for a persistence service, replacing
+	 * the one it had before. New writes are collected by the new queue while
+	 * the old one is drained, so that they are stored in order.
+	 * 
+	 * @param persistenceService the service to create the queue for
+	 */
+	private synchronized void startQueue(PersistenceService persistenceService) {
+		PersistenceServiceQueue queue = new PersistenceServiceQueue(persistenceService, queueSize, overflowPolicy);
+		PersistenceServiceQueue oldQueue = queues.put(persistenceService.getName(), queue);
+		if(oldQueue!=null) {
+			oldQueue.stop();
+		}
+		// the states which are stored from now on are added to the cache by the new queue
+		RecentHistoryCache.getInstance().reset(persistenceService);
+		queue.start();
+	}
+	
+	/**
+	 * Queues an item to be stored by a persistence service. 
+	 * 
+	 * @param serviceName the name of the persistence service
+	 * @param item the item to store
+	 * @param alias the alias to store the item under, may be <code>null</code>
+	 */
+	/*default */ void store(String serviceName, Item item, String alias) {
+		enqueue(serviceName, item, alias);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean enqueue(String serviceName, Item item, String alias) {
+		PersistenceServiceQueue queue = queues.get(serviceName);
+		if(queue==null) {
+			return false;
+		}
+		queue.enqueue(item, alias);
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Iterable<HistoricItem> queryRecent(String serviceName, FilterCriteria filter) {
+		PersistenceService service = persistenceServices.get(serviceName);
+		if(service==null || !RecentHistoryCache.isCached(service)) {
+			return null;
+		}
+		return RecentHistoryCache.getInstance().query(serviceName, filter);
+	}
+	
+	/**
+	 * @return the write queues of all persistence services
+	 */
+	/*default */ Collection<PersistenceServiceQueue> getQueues() {
+		return queues.values();
 	}
 	
 	
@@ -200,13 +327,16 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 		if(model!=null) {
 			persistenceConfigurations.put(modelName, model.getConfigs());
 			defaultStrategies.put(modelName, model.getDefaults());
+			invalidateRoutes();
+			Set<Item> items = new LinkedHashSet<Item>();
 			for(PersistenceConfiguration config : model.getConfigs()) {
 				if(hasStrategy(modelName, config, GlobalStrategies.RESTORE)) {
 					for(Item item : getAllItems(config)) {
-						initialize(item);
+						items.add(item);
 					}
 				}
 			}
+			initialize(items);
 			createTimers(modelName);
 		}
 	}
@@ -219,6 +349,7 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	private void stopEventHandling(String modelName) {
 		persistenceConfigurations.remove(modelName);
 		defaultStrategies.remove(modelName);
+		invalidateRoutes();
 		removeTimers(modelName);
 	}
 
@@ -237,20 +368,88 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	 * @param onlyChanges true, if it has the change strategy, false otherwise
 	 */
 	private void handleStateEvent(Item item, boolean onlyChanges) {
-		synchronized (persistenceConfigurations) {
-			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
-				String serviceName = entry.getKey();
-				if(persistenceServices.containsKey(serviceName)) {				
-					for(PersistenceConfiguration config : entry.getValue()) {
-						if(hasStrategy(serviceName, config, onlyChanges ? GlobalStrategies.CHANGE : GlobalStrategies.UPDATE)) {
-							if(appliesToItem(config, item)) {
-								persistenceServices.get(serviceName).store(item, config.getAlias());
-							}
-						}
+		for(PersistenceRoute route : getRoutes(item)) {
+			if(onlyChanges ? route.isOnChange() : route.isOnUpdate()) {
+				store(route.getServiceName(), item, route.getAlias());
+			}
+		}
+	}
+
+	/**
+	 * Returns the routes of an item, i.e. all persistence configurations which
+	 * apply to it. The routes are compiled on first use and kept until the
+	 * persistence models or the items change.
+	 * 
+	 * @param item the item to get the routes for
+	 * @return the routes of the item, never <code>null</code>
+	 */
+	protected PersistenceRoute[] getRoutes(Item item) {
+		int version = routesVersion;
+		ItemRoutes itemRoutes = routes.get(item.getName());
+		if(itemRoutes==null || itemRoutes.routes==null || itemRoutes.version!=version) {
+			ItemRoutes compiled = new ItemRoutes(version, compileRoutes(item));
+			// the compiled routes are only kept, if they haven't been invalidated meanwhile
+			if(itemRoutes==null) {
+				routes.putIfAbsent(item.getName(), compiled);
+			} else {
+				routes.replace(item.getName(), itemRoutes, compiled);
+			}
+			return compiled.routes;
+		}
+		return itemRoutes.routes;
+	}
+	
+	private PersistenceRoute[] compileRoutes(Item item) {
+		List<PersistenceRoute> itemRoutes = new ArrayList<PersistenceRoute>();
+		for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
+			String serviceName = entry.getKey();
+			if(defaultStrategies.get(serviceName)==null) {
+				// the model is just being (un)registered
+				continue;
+			}
+			for(PersistenceConfiguration config : entry.getValue()) {
+				if(appliesToItem(config, item)) {
+					boolean onChange = hasStrategy(serviceName, config, GlobalStrategies.CHANGE);
+					boolean onUpdate = hasStrategy(serviceName, config, GlobalStrategies.UPDATE);
+					boolean onRestore = hasStrategy(serviceName, config, GlobalStrategies.RESTORE);
+					if(onChange || onUpdate || onRestore) {
+						itemRoutes.add(new PersistenceRoute(serviceName, config.getAlias(), onChange, onUpdate, onRestore));
 					}
 				}
 			}
 		}
+		return itemRoutes.toArray(new PersistenceRoute[itemRoutes.size()]);
+	}
+	
+	/**
+	 * Discards all compiled routes, so that they are compiled again on their
+	 * next use. This must be called whenever a persistence model, an item or
+	 * a group membership changes.
+	 */
+	private synchronized void invalidateRoutes() {
+		routesVersion++;
+		routes.clear();
+	}
+	
+	/**
+	 * Discards the compiled routes which depend on an item, i.e. the routes
+	 * of the item itself and, if it is a group, the routes of all its members.
+	 * The routes of all other items stay valid, when this item is added.
+	 * 
+	 * @param item the item whose dependent routes should be discarded
+	 */
+	private void invalidateRoutes(Item item) {
+		Set<String> itemNames = new HashSet<String>();
+		itemNames.add(item.getName());
+		if(item instanceof GroupItem) {
+			for(Item member : ((GroupItem) item).getAllMembers()) {
+				itemNames.add(member.getName());
+			}
+		}
+		for(String itemName : itemNames) {
+			// a marker instead of a removal lets a concurrent compilation know that its result is outdated
+			routes.put(itemName, new ItemRoutes(routesVersion, null));
+		}
 	}
 	
 	/**
@@ -353,12 +552,20 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	}
 
 	public void allItemsChanged(Collection<String> oldItemNames) {
-		for(Item item : itemRegistry.getItems()) {
-			itemAdded(item);
+		invalidateRoutes();
+		List<Item> items = new ArrayList<Item>(itemRegistry.getItems());
+		initialize(items);
+		for(Item item : items) {
+			if (item instanceof GenericItem) {
+				GenericItem genericItem = (GenericItem) item;
+				genericItem.addStateChangeListener(this);
+			}
 		}
 	}
 
 	public void itemAdded(Item item) {
+		// the item might be a new member of a group or a group itself
+		invalidateRoutes(item);
 		initialize(item);
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
@@ -375,41 +582,146 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 	 * @param item the item to restore the state for
 	 */
 	protected void initialize(Item item) {
-		// get the last persisted state from the persistence service if no state is yet set
-		if(item.getState().equals(UnDefType.NULL) && item instanceof GenericItem) {
-			for(Entry<String, List<PersistenceConfiguration>> entry : persistenceConfigurations.entrySet()) {
-				String serviceName = entry.getKey();
-				for(PersistenceConfiguration config : entry.getValue()) {
-					if(hasStrategy(serviceName, config, GlobalStrategies.RESTORE)) {
-						if(appliesToItem(config, item)) {
-							PersistenceService service = persistenceServices.get(serviceName);
-							if(service instanceof QueryablePersistenceService) {
-								QueryablePersistenceService queryService = (QueryablePersistenceService) service;
-								FilterCriteria filter = new FilterCriteria().setItemName(item.getName()).setPageSize(1);
-								Iterable<HistoricItem> result = queryService.query(filter);
-								Iterator<HistoricItem> it = result.iterator();
-								if(it.hasNext()) {
-									HistoricItem historicItem = it.next();
-									GenericItem genericItem = (GenericItem) item;
-									genericItem.removeStateChangeListener(this);
-									genericItem.setState(historicItem.getState());
-									genericItem.addStateChangeListener(this);
-									logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
-											new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
-											item.getName(), historicItem.getState().toString() } );
-									return;
-								}
-							} else if(service!=null) {
-								logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", serviceName);
-							}
-						}
+		initialize(Collections.singletonList(item));
+	}
+
+	/**
+	 * Handles the "restoreOnStartup" strategy for many items at once.
+	 * The services are asked one after another, in the alphabetical order of their
+	 * names, so that the result doesn't depend on the order in which their models
+	 * have been loaded. Each service is queried for all its items that have not been
+	 * restored yet, in batches that run in parallel. Services which implement {@link BulkQueryablePersistenceService}
+	 * answer a whole batch with a single query.
+	 * 
+	 * @param items the items to restore the states for
+	 */
+	protected void initialize(Collection<Item> items) {
+		// get the last persisted state from the persistence services for all items without a state
+		Set<Item> remaining = new LinkedHashSet<Item>();
+		for(Item item : items) {
+			if(item.getState().equals(UnDefType.NULL) && item instanceof GenericItem) {
+				remaining.add(item);
+			}
+		}
+		for(String serviceName : new TreeSet<String>(persistenceConfigurations.keySet())) {
+			if(remaining.isEmpty()) {
+				break;
+			}
+			List<Item> serviceItems = new ArrayList<Item>();
+			for(Item item : remaining) {
+				for(PersistenceRoute route : getRoutes(item)) {
+					if(route.isOnRestore() && route.getServiceName().equals(serviceName)) {
+						serviceItems.add(item);
+						break;
 					}
 				}
-			}	
-		}		
+			}
+			if(!serviceItems.isEmpty()) {
+				PersistenceService service = persistenceServices.get(serviceName);
+				if(service instanceof QueryablePersistenceService) {
+					remaining.removeAll(restore((QueryablePersistenceService) service, serviceItems));
+				} else if(service!=null) {
+					logger.warn("Failed to restore item states as persistence service '{}' can not be queried.", serviceName);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Restores the states of the given items from a persistence service.
+	 * 
+	 * @param service the service to query
+	 * @param items the items to restore
+	 * @return the items whose states have been restored
+	 */
+	private List<Item> restore(final QueryablePersistenceService service, List<Item> items) {
+		if(items.size() <= RESTORE_BATCH_SIZE) {
+			return restoreBatch(service, items);
+		}
+		
+		List<Callable<List<Item>>> batches = new ArrayList<Callable<List<Item>>>();
+		for(int start = 0; start < items.size(); start += RESTORE_BATCH_SIZE) {
+			final List<Item> batch = items.subList(start, Math.min(start + RESTORE_BATCH_SIZE, items.size()));
+			batches.add(new Callable<List<Item>>() {
+				public List<Item> call() {
+					return restoreBatch(service, batch);
+				}
+			});
+		}
+		
+		List<Item> restored = new ArrayList<Item>();
+		try {
+			for(Future<List<Item>> result : getRestoreExecutor().invokeAll(batches)) {
+				try {
+					restored.addAll(result.get());
+				} catch (ExecutionException e) {
+					logger.warn("Failed to restore item states from persistence service '" + service.getName() + "'", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return restored;
+	}
+	
+	/**
+	 * @return the executor for restoring item states, whose threads are only kept while in use
+	 */
+	private synchronized ExecutorService getRestoreExecutor() {
+		if(restoreExecutor==null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(RESTORE_THREADS, RESTORE_THREADS, 60L, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Persistence restore-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			restoreExecutor = executor;
+		}
+		return restoreExecutor;
+	}
+	
+	private List<Item> restoreBatch(QueryablePersistenceService service, List<Item> batch) {
+		Map<String, HistoricItem> latest = new HashMap<String, HistoricItem>();
+		if(service instanceof BulkQueryablePersistenceService) {
+			List<String> itemNames = new ArrayList<String>(batch.size());
+			for(Item item : batch) {
+				itemNames.add(item.getName());
+			}
+			latest = ((BulkQueryablePersistenceService) service).queryLatest(itemNames);
+		} else {
+			for(Item item : batch) {
+				FilterCriteria filter = new FilterCriteria().setItemName(item.getName()).setPageSize(1);
+				Iterator<HistoricItem> it = service.query(filter).iterator();
+				if(it.hasNext()) {
+					latest.put(item.getName(), it.next());
+				}
+			}
+		}
+		
+		List<Item> restored = new ArrayList<Item>();
+		for(Item item : batch) {
+			HistoricItem historicItem = latest.get(item.getName());
+			if(historicItem!=null) {
+				GenericItem genericItem = (GenericItem) item;
+				genericItem.removeStateChangeListener(this);
+				genericItem.setState(historicItem.getState());
+				genericItem.addStateChangeListener(this);
+				logger.debug("Restored item state from '{}' for item '{}' -> '{}'", 
+						new Object[] { DateFormat.getDateTimeInstance().format(historicItem.getTimestamp()), 
+						item.getName(), historicItem.getState().toString() } );
+				restored.add(item);
+			}
+		}
+		return restored;
 	}
 
 	public void itemRemoved(Item item) {
+		invalidateRoutes();
 		if (item instanceof GenericItem) {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
@@ -478,6 +790,76 @@ public class PersistenceManager extends AbstractEventSubscriber implements Model
 			logger.warn("Failed to delete cron jobs of group '{}'", persistModelName);
 		}
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		int newQueueSize = DEFAULT_QUEUE_SIZE;
+		OverflowPolicy newPolicy = OverflowPolicy.BLOCK;
+		int newCacheSize = RecentHistoryCache.DEFAULT_SIZE;
+		if (config != null) {
+			String queueSizeString = (String) config.get("queuesize");
+			if (StringUtils.isNotBlank(queueSizeString)) {
+				try {
+					newQueueSize = Integer.parseInt(queueSizeString.trim());
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("queuesize", "'" + queueSizeString + "' is not a valid number");
+				}
+				if(newQueueSize < 1) {
+					throw new ConfigurationException("queuesize", "the queue size must be at least 1");
+				}
+			}
+			
+			String policyString = (String) config.get("policy");
+			if (StringUtils.isNotBlank(policyString)) {
+				try {
+					newPolicy = OverflowPolicy.valueOf(policyString.trim().toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new ConfigurationException("policy", "'" + policyString + "' is not a valid policy, use 'block', 'dropoldest' or 'coalesce'");
+				}
+			}
+			
+			String cacheSizeString = (String) config.get("cachesize");
+			if (StringUtils.isNotBlank(cacheSizeString)) {
+				try {
+					newCacheSize = Integer.parseInt(cacheSizeString.trim());
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("cachesize", "'" + cacheSizeString + "' is not a valid number");
+				}
+				if(newCacheSize < 0) {
+					throw new ConfigurationException("cachesize", "the cache size must not be negative");
+				}
+			}
+		}
+		RecentHistoryCache.getInstance().setSize(newCacheSize);
+		
+		synchronized(this) {
+			if(newQueueSize!=queueSize || newPolicy!=overflowPolicy) {
+				queueSize = newQueueSize;
+				overflowPolicy = newPolicy;
+				for(PersistenceService persistenceService : persistenceServices.values()) {
+					startQueue(persistenceService);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The compiled routes of an item together with the version of the routes
+	 * they have been compiled for. Routes of <code>null</code> mark routes 
+	 * which have been discarded.
+	 */
+	private static class ItemRoutes {
+		
+		final int version;
+		final PersistenceRoute[] routes;
 		
+		ItemRoutes(int version, PersistenceRoute[] routes) {
+			this.version = version;
+			this.routes = routes;
+		}
+	}
 
 }
@@ -0,0 +1,83 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+/**
+ * A persistence route describes that the states of an item are passed to a
+ * certain persistence service. It is the result of evaluating a persistence
+ * configuration for a single item, so that this does not need to be done
+ * again for every state update.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class PersistenceRoute {
+
+	private final String serviceName;
+	private final String alias;
+	private final boolean onChange;
+	private final boolean onUpdate;
+	private final boolean onRestore;
+
+	/**
+	 * @param serviceName the name of the persistence service
+	 * @param alias the alias to store the item under, may be <code>null</code>
+	 * @param onChange true, if the configuration has the "everyChange" strategy
+	 * @param onUpdate true, if the configuration has the "everyUpdate" strategy
+	 * @param onRestore true, if the configuration has the "restoreOnStartup" strategy
+	 */
+	public PersistenceRoute(String serviceName, String alias, boolean onChange, boolean onUpdate, boolean onRestore) {
+		this.serviceName = serviceName;
+		this.alias = alias;
+		this.onChange = onChange;
+		this.onUpdate = onUpdate;
+		this.onRestore = onRestore;
+	}
+
+	public String getServiceName() {
+		return serviceName;
+	}
+
+	public String getAlias() {
+		return alias;
+	}
+
+	public boolean isOnChange() {
+		return onChange;
+	}
+
+	public boolean isOnUpdate() {
+		return onUpdate;
+	}
+
+	public boolean isOnRestore() {
+		return onRestore;
+	}
+
+}
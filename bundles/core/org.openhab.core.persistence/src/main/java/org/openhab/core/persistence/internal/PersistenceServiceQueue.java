@@ -0,0 +1,386 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.TimestampedPersistenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistence service queue decouples a {@link PersistenceService} from the
+ * threads which update the items. It consists of a bounded FIFO queue and a
+ * single worker thread, which calls the service, so that a slow service does
+ * only delay its own writes and never the item updates or other services.
+ * <p>
+ * A copy of the item is queued (see {@link ItemSnapshot}), so the service
+ * stores the state of the update which queued it, however far the service 
+ * lags behind. A {@link TimestampedPersistenceService} is also given the time
+ * of the update. Only with {@link OverflowPolicy#COALESCE} the item itself is
+ * queued, so that the service stores its latest state at the current time.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class PersistenceServiceQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(PersistenceServiceQueue.class);
+
+	/** the time in milliseconds to wait for free space in a full queue before a write is dropped */
+	private static final long OFFER_TIMEOUT = 5000L;
+	
+	/** the time in milliseconds a stopped queue waits for the service to store the queued writes */
+	private static final long DRAIN_TIMEOUT = 10000L;
+	
+	/** the time in milliseconds the worker waits for a new write before it checks whether it has been stopped */
+	private static final long POLL_TIMEOUT = 500L;
+	
+	/**
+	 * Defines what happens if an item should be stored while the queue is full
+	 */
+	public enum OverflowPolicy {
+		/** waits up to a few seconds for free space, then drops the new write */
+		BLOCK,
+		/** drops the oldest queued write */
+		DROPOLDEST,
+		/** 
+		 * does not queue an item which is already waiting to be written with the
+		 * same alias, as the service stores its latest state anyway; if the queue
+		 * is full nevertheless, it behaves like {@link #BLOCK} 
+		 */
+		COALESCE
+	}
+	
+	private final PersistenceService service;
+	
+	private final BlockingQueue<QueuedWrite> queue;
+
+	private final OverflowPolicy policy;
+	
+	// the keys of the writes which are currently queued, only used for COALESCE
+	private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+	
+	private final AtomicLong stored = new AtomicLong();
+	
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private final AtomicLong totalLag = new AtomicLong();
+
+	private final AtomicLong maxLag = new AtomicLong();
+
+	private final AtomicLong totalStoreTime = new AtomicLong();
+	
+	private long startTime;
+	
+	private volatile Worker worker;
+
+	/**
+	 * @param service the persistence service to write to
+	 * @param queueSize the maximum number of writes that can be queued for this service
+	 * @param policy what to do if the queue is full
+	 */
+	public PersistenceServiceQueue(PersistenceService service, int queueSize, OverflowPolicy policy) {
+		this.service = service;
+		this.queue = new ArrayBlockingQueue<QueuedWrite>(queueSize);
+		this.policy = policy;
+	}
+	
+	public PersistenceService getService() {
+		return service;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Queues an item to be stored by the persistence service.
+	 * 
+	 * @param item the item to store
+	 * @param alias the alias to store the item under, may be <code>null</code>
+	 */
+	public void enqueue(Item item, String alias) {
+		String key = null;
+		if(policy==OverflowPolicy.COALESCE) {
+			key = alias==null ? item.getName() : item.getName() + "/" + alias;
+			if(pending.putIfAbsent(key, Boolean.TRUE)!=null) {
+				coalesced.incrementAndGet();
+				return;
+			}
+		}
+		// only when coalescing, the latest state of the item is meant to be stored
+		QueuedWrite write;
+		if(policy==OverflowPolicy.COALESCE) {
+			write = new QueuedWrite(item, alias, key, System.nanoTime(), 0L);
+		} else {
+			write = new QueuedWrite(ItemSnapshot.of(item), alias, key, System.nanoTime(), System.currentTimeMillis());
+		}
+		if(queue.offer(write)) {
+			return;
+		}
+		if(policy==OverflowPolicy.DROPOLDEST) {
+			while(!queue.offer(write)) {
+				QueuedWrite oldest = queue.poll();
+				if(oldest!=null) {
+					dropWrite(oldest);
+				}
+			}
+		} else if(isWorkerThread()) {
+			// we must not wait for ourselves, so we would only deadlock here
+			dropWrite(write);
+		} else {
+			try {
+				if(!queue.offer(write, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					dropWrite(write);
+				}
+			} catch (InterruptedException e) {
+				dropWrite(write);
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private void dropWrite(QueuedWrite write) {
+		if(write.key!=null) {
+			pending.remove(write.key);
+		}
+		dropped.incrementAndGet();
+		logger.warn("Write queue of persistence service '{}' is full, dropping state of item '{}'", 
+				service.getName(), write.item.getName());
+	}
+	
+	private boolean isWorkerThread() {
+		Worker currentWorker = worker;
+		return currentWorker!=null && Thread.currentThread()==currentWorker.thread;
+	}
+	
+	public synchronized void start() {
+		if(worker==null) {
+			startTime = System.currentTimeMillis();
+			worker = new Worker();
+			worker.thread.start();
+		}
+	}
+
+	/**
+	 * Stops the worker thread after it has passed the queued writes to the 
+	 * service, which it is given a few seconds for. Writes which are still 
+	 * queued then stay in the queue and are stored if the queue is started
+	 * again.
+	 */
+	public void stop() {
+		Worker stoppedWorker;
+		synchronized(this) {
+			stoppedWorker = worker;
+			worker = null;
+		}
+		if(stoppedWorker==null) {
+			return;
+		}
+		stoppedWorker.draining = true;
+		if(Thread.currentThread()==stoppedWorker.thread) {
+			return;
+		}
+		try {
+			stoppedWorker.thread.join(DRAIN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(stoppedWorker.thread.isAlive()) {
+			// the service hangs, so we give up on it
+			stoppedWorker.stopped = true;
+			stoppedWorker.thread.interrupt();
+			logger.warn("Persistence service '{}' did not store {} queued writes within {}ms", 
+					new Object[] { service.getName(), queue.size(), DRAIN_TIMEOUT });
+		}
+	}
+
+	private void write(QueuedWrite write) {
+		if(write.key!=null) {
+			// from now on, a new update must be queued again as we might already have read the state
+			pending.remove(write.key);
+		}
+		long start = System.nanoTime();
+		long time = write.time!=0L ? write.time : System.currentTimeMillis();
+		try {
+			if(service instanceof TimestampedPersistenceService) {
+				((TimestampedPersistenceService) service).store(write.item, write.alias, new Date(time));
+			} else {
+				service.store(write.item, write.alias);
+			}
+			if(RecentHistoryCache.isCached(service)) {
+				RecentHistoryCache.getInstance().add(service.getName(), 
+					write.alias!=null ? write.alias : write.item.getName(), write.item.getState(), time);
+			}
+		} catch (RuntimeException e) {
+			logger.error("Persistence service '" + service.getName() + "' failed to store item '" + write.item.getName() + "'", e);
+		}
+		long end = System.nanoTime();
+		stored.incrementAndGet();
+		totalStoreTime.addAndGet(end - start);
+		long lag = end - write.timestamp;
+		totalLag.addAndGet(lag);
+		if(lag > maxLag.get()) {
+			maxLag.set(lag);
+		}
+	}
+
+	/**
+	 * @return the number of writes that are currently waiting
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of items that have been passed to the service
+	 */
+	public long getStoredCount() {
+		return stored.get();
+	}
+
+	/**
+	 * @return the number of writes that have been dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of writes that have been skipped because the item was already queued
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+	
+	/**
+	 * @return the average number of items stored per second since the queue has been started
+	 */
+	public double getThroughput() {
+		long duration = System.currentTimeMillis() - startTime;
+		return duration > 0 ? stored.get() * 1000d / duration : 0d;
+	}
+
+	/**
+	 * @return the average time in milliseconds the service took to store an item
+	 */
+	public double getAverageStoreTime() {
+		long count = stored.get();
+		return count > 0 ? totalStoreTime.get() / (count * 1000000d) : 0d;
+	}
+
+	/**
+	 * @return the average time in milliseconds from queuing an item until it was stored
+	 */
+	public double getAverageLag() {
+		long count = stored.get();
+		return count > 0 ? totalLag.get() / (count * 1000000d) : 0d;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds from queuing an item until it was stored
+	 */
+	public double getMaxLag() {
+		return maxLag.get() / 1000000d;
+	}
+	
+	/**
+	 * The thread which takes the writes from the queue. Every start of the 
+	 * queue creates a worker of its own, so that a worker which is still busy
+	 * after it has been stopped can't continue with a restarted queue.
+	 */
+	private class Worker implements Runnable {
+		
+		final Thread thread;
+		
+		/** is set when the queue has been stopped; the worker leaves as soon as the queue is empty */
+		volatile boolean draining = false;
+		
+		/** is set if the worker has to leave immediately */
+		volatile boolean stopped = false;
+		
+		Worker() {
+			thread = new Thread(this, "Persistence - " + service.getName());
+			thread.setDaemon(true);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void run() {
+			while(!stopped) {
+				QueuedWrite write;
+				try {
+					write = draining ? queue.poll() : queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if(write!=null) {
+					write(write);
+				} else if(draining) {
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * An item to store together with the time when it has been queued.
+	 */
+	private static class QueuedWrite {
+		
+		final Item item;
+		final String alias;
+		final String key;
+		/** the time of queuing in nanoseconds, used for the lag */
+		final long timestamp;
+		/** the time of the state in milliseconds, 0 if the latest state is stored */
+		final long time;
+		
+		QueuedWrite(Item item, String alias, String key, long timestamp, long time) {
+			this.item = item;
+			this.alias = alias;
+			this.key = key;
+			this.timestamp = timestamp;
+			this.time = time;
+		}
+	}
+
+}
@@ -0,0 +1,391 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.persistence.internal;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.RawStatePersistenceService;
+import org.openhab.core.types.State;
+
+/**
+ * Keeps the most recent states which have been stored by every persistence
+ * service in memory, so that queries about the recent history do not need to
+ * read them from the service. Only services which store the states as they are
+ * given, i.e. {@link RawStatePersistenceService}s, are cached, as the answers
+ * of all others may differ from the stored states.
+ * <p>
+ * For every item, a ring buffer of the last <code>size</code> states is kept.
+ * The cache knows all states stored since the service has been reset, or since
+ * the last state which dropped out of the buffer of an item. Queries are only
+ * answered if their result lies completely within this window; all other
+ * queries are passed on to the service.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class RecentHistoryCache {
+
+	/** the default number of states kept per item */
+	public static final int DEFAULT_SIZE = 50;
+
+	private static final RecentHistoryCache instance = new RecentHistoryCache();
+
+	private volatile int size = DEFAULT_SIZE;
+
+	// the buffers by service name
+	private final ConcurrentMap<String, ServiceHistory> histories = new ConcurrentHashMap<String, ServiceHistory>();
+
+	// the hits and misses by service name
+	private final ConcurrentMap<String, AtomicLong[]> counters = new ConcurrentHashMap<String, AtomicLong[]>();
+
+	/* default */ RecentHistoryCache() {
+	}
+
+	public static RecentHistoryCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets the number of states kept per item, which clears the cache.
+	 * 
+	 * @param size the number of states, 0 to disable the cache
+	 */
+	public void setSize(int size) {
+		if (size != this.size) {
+			this.size = size;
+			histories.clear();
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code>, if the states stored by the given service may be cached
+	 */
+	public static boolean isCached(PersistenceService service) {
+		return service instanceof RawStatePersistenceService;
+	}
+
+	/**
+	 * Adds a state which has just been stored by a persistence service.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 * @param name the name the state is stored under
+	 * @param state the stored state
+	 */
+	public void add(String serviceName, String name, State state) {
+		add(serviceName, name, state, System.currentTimeMillis());
+	}
+
+	/**
+	 * Adds a state which has been stored by a persistence service. This must
+	 * only be called once the service has successfully stored the state.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 * @param name the name the state is stored under
+	 * @param state the stored state
+	 * @param time the time the service has been asked to store the state
+	 */
+	public void add(String serviceName, String name, State state, long time) {
+		int size = this.size;
+		if (size <= 0) {
+			return;
+		}
+		ServiceHistory serviceHistory = histories.get(serviceName);
+		if (serviceHistory == null) {
+			serviceHistory = new ServiceHistory();
+			ServiceHistory existing = histories.putIfAbsent(serviceName, serviceHistory);
+			if (existing != null) {
+				serviceHistory = existing;
+			}
+		}
+		ItemHistory history = serviceHistory.items.get(name);
+		if (history == null) {
+			// no state of the item has been stored since the service history has been started
+			history = new ItemHistory(name, size, serviceHistory.since);
+			ItemHistory existing = serviceHistory.items.putIfAbsent(name, history);
+			if (existing != null) {
+				history = existing;
+			}
+		}
+		history.add(state, time);
+	}
+
+	/**
+	 * Forgets the states of a persistence service and starts its history
+	 * anew. This must be called whenever the service may not have stored
+	 * all states which have been added, and before any state is stored
+	 * from then on. The states of services which are not cached are only
+	 * forgotten.
+	 * 
+	 * @param service the persistence service
+	 */
+	public void reset(PersistenceService service) {
+		if (isCached(service)) {
+			reset(service.getName());
+		} else {
+			clear(service.getName());
+		}
+	}
+
+	/**
+	 * Forgets the states of a persistence service and starts its history
+	 * anew.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 */
+	public void reset(String serviceName) {
+		if (size > 0) {
+			histories.put(serviceName, new ServiceHistory());
+		} else {
+			histories.remove(serviceName);
+		}
+	}
+
+	/**
+	 * Forgets the states of a persistence service.
+	 * 
+	 * @param serviceName the name of the persistence service
+	 */
+	public void clear(String serviceName) {
+		histories.remove(serviceName);
+	}
+
+	/**
+	 * Answers a query from the cache, if all states it asks for are known.
+	 * 
+	 * @param serviceName the name of the persistence service to query
+	 * @param filter the filter of the query
+	 * @return the result or <code>null</code> if the query has to be passed on to the service
+	 */
+	public Iterable<HistoricItem> query(String serviceName, FilterCriteria filter) {
+		Iterable<HistoricItem> result = null;
+		ServiceHistory serviceHistory = histories.get(serviceName);
+		// queries for the state are left to the services, which compare states differently
+		if (serviceHistory != null && filter.getItemName() != null && filter.getState() == null) {
+			ItemHistory history = serviceHistory.items.get(filter.getItemName());
+			if (history != null) {
+				result = history.query(filter);
+			} else {
+				result = serviceHistory.queryUnknown(filter);
+			}
+		}
+		getCounters(serviceName)[result != null ? 0 : 1].incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * @return the names of the services which have been queried
+	 */
+	public Collection<String> getServiceNames() {
+		return Collections.unmodifiableSet(counters.keySet());
+	}
+
+	public long getHitCount(String serviceName) {
+		return getCounters(serviceName)[0].get();
+	}
+
+	public long getMissCount(String serviceName) {
+		return getCounters(serviceName)[1].get();
+	}
+
+	/**
+	 * @return the number of items with states in the cache for a persistence service
+	 */
+	public int getItemCount(String serviceName) {
+		ServiceHistory serviceHistory = histories.get(serviceName);
+		return serviceHistory != null ? serviceHistory.items.size() : 0;
+	}
+
+	private AtomicLong[] getCounters(String serviceName) {
+		AtomicLong[] serviceCounters = counters.get(serviceName);
+		if (serviceCounters == null) {
+			serviceCounters = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+			AtomicLong[] existing = counters.putIfAbsent(serviceName, serviceCounters);
+			if (existing != null) {
+				serviceCounters = existing;
+			}
+		}
+		return serviceCounters;
+	}
+
+	/**
+	 * The recent states of all items of a persistence service.
+	 */
+	private static class ServiceHistory {
+
+		// all states stored from this time on have been added
+		final long since = System.currentTimeMillis();
+
+		final ConcurrentMap<String, ItemHistory> items = new ConcurrentHashMap<String, ItemHistory>();
+
+		/**
+		 * Answers a query for an item without states in the cache.
+		 */
+		List<HistoricItem> queryUnknown(FilterCriteria filter) {
+			if (filter.getBeginDate() != null && filter.getBeginDate().getTime() >= since) {
+				return Collections.emptyList();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The ring buffer of the recent states of a single item.
+	 */
+	private static class ItemHistory {
+
+		private final String name;
+
+		private final CachedItem[] items;
+
+		// the index of the oldest state and the number of states
+		private int first = 0;
+		private int count = 0;
+
+		// all states stored from this time on are in the buffer
+		private long completeSince;
+
+		ItemHistory(String name, int size, long completeSince) {
+			this.name = name;
+			this.items = new CachedItem[size];
+			this.completeSince = completeSince;
+		}
+
+		synchronized void add(State state, long time) {
+			// the times must not go backwards, so that the buffer stays ordered
+			if (count > 0) {
+				time = Math.max(time, get(count - 1).time);
+			}
+			if (count == items.length) {
+				CachedItem dropped = items[first];
+				items[first] = null;
+				first = (first + 1) % items.length;
+				count--;
+				completeSince = dropped.time + 1;
+			}
+			items[(first + count) % items.length] = new CachedItem(name, state, time);
+			count++;
+		}
+
+		private CachedItem get(int index) {
+			return items[(first + index) % items.length];
+		}
+
+		/**
+		 * @return the result or <code>null</code> if the buffer does not contain all of it
+		 */
+		synchronized List<HistoricItem> query(FilterCriteria filter) {
+			long begin = filter.getBeginDate() != null ? filter.getBeginDate().getTime() : Long.MIN_VALUE;
+			long end = filter.getEndDate() != null ? filter.getEndDate().getTime() : Long.MAX_VALUE;
+			long offset = (long) filter.getPageNumber() * filter.getPageSize();
+			long limit = filter.getPageSize();
+
+			// the states within the time range, in ascending order
+			int from = 0;
+			while (from < count && get(from).time < begin) {
+				from++;
+			}
+			int to = count;
+			while (to > from && get(to - 1).time > end) {
+				to--;
+			}
+
+			if (begin < completeSince) {
+				// earlier states are not known, unless the requested page is
+				// made of the latest states before the end
+				if (filter.getOrdering() != Ordering.DESCENDING || limit == Integer.MAX_VALUE) {
+					return null;
+				}
+				int known = 0;
+				while (known < to - from && get(to - 1 - known).time >= completeSince) {
+					known++;
+				}
+				if (known < offset + limit) {
+					return null;
+				}
+			}
+
+			List<HistoricItem> result = new ArrayList<HistoricItem>();
+			boolean descending = filter.getOrdering() == Ordering.DESCENDING;
+			for (long index = offset; index < offset + limit && index < to - from; index++) {
+				result.add(get(descending ? to - 1 - (int) index : from + (int) index));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A state in the cache.
+	 */
+	private static class CachedItem implements HistoricItem {
+
+		private final String name;
+		private final State state;
+		private final long time;
+
+		CachedItem(String name, State state, long time) {
+			this.name = name;
+			this.state = state;
+			this.time = time;
+		}
+
+		public Date getTimestamp() {
+			return new Date(time);
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String toString() {
+			return DateFormat.getDateTimeInstance().format(getTimestamp()) + ": " + name + " -> " + state.toString();
+		}
+	}
+
+}
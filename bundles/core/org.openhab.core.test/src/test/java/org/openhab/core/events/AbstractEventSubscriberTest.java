@@ -0,0 +1,134 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.EventType;
+import org.openhab.core.types.State;
+import org.openhab.core.types.UnDefType;
+import org.osgi.service.event.Event;
+
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class AbstractEventSubscriberTest {
+	
+	private TestSubscriber subscriber;
+	
+	@Before
+	public void setup() {
+		subscriber = new TestSubscriber();
+	}
+	
+	@Test
+	public void testTypedEvent() {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(EventConstants.ITEM_PROPERTY, "Light1");
+		properties.put(EventConstants.TYPE_PROPERTY, EventType.UPDATE);
+		properties.put("state", UnDefType.UNDEF);
+		subscriber.handleEvent(new Event("openhab/update/Light1", properties));
+		
+		assertEquals("Light1", subscriber.updatedItem);
+		assertEquals(UnDefType.UNDEF, subscriber.state);
+	}
+
+	@Test
+	public void testEventTypeFromTopic() {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(EventConstants.ITEM_PROPERTY, "Light1");
+		properties.put("state", UnDefType.NULL);
+		subscriber.handleEvent(new Event("openhab/update/Light1", properties));
+		
+		assertEquals("Light1", subscriber.updatedItem);
+		assertEquals(UnDefType.NULL, subscriber.state);
+		
+		subscriber.updatedItem = null;
+		subscriber.handleEvent(new Event("other/update/Light1", properties));
+		assertNull(subscriber.updatedItem);
+	}
+	
+	@Test
+	public void testItemFilter() {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(EventConstants.ITEM_PROPERTY, "Filtered");
+		properties.put(EventConstants.TYPE_PROPERTY, EventType.UPDATE);
+		properties.put("state", UnDefType.UNDEF);
+		subscriber.handleEvent(new Event("openhab/update/Filtered", properties));
+		
+		assertNull(subscriber.updatedItem);
+		assertEquals(1, subscriber.filterCalls);
+	}
+	
+	@Test
+	public void testAcceptedEventIsNotFilteredAgain() {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(EventConstants.ITEM_PROPERTY, "Light1");
+		properties.put(EventConstants.TYPE_PROPERTY, EventType.UPDATE);
+		properties.put("state", UnDefType.UNDEF);
+		subscriber.handleAcceptedEvent(new Event("openhab/update/Light1", properties));
+		
+		assertEquals("Light1", subscriber.updatedItem);
+		assertEquals(0, subscriber.filterCalls);
+	}
+	
+	
+	class TestSubscriber extends AbstractEventSubscriber implements ItemEventFilter {
+		
+		String updatedItem;
+		State state;
+		int filterCalls;
+		
+		public boolean acceptsItem(String itemName) {
+			filterCalls++;
+			return !itemName.equals("Filtered");
+		}
+		
+		@Override
+		public void receiveUpdate(String itemName, State newState) {
+			updatedItem = itemName;
+			state = newState;
+		}
+		
+		@Override
+		public void receiveCommand(String itemName, Command command) {
+		}
+		
+	}
+
+}
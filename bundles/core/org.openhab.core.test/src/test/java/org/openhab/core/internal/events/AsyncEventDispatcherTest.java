@@ -0,0 +1,235 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class AsyncEventDispatcherTest {
+	
+	private AsyncEventDispatcher dispatcher;
+	
+	@Before
+	public void setup() {
+		dispatcher = new AsyncEventDispatcher();
+		dispatcher.start();
+	}
+	
+	@After
+	public void tearDown() {
+		dispatcher.stop();
+	}
+	
+	@Test
+	public void testTopicMatching() {
+		EventSubscriberLane lane = new EventSubscriberLane("test", null, new String[] { "openhab/command/*" }, 10);
+		assertTrue(lane.matches("openhab/command/Light1"));
+		assertTrue(!lane.matches("openhab/update/Light1"));
+	}
+	
+	@Test
+	public void testOrderIsPreserved() throws InterruptedException {
+		RecordingHandler handler = new RecordingHandler(100);
+		dispatcher.addSubscriber("recorder", handler, new String[] { "openhab/*" });
+		for(int i = 0; i < 100; i++) {
+			dispatcher.dispatch(createEvent("openhab/command/Light1", i));
+		}
+		assertTrue(handler.latch.await(5, TimeUnit.SECONDS));
+		for(int i = 0; i < 100; i++) {
+			assertEquals(i, handler.received.get(i).getProperty("index"));
+		}
+	}
+	
+	@Test
+	public void testSlowSubscriberDoesNotBlockOthers() throws InterruptedException {
+		final CountDownLatch blocker = new CountDownLatch(1);
+		dispatcher.addSubscriber("slow", new EventHandler() {
+			public void handleEvent(Event event) {
+				try {
+					blocker.await();
+				} catch (InterruptedException e) {
+					// stopped
+				}
+			}
+		}, new String[] { "openhab/*" });
+		RecordingHandler handler = new RecordingHandler(10);
+		dispatcher.addSubscriber("recorder", handler, new String[] { "openhab/*" });
+		
+		for(int i = 0; i < 10; i++) {
+			dispatcher.dispatch(createEvent("openhab/command/Light1", i));
+		}
+		assertTrue(handler.latch.await(5, TimeUnit.SECONDS));
+		blocker.countDown();
+	}
+	
+	@Test
+	public void testQueuedEventsAreKeptWhenResizing() throws InterruptedException {
+		AsyncEventDispatcher stoppedDispatcher = new AsyncEventDispatcher();
+		RecordingHandler handler = new RecordingHandler(10);
+		stoppedDispatcher.addSubscriber("recorder", handler, new String[] { "openhab/*" });
+		for(int i = 0; i < 5; i++) {
+			stoppedDispatcher.dispatch(createEvent("openhab/command/Light1", i));
+		}
+		stoppedDispatcher.setQueueSize(20);
+		for(int i = 5; i < 10; i++) {
+			stoppedDispatcher.dispatch(createEvent("openhab/command/Light1", i));
+		}
+		stoppedDispatcher.start();
+		try {
+			assertTrue(handler.latch.await(5, TimeUnit.SECONDS));
+			for(int i = 0; i < 10; i++) {
+				assertEquals(i, handler.received.get(i).getProperty("index"));
+			}
+		} finally {
+			stoppedDispatcher.stop();
+		}
+	}
+	
+	@Test
+	public void testLateEventsOfReplacedLaneAreForwarded() throws InterruptedException {
+		RecordingHandler handler = new RecordingHandler(10);
+		dispatcher.addSubscriber("recorder", handler, new String[] { "openhab/*" });
+		// the lane which a concurrent dispatch may still hold
+		EventSubscriberLane oldLane = dispatcher.getLanes().iterator().next();
+		for(int i = 0; i < 5; i++) {
+			oldLane.enqueue(createEvent("openhab/command/Light1", i));
+		}
+		dispatcher.setQueueSize(20);
+		dispatcher.setQueueSize(30);
+		// give the new lane the time to take over all events of the replaced ones
+		Thread.sleep(300);
+		for(int i = 5; i < 10; i++) {
+			oldLane.enqueue(createEvent("openhab/command/Light1", i));
+		}
+		assertTrue(handler.latch.await(5, TimeUnit.SECONDS));
+		for(int i = 0; i < 10; i++) {
+			assertEquals(i, handler.received.get(i).getProperty("index"));
+		}
+		assertEquals(0, oldLane.getQueueDepth());
+	}
+	
+	@Test
+	public void testRestartedLaneDeliversEvents() throws InterruptedException {
+		RecordingHandler handler = new RecordingHandler(10);
+		EventSubscriberLane lane = new EventSubscriberLane("recorder", handler, new String[] { "openhab/*" }, 10);
+		lane.start();
+		lane.stop();
+		lane.start();
+		try {
+			for(int i = 0; i < 10; i++) {
+				lane.enqueue(createEvent("openhab/command/Light1", i));
+			}
+			assertTrue(handler.latch.await(5, TimeUnit.SECONDS));
+			assertEquals(10, lane.getDeliveredCount());
+		} finally {
+			lane.stop();
+		}
+	}
+	
+	@Test
+	public void testStopWaitsForRunningHandler() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch blocker = new CountDownLatch(1);
+		final List<Boolean> interrupted = new CopyOnWriteArrayList<Boolean>();
+		final EventSubscriberLane lane = new EventSubscriberLane("slow", new EventHandler() {
+			public void handleEvent(Event event) {
+				started.countDown();
+				try {
+					blocker.await(5, TimeUnit.SECONDS);
+					interrupted.add(false);
+				} catch (InterruptedException e) {
+					interrupted.add(true);
+				}
+			}
+		}, new String[] { "openhab/*" }, 10);
+		lane.start();
+		lane.enqueue(createEvent("openhab/command/Light1", 0));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		Thread stopper = new Thread() {
+			public void run() {
+				lane.stop();
+			}
+		};
+		stopper.start();
+		// wait until the stopper waits for the handler
+		for(int i = 0; i < 500 && stopper.getState()!=Thread.State.TIMED_WAITING; i++) {
+			Thread.sleep(10);
+		}
+		blocker.countDown();
+		stopper.join(5000);
+		
+		assertFalse(stopper.isAlive());
+		assertEquals(1, interrupted.size());
+		assertFalse(interrupted.get(0));
+	}
+	
+	private Event createEvent(String topic, int index) {
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put("index", index);
+		return new Event(topic, properties);
+	}
+	
+	
+	class RecordingHandler implements EventHandler {
+		
+		List<Event> received = new CopyOnWriteArrayList<Event>();
+		CountDownLatch latch;
+		
+		RecordingHandler(int expectedEvents) {
+			latch = new CountDownLatch(expectedEvents);
+		}
+
+		public void handleEvent(Event event) {
+			received.add(event);
+			latch.countDown();
+		}
+		
+	}
+
+}
@@ -0,0 +1,172 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.items;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.items.GenericItem;
+import org.openhab.core.items.GroupItem;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemProvider;
+import org.openhab.core.items.ItemsChangeListener;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class ItemRegistryImplTest {
+	
+	private ItemRegistryImpl registry;
+	private TestItemProvider provider;
+	
+	@Before
+	public void setup() {
+		registry = new ItemRegistryImpl();
+		provider = new TestItemProvider();
+		provider.items.add(new GroupItem("gAll"));
+		provider.items.add(new TestItem("Light1", "gAll"));
+		provider.items.add(new TestItem("Light2", "gAll"));
+		registry.addItemProvider(provider);
+	}
+	
+	@Test
+	public void testGetItem() throws ItemNotFoundException {
+		assertEquals("Light1", registry.getItem("Light1").getName());
+		assertEquals(2, ((GroupItem) registry.getItem("gAll")).getMembers().size());
+	}
+	
+	@Test(expected=ItemNotFoundException.class)
+	public void testGetItemIsNoPatternLookup() throws ItemNotFoundException {
+		registry.getItem("Light.*");
+	}
+	
+	@Test
+	public void testGetItems() {
+		assertEquals(2, registry.getItems("Light*").size());
+		assertEquals(2, registry.getItems("Light?").size());
+		assertEquals(1, registry.getItems("g*").size());
+		assertEquals(0, registry.getItems("Switch*").size());
+	}
+	
+	@Test
+	public void testItemAddedAndRemoved() throws ItemNotFoundException {
+		Item item = new TestItem("Light3");
+		registry.itemAdded(provider, item);
+		assertSame(item, registry.getItem("Light3"));
+		
+		registry.itemRemoved(provider, item);
+		try {
+			registry.getItem("Light3");
+			fail("Item 'Light3' should have been removed");
+		} catch(ItemNotFoundException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testAllItemsChanged() throws ItemNotFoundException {
+		Item oldItem = registry.getItem("Light1");
+		Item newItem = new TestItem("Light1");
+		provider.items.clear();
+		provider.items.add(newItem);
+		registry.allItemsChanged(provider, null);
+		
+		assertSame(newItem, registry.getItem("Light1"));
+		assertTrue(oldItem!=registry.getItem("Light1"));
+		assertEquals(0, registry.getItems("Light2").size());
+	}
+	
+	@Test
+	public void testRemoveItemProvider() {
+		registry.removeItemProvider(provider);
+		assertEquals(0, registry.getItems().size());
+		try {
+			registry.getItem("Light1");
+			fail("Item 'Light1' should have been removed");
+		} catch(ItemNotFoundException e) {
+			// expected
+		}
+	}
+	
+	
+	class TestItemProvider implements ItemProvider {
+		
+		List<Item> items = new ArrayList<Item>();
+
+		@Override
+		public Collection<Item> getItems() {
+			return new ArrayList<Item>(items);
+		}
+
+		@Override
+		public void addItemChangeListener(ItemsChangeListener listener) {
+		}
+
+		@Override
+		public void removeItemChangeListener(ItemsChangeListener listener) {
+		}
+		
+	}
+	
+	class TestItem extends GenericItem {
+
+		public TestItem(String name, String... groupNames) {
+			super(name);
+			for(String groupName : groupNames) {
+				this.groupNames.add(groupName);
+			}
+		}
+
+		@Override
+		public List<Class<? extends State>> getAcceptedDataTypes() {
+			return null;
+		}
+
+		@Override
+		public List<Class<? extends Command>> getAcceptedCommandTypes() {
+			return null;
+		}
+		
+	}
+	
+
+}
@@ -46,6 +46,7 @@ import org.openhab.core.types.State;
 public class GroupItemTest {
 	
 	private GroupItem rootGroupItem;
+	private GroupItem subGroup;
 	
 	@Before
 	public void setup() {
@@ -53,7 +54,7 @@ public class GroupItemTest {
 		rootGroupItem.addMember(new TestItem("member1"));
 		rootGroupItem.addMember(new TestItem("member2"));
 		rootGroupItem.addMember(new TestItem("member2"));
-		GroupItem subGroup = new GroupItem("subGroup1");
+		subGroup = new GroupItem("subGroup1");
 		subGroup.addMember(new TestItem("subGroup member 1"));
 		subGroup.addMember(new TestItem("subGroup member 2"));
 		subGroup.addMember(new TestItem("subGroup member 3"));
@@ -74,6 +75,19 @@ public class GroupItemTest {
 	}
 	
 	
+	@Test
+	public void testGetAllMembersAfterMembershipChange() {
+		Assert.assertEquals(5, rootGroupItem.getAllMembers().size());
+		
+		Item newMember = new TestItem("subGroup member 4");
+		subGroup.addMember(newMember);
+		Assert.assertEquals(6, rootGroupItem.getAllMembers().size());
+		
+		subGroup.removeMember(newMember);
+		Assert.assertEquals(5, rootGroupItem.getAllMembers().size());
+	}
+	
+	
 	class TestItem extends GenericItem {
 
 		public TestItem(String name) {
@@ -0,0 +1,199 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.core.service.PollingScheduler.Statistics;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class PollingSchedulerTest {
+
+	private PollingScheduler scheduler;
+
+	@Before
+	public void init() {
+		scheduler = new PollingScheduler(4, 0);
+	}
+
+	@After
+	public void cleanUp() throws InterruptedException {
+		scheduler.cancelAll("test");
+		assertTrue(scheduler.shutdown(5000));
+	}
+
+	@Test
+	public void testTasksArePolledUntilCancelled() throws InterruptedException {
+		final CountingPoll poll = new CountingPoll(3);
+		scheduler.schedule("test", "Item", null, 10, poll);
+		assertTrue(scheduler.isScheduled("test", "Item"));
+
+		assertTrue(poll.polled.await(5, TimeUnit.SECONDS));
+		scheduler.cancel("test", "Item");
+		assertFalse(scheduler.isScheduled("test", "Item"));
+		Statistics statistics = scheduler.getStatistics("test");
+		waitForStatistics(statistics, poll);
+
+		// no poll is started after the task has been cancelled
+		int count = poll.count.get();
+		Thread.sleep(50);
+		assertEquals(count, poll.count.get());
+		assertEquals(count, statistics.getPollCount());
+	}
+
+	@Test
+	public void testTasksOfADeviceDontRunConcurrently() throws InterruptedException {
+		final DevicePoll poll = new DevicePoll(9, 1);
+		for (int index = 0; index < 3; index++) {
+			scheduler.schedule("test", "Item" + index, "device", 10, poll);
+		}
+
+		assertTrue(poll.polled.await(5, TimeUnit.SECONDS));
+		scheduler.cancelAll("test");
+		assertEquals(1, poll.maxRunning.get());
+	}
+
+	@Test
+	public void testDeviceLimitIsRespected() throws InterruptedException {
+		// every poll waits until two polls of the device are running
+		final DevicePoll poll = new DevicePoll(9, 2);
+		scheduler.setDeviceLimit("test", "device", 2);
+		for (int index = 0; index < 3; index++) {
+			scheduler.schedule("test", "Item" + index, "device", 10, poll);
+		}
+
+		assertTrue(poll.polled.await(5, TimeUnit.SECONDS));
+		scheduler.cancelAll("test");
+		assertTrue(poll.concurrent.await(0, TimeUnit.SECONDS));
+		assertEquals(2, poll.maxRunning.get());
+	}
+
+	@Test
+	public void testOverrunsSkipMissedPolls() throws InterruptedException {
+		final DevicePoll poll = new DevicePoll(3, 1);
+		poll.duration = 30;
+		scheduler.schedule("test", "Item", null, 10, poll);
+
+		assertTrue(poll.polled.await(5, TimeUnit.SECONDS));
+		scheduler.cancel("test", "Item");
+		Statistics statistics = scheduler.getStatistics("test");
+		waitForStatistics(statistics, poll);
+
+		// the task never runs concurrently with itself, and every poll has overrun the next one
+		assertEquals(1, poll.maxRunning.get());
+		assertEquals(statistics.getPollCount(), statistics.getOverrunCount());
+		assertTrue(statistics.getAverageDuration() >= 20);
+	}
+
+	/**
+	 * Waits until the statistics contain all polls which have been started.
+	 */
+	private void waitForStatistics(Statistics statistics, CountingPoll poll) throws InterruptedException {
+		for (int i = 0; i < 500 && statistics.getPollCount() < poll.count.get(); i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * A poll which counts its runs.
+	 */
+	private static class CountingPoll implements Runnable {
+
+		final AtomicInteger count = new AtomicInteger();
+
+		// counted down by the runs
+		final CountDownLatch polled;
+
+		CountingPoll(int polls) {
+			polled = new CountDownLatch(polls);
+		}
+
+		public void run() {
+			count.incrementAndGet();
+			polled.countDown();
+		}
+	}
+
+	/**
+	 * A poll which takes some time and records how many of its runs overlap.
+	 */
+	private static class DevicePoll extends CountingPoll {
+
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		// the number of runs every run waits for to run at the same time
+		final int concurrency;
+
+		// opened once enough runs are running at the same time
+		final CountDownLatch concurrent = new CountDownLatch(1);
+
+		volatile long duration = 5;
+
+		DevicePoll(int polls, int concurrency) {
+			super(polls);
+			this.concurrency = concurrency;
+		}
+
+		@Override
+		public void run() {
+			int count = running.incrementAndGet();
+			synchronized (maxRunning) {
+				maxRunning.set(Math.max(maxRunning.get(), count));
+			}
+			try {
+				if (count >= concurrency) {
+					concurrent.countDown();
+				}
+				if (!concurrent.await(5, TimeUnit.SECONDS)) {
+					return;
+				}
+				Thread.sleep(duration);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				running.decrementAndGet();
+				super.run();
+			}
+		}
+	}
+
+}
@@ -29,12 +29,19 @@
 package org.openhab.core.binding;
 
 import org.openhab.core.service.AbstractActiveService;
+import org.openhab.core.service.PollingScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
  * Base class for active bindings which polls something and sends events frequently.
+ * <p>
+ * Instead of polling all items in {@link #execute()}, a binding can register a poll
+ * task with an interval of its own for every item by {@link #schedulePoll(String, String, long, Runnable)}.
+ * The tasks of all bindings are run by the shared {@link PollingScheduler}, so a slow
+ * device doesn't delay the other items. The tasks are cancelled when the binding has
+ * no bindings anymore.
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
@@ -75,6 +82,7 @@ public abstract class AbstractActiveBinding<P extends BindingProvider> extends A
 		// refresh thread any longer ...
 		if (this.providers.size() == 0) {
 			activeService.deactivate();
+			cancelAllPolls();
 		}
 	}
 
@@ -88,6 +96,7 @@ public abstract class AbstractActiveBinding<P extends BindingProvider> extends A
 			activeService.activate();
 		} else {
 			activeService.deactivate();
+			cancelAllPolls();
 		}
 	}
 
@@ -101,6 +110,7 @@ public abstract class AbstractActiveBinding<P extends BindingProvider> extends A
 			activeService.activate();
 		} else {
 			activeService.deactivate();
+			cancelAllPolls();
 		}
 	}
 	
@@ -147,6 +157,48 @@ public abstract class AbstractActiveBinding<P extends BindingProvider> extends A
 	 */
 	protected abstract String getName();
 	
+	/**
+	 * Returns whether {@link #execute()} is run by the shared {@link PollingScheduler}
+	 * instead of a refresh thread of its own. Bindings which poll their items by 
+	 * {@link #schedulePoll(String, String, long, Runnable)} usually have little to
+	 * do in execute() and should return <code>true</code>.
+	 * 
+	 * @return <code>false</code> by default
+	 */
+	protected boolean isSharedPolling() {
+		return false;
+	}
+	
+	/**
+	 * Registers a poll task on the shared {@link PollingScheduler}, which replaces
+	 * a task of the same name.
+	 * 
+	 * @param taskName the name of the task, usually the item name
+	 * @param deviceName the name of the device which is polled, so that only one task
+	 * polls it at a time, or <code>null</code> if the task may always run
+	 * @param interval the interval of the polls in milliseconds
+	 * @param poll the poll to run
+	 */
+	protected void schedulePoll(String taskName, String deviceName, long interval, Runnable poll) {
+		PollingScheduler.getInstance().schedule(getName(), taskName, deviceName, interval, poll);
+	}
+	
+	/**
+	 * Removes a poll task from the shared {@link PollingScheduler}.
+	 * 
+	 * @param taskName the name of the task
+	 */
+	protected void cancelPoll(String taskName) {
+		PollingScheduler.getInstance().cancel(getName(), taskName);
+	}
+	
+	/**
+	 * Removes all poll tasks of this binding from the shared {@link PollingScheduler}.
+	 */
+	protected void cancelAllPolls() {
+		PollingScheduler.getInstance().cancelAll(getName());
+	}
+	
 	
 	/** private inner class, which delegates method calls to the outer binding instance */
 	private class BindingActiveService extends AbstractActiveService {
@@ -186,6 +238,11 @@ public abstract class AbstractActiveBinding<P extends BindingProvider> extends A
 			return AbstractActiveBinding.this.getName();
 		}
 
+		@Override
+		protected boolean isSharedPolling() {
+			return AbstractActiveBinding.this.isSharedPolling();
+		}
+
 	}
 	
 }
\ No newline at end of file
@@ -33,6 +33,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.openhab.core.events.AbstractEventSubscriber;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.events.ItemEventFilter;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
 
@@ -44,7 +45,7 @@ import org.openhab.core.types.State;
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public abstract class AbstractBinding<P extends BindingProvider> extends AbstractEventSubscriber implements BindingChangeListener {
+public abstract class AbstractBinding<P extends BindingProvider> extends AbstractEventSubscriber implements BindingChangeListener, ItemEventFilter {
 	
 	/** to keep track of all binding providers */
 
@@ -106,13 +107,13 @@ public abstract class AbstractBinding<P extends BindingProvider> extends Abstrac
 	
 	/**
 	 * @{inheritDoc}
+	 * 
+	 * Commands are only received for items which are accepted by 
+	 * {@link #acceptsItem(String)}, i.e. which have a binding configuration,
+	 * as the event bus has checked this already.
 	 */
 	@Override
 	public void receiveCommand(String itemName, Command command) {
-		// does any provider contain a binding config?
-		if (!providesBindingFor(itemName)) {
-			return;
-		}
 		internalReceiveCommand(itemName, command);
 	}
 	
@@ -127,13 +128,13 @@ public abstract class AbstractBinding<P extends BindingProvider> extends Abstrac
 	
 	/**
 	 * @{inheritDoc}
+	 * 
+	 * Updates are only received for items which are accepted by 
+	 * {@link #acceptsItem(String)}, i.e. which have a binding configuration,
+	 * as the event bus has checked this already.
 	 */
 	@Override
 	public void receiveUpdate(String itemName, State newState) {
-		// does any provider contain a binding config?
-		if (!providesBindingFor(itemName)) {
-			return;
-		}
 		internalReceiveUpdate(itemName, newState);
 	}
 	
@@ -146,6 +147,17 @@ public abstract class AbstractBinding<P extends BindingProvider> extends Abstrac
 	 */
 	protected void internalReceiveUpdate(String itemName, State newState) {};
 
+	/**
+	 * By default, a binding only receives events for items which have a
+	 * binding configuration; bindings which need to see the events of all
+	 * items have to override this method.
+	 * 
+	 * @{inheritDoc}
+	 */
+	public boolean acceptsItem(String itemName) {
+		return providesBindingFor(itemName);
+	}
+
 	/**
 	 * checks if any of the bindingProviders contains an adequate mapping
 	 * 
@@ -28,8 +28,10 @@
  */
 package org.openhab.core.events;
 
+import static org.openhab.core.events.EventConstants.ITEM_PROPERTY;
 import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
 import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
+import static org.openhab.core.events.EventConstants.TYPE_PROPERTY;
 
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
@@ -39,30 +41,75 @@ import org.osgi.service.event.EventHandler;
 
 abstract public class AbstractEventSubscriber implements EventSubscriber, EventHandler {
 	
+	private static final String UPDATE_PREFIX = TOPIC_PREFIX + TOPIC_SEPERATOR + EventType.UPDATE + TOPIC_SEPERATOR;
+
+	private static final String COMMAND_PREFIX = TOPIC_PREFIX + TOPIC_SEPERATOR + EventType.COMMAND + TOPIC_SEPERATOR;
+	
 	/**
 	 * {@inheritDoc}
 	 */
 	public void handleEvent(Event event) {  
-		String itemName = (String) event.getProperty("item");
+		String itemName = (String) event.getProperty(ITEM_PROPERTY);
+		if(itemName==null) {
+			return; // this is no item event
+		}
 		
-		String topic = event.getTopic();
-		String[] topicParts = topic.split(TOPIC_SEPERATOR);
+		if(this instanceof ItemEventFilter && !((ItemEventFilter) this).acceptsItem(itemName)) {
+			return;
+		}
 		
-		if(!(topicParts.length > 2) || !topicParts[0].equals(TOPIC_PREFIX)) {
-			return; // we have received an event with an invalid topic
+		dispatchEvent(itemName, event);
+	}
+	
+	/**
+	 * Handles an event whose item has already been accepted by the 
+	 * {@link ItemEventFilter} of this subscriber, so that the event bus 
+	 * doesn't have to ask the filter twice.
+	 * 
+	 * @param event the event to handle
+	 */
+	public void handleAcceptedEvent(Event event) {
+		String itemName = (String) event.getProperty(ITEM_PROPERTY);
+		if(itemName!=null) {
+			dispatchEvent(itemName, event);
 		}
-		String operation = topicParts[1];
+	}
+	
+	private void dispatchEvent(String itemName, Event event) {
+		EventType type = getEventType(event);
 		
-		if(operation.equals(EventType.UPDATE.toString())) {
+		if(type==EventType.UPDATE) {
 			State newState = (State) event.getProperty("state");
 			if(newState!=null) receiveUpdate(itemName, newState);
-		}
-		if(operation.equals(EventType.COMMAND.toString())) {
+		} else if(type==EventType.COMMAND) {
 			Command command = (Command) event.getProperty("command");
 			if(command!=null) receiveCommand(itemName, command);
 		}
 	}
 	
+	/**
+	 * Determines the type of an openHAB event. Events created by the openHAB
+	 * event publisher already carry their type as a property; for all other
+	 * events, it is derived from the topic.
+	 * 
+	 * @param event the event to get the type for
+	 * @return the type of the event or null, if the event has an invalid topic
+	 */
+	static EventType getEventType(Event event) {
+		Object type = event.getProperty(TYPE_PROPERTY);
+		if(type instanceof EventType) {
+			return (EventType) type;
+		}
+		
+		String topic = event.getTopic();
+		if(topic.startsWith(UPDATE_PREFIX)) {
+			return EventType.UPDATE;
+		} else if(topic.startsWith(COMMAND_PREFIX)) {
+			return EventType.COMMAND;
+		}
+		return null;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
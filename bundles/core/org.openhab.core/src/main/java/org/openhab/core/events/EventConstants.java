@@ -40,4 +40,10 @@ public interface EventConstants {
 
 	public static final String TOPIC_SEPERATOR = "/";
 	
+	/** the event property which holds the {@link org.openhab.core.types.EventType} of an openHAB event */
+	public static final String TYPE_PROPERTY = "type";
+
+	/** the event property which holds the name of the item an openHAB event is sent for */
+	public static final String ITEM_PROPERTY = "item";
+	
 }
@@ -42,6 +42,8 @@ public interface EventPublisher {
 	/**
 	 * Initiate synchronous sending of a command.
 	 * This method does not return to the caller until all subscribers have processed the command.
+	 * If the event bus is configured to run in asynchronous mode, this method returns as soon as
+	 * the command has been queued for all subscribers.
 	 * 
 	 * @param itemName name of the item to send the command for
 	 * @param command the command to send
@@ -0,0 +1,51 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.events;
+
+/**
+ * An {@link EventSubscriber} can implement this interface to tell the event bus
+ * for which items it wants to receive events at all. Events for other items are
+ * then not delivered to the subscriber.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public interface ItemEventFilter {
+
+	/**
+	 * Checks whether events for the given item should be delivered.
+	 * As this is called for every event on the bus, implementations must
+	 * be cheap and must not block.
+	 * 
+	 * @param itemName the name of the item an event is sent for
+	 * @return true, if the subscriber wants to receive events for this item
+	 */
+	public boolean acceptsItem(String itemName);
+	
+}
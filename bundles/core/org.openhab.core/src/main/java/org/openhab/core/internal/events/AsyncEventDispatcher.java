@@ -0,0 +1,161 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.events;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openhab.core.events.EventConstants;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * The asynchronous event dispatcher delivers openHAB events directly to the
+ * registered {@link EventHandler}s instead of going through the OSGi EventAdmin.
+ * Every subscriber gets its own {@link EventSubscriberLane}, so that publishing
+ * an event never waits for a subscriber to process it and a slow subscriber
+ * cannot delay the delivery to any other subscriber. As every lane is a FIFO,
+ * the order of the events (and thus of the events for a single item) is
+ * preserved for each subscriber.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class AsyncEventDispatcher {
+
+	/** the default maximum number of queued events per subscriber */
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+	
+	private final Map<EventHandler, EventSubscriberLane> lanes = new ConcurrentHashMap<EventHandler, EventSubscriberLane>();
+	
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+
+	private boolean running = false;
+	
+	/**
+	 * Sets the maximum number of queued events per subscriber. The lanes of
+	 * all existing subscribers are recreated with the new size; the events
+	 * which are still queued are delivered by the new lanes.
+	 * 
+	 * @param queueSize the maximum number of queued events
+	 */
+	public synchronized void setQueueSize(int queueSize) {
+		if(this.queueSize!=queueSize) {
+			this.queueSize = queueSize;
+			for(EventSubscriberLane lane : lanes.values()) {
+				replaceLane(new EventSubscriberLane(lane, queueSize));
+			}
+		}
+	}
+	
+	/**
+	 * Adds a subscriber to the dispatcher. If the dispatcher is running, the
+	 * worker of the new lane is started immediately.
+	 * 
+	 * @param name the name of the subscriber
+	 * @param handler the event handler of the subscriber
+	 * @param topics the topics the subscriber is interested in
+	 */
+	public synchronized void addSubscriber(String name, EventHandler handler, String[] topics) {
+		replaceLane(new EventSubscriberLane(name, handler, topics, queueSize));
+	}
+	
+	/**
+	 * Registers a lane, which is started once the lane it replaces has 
+	 * finished delivering its current event. A concurrent {@link #dispatch(Event)}
+	 * may still queue an event in the replaced lane, which hands it over.
+	 */
+	private void replaceLane(EventSubscriberLane lane) {
+		EventSubscriberLane oldLane = lanes.put(lane.getHandler(), lane);
+		if(oldLane!=null) {
+			oldLane.stop();
+		}
+		if(running) {
+			lane.start();
+		}
+	}
+	
+	public synchronized void removeSubscriber(EventHandler handler) {
+		EventSubscriberLane lane = lanes.remove(handler);
+		if(lane!=null) {
+			lane.stop();
+		}
+	}
+	
+	/**
+	 * Starts the workers of all subscriber lanes.
+	 */
+	public synchronized void start() {
+		running = true;
+		for(EventSubscriberLane lane : lanes.values()) {
+			lane.start();
+		}
+	}
+	
+	/**
+	 * Stops the workers of all subscriber lanes; events that have not yet
+	 * been delivered are discarded.
+	 */
+	public synchronized void stop() {
+		running = false;
+		for(EventSubscriberLane lane : lanes.values()) {
+			lane.stop();
+			lane.clear();
+		}
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Queues the event for all subscribers that are interested in its topic
+	 * and item and returns immediately.
+	 * 
+	 * @param event the event to dispatch
+	 */
+	public void dispatch(Event event) {
+		String topic = event.getTopic();
+		String itemName = (String) event.getProperty(EventConstants.ITEM_PROPERTY);
+		for(EventSubscriberLane lane : lanes.values()) {
+			if(lane.matches(topic) && lane.accepts(itemName)) {
+				lane.enqueue(event);
+			}
+		}
+	}
+	
+	/**
+	 * @return the lanes of all registered subscribers
+	 */
+	public Collection<EventSubscriberLane> getLanes() {
+		return lanes.values();
+	}
+	
+}
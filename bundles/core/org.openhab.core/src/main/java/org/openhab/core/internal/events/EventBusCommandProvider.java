@@ -0,0 +1,100 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.events;
+
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+import org.openhab.core.events.EventPublisher;
+
+/**
+ * Command provider which shows the metrics of the asynchronous event bus on
+ * the OSGi console of Equinox.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class EventBusCommandProvider implements CommandProvider {
+
+	private EventPublisherImpl eventPublisher;
+	
+	public void setEventPublisher(EventPublisher eventPublisher) {
+		if(eventPublisher instanceof EventPublisherImpl) {
+			this.eventPublisher = (EventPublisherImpl) eventPublisher;
+		}
+	}
+	
+	public void unsetEventPublisher(EventPublisher eventPublisher) {
+		this.eventPublisher = null;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getHelp() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("---openHAB event bus commands---\n");
+		buffer.append("\teventbus stats - shows queue depth and latency of all event subscribers\n");
+		return buffer.toString();
+	}
+	
+	/**
+	 * Event bus command implementation.
+	 * 
+	 * @param interpreter the equinox command interpreter
+	 * @return null, return parameter is not used
+	 */
+	public Object _eventbus(CommandInterpreter interpreter) {
+		String arg = interpreter.nextArgument();
+		if(!"stats".equals(arg)) {
+			interpreter.println(getHelp());
+			return null;
+		}
+		
+		if(eventPublisher==null) {
+			interpreter.println("Sorry, no event publisher service available!");
+			return null;
+		}
+		
+		if(!eventPublisher.isAsyncMode()) {
+			interpreter.println("The event bus does not run in asynchronous mode, all events are passed to the EventAdmin.");
+			return null;
+		}
+		
+		interpreter.println(String.format("%-50s %8s %12s %8s %12s %12s", 
+				"Subscriber", "Queued", "Delivered", "Dropped", "Avg (ms)", "Max (ms)"));
+		for(EventSubscriberLane lane : eventPublisher.getDispatcher().getLanes()) {
+			interpreter.println(String.format("%-50s %8d %12d %8d %12.2f %12.2f", 
+					lane.getName(), lane.getQueueDepth(), lane.getDeliveredCount(), lane.getDroppedCount(),
+					lane.getAverageLatency(), lane.getMaxLatency()));
+		}
+		return null;
+	}
+	
+}
@@ -28,18 +28,27 @@
  */
 package org.openhab.core.internal.events;
 
+import static org.openhab.core.events.EventConstants.ITEM_PROPERTY;
 import static org.openhab.core.events.EventConstants.TOPIC_PREFIX;
 import static org.openhab.core.events.EventConstants.TOPIC_SEPERATOR;
+import static org.openhab.core.events.EventConstants.TYPE_PROPERTY;
 
+import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.StringUtils;
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,16 +57,38 @@ import org.slf4j.LoggerFactory;
  * Through it, openHAB events can be sent to the OSGi EventAdmin service
  * in order to broadcast them.
  * 
+ * <p>If configured with <code>eventbus:mode=async</code>, the events are not
+ * passed to the EventAdmin, but are directly queued for all subscribed
+ * {@link EventHandler}s by an {@link AsyncEventDispatcher}, so that neither
+ * commands nor updates ever block the caller.</p>
+ * 
  * @author Kai Kreuzer
  *
  */
-public class EventPublisherImpl implements EventPublisher {
+public class EventPublisherImpl implements EventPublisher, ManagedService {
 
 	private static final Logger logger = 
 		LoggerFactory.getLogger(EventPublisherImpl.class);
+	
+	/** the value of the 'mode' configuration property to activate the asynchronous event bus */
+	private static final String MODE_ASYNC = "async";
 		
 	private EventAdmin eventAdmin;
 	
+	/** the dispatcher which is used instead of the EventAdmin in asynchronous mode */
+	private final AsyncEventDispatcher dispatcher = new AsyncEventDispatcher();
+	
+	/** whether the asynchronous event bus mode is active */
+	private volatile boolean asyncMode = false;
+	
+	/** the topics of all items which have been published so far, so that they do not need to be created for every event */
+	private final Map<String, String> commandTopics = new ConcurrentHashMap<String, String>();
+	private final Map<String, String> updateTopics = new ConcurrentHashMap<String, String>();
+	
+	
+	public void deactivate() {
+		dispatcher.stop();
+	}
 	
 	public void setEventAdmin(EventAdmin eventAdmin) {
 		this.eventAdmin = eventAdmin;
@@ -67,13 +98,43 @@ public class EventPublisherImpl implements EventPublisher {
 		this.eventAdmin = null;
 	}
 	
+	public void addEventHandler(EventHandler eventHandler, Map<String, Object> properties) {
+		String[] topics = getTopics(properties.get(org.osgi.service.event.EventConstants.EVENT_TOPIC));
+		if(topics.length > 0) {
+			Object componentName = properties.get("component.name");
+			String name = componentName!=null ? componentName.toString() : eventHandler.getClass().getSimpleName();
+			dispatcher.addSubscriber(name, eventHandler, topics);
+		}
+	}
+
+	public void removeEventHandler(EventHandler eventHandler, Map<String, Object> properties) {
+		dispatcher.removeSubscriber(eventHandler);
+	}
+	
+	/**
+	 * @return the dispatcher which is used in asynchronous mode
+	 */
+	public AsyncEventDispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
+	/**
+	 * @return true, if the asynchronous event bus mode is active
+	 */
+	public boolean isAsyncMode() {
+		return asyncMode;
+	}
 
 	/* (non-Javadoc)
 	 * @see org.openhab.core.internal.events.EventPublisher#sendCommand(org.openhab.core.items.GenericItem, org.openhab.core.datatypes.DataType)
 	 */
 	public void sendCommand(String itemName, Command command) {
 		if (command != null) {
-			if(eventAdmin!=null) eventAdmin.sendEvent(createCommandEvent(itemName, command));
+			if(asyncMode) {
+				dispatcher.dispatch(createCommandEvent(itemName, command));
+			} else if(eventAdmin!=null) {
+				eventAdmin.sendEvent(createCommandEvent(itemName, command));
+			}
 		} else {
 			logger.warn("given command is NULL, couldn't send command to '{}'", itemName);
 		}
@@ -84,7 +145,11 @@ public class EventPublisherImpl implements EventPublisher {
 	 */
 	public void postCommand(String itemName, Command command) {
 		if (command != null) {
-			if(eventAdmin!=null) eventAdmin.postEvent(createCommandEvent(itemName, command));
+			if(asyncMode) {
+				dispatcher.dispatch(createCommandEvent(itemName, command));
+			} else if(eventAdmin!=null) {
+				eventAdmin.postEvent(createCommandEvent(itemName, command));
+			}
 		} else {
 			logger.warn("given command is NULL, couldn't post command to '{}'", itemName);
 		}
@@ -95,7 +160,11 @@ public class EventPublisherImpl implements EventPublisher {
 	 */
 	public void postUpdate(String itemName, State newState) {
 		if (newState != null) {
-			if(eventAdmin!=null) eventAdmin.postEvent(createUpdateEvent(itemName, newState));
+			if(asyncMode) {
+				dispatcher.dispatch(createUpdateEvent(itemName, newState));
+			} else if(eventAdmin!=null) {
+				eventAdmin.postEvent(createUpdateEvent(itemName, newState));
+			}
 		} else {
 			logger.warn("given new state is NULL, couldn't post update for '{}'", itemName);
 		}
@@ -103,21 +172,78 @@ public class EventPublisherImpl implements EventPublisher {
 	
 	private Event createUpdateEvent(String itemName, State newState) {
 		Dictionary<String, Object> properties = new Hashtable<String, Object>();
-		properties.put("item", itemName);
+		properties.put(ITEM_PROPERTY, itemName);
+		properties.put(TYPE_PROPERTY, EventType.UPDATE);
 		properties.put("state", newState);
-		return new Event(createTopic(EventType.UPDATE, itemName), properties);
+		return new Event(getTopic(updateTopics, EventType.UPDATE, itemName), properties);
 	}
 
 	private Event createCommandEvent(String itemName, Command command) {
 		Dictionary<String, Object> properties = new Hashtable<String, Object>();
-		properties.put("item", itemName);
+		properties.put(ITEM_PROPERTY, itemName);
+		properties.put(TYPE_PROPERTY, EventType.COMMAND);
 		properties.put("command", command);
-		return new Event(createTopic(EventType.COMMAND, itemName) , properties);
+		return new Event(getTopic(commandTopics, EventType.COMMAND, itemName) , properties);
+	}
+	
+	private String getTopic(Map<String, String> topics, EventType type, String itemName) {
+		String topic = topics.get(itemName);
+		if(topic==null) {
+			topic = createTopic(type, itemName);
+			topics.put(itemName, topic);
+		}
+		return topic;
 	}
 
 	private String createTopic(EventType type, String itemName) {
 		return TOPIC_PREFIX + TOPIC_SEPERATOR + type + TOPIC_SEPERATOR + itemName;
 	}
 	
+	private String[] getTopics(Object topicProperty) {
+		if(topicProperty instanceof String) {
+			return new String[] { (String) topicProperty };
+		} else if(topicProperty instanceof String[]) {
+			return (String[]) topicProperty;
+		} else if(topicProperty instanceof Collection<?>) {
+			Collection<?> topicCollection = (Collection<?>) topicProperty;
+			return topicCollection.toArray(new String[topicCollection.size()]);
+		}
+		return new String[0];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		boolean async = false;
+		if (config != null) {
+			String queueSizeString = (String) config.get("queuesize");
+			if (StringUtils.isNotBlank(queueSizeString)) {
+				int queueSize;
+				try {
+					queueSize = Integer.parseInt(queueSizeString.trim());
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("queuesize", "'" + queueSizeString + "' is not a valid number");
+				}
+				if (queueSize <= 0) {
+					throw new ConfigurationException("queuesize", "The queue size must be positive, but is " + queueSize);
+				}
+				dispatcher.setQueueSize(queueSize);
+			}
+			
+			String modeString = (String) config.get("mode");
+			async = MODE_ASYNC.equalsIgnoreCase(StringUtils.trim(modeString));
+		}
+		
+		if(async && !dispatcher.isRunning()) {
+			dispatcher.start();
+			logger.info("Event bus runs in asynchronous mode.");
+		}
+		asyncMode = async;
+		if(!async && dispatcher.isRunning()) {
+			dispatcher.stop();
+		}
+	}
 	
 }
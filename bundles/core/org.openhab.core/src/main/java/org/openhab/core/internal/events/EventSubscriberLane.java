@@ -0,0 +1,430 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.events;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openhab.core.events.AbstractEventSubscriber;
+import org.openhab.core.events.ItemEventFilter;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A subscriber lane is the delivery channel of the {@link AsyncEventDispatcher}
+ * to exactly one {@link EventHandler}. It consists of a bounded FIFO queue and a
+ * single worker thread, which means that the events are delivered in the order
+ * in which they have been published and that a slow subscriber does only delay
+ * its own events.
+ * <p>
+ * A lane can replace another one of the same subscriber (e.g. to change the size
+ * of the queue); it then delivers the events which are left in the queue of the
+ * replaced lane before its own ones. Events which are published to the replaced
+ * lane after it has been emptied are forwarded to the replacing lane.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class EventSubscriberLane {
+
+	private static final Logger logger = LoggerFactory.getLogger(EventSubscriberLane.class);
+	
+	/** the time in milliseconds to wait for free space in a full queue before an event is dropped */
+	private static final long OFFER_TIMEOUT = 5000L;
+	
+	/** the time in milliseconds to wait for the subscriber to finish handling an event when stopping */
+	private static final long STOP_TIMEOUT = 5000L;
+	
+	/** the time in milliseconds to wait for own events while the replaced lane may still receive events */
+	private static final long HANDOVER_POLL_INTERVAL = 100L;
+	
+	/** queued to wake up a waiting worker when it is stopped */
+	private static final QueuedEvent WAKEUP = new QueuedEvent(null, 0);
+	
+	private final String name;
+	
+	private final EventHandler handler;
+	
+	private final String[] topics;
+	
+	private final BlockingQueue<QueuedEvent> queue;
+	
+	private final AtomicLong delivered = new AtomicLong();
+	
+	private final AtomicLong dropped = new AtomicLong();
+	
+	private final AtomicLong totalLatency = new AtomicLong();
+	
+	private final AtomicLong maxLatency = new AtomicLong();
+	
+	private Worker worker;
+
+	// the lane which has been replaced by this one, as long as it has undelivered events
+	private volatile EventSubscriberLane replacedLane;
+	
+	// the lane which replaces this one
+	private volatile EventSubscriberLane successor;
+	
+	// held while queuing an event, exclusively while the lane is sealed
+	private final ReadWriteLock sealLock = new ReentrantReadWriteLock();
+	
+	// set once all events have been handed over, later events are forwarded to the successor
+	private boolean sealed = false;
+	
+	/**
+	 * @param name the name of the subscriber, used for the worker thread and the metrics
+	 * @param handler the event handler to deliver the events to
+	 * @param topics the topics the handler has subscribed to (the 'event.topics' service property)
+	 * @param queueSize the maximum number of events that can be queued for this subscriber
+	 */
+	public EventSubscriberLane(String name, EventHandler handler, String[] topics, int queueSize) {
+		this.name = name;
+		this.handler = handler;
+		this.topics = topics;
+		this.queue = new ArrayBlockingQueue<QueuedEvent>(queueSize);
+	}
+	
+	/**
+	 * Creates a lane which replaces another one of the same subscriber. The
+	 * replaced lane must be stopped before this lane is started.
+	 * 
+	 * @param replacedLane the lane whose undelivered events are delivered first
+	 * @param queueSize the maximum number of events that can be queued for this subscriber
+	 */
+	public EventSubscriberLane(EventSubscriberLane replacedLane, int queueSize) {
+		this(replacedLane.name, replacedLane.handler, replacedLane.topics, queueSize);
+		this.replacedLane = replacedLane;
+		replacedLane.successor = this;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public EventHandler getHandler() {
+		return handler;
+	}
+	
+	public String[] getTopics() {
+		return topics;
+	}
+
+	/**
+	 * Checks whether the subscriber of this lane is interested in the given topic.
+	 * Topic patterns may end with a '*' wildcard as defined by the OSGi EventAdmin
+	 * specification.
+	 * 
+	 * @param topic the topic to check
+	 * @return true, if the topic matches one of the subscribed topics
+	 */
+	public boolean matches(String topic) {
+		for(String pattern : topics) {
+			if(pattern.equals("*") || pattern.equals(topic)) {
+				return true;
+			}
+			if(pattern.endsWith("*") && topic.startsWith(pattern.substring(0, pattern.length() - 1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks whether the subscriber of this lane wants to receive events for
+	 * the given item. This is the case unless it is an {@link ItemEventFilter}
+	 * which does not accept the item.
+	 * 
+	 * @param itemName the name of the item or null, if the event is no item event
+	 * @return true, if events for this item should be delivered
+	 */
+	public boolean accepts(String itemName) {
+		if(itemName!=null && handler instanceof ItemEventFilter) {
+			try {
+				return ((ItemEventFilter) handler).acceptsItem(itemName);
+			} catch (RuntimeException e) {
+				logger.warn("Subscriber '" + name + "' failed to filter item '" + itemName + "'", e);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Queues an event for delivery. If the queue is full, the caller is blocked
+	 * until there is space again; if this does not happen within a few seconds
+	 * (e.g. because the subscriber hangs), the event is dropped. If the lane
+	 * has been replaced and emptied, the event is queued by the replacing lane.
+	 * 
+	 * @param event the event to deliver
+	 */
+	public void enqueue(Event event) {
+		sealLock.readLock().lock();
+		try {
+			if(!sealed) {
+				offer(new QueuedEvent(event, System.nanoTime()));
+				return;
+			}
+		} finally {
+			sealLock.readLock().unlock();
+		}
+		successor.enqueue(event);
+	}
+	
+	private void offer(QueuedEvent queuedEvent) {
+		if(!queue.offer(queuedEvent)) {
+			if(isWorkerThread()) {
+				// we must not wait for ourselves, so we would only deadlock here
+				dropEvent(queuedEvent.event);
+				return;
+			}
+			try {
+				if(!queue.offer(queuedEvent, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					dropEvent(queuedEvent.event);
+				}
+			} catch (InterruptedException e) {
+				dropEvent(queuedEvent.event);
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void dropEvent(Event event) {
+		dropped.incrementAndGet();
+		logger.warn("Event queue of subscriber '{}' is full, dropping event '{}'", name, event.getTopic());
+	}
+	
+	private boolean isWorkerThread() {
+		Worker currentWorker = worker;
+		return currentWorker!=null && Thread.currentThread()==currentWorker.thread;
+	}
+	
+	public synchronized void start() {
+		if(worker==null) {
+			worker = new Worker();
+			worker.thread.start();
+		}
+	}
+	
+	/**
+	 * Stops the worker thread. An event which is being handled at the moment
+	 * is waited for (a few seconds at most), so that the subscriber never gets
+	 * events of this lane and of a lane replacing it at the same time. Events 
+	 * which have not been delivered stay queued.
+	 */
+	public void stop() {
+		Worker stoppedWorker;
+		synchronized(this) {
+			stoppedWorker = worker;
+			worker = null;
+		}
+		if(stoppedWorker==null) {
+			return;
+		}
+		stoppedWorker.stopped = true;
+		// if the queue is full, the worker is busy and won't wait for an event anyway
+		queue.offer(WAKEUP);
+		if(Thread.currentThread()==stoppedWorker.thread) {
+			return;
+		}
+		try {
+			stoppedWorker.thread.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(stoppedWorker.thread.isAlive()) {
+			logger.warn("Subscriber '{}' did not finish handling an event within {}ms", name, STOP_TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Discards all events which have not been delivered yet.
+	 */
+	public void clear() {
+		queue.clear();
+		replacedLane = null;
+	}
+	
+	/**
+	 * @return the next event of the replaced lane, or <code>null</code> if it has none left
+	 */
+	private QueuedEvent pollReplacedLane() {
+		EventSubscriberLane lane = replacedLane;
+		if(lane!=null) {
+			QueuedEvent queuedEvent = lane.pollHandover();
+			if(queuedEvent!=null) {
+				return queuedEvent;
+			}
+			if(lane.seal()) {
+				replacedLane = null;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Called by the successor of this lane to take over the undelivered events,
+	 * including those of a lane which has been replaced by this one.
+	 */
+	private QueuedEvent pollHandover() {
+		QueuedEvent queuedEvent = pollReplacedLane();
+		return queuedEvent!=null ? queuedEvent : queue.poll();
+	}
+	
+	/**
+	 * Forwards all further events to the successor, provided that there are
+	 * no events left and no event is being queued at the moment.
+	 * 
+	 * @return <code>true</code>, if the lane has been sealed
+	 */
+	private boolean seal() {
+		if(!sealLock.writeLock().tryLock()) {
+			return false;
+		}
+		try {
+			if(replacedLane==null && queue.isEmpty()) {
+				sealed = true;
+			}
+			return sealed;
+		} finally {
+			sealLock.writeLock().unlock();
+		}
+	}
+
+	private void deliver(QueuedEvent queuedEvent) {
+		long latency = System.nanoTime() - queuedEvent.timestamp;
+		try {
+			if(handler instanceof AbstractEventSubscriber) {
+				// the item of the event has already been accepted when it was queued
+				((AbstractEventSubscriber) handler).handleAcceptedEvent(queuedEvent.event);
+			} else {
+				handler.handleEvent(queuedEvent.event);
+			}
+		} catch (RuntimeException e) {
+			logger.error("Subscriber '" + name + "' failed to handle event '" + queuedEvent.event.getTopic() + "'", e);
+		}
+		delivered.incrementAndGet();
+		totalLatency.addAndGet(latency);
+		long max = maxLatency.get();
+		while(latency > max && !maxLatency.compareAndSet(max, latency)) {
+			max = maxLatency.get();
+		}
+	}
+	
+	/**
+	 * @return the number of events that are currently waiting for delivery
+	 */
+	public int getQueueDepth() {
+		EventSubscriberLane lane = replacedLane;
+		return queue.size() + (lane!=null ? lane.getQueueDepth() : 0);
+	}
+	
+	/**
+	 * @return the number of events that have been delivered to the subscriber
+	 */
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+	
+	/**
+	 * @return the number of events that have been dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+	
+	/**
+	 * @return the average time in milliseconds an event waited in the queue before delivery
+	 */
+	public double getAverageLatency() {
+		long count = delivered.get();
+		return count > 0 ? totalLatency.get() / (count * 1000000d) : 0d;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds an event waited in the queue before delivery
+	 */
+	public double getMaxLatency() {
+		return maxLatency.get() / 1000000d;
+	}
+	
+	/**
+	 * The thread which delivers the events. Every start of the lane creates
+	 * a new worker, so that a worker which is still finishing after the lane
+	 * has been stopped is not affected by a restart.
+	 */
+	private class Worker implements Runnable {
+		
+		final Thread thread;
+		
+		volatile boolean stopped = false;
+		
+		Worker() {
+			thread = new Thread(this, "EventBus - " + name);
+			thread.setDaemon(true);
+		}
+		
+		public void run() {
+			while(!stopped) {
+				try {
+					QueuedEvent queuedEvent = pollReplacedLane();
+					if(queuedEvent==null) {
+						// as long as the replaced lane is not sealed, it may still receive events
+						queuedEvent = replacedLane==null ? queue.take() 
+								: queue.poll(HANDOVER_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+					}
+					if(queuedEvent!=null && queuedEvent!=WAKEUP) {
+						deliver(queuedEvent);
+					}
+				} catch (InterruptedException e) {
+					// nobody interrupts us, so we just check whether we have been stopped
+				}
+			}
+		}
+	}
+	
+	/**
+	 * An event together with the time when it has been queued.
+	 */
+	private static class QueuedEvent {
+		
+		final Event event;
+		final long timestamp;
+		
+		QueuedEvent(Event event, long timestamp) {
+			this.event = event;
+			this.timestamp = timestamp;
+		}
+	}
+	
+}
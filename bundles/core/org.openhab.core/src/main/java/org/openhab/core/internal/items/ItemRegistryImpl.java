@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.regex.Pattern;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.items.GenericItem;
@@ -63,6 +64,9 @@ import org.slf4j.LoggerFactory;
 public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	
 	private static final Logger logger = LoggerFactory.getLogger(ItemRegistryImpl.class);
+	
+	/** the maximum number of compiled item name patterns we keep in memory */
+	private static final int MAX_PATTERN_CACHE_SIZE = 256;
 
 	/** if an EventPublisher service is available, we provide it to all items, so that they can communicate over the bus */
 	protected EventPublisher eventPublisher;
@@ -70,6 +74,12 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	/** this is our local map in which we store all our items */
 	protected Map<ItemProvider, Collection<Item>> itemMap = new ConcurrentHashMap<ItemProvider, Collection<Item>>();
 	
+	/** an index of all items by their name, so that lookups do not need to scan all providers */
+	protected ConcurrentHashMap<String, Item> itemIndex = new ConcurrentHashMap<String, Item>();
+	
+	/** a cache for the regular expressions that have been compiled from item name patterns */
+	protected Map<String, Pattern> patternCache = new ConcurrentHashMap<String, Pattern>();
+	
 	/** to keep track of all item change listeners */
 	protected Collection<ItemRegistryChangeListener> listeners = new CopyOnWriteArraySet<ItemRegistryChangeListener>();
 
@@ -83,6 +93,8 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		}
 		// then release all items
 		itemMap.clear();
+		itemIndex.clear();
+		patternCache.clear();
     }
 
 	/* (non-Javadoc)
@@ -90,14 +102,11 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Item getItem(String name) throws ItemNotFoundException {
-		for(Collection<Item> items : itemMap.values()) {
-			for(Item item : items) {
-				if(item.getName().matches(name)) {
-					return item;
-				}
-			}
+		Item item = name!=null ? itemIndex.get(name) : null;
+		if(item==null) {
+			throw new ItemNotFoundException(name);
 		}
-		throw new ItemNotFoundException(name);
+		return item;
 	}
 
 	/* (non-Javadoc)
@@ -136,11 +145,11 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 	 */
     @Override
 	public Collection<Item> getItems(String pattern) {
-		String regex = pattern.replace("?", ".?").replace("*", ".*?");
+		Pattern regex = getCompiledPattern(pattern);
 		Collection<Item> matchedItems = new ArrayList<Item>();
 		for(Collection<Item> items : itemMap.values()) {
 			for(Item item : items) {
-				if(item.getName().matches(regex)) {
+				if(regex.matcher(item.getName()).matches()) {
 					matchedItems.add(item);
 				}
 			}
@@ -173,7 +182,10 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 					((GenericItem) item).dispose();
 				}
 			}
-			itemMap.remove(itemProvider);
+			Collection<Item> removedItems = itemMap.remove(itemProvider);
+			if(removedItems!=null) {
+				unindexItems(removedItems);
+			}
 
 			itemProvider.removeItemChangeListener(this);
 			logger.debug("Item provider '{}' has been removed.", itemProvider.getClass().getSimpleName());
@@ -210,10 +222,14 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		}
 
 		Collection<Item> items = new CopyOnWriteArrayList<Item>();
-    	itemMap.put(provider, items);
+		Collection<Item> oldItems = itemMap.put(provider, items);
+		if(oldItems!=null) {
+			unindexItems(oldItems);
+		}
 		for(Item item : provider.getItems()) {
 			if(initializeItem(item)) {
 				items.add(item);
+				itemIndex.put(item.getName(), item);
 			}
 		}
 
@@ -229,6 +245,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		if(items!=null) {
 			if(initializeItem(item)) {
 				items.add(item);
+				itemIndex.put(item.getName(), item);
 			} else {
 				return;
 			}
@@ -244,6 +261,7 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
         items = itemMap.get(provider);
 		if(items!=null) {
 			items.remove(item);
+			unindexItem(item);
 		}
 		for(ItemRegistryChangeListener listener : listeners) {
 			listener.itemRemoved(item);
@@ -260,6 +278,68 @@ public class ItemRegistryImpl implements ItemRegistry, ItemsChangeListener {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * Returns the compiled regular expression for the given item name pattern.
+	 * Patterns may contain '?' and '*' as wildcards; compiled patterns are
+	 * cached, so that rules and UIs which query the same patterns again and
+	 * again do not need to compile them over and over.
+	 * 
+	 * @param pattern the item name pattern
+	 * @return the compiled regular expression
+	 */
+	private Pattern getCompiledPattern(String pattern) {
+		Pattern regex = patternCache.get(pattern);
+		if(regex==null) {
+			regex = Pattern.compile(pattern.replace("?", ".?").replace("*", ".*?"));
+			if(patternCache.size() >= MAX_PATTERN_CACHE_SIZE) {
+				// we do not expect that many different patterns, so simply start over
+				patternCache.clear();
+			}
+			patternCache.put(pattern, regex);
+		}
+		return regex;
+	}
+	
+	/**
+	 * Removes all given items from the name index. Items of other providers
+	 * with the same names are put into the index instead.
+	 * 
+	 * @param items the items to remove
+	 */
+	private void unindexItems(Collection<Item> items) {
+		boolean removed = false;
+		for(Item item : items) {
+			removed |= itemIndex.remove(item.getName(), item);
+		}
+		if(removed) {
+			for(Collection<Item> providedItems : itemMap.values()) {
+				for(Item item : providedItems) {
+					itemIndex.putIfAbsent(item.getName(), item);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Removes an item from the name index. If another provider still provides
+	 * an item with the same name, this one is put into the index instead.
+	 * 
+	 * @param item the item to remove
+	 */
+	private void unindexItem(Item item) {
+		String name = item.getName();
+		if(itemIndex.remove(name, item)) {
+			for(Collection<Item> items : itemMap.values()) {
+				for(Item otherItem : items) {
+					if(otherItem!=item && name.equals(otherItem.getName())) {
+						itemIndex.putIfAbsent(name, otherItem);
+						return;
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * an item should be initialized, which means that the event publisher is
 	 * injected and its implementation is notified that it has just been created,
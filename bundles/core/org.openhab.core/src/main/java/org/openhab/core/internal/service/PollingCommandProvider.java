@@ -0,0 +1,120 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.internal.service;
+
+import java.util.Dictionary;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+import org.openhab.core.service.PollingScheduler;
+import org.openhab.core.service.PollingScheduler.Statistics;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+
+/**
+ * Configures the shared {@link PollingScheduler} and shows the metrics of
+ * the polls of all bindings on the OSGi console of Equinox.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class PollingCommandProvider implements CommandProvider, ManagedService {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		int threads = PollingScheduler.DEFAULT_THREADS;
+		int jitter = PollingScheduler.DEFAULT_JITTER;
+		if (config != null) {
+			threads = parseInt(config, "threads", threads);
+			if (threads < 1) {
+				throw new ConfigurationException("threads", "The value must be positive: " + threads);
+			}
+			jitter = parseInt(config, "jitter", jitter);
+			if (jitter < 0 || jitter > 100) {
+				throw new ConfigurationException("jitter", "The value must be between 0 and 100: " + jitter);
+			}
+		}
+		PollingScheduler.getInstance().setThreads(threads);
+		PollingScheduler.getInstance().setJitter(jitter);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private int parseInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException(key, "'" + value + "' is not a valid number");
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getHelp() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("---openHAB polling commands---\n");
+		buffer.append("\tpolling stats - shows the number, duration and overruns of the polls of all bindings\n");
+		return buffer.toString();
+	}
+
+	/**
+	 * Polling command implementation.
+	 * 
+	 * @param interpreter the equinox command interpreter
+	 * @return null, return parameter is not used
+	 */
+	public Object _polling(CommandInterpreter interpreter) {
+		String arg = interpreter.nextArgument();
+		if (!"stats".equals(arg)) {
+			interpreter.println(getHelp());
+			return null;
+		}
+
+		PollingScheduler scheduler = PollingScheduler.getInstance();
+		interpreter.println(String.format("%-30s %8s %12s %10s %12s %12s %12s", 
+				"Binding", "Tasks", "Polls", "Overruns", "Avg (ms)", "Max (ms)", "Delay (ms)"));
+		for (Statistics statistics : scheduler.getStatistics()) {
+			interpreter.println(String.format("%-30s %8d %12d %10d %12.2f %12d %12.2f", 
+					statistics.getBindingName(), scheduler.getTaskNames(statistics.getBindingName()).size(),
+					statistics.getPollCount(), statistics.getOverrunCount(), statistics.getAverageDuration(), 
+					statistics.getMaxDuration(), statistics.getAverageDelay()));
+		}
+		return null;
+	}
+
+}
@@ -28,12 +28,10 @@
  */
 package org.openhab.core.items;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.openhab.core.events.EventPublisher;
 import org.openhab.core.types.Command;
@@ -51,9 +49,19 @@ import org.openhab.core.types.UnDefType;
  */
 abstract public class GenericItem implements Item {
 	
+	@SuppressWarnings("unchecked")
+	private static final WeakReference<StateChangeListener>[] NO_LISTENERS = new WeakReference[0];
+	
 	protected EventPublisher eventPublisher;
 
-	protected Set<StateChangeListener> listeners = new CopyOnWriteArraySet<StateChangeListener>(Collections.newSetFromMap(new WeakHashMap<StateChangeListener, Boolean>()));
+	/** 
+	 * the weakly referenced listeners of this item. The array is never modified, but
+	 * replaced on every change, so that notifications can iterate over it without 
+	 * locking or copying. 
+	 */
+	private volatile WeakReference<StateChangeListener>[] listeners = NO_LISTENERS;
+	
+	private final Object listenersLock = new Object();
 	
 	protected List<String> groupNames = new ArrayList<String>();
 	
@@ -122,16 +130,28 @@ abstract public class GenericItem implements Item {
 
 	private void notifyListeners(State oldState, State newState) {
 		// if nothing has changed, we send update notifications
-		Set<StateChangeListener> clonedListeners = null;
-		clonedListeners = new CopyOnWriteArraySet<StateChangeListener>(listeners);
-		for(StateChangeListener listener : clonedListeners) {
-			listener.stateUpdated(this, newState);
+		WeakReference<StateChangeListener>[] currentListeners = listeners;
+		boolean collected = false;
+		for(int i = 0; i < currentListeners.length; i++) {
+			StateChangeListener listener = currentListeners[i].get();
+			if(listener!=null) {
+				listener.stateUpdated(this, newState);
+			} else {
+				collected = true;
+			}
 		}
 		if(!oldState.equals(newState)) {
-			for(StateChangeListener listener : clonedListeners) {
-				listener.stateChanged(this, oldState, newState);
+			for(int i = 0; i < currentListeners.length; i++) {
+				StateChangeListener listener = currentListeners[i].get();
+				if(listener!=null) {
+					listener.stateChanged(this, oldState, newState);
+				}
 			}
 		}
+		if(collected) {
+			// some listeners have been garbage collected, so let's get rid of their references
+			removeStateChangeListener(null);
+		}
 	}
 		
 	/**
@@ -144,18 +164,68 @@ abstract public class GenericItem implements Item {
 			"State=" + getState() + ")";
 	}
 
+	/**
+	 * Adds a listener which is notified about state updates and changes of this item.
+	 * The item only keeps a weak reference to the listener, so the caller has to
+	 * make sure that the listener is not garbage collected as long as it needs the
+	 * notifications.
+	 * 
+	 * @param listener the listener to add
+	 */
+	@SuppressWarnings("unchecked")
 	public void addStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.add(listener);
+		synchronized(listenersLock) {
+			WeakReference<StateChangeListener>[] oldListeners = listeners;
+			for(WeakReference<StateChangeListener> reference : oldListeners) {
+				if(reference.get()==listener) {
+					return;
+				}
+			}
+			WeakReference<StateChangeListener>[] newListeners = new WeakReference[oldListeners.length + 1];
+			System.arraycopy(oldListeners, 0, newListeners, 0, oldListeners.length);
+			newListeners[oldListeners.length] = new WeakReference<StateChangeListener>(listener);
+			listeners = newListeners;
 		}
 	}
 	
+	/**
+	 * Removes a listener. The references to all listeners which have already been
+	 * garbage collected are removed as well.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	@SuppressWarnings("unchecked")
 	public void removeStateChangeListener(StateChangeListener listener) {
-		synchronized(listeners) {
-			listeners.remove(listener);
+		synchronized(listenersLock) {
+			List<WeakReference<StateChangeListener>> remainingListeners = new ArrayList<WeakReference<StateChangeListener>>(listeners.length);
+			for(WeakReference<StateChangeListener> reference : listeners) {
+				StateChangeListener registeredListener = reference.get();
+				if(registeredListener!=null && registeredListener!=listener) {
+					remainingListeners.add(reference);
+				}
+			}
+			if(remainingListeners.size()!=listeners.length) {
+				listeners = remainingListeners.isEmpty() ? NO_LISTENERS 
+					: remainingListeners.toArray(new WeakReference[remainingListeners.size()]);
+			}
 		}
 	}
 	
+	/**
+	 * @return all listeners of this item which have not been garbage collected yet
+	 */
+	protected Collection<StateChangeListener> getStateChangeListeners() {
+		WeakReference<StateChangeListener>[] currentListeners = listeners;
+		List<StateChangeListener> result = new ArrayList<StateChangeListener>(currentListeners.length);
+		for(WeakReference<StateChangeListener> reference : currentListeners) {
+			StateChangeListener listener = reference.get();
+			if(listener!=null) {
+				result.add(listener);
+			}
+		}
+		return result;
+	}
+	
 
 	@Override
 	public int hashCode() {
@@ -28,7 +28,9 @@
  */
 package org.openhab.core.items;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
@@ -68,7 +70,7 @@ abstract public interface GroupFunction {
 	 * @since 0.7.0
 	 *
 	 */
-	static class Equality implements GroupFunction {
+	static class Equality implements IncrementalGroupFunction {
 
 		/**
 		 * @{inheritDoc
@@ -99,6 +101,53 @@ abstract public interface GroupFunction {
 				return null;
 			}
 		}
+
+		/**
+		 * @{inheritDoc
+		 */
+		public Aggregator createAggregator() {
+			return new AbstractAggregator<State>() {
+				
+				/** the number of members per state */
+				private final Map<State, Integer> stateCounts = new HashMap<State, Integer>();
+				
+				@Override
+				protected State valueOf(Item item) {
+					return item.getState();
+				}
+
+				@Override
+				protected void add(State value) {
+					Integer count = stateCounts.get(value);
+					stateCounts.put(value, count==null ? 1 : count + 1);
+				}
+
+				@Override
+				protected void remove(State value) {
+					Integer count = stateCounts.get(value);
+					if(count!=null && count > 1) {
+						stateCounts.put(value, count - 1);
+					} else {
+						stateCounts.remove(value);
+					}
+				}
+
+				@Override
+				protected void clear() {
+					stateCounts.clear();
+				}
+
+				public State getState() {
+					if(stateCounts.size()==1) {
+						Map.Entry<State, Integer> entry = stateCounts.entrySet().iterator().next();
+						if(entry.getValue()==getMemberCount()) {
+							return entry.getKey();
+						}
+					}
+					return UnDefType.UNDEF;
+				}
+			};
+		}
 	}
 
 }
@@ -29,6 +29,7 @@
 package org.openhab.core.items;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -49,6 +50,12 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	protected final List<Item> members;
 	
 	protected GroupFunction function;
+	
+	/** the cached result of {@link #getAllMembers()}, null if it needs to be recalculated */
+	private volatile List<Item> allMembers;
+	
+	/** the running values of an incremental group function, null if they need to be recalculated */
+	private IncrementalGroupFunction.Aggregator aggregator;
 
 	public GroupItem(String name) {
 		this(name, null);
@@ -90,13 +97,20 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * Returns the direct members of this {@link GroupItem} and recursively all
 	 * members of the potentially contained {@link GroupItem}s as well. The 
 	 * {@link GroupItem}s itself aren't contained. The returned items are unique.
+	 * The result is cached until the members of this group or of one of the
+	 * contained groups change, so the returned list cannot be modified.
 	 * 
 	 * @return all members of this and all contained {@link GroupItem}s
 	 */
 	public List<Item> getAllMembers() {
-		Set<Item> allMembers = new HashSet<Item>();
-		collectMembers(allMembers, members);
-		return new ArrayList<Item>(allMembers);
+		List<Item> result = allMembers;
+		if (result == null) {
+			Set<Item> allMembersSet = new HashSet<Item>();
+			collectMembers(allMembersSet, members);
+			result = Collections.unmodifiableList(new ArrayList<Item>(allMembersSet));
+			allMembers = result;
+		}
+		return result;
 	}
 	
 	private void collectMembers(Set<Item> allMembers, List<Item> members) {
@@ -116,6 +130,7 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.addStateChangeListener(this);
 		}
+		membersChanged();
 	}
 	
 	public void removeMember(Item item) {
@@ -124,6 +139,28 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 			GenericItem genericItem = (GenericItem) item;
 			genericItem.removeStateChangeListener(this);
 		}
+		membersChanged();
+	}
+	
+	/**
+	 * Invalidates the cached members and running values of the group function.
+	 * As the members of this group are also members of all groups this group
+	 * belongs to, their cached members are invalidated as well.
+	 */
+	protected void membersChanged() {
+		synchronized (this) {
+			aggregator = null;
+		}
+		allMembersChanged();
+	}
+	
+	private void allMembersChanged() {
+		allMembers = null;
+		for (StateChangeListener listener : getStateChangeListeners()) {
+			if (listener instanceof GroupItem) {
+				((GroupItem) listener).allMembersChanged();
+			}
+		}
 	}
 	
 	/** 
@@ -230,13 +267,37 @@ public class GroupItem extends GenericItem implements StateChangeListener {
 	 * @{inheritDoc
 	 */
 	public void stateChanged(Item item, State oldState, State newState) {
-		setState(function.calculate(members));
+		setState(calculateState(item));
 	}
 
 	/**
 	 * @{inheritDoc
 	 */
 	public void stateUpdated(Item item, State state) {
-		setState(function.calculate(members));
+		setState(calculateState(item));
+	}
+	
+	/**
+	 * Calculates the group state after the state of a member has been updated.
+	 * If the group function supports it, only the running values are updated
+	 * for the given member, otherwise the group state is calculated from the
+	 * states of all members.
+	 * 
+	 * @param member the member whose state has been updated
+	 * @return the new state of the group
+	 */
+	private State calculateState(Item member) {
+		if (function instanceof IncrementalGroupFunction) {
+			synchronized (this) {
+				if (aggregator == null) {
+					aggregator = ((IncrementalGroupFunction) function).createAggregator();
+					aggregator.reset(members);
+				} else {
+					aggregator.update(member);
+				}
+				return aggregator.getState();
+			}
+		}
+		return function.calculate(members);
 	}
 }
@@ -0,0 +1,157 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.items;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openhab.core.types.State;
+
+/**
+ * An incremental group function does not need to look at all member states
+ * whenever a single member changes. Instead, it provides an {@link Aggregator}
+ * which keeps the running values (sums, counts, ordered values etc.) of a
+ * single group and updates them for the changed member only.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public interface IncrementalGroupFunction extends GroupFunction {
+
+	/**
+	 * Creates a new aggregator, which holds the running values for a single group.
+	 * 
+	 * @return a new aggregator
+	 */
+	public Aggregator createAggregator();
+	
+	/**
+	 * An aggregator keeps the running values of a group function for one group.
+	 * Implementations do not need to be thread-safe, the caller takes care
+	 * of the synchronization.
+	 */
+	public interface Aggregator {
+		
+		/**
+		 * Throws away all running values and initializes them from the given items.
+		 * 
+		 * @param items the members of the group
+		 */
+		public void reset(List<Item> items);
+
+		/**
+		 * Updates the running values for a member whose state has been updated.
+		 * 
+		 * @param item the member whose state has been updated
+		 */
+		public void update(Item item);
+		
+		/**
+		 * @return the group state that results from the running values
+		 */
+		public State getState();
+		
+	}
+	
+	/**
+	 * Base class for aggregators which remember the value each member
+	 * contributes, so that it can be removed from the running values again
+	 * when the member state changes.
+	 * 
+	 * @param <V> the type of the value a member contributes
+	 */
+	public abstract class AbstractAggregator<V> implements Aggregator {
+		
+		/** the contributed values by member; identity is used as item equality depends on the item state */
+		private final Map<Item, V> values = new IdentityHashMap<Item, V>();
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public void reset(List<Item> items) {
+			values.clear();
+			clear();
+			for(Item item : items) {
+				V value = valueOf(item);
+				values.put(item, value);
+				if(value!=null) {
+					add(value);
+				}
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void update(Item item) {
+			if(!values.containsKey(item)) {
+				return; // this is not one of our members
+			}
+			V oldValue = values.get(item);
+			V newValue = valueOf(item);
+			if(oldValue==null ? newValue==null : oldValue.equals(newValue)) {
+				return;
+			}
+			if(oldValue!=null) {
+				remove(oldValue);
+			}
+			if(newValue!=null) {
+				add(newValue);
+			}
+			values.put(item, newValue);
+		}
+		
+		/**
+		 * @return the number of members
+		 */
+		protected int getMemberCount() {
+			return values.size();
+		}
+		
+		/**
+		 * Determines the value a member contributes to the group state.
+		 * 
+		 * @param item the member
+		 * @return the value of the member or null, if it does not contribute
+		 */
+		protected abstract V valueOf(Item item);
+		
+		/** adds a value to the running values */
+		protected abstract void add(V value);
+		
+		/** removes a previously added value from the running values */
+		protected abstract void remove(V value);
+		
+		/** clears all running values */
+		protected abstract void clear();
+		
+	}
+	
+}
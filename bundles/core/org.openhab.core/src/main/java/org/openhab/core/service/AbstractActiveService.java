@@ -35,6 +35,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Base class for services that frequently run some action in a separate thread in the 
  * background.
+ * <p>
+ * Services which return <code>true</code> from {@link #isSharedPolling()} don't get
+ * a thread of their own, their action is run as a task of the shared
+ * {@link PollingScheduler} instead.
  * 
  * @author Kai Kreuzer
  * @since 0.7.0
@@ -58,6 +62,9 @@ public abstract class AbstractActiveService {
 	 */
 	private Thread refreshThread;
 	
+	/** the name of the task which runs {@link #execute()} on the {@link PollingScheduler} */
+	private static final String REFRESH_TASK = "#refresh";
+	
 	
 	public AbstractActiveService() {
 		super();
@@ -83,7 +90,18 @@ public abstract class AbstractActiveService {
 		}
 				
 		shutdown = false;
-		if (!isRunning()) {
+		if (isSharedPolling()) {
+			if (!isRunning()) {
+				PollingScheduler.getInstance().schedule(getName(), REFRESH_TASK, null, getRefreshInterval(), new Runnable() {
+					public void run() {
+						execute();
+					}
+				});
+				logger.info(getName() + " has been started on the polling scheduler");
+			} else {
+				logger.trace("{} is already started > calling start() changed nothing.", getName());
+			}
+		} else if (!isRunning()) {
 			this.refreshThread = new RefreshThread(getName(), getRefreshInterval());
 			this.refreshThread.start();
 		} else {
@@ -97,6 +115,9 @@ public abstract class AbstractActiveService {
 	 */
 	public void shutdown() {
 		this.shutdown = true;
+		if (isSharedPolling()) {
+			PollingScheduler.getInstance().cancel(getName(), REFRESH_TASK);
+		}
 	}
 	
 	/**
@@ -113,6 +134,9 @@ public abstract class AbstractActiveService {
 	 * {@inheritDoc}
 	 */
 	public boolean isRunning() {
+		if (isSharedPolling()) {
+			return PollingScheduler.getInstance().isScheduled(getName(), REFRESH_TASK);
+		}
 		if (this.refreshThread != null) {
 			return this.refreshThread.isAlive();
 		}
@@ -166,6 +190,17 @@ public abstract class AbstractActiveService {
 	 */
 	protected abstract String getName();
 	
+	/**
+	 * Returns whether the execute method is run by the shared {@link PollingScheduler}
+	 * instead of a refresh thread of its own. It must not block for long then, as
+	 * it occupies a thread which is shared with other services meanwhile.
+	 * 
+	 * @return <code>false</code> by default
+	 */
+	protected boolean isSharedPolling() {
+		return false;
+	}
+	
 	/**
 	 * Worker thread which calls the execute method frequently.
 	 *  
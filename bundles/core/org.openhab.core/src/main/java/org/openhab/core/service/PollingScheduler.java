@@ -0,0 +1,504 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.core.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the polls of active bindings on a pool of threads which is shared by
+ * all bindings, instead of every binding polling all of its items one after
+ * another on a thread of its own.
+ * <p>
+ * A binding registers a poll task for every item (or whatever it polls) with
+ * an interval of its own. A task never runs concurrently with itself; if a
+ * poll takes longer than its interval, the missed polls are skipped and
+ * counted as overruns. The start of every poll is delayed by a random part
+ * of its interval (the jitter), so that tasks with the same interval don't
+ * all poll at the same moment. The first poll of a task is started right
+ * away, delayed by the jitter as well, but by a few seconds at most.
+ * <p>
+ * Tasks can name the device they poll; at most <code>limit</code> tasks of a
+ * device (1 by default) are running at the same time. A task whose device is
+ * busy waits without occupying a thread and is run as soon as another task of
+ * the device has finished.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class PollingScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(PollingScheduler.class);
+
+	/** the default number of threads which run the polls */
+	public static final int DEFAULT_THREADS = 5;
+	
+	/** the default jitter in percent of the interval */
+	public static final int DEFAULT_JITTER = 10;
+
+	/** the maximum delay of the first poll of a task in milliseconds */
+	private static final long MAX_START_DELAY = 5000;
+
+	private static final PollingScheduler instance = new PollingScheduler(DEFAULT_THREADS, DEFAULT_JITTER);
+
+	/**
+	 * The metrics of the polls of a binding.
+	 */
+	public static class Statistics {
+		
+		private final String bindingName;
+		private long polls = 0;
+		private long overruns = 0;
+		private long totalDuration = 0;
+		private long maxDuration = 0;
+		private long totalDelay = 0;
+		
+		private Statistics(String bindingName) {
+			this.bindingName = bindingName;
+		}
+		
+		private synchronized void record(long duration, long delay, boolean overrun) {
+			polls++;
+			totalDuration += duration;
+			maxDuration = Math.max(maxDuration, duration);
+			totalDelay += delay;
+			if (overrun) {
+				overruns++;
+			}
+		}
+		
+		public String getBindingName() {
+			return bindingName;
+		}
+		
+		/**
+		 * @return the number of polls which have been run
+		 */
+		public synchronized long getPollCount() {
+			return polls;
+		}
+		
+		/**
+		 * @return the number of polls which haven't finished before the next one was due
+		 */
+		public synchronized long getOverrunCount() {
+			return overruns;
+		}
+		
+		/**
+		 * @return the average duration of a poll in milliseconds
+		 */
+		public synchronized double getAverageDuration() {
+			return polls > 0 ? (double) totalDuration / polls : 0;
+		}
+
+		/**
+		 * @return the maximum duration of a poll in milliseconds
+		 */
+		public synchronized long getMaxDuration() {
+			return maxDuration;
+		}
+		
+		/**
+		 * @return the average time in milliseconds a poll has been started after it was due
+		 */
+		public synchronized double getAverageDelay() {
+			return polls > 0 ? (double) totalDelay / polls : 0;
+		}
+	}
+
+	/**
+	 * The tasks of a device which are running and waiting to run.
+	 */
+	private static class Device {
+		
+		private int limit = 1;
+		private int running = 0;
+		private final LinkedList<Task> waiting = new LinkedList<Task>();
+		
+		/**
+		 * @return true if the task may run, false if it has to wait for another task of the device
+		 */
+		synchronized boolean acquire(Task task) {
+			if (running < limit) {
+				running++;
+				return true;
+			}
+			waiting.addLast(task);
+			return false;
+		}
+		
+		/**
+		 * @return the waiting task which runs instead of the finished one, or null 
+		 */
+		synchronized Task release() {
+			while (!waiting.isEmpty()) {
+				Task task = waiting.removeFirst();
+				if (!task.cancelled) {
+					return task;
+				}
+			}
+			running--;
+			return null;
+		}
+	}
+
+	/**
+	 * A registered poll, which schedules its next run after it has finished.
+	 */
+	private class Task implements Runnable {
+		
+		final String bindingName;
+		final String name;
+		final Device device;
+		final long interval;
+		final Runnable poll;
+		final Statistics statistics;
+		
+		volatile boolean cancelled = false;
+		ScheduledFuture<?> future;
+		
+		// the time the current run is due without jitter, and with it
+		long due;
+		long scheduled;
+		
+		Task(String bindingName, String name, Device device, long interval, Runnable poll, Statistics statistics) {
+			this.bindingName = bindingName;
+			this.name = name;
+			this.device = device;
+			this.interval = interval;
+			this.poll = poll;
+			this.statistics = statistics;
+		}
+		
+		/**
+		 * Is called by the executor when the task is due.
+		 */
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			if (device == null || device.acquire(this)) {
+				poll();
+			}
+		}
+		
+		void poll() {
+			long start = System.currentTimeMillis();
+			try {
+				poll.run();
+			} catch (RuntimeException e) {
+				logger.error("Error while polling '" + name + "' of binding " + bindingName, e);
+			}
+			long end = System.currentTimeMillis();
+			statistics.record(end - start, Math.max(0, start - scheduled), end > due + interval);
+			
+			if (device != null) {
+				final Task next = device.release();
+				if (next != null) {
+					// the device stays acquired for the waiting task
+					execute(new Runnable() {
+						public void run() {
+							next.poll();
+						}
+					});
+				}
+			}
+			
+			if (!cancelled) {
+				// polls which have been missed are skipped
+				schedule(this, Math.max(due + interval, end));
+			}
+		}
+	}
+
+	// the tasks by name, by binding name
+	private final ConcurrentMap<String, ConcurrentMap<String, Task>> tasks = new ConcurrentHashMap<String, ConcurrentMap<String, Task>>();
+
+	// the devices by binding name and device name
+	private final ConcurrentMap<String, Device> devices = new ConcurrentHashMap<String, Device>();
+
+	private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final Random random = new Random();
+	
+	private volatile int jitter;
+	
+	/**
+	 * @return the polling scheduler which is shared by all bindings
+	 */
+	public static PollingScheduler getInstance() {
+		return instance;
+	}
+
+	PollingScheduler(int threads, int jitter) {
+		this.jitter = jitter;
+		this.executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Polling-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Sets the number of threads which run the polls of all bindings.
+	 * 
+	 * @param threads the number of threads, at least 1
+	 */
+	public void setThreads(int threads) {
+		executor.setCorePoolSize(threads);
+	}
+	
+	public int getThreads() {
+		return executor.getCorePoolSize();
+	}
+
+	/**
+	 * Stops the threads of the scheduler, after all tasks have been cancelled.
+	 * Polls which have not been started are dropped, running polls are waited for.
+	 * 
+	 * @param timeout the time to wait for the running polls in milliseconds
+	 * @return true if all threads have stopped
+	 */
+	boolean shutdown(long timeout) throws InterruptedException {
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		executor.shutdown();
+		return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the maximum delay of the start of a poll in percent of its interval.
+	 * 
+	 * @param jitter the jitter in percent, 0 to start every poll when it is due 
+	 */
+	public void setJitter(int jitter) {
+		this.jitter = jitter;
+	}
+	
+	public int getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Registers a poll task of a binding, which replaces the task of the same
+	 * name if there is one. The first poll is started right away, apart from the jitter.
+	 * 
+	 * @param bindingName the name of the binding
+	 * @param taskName the name of the task, unique within the binding (e.g. the item name)
+	 * @param deviceName the name of the device the task polls or <code>null</code> if 
+	 * the task is not limited by a device
+	 * @param interval the interval of the polls in milliseconds
+	 * @param poll the poll to run
+	 */
+	public void schedule(String bindingName, String taskName, String deviceName, long interval, Runnable poll) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("The interval must be positive: " + interval);
+		}
+		ConcurrentMap<String, Task> bindingTasks = tasks.get(bindingName);
+		if (bindingTasks == null) {
+			bindingTasks = new ConcurrentHashMap<String, Task>();
+			ConcurrentMap<String, Task> existing = tasks.putIfAbsent(bindingName, bindingTasks);
+			if (existing != null) {
+				bindingTasks = existing;
+			}
+		}
+		Task task = new Task(bindingName, taskName, getDevice(bindingName, deviceName), interval, poll, createStatistics(bindingName));
+		Task oldTask = bindingTasks.put(taskName, task);
+		if (oldTask != null) {
+			cancel(oldTask);
+		}
+		// the first polls are due now; the jitter spreads tasks which are scheduled together
+		schedule(task, System.currentTimeMillis(), Math.min(interval * jitter / 100, MAX_START_DELAY));
+		logger.trace("Scheduled poll '{}' of binding {} every {}ms", new Object[] { taskName, bindingName, interval });
+	}
+
+	/**
+	 * Removes a poll task. A poll which is running at the moment is finished.
+	 * 
+	 * @param bindingName the name of the binding
+	 * @param taskName the name of the task
+	 */
+	public void cancel(String bindingName, String taskName) {
+		ConcurrentMap<String, Task> bindingTasks = tasks.get(bindingName);
+		if (bindingTasks != null) {
+			Task task = bindingTasks.remove(taskName);
+			if (task != null) {
+				cancel(task);
+			}
+		}
+	}
+
+	/**
+	 * Removes all poll tasks of a binding.
+	 * 
+	 * @param bindingName the name of the binding
+	 */
+	public void cancelAll(String bindingName) {
+		ConcurrentMap<String, Task> bindingTasks = tasks.remove(bindingName);
+		if (bindingTasks != null) {
+			for (Task task : bindingTasks.values()) {
+				cancel(task);
+			}
+		}
+	}
+
+	/**
+	 * @return true if a poll task of the given name is registered
+	 */
+	public boolean isScheduled(String bindingName, String taskName) {
+		ConcurrentMap<String, Task> bindingTasks = tasks.get(bindingName);
+		return bindingTasks != null && bindingTasks.containsKey(taskName);
+	}
+
+	/**
+	 * @return the names of the registered poll tasks of a binding
+	 */
+	public Collection<String> getTaskNames(String bindingName) {
+		ConcurrentMap<String, Task> bindingTasks = tasks.get(bindingName);
+		if (bindingTasks == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(bindingTasks.keySet());
+	}
+
+	/**
+	 * Sets the number of tasks of a device which may run at the same time.
+	 * 
+	 * @param bindingName the name of the binding
+	 * @param deviceName the name of the device
+	 * @param limit the maximum number of concurrent tasks, at least 1
+	 */
+	public void setDeviceLimit(String bindingName, String deviceName, int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("The limit must be positive: " + limit);
+		}
+		Device device = getDevice(bindingName, deviceName);
+		synchronized (device) {
+			device.limit = limit;
+		}
+	}
+
+	/**
+	 * @return the metrics of the polls of all bindings which have registered tasks so far
+	 */
+	public Collection<Statistics> getStatistics() {
+		return new ArrayList<Statistics>(statistics.values());
+	}
+	
+	/**
+	 * @return the metrics of the polls of a binding or <code>null</code> if it hasn't registered tasks so far
+	 */
+	public Statistics getStatistics(String bindingName) {
+		return statistics.get(bindingName);
+	}
+
+	private Statistics createStatistics(String bindingName) {
+		Statistics result = statistics.get(bindingName);
+		if (result == null) {
+			result = new Statistics(bindingName);
+			Statistics existing = statistics.putIfAbsent(bindingName, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	private Device getDevice(String bindingName, String deviceName) {
+		if (deviceName == null) {
+			return null;
+		}
+		String key = bindingName + "/" + deviceName;
+		Device device = devices.get(key);
+		if (device == null) {
+			device = new Device();
+			Device existing = devices.putIfAbsent(key, device);
+			if (existing != null) {
+				device = existing;
+			}
+		}
+		return device;
+	}
+
+	private void schedule(Task task, long due) {
+		schedule(task, due, task.interval * jitter / 100);
+	}
+
+	/**
+	 * Schedules the next run of a task.
+	 * 
+	 * @param task the task to schedule
+	 * @param due the time the run is due
+	 * @param maxDelay the maximum random delay of the run after it is due
+	 */
+	private void schedule(Task task, long due, long maxDelay) {
+		long now = System.currentTimeMillis();
+		long delay = maxDelay > 0 ? (long) (random.nextDouble() * maxDelay) : 0;
+		synchronized (task) {
+			task.due = due;
+			task.scheduled = due + delay;
+			if (!task.cancelled) {
+				task.future = executor.schedule(task, Math.max(0, task.scheduled - now), TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private void execute(Runnable runnable) {
+		executor.execute(runnable);
+	}
+
+	private void cancel(Task task) {
+		synchronized (task) {
+			task.cancelled = true;
+			if (task.future != null) {
+				task.future.cancel(false);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.io.net.http;
+
+
+/**
+ * Holds the validators (<code>ETag</code> and <code>Last-Modified</code>) and
+ * the body of the last successful response of a URL, so that the URL can be
+ * revalidated by a conditional GET instead of being transferred again (see
+ * {@link HttpUtil#executeConditionalGet(String, java.util.Properties, int, CachedResponse)}).
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class CachedResponse {
+
+	private String etag;
+	
+	private String lastModified;
+	
+	private String body;
+	
+	private boolean notModified;
+	
+
+	/**
+	 * @return the <code>ETag</code> header of the cached response or 
+	 * <code>null</code> if there is none
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @return the <code>Last-Modified</code> header of the cached response or
+	 * <code>null</code> if there is none
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the body of the cached response or <code>null</code> if no
+	 * response has been cached yet
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * @return <code>true</code> if the server answered the last request with
+	 * <code>304 Not Modified</code>, so the cached body is still valid
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * @return <code>true</code> if the cached response can be revalidated
+	 */
+	boolean hasValidators() {
+		return body != null && (etag != null || lastModified != null);
+	}
+
+	void update(String etag, String lastModified, String body) {
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.body = body;
+		this.notModified = false;
+	}
+	
+	void setNotModified(boolean notModified) {
+		this.notModified = notModified;
+	}
+
+	/**
+	 * Forgets the cached response, so the next request is unconditional.
+	 */
+	void clear() {
+		update(null, null, null);
+	}
+	
+}
@@ -43,6 +43,7 @@ import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -52,6 +53,7 @@ import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -62,6 +64,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Some common methods to be used in both HTTP-In-Binding and HTTP-Out-Binding
  * 
+ * All requests share one connection manager, which keeps connections alive
+ * and reuses them for further requests to the same host.
+ * 
  * @author Thomas.Eichstaedt-Engelen
  * @author Kai Kreuzer
  * @since 0.6.0
@@ -73,6 +78,33 @@ public class HttpUtil {
 	/** {@link Pattern} which matches the credentials out of an URL */ 
 	private static final Pattern URL_CREDENTIALS_PATTERN = Pattern.compile("http://(.*?):(.*?)@.*");
 	
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+	
+	/** the connection manager which is shared by all requests */
+	private static final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+	
+	static {
+		connectionManager.getParams().setStaleCheckingEnabled(true);
+		setConnectionLimits(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+	}
+	
+
+	/**
+	 * Sets the number of connections which are kept by the shared connection
+	 * manager. Requests which exceed a limit wait for a free connection (at 
+	 * most as long as their timeout).
+	 * 
+	 * @param maxConnections the maximum number of connections in total
+	 * @param maxConnectionsPerHost the maximum number of connections to a single host
+	 */
+	public static void setConnectionLimits(int maxConnections, int maxConnectionsPerHost) {
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setMaxTotalConnections(maxConnections);
+		params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+	}
+	
 
 	/**
 	 * Executes the given <code>url</code> with the given <code>httpMethod</code>.
@@ -124,6 +156,31 @@ public class HttpUtil {
 	 * @return the response body or <code>NULL</code> when the request went wrong
 	 */
 	public static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout) {
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, null);
+	}
+	
+	/**
+	 * Executes a GET request on the given <code>url</code>. If 
+	 * <code>cachedResponse</code> holds a former response with an 
+	 * <code>ETag</code> or <code>Last-Modified</code> header, the request is
+	 * made conditional and the cached body is returned if the server answers
+	 * <code>304 Not Modified</code>, which is reflected by
+	 * {@link CachedResponse#isNotModified()}. Otherwise the new response is
+	 * stored in <code>cachedResponse</code>. The <code>http.proxyXXX</code>
+	 * System variables are applied as with the other methods.
+	 * 
+	 * @param url the url to execute
+	 * @param httpHeaders optional http request headers which has to be sent within request 
+	 * @param timeout the socket timeout to wait for data
+	 * @param cachedResponse the response of the former request to the same url
+	 * 
+	 * @return the response body or <code>NULL</code> when the request went wrong
+	 */
+	public static String executeConditionalGet(String url, Properties httpHeaders, int timeout, CachedResponse cachedResponse) {
+		return executeUrl("GET", url, httpHeaders, null, null, timeout, cachedResponse);
+	}
+	
+	private static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, CachedResponse cachedResponse) {
 		String proxySet = System.getProperty("http.proxySet");
 		
 		String proxyHost = null;
@@ -147,7 +204,7 @@ public class HttpUtil {
 			nonProxyHosts = System.getProperty("http.nonProxyHosts");
 		}
 		
-		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts);
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts, cachedResponse);
 
 	}
 	
@@ -169,8 +226,15 @@ public class HttpUtil {
 	 * @return the response body or <code>NULL</code> when the request went wrong
 	 */
 	public static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, String proxyHost, Integer proxyPort, String proxyUser, String proxyPassword, String nonProxyHosts) {
+		return executeUrl(httpMethod, url, httpHeaders, content, contentType, timeout, proxyHost, proxyPort, proxyUser, proxyPassword, nonProxyHosts, null);
+	}
+	
+	private static String executeUrl(String httpMethod, String url, Properties httpHeaders, InputStream content, String contentType, int timeout, String proxyHost, Integer proxyPort, String proxyUser, String proxyPassword, String nonProxyHosts, CachedResponse cachedResponse) {
 		
-		HttpClient client = new HttpClient();
+		// the client itself is cheap, it holds the proxy and credentials of
+		// this request while the connections come from the shared manager
+		HttpClient client = new HttpClient(connectionManager);
+		client.getParams().setConnectionManagerTimeout(timeout);
 		
 		// only configure a proxy if a host is provided
 		if (StringUtils.isNotBlank(proxyHost) && proxyPort != null && shouldUseProxy(url, nonProxyHosts)) {
@@ -190,6 +254,18 @@ public class HttpUtil {
 				method.addRequestHeader(new Header(httpHeaderKey,httpHeaders.getProperty(httpHeaderKey)));
 			}
 		}
+		boolean conditional = cachedResponse != null && cachedResponse.hasValidators();
+		if (cachedResponse != null) {
+			cachedResponse.setNotModified(false);
+		}
+		if (conditional) {
+			if (cachedResponse.getETag() != null) {
+				method.setRequestHeader("If-None-Match", cachedResponse.getETag());
+			}
+			if (cachedResponse.getLastModified() != null) {
+				method.setRequestHeader("If-Modified-Since", cachedResponse.getLastModified());
+			}
+		}
 		// add content if a valid method is given ...
 		if (method instanceof EntityEnclosingMethod && content != null ) {
 			EntityEnclosingMethod eeMethod = (EntityEnclosingMethod) method;
@@ -213,6 +289,11 @@ public class HttpUtil {
 		try {
 			
 			int statusCode = client.executeMethod(method);
+			if (conditional && statusCode == HttpStatus.SC_NOT_MODIFIED) {
+				logger.debug("response has not been modified");
+				cachedResponse.setNotModified(true);
+				return cachedResponse.getBody();
+			}
 			if (statusCode != HttpStatus.SC_OK) {
 				logger.warn("Method failed: " + method.getStatusLine());
 			}
@@ -222,6 +303,15 @@ public class HttpUtil {
 				logger.debug(responseBody);
 			}
 			
+			if (cachedResponse != null) {
+				if (statusCode == HttpStatus.SC_OK) {
+					cachedResponse.update(getHeaderValue(method, "ETag"), 
+						getHeaderValue(method, "Last-Modified"), responseBody);
+				} else {
+					cachedResponse.clear();
+				}
+			}
+			
 			return responseBody;
 		}
 		catch (HttpException he) {
@@ -237,6 +327,11 @@ public class HttpUtil {
 		return null;
 	}
 
+	private static String getHeaderValue(HttpMethod method, String headerName) {
+		Header header = method.getResponseHeader(headerName);
+		return header != null ? header.getValue() : null;
+	}
+
 	/**
 	 * Determines whether the list of <code>nonProxyHosts</code> contains the
 	 * host (which is part of the given <code>urlString</code> or not.
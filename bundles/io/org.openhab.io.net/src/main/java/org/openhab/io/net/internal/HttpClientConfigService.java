@@ -0,0 +1,85 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.io.net.internal;
+
+import java.util.Dictionary;
+
+import org.apache.commons.lang.StringUtils;
+import org.openhab.io.net.http.HttpUtil;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the configuration of the connection manager which is shared by all
+ * requests of the {@link HttpUtil}.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class HttpClientConfigService implements ManagedService {
+
+	private static final Logger logger = LoggerFactory.getLogger(HttpClientConfigService.class);
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		int maxConnections = HttpUtil.DEFAULT_MAX_CONNECTIONS;
+		int maxConnectionsPerHost = HttpUtil.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+		
+		if (config != null) {
+			maxConnections = parsePositiveInt(config, "maxconnections", maxConnections);
+			maxConnectionsPerHost = parsePositiveInt(config, "maxperhost", maxConnectionsPerHost);
+		}
+		
+		HttpUtil.setConnectionLimits(maxConnections, maxConnectionsPerHost);
+		logger.debug("HTTP connections are limited to {} in total and {} per host", maxConnections, maxConnectionsPerHost);
+	}
+
+	private static int parsePositiveInt(Dictionary<?, ?> config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if (intValue > 0) {
+				return intValue;
+			}
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		throw new ConfigurationException(key, "the value '" + value + "' is not a positive number");
+	}
+	
+}
@@ -0,0 +1,268 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.rule.internal.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.openhab.core.items.Item;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.core.types.TypeParser;
+import org.openhab.model.rule.rules.ChangedEventTrigger;
+import org.openhab.model.rule.rules.CommandEventTrigger;
+import org.openhab.model.rule.rules.EventTrigger;
+import org.openhab.model.rule.rules.Rule;
+import org.openhab.model.rule.rules.UpdateEventTrigger;
+
+/**
+ * The compiled event triggers of all rules for a single item.
+ * <p>
+ * The state and command literals of the triggers are parsed once, using the
+ * accepted data and command types of the item. The rules are then kept in maps
+ * which are keyed by the parsed values, so that finding the rules for an event
+ * is a map lookup and does not need to parse anything.
+ * <p>
+ * Instances are immutable. A rule appears once for every trigger that matches,
+ * just as if all triggers were evaluated one after another.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+class ItemTriggers {
+
+	private final int version;
+	private final List<Class<? extends State>> stateTypes;
+	private final List<Class<? extends Command>> commandTypes;
+
+	// rules which trigger on any update and rules by the expected state
+	private final List<Rule> anyUpdate;
+	private final Map<State, List<Rule>> updateByState;
+
+	// rules which trigger on any change, by the old, by the new and by both states
+	private final List<Rule> anyChange;
+	private final Map<State, List<Rule>> changeByOldState;
+	private final Map<State, List<Rule>> changeByNewState;
+	private final Map<State, Map<State, List<Rule>>> changeByBothStates;
+
+	// rules which trigger on any command and rules by the expected command
+	private final List<Rule> anyCommand;
+	private final Map<Command, List<Rule>> commandByValue;
+
+	/**
+	 * Compiles the triggers of the given rules for an item.
+	 * 
+	 * @param version the version of the rule mappings the triggers are compiled from
+	 * @param item the item to compile the triggers for
+	 * @param updateRules the rules with update triggers for the item, may be <code>null</code>
+	 * @param changeRules the rules with change triggers for the item, may be <code>null</code>
+	 * @param commandRules the rules with command triggers for the item, may be <code>null</code>
+	 */
+	ItemTriggers(int version, Item item, Iterable<Rule> updateRules, Iterable<Rule> changeRules, Iterable<Rule> commandRules) {
+		this.version = version;
+		this.stateTypes = item.getAcceptedDataTypes();
+		this.commandTypes = item.getAcceptedCommandTypes();
+		String itemName = item.getName();
+
+		List<Rule> anyUpdate = new ArrayList<Rule>();
+		Map<State, List<Rule>> updateByState = new HashMap<State, List<Rule>>();
+		if(updateRules!=null) {
+			for(Rule rule : updateRules) {
+				for(EventTrigger t : rule.getEventtrigger()) {
+					if(t instanceof UpdateEventTrigger) {
+						UpdateEventTrigger ut = (UpdateEventTrigger) t;
+						if(!ut.getItem().equals(itemName)) continue;
+						if(ut.getState()==null) {
+							anyUpdate.add(rule);
+						} else {
+							State state = TypeParser.parseState(stateTypes, ut.getState());
+							// a literal which is no valid state for the item can never match
+							if(state!=null) add(updateByState, state, rule);
+						}
+					}
+				}
+			}
+		}
+
+		List<Rule> anyChange = new ArrayList<Rule>();
+		Map<State, List<Rule>> changeByOldState = new HashMap<State, List<Rule>>();
+		Map<State, List<Rule>> changeByNewState = new HashMap<State, List<Rule>>();
+		Map<State, Map<State, List<Rule>>> changeByBothStates = new HashMap<State, Map<State, List<Rule>>>();
+		if(changeRules!=null) {
+			for(Rule rule : changeRules) {
+				for(EventTrigger t : rule.getEventtrigger()) {
+					if(t instanceof ChangedEventTrigger) {
+						ChangedEventTrigger ct = (ChangedEventTrigger) t;
+						if(!ct.getItem().equals(itemName)) continue;
+						State oldState = null;
+						State newState = null;
+						if(ct.getOldState()!=null) {
+							oldState = TypeParser.parseState(stateTypes, ct.getOldState());
+							if(oldState==null) continue;
+						}
+						if(ct.getNewState()!=null) {
+							newState = TypeParser.parseState(stateTypes, ct.getNewState());
+							if(newState==null) continue;
+						}
+						if(oldState==null && newState==null) {
+							anyChange.add(rule);
+						} else if(newState==null) {
+							add(changeByOldState, oldState, rule);
+						} else if(oldState==null) {
+							add(changeByNewState, newState, rule);
+						} else {
+							Map<State, List<Rule>> byNewState = changeByBothStates.get(oldState);
+							if(byNewState==null) {
+								byNewState = new HashMap<State, List<Rule>>();
+								changeByBothStates.put(oldState, byNewState);
+							}
+							add(byNewState, newState, rule);
+						}
+					}
+				}
+			}
+		}
+
+		List<Rule> anyCommand = new ArrayList<Rule>();
+		Map<Command, List<Rule>> commandByValue = new HashMap<Command, List<Rule>>();
+		if(commandRules!=null) {
+			for(Rule rule : commandRules) {
+				for(EventTrigger t : rule.getEventtrigger()) {
+					if(t instanceof CommandEventTrigger) {
+						CommandEventTrigger ct = (CommandEventTrigger) t;
+						if(!ct.getItem().equals(itemName)) continue;
+						Command command = TypeParser.parseCommand(commandTypes, ct.getCommand());
+						// like before, a literal which cannot be parsed matches any command
+						if(command==null) {
+							anyCommand.add(rule);
+						} else {
+							add(commandByValue, command, rule);
+						}
+					}
+				}
+			}
+		}
+
+		this.anyUpdate = freeze(anyUpdate);
+		this.updateByState = freeze(updateByState);
+		this.anyChange = freeze(anyChange);
+		this.changeByOldState = freeze(changeByOldState);
+		this.changeByNewState = freeze(changeByNewState);
+		Map<State, Map<State, List<Rule>>> frozenBothStates = new HashMap<State, Map<State, List<Rule>>>();
+		for(Entry<State, Map<State, List<Rule>>> entry : changeByBothStates.entrySet()) {
+			frozenBothStates.put(entry.getKey(), freeze(entry.getValue()));
+		}
+		this.changeByBothStates = frozenBothStates;
+		this.anyCommand = freeze(anyCommand);
+		this.commandByValue = freeze(commandByValue);
+	}
+
+	/**
+	 * Checks whether the triggers are still valid for the given item. This is
+	 * not the case if the rules have changed in the meantime or if the item
+	 * now accepts different types, e.g. because it has been redefined.
+	 * 
+	 * @param version the current version of the rule mappings
+	 * @param item the item to check
+	 * @return <code>true</code>, if the triggers can be used for the item
+	 */
+	boolean isValidFor(int version, Item item) {
+		if(this.version!=version) {
+			return false;
+		}
+		List<Class<? extends State>> currentStateTypes = item.getAcceptedDataTypes();
+		List<Class<? extends Command>> currentCommandTypes = item.getAcceptedCommandTypes();
+		return (currentStateTypes==stateTypes || (currentStateTypes!=null && currentStateTypes.equals(stateTypes)))
+			&& (currentCommandTypes==commandTypes || (currentCommandTypes!=null && currentCommandTypes.equals(commandTypes)));
+	}
+
+	List<Rule> getUpdateRules(State state) {
+		return combine(anyUpdate, updateByState.get(state), null, null);
+	}
+
+	List<Rule> getChangeRules(State oldState, State newState) {
+		Map<State, List<Rule>> byNewState = changeByBothStates.get(oldState);
+		return combine(anyChange, changeByOldState.get(oldState), changeByNewState.get(newState), 
+				byNewState==null ? null : byNewState.get(newState));
+	}
+
+	List<Rule> getCommandRules(Command command) {
+		return combine(anyCommand, commandByValue.get(command), null, null);
+	}
+
+	/**
+	 * Combines the matching rule lists. The first list is never <code>null</code>,
+	 * the others are <code>null</code> if there is no match, but never empty. If
+	 * only one list has matches, it is returned directly without creating a new list.
+	 */
+	private static List<Rule> combine(List<Rule> first, List<Rule> second, List<Rule> third, List<Rule> fourth) {
+		List<Rule> result = Collections.emptyList();
+		int nonEmpty = 0;
+		if(!first.isEmpty()) { result = first; nonEmpty++; }
+		if(second!=null) { result = second; nonEmpty++; }
+		if(third!=null) { result = third; nonEmpty++; }
+		if(fourth!=null) { result = fourth; nonEmpty++; }
+		if(nonEmpty <= 1) {
+			return result;
+		}
+		List<Rule> combined = new ArrayList<Rule>(first);
+		if(second!=null) combined.addAll(second);
+		if(third!=null) combined.addAll(third);
+		if(fourth!=null) combined.addAll(fourth);
+		return combined;
+	}
+
+	private static <K> void add(Map<K, List<Rule>> map, K key, Rule rule) {
+		List<Rule> rules = map.get(key);
+		if(rules==null) {
+			rules = new ArrayList<Rule>();
+			map.put(key, rules);
+		}
+		rules.add(rule);
+	}
+
+	private static List<Rule> freeze(List<Rule> rules) {
+		return rules.isEmpty() ? Collections.<Rule>emptyList() : Collections.unmodifiableList(rules);
+	}
+
+	private static <K> Map<K, List<Rule>> freeze(Map<K, List<Rule>> map) {
+		if(map.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		for(Entry<K, List<Rule>> entry : map.entrySet()) {
+			entry.setValue(freeze(entry.getValue()));
+		}
+		return map;
+	}
+
+}
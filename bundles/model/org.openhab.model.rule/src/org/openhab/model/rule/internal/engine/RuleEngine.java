@@ -38,9 +38,13 @@ import static org.openhab.model.rule.internal.engine.RuleTriggerManager.TriggerT
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Dictionary;
 import java.util.List;
 
+import org.apache.commons.lang.StringUtils;
+
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.xtext.naming.QualifiedName;
 import org.openhab.core.items.GenericItem;
 import org.openhab.core.items.Item;
@@ -51,14 +55,16 @@ import org.openhab.core.items.StateChangeListener;
 import org.openhab.core.scriptengine.Script;
 import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.ScriptExecutionException;
-import org.openhab.core.scriptengine.ScriptExecutionThread;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.EventType;
 import org.openhab.core.types.State;
 import org.openhab.model.core.ModelRepository;
 import org.openhab.model.core.ModelRepositoryChangeListener;
 import org.openhab.model.rule.rules.Rule;
+import org.openhab.model.rule.internal.engine.RuleExecutor.QueuePolicy;
 import org.openhab.model.rule.rules.RuleModel;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
@@ -77,7 +83,7 @@ import com.google.common.collect.Lists;
  *
  */
 @SuppressWarnings("restriction")
-public class RuleEngine implements EventHandler, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener {
+public class RuleEngine implements EventHandler, ItemRegistryChangeListener, StateChangeListener, ModelRepositoryChangeListener, ManagedService {
 
 		static private final Logger logger = LoggerFactory.getLogger(RuleEngine.class);
 		
@@ -86,6 +92,11 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 		private ScriptEngine scriptEngine;
 
 		private RuleTriggerManager triggerManager;
+		
+		private final RuleExecutor ruleExecutor = new RuleExecutor();
+		
+		// whether all rules should be linked and prepared for execution as soon as they are loaded
+		private boolean warmup = false;
 						
 		public void activate() {
 			triggerManager = new RuleTriggerManager();
@@ -105,6 +116,9 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 				if(model instanceof RuleModel) {
 					RuleModel ruleModel = (RuleModel) model;
 					triggerManager.addRuleModel(ruleModel);
+					if(warmup) {
+						warmUp(ruleModel);
+					}
 				}
 			}
 			
@@ -120,6 +134,7 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			executeRules(triggerManager.getRules(SHUTDOWN));
 			triggerManager.clearAll();
 			triggerManager = null;
+			ruleExecutor.shutdown();
 		}
 		
 		public void setItemRegistry(ItemRegistry itemRegistry) {
@@ -259,6 +274,9 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 							(type == org.openhab.model.core.EventType.ADDED 
 							|| type == org.openhab.model.core.EventType.MODIFIED)) {
 						triggerManager.addRuleModel(model);
+						if(warmup) {
+							warmUp(model);
+						}
 						// now execute all rules that are meant to trigger at startup
 						runStartupRules();
 					}
@@ -295,26 +313,27 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			}
 		}
 
-		protected synchronized void executeRule(Rule rule) {
+		protected void executeRule(Rule rule) {
 			executeRule(rule, new RuleEvaluationContext());
 		}
 			
-		protected synchronized void executeRule(Rule rule, RuleEvaluationContext context) {
+		protected void executeRule(Rule rule, RuleEvaluationContext context) {
 			Script script = scriptEngine.newScriptFromXExpression(rule.getScript());
 			
 			logger.debug("Executing rule '{}'", rule.getName());
 			
-			context.setGlobalContext(RuleContextHelper.getContext(rule));
+			// the trigger context may be shared by several rules, so every rule gets its own child context
+			RuleEvaluationContext ruleContext = new RuleEvaluationContext(context);
+			ruleContext.setGlobalContext(RuleContextHelper.getContext(rule));
 			
-			ScriptExecutionThread thread = new ScriptExecutionThread(rule.getName(), script, context);
-			thread.start();
+			ruleExecutor.execute(rule.getName(), new RuleExecution(rule.getName(), script, ruleContext));
 		}
 
-		protected synchronized void executeRules(Iterable<Rule> rules) {
+		protected void executeRules(Iterable<Rule> rules) {
 			executeRules(rules, new RuleEvaluationContext());
 		}
 		
-		protected synchronized void executeRules(Iterable<Rule> rules, RuleEvaluationContext context) {
+		protected void executeRules(Iterable<Rule> rules, RuleEvaluationContext context) {
 			for(Rule rule : rules) {
 				executeRule(rule, context);
 			}
@@ -330,4 +349,133 @@ public class RuleEngine implements EventHandler, ItemRegistryChangeListener, Sta
 			return !"true".equalsIgnoreCase(System.getProperty("noRules"));
 		}
 		
+		/**
+		 * Resolves all cross references of a rule model and creates the scripts
+		 * of its rules, so that the first execution of a rule does not have to 
+		 * do this work.
+		 * 
+		 * @param model the rule model to prepare
+		 */
+		private void warmUp(RuleModel model) {
+			long start = System.currentTimeMillis();
+			EcoreUtil.resolveAll(model);
+			for(Rule rule : model.getRules()) {
+				scriptEngine.newScriptFromXExpression(rule.getScript());
+			}
+			logger.debug("Prepared {} rules of '{}' in {}ms", 
+					new Object[] { model.getRules().size(), model.eResource().getURI().lastSegment(), System.currentTimeMillis() - start });
+		}
+		
+		private void warmUpAll() {
+			for(String ruleModelName : Lists.newArrayList(modelRepository.getAllModelNamesOfType("rules"))) {
+				EObject model = modelRepository.getModel(ruleModelName);
+				if(model instanceof RuleModel) {
+					warmUp((RuleModel) model);
+				}
+			}
+		}
+
+		/**
+		 * @return the executor which runs all triggered rules
+		 */
+		public RuleExecutor getRuleExecutor() {
+			return ruleExecutor;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@SuppressWarnings("rawtypes")
+		public void updated(Dictionary config) throws ConfigurationException {
+			int threads = RuleExecutor.DEFAULT_THREADS;
+			int queueSize = RuleExecutor.DEFAULT_QUEUE_SIZE;
+			QueuePolicy policy = QueuePolicy.DROP;
+			boolean serialize = false;
+			boolean warmup = false;
+			
+			if (config != null) {
+				threads = parseInt(config, "threads", threads);
+				queueSize = parseInt(config, "queuesize", queueSize);
+				
+				String policyString = (String) config.get("policy");
+				if ("block".equalsIgnoreCase(StringUtils.trim(policyString))) {
+					// waiting for a free slot would stall the thread which dispatches the events
+					logger.warn("Queue policy 'block' is not supported anymore, new rule executions are dropped instead if the queue is full");
+				} else if (StringUtils.isNotBlank(policyString)) {
+					try {
+						policy = QueuePolicy.valueOf(policyString.trim().toUpperCase());
+					} catch (IllegalArgumentException e) {
+						throw new ConfigurationException("policy", "Unknown queue policy '" + policyString + "', valid values are 'drop' and 'dropoldest'");
+					}
+				}
+				
+				String serializeString = (String) config.get("serialize");
+				if (StringUtils.isNotBlank(serializeString)) {
+					serialize = Boolean.parseBoolean(serializeString.trim());
+				}
+				
+				String warmupString = (String) config.get("warmup");
+				if (StringUtils.isNotBlank(warmupString)) {
+					warmup = Boolean.parseBoolean(warmupString.trim());
+				}
+			}
+			
+			ruleExecutor.configure(threads, queueSize, policy, serialize);
+			logger.debug("Rule engine uses {} threads, a queue size of {} and policy '{}' (serialized: {})", 
+					new Object[] { threads, queueSize, policy, serialize });
+			
+			// the configuration usually arrives after the activation, so the loaded rules are prepared now
+			if (warmup && !this.warmup && triggerManager != null && isEnabled()) {
+				this.warmup = true;
+				warmUpAll();
+			}
+			this.warmup = warmup;
+		}
+		
+		@SuppressWarnings("rawtypes")
+		private static int parseInt(Dictionary config, String key, int defaultValue) throws ConfigurationException {
+			String value = (String) config.get(key);
+			if (StringUtils.isBlank(value)) {
+				return defaultValue;
+			}
+			try {
+				int result = Integer.parseInt(value.trim());
+				if (result < 1) {
+					throw new ConfigurationException(key, "The value must be positive: " + value);
+				}
+				return result;
+			} catch (NumberFormatException e) {
+				throw new ConfigurationException(key, "The value is not a valid number: " + value);
+			}
+		}
+		
+		/**
+		 * Executes the script of a single rule and logs any error that occurs.
+		 */
+		private static class RuleExecution implements Runnable {
+			
+			private final String ruleName;
+			private final Script script;
+			private final RuleEvaluationContext context;
+			
+			RuleExecution(String ruleName, Script script, RuleEvaluationContext context) {
+				this.ruleName = ruleName;
+				this.script = script;
+				this.context = context;
+			}
+			
+			public void run() {
+				try {
+					script.execute(context);
+				} catch (ScriptExecutionException e) {
+					String msg = e.getCause().getMessage();
+					if (msg==null) {
+						logger.error("Error during the execution of rule '{}'", ruleName, e.getCause());
+					} else {
+						logger.error("Error during the execution of rule '{}': {}", new String[] { ruleName, msg });
+					}
+				}
+			}
+		}
+		
 }
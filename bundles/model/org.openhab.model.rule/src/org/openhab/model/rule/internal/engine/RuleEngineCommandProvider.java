@@ -0,0 +1,106 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.rule.internal.engine;
+
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+
+/**
+ * Command provider which shows the execution metrics of the rule engine on
+ * the OSGi console of Equinox.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class RuleEngineCommandProvider implements CommandProvider {
+
+	private RuleEngine ruleEngine;
+	
+	public void setRuleEngine(RuleEngine ruleEngine) {
+		this.ruleEngine = ruleEngine;
+	}
+	
+	public void unsetRuleEngine(RuleEngine ruleEngine) {
+		this.ruleEngine = null;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getHelp() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("---openHAB rule engine commands---\n");
+		buffer.append("\truleengine stats - shows queued and running executions and execution times of all rules\n");
+		return buffer.toString();
+	}
+	
+	/**
+	 * Rule engine command implementation.
+	 * 
+	 * @param interpreter the equinox command interpreter
+	 * @return null, return parameter is not used
+	 */
+	public Object _ruleengine(CommandInterpreter interpreter) {
+		String arg = interpreter.nextArgument();
+		if(!"stats".equals(arg)) {
+			interpreter.println(getHelp());
+			return null;
+		}
+		
+		if(ruleEngine==null) {
+			interpreter.println("Sorry, the rule engine is not available!");
+			return null;
+		}
+		
+		RuleExecutor executor = ruleEngine.getRuleExecutor();
+		interpreter.println(String.format("Threads: %d (%d active), queue size: %d, policy: %s, serialized: %b", 
+				executor.getThreads(), executor.getActiveCount(), executor.getQueueSize(), 
+				executor.getPolicy().toString().toLowerCase(), executor.isSerialize()));
+		
+		StringBuilder header = new StringBuilder(String.format("%-40s %7s %7s %10s %8s %10s %10s", 
+				"Rule", "Queued", "Running", "Executed", "Dropped", "Avg (ms)", "Max (ms)"));
+		for(String label : RuleMetrics.BUCKET_LABELS) {
+			header.append(String.format(" %8s", label));
+		}
+		interpreter.println(header.toString());
+		
+		for(RuleMetrics metrics : executor.getMetrics()) {
+			StringBuilder line = new StringBuilder(String.format("%-40s %7d %7d %10d %8d %10.2f %10d", 
+					metrics.getRuleName(), metrics.getQueued(), metrics.getRunning(), metrics.getExecuted(), 
+					metrics.getDropped(), metrics.getAverageTime(), metrics.getMaxTime()));
+			for(long count : metrics.getHistogram()) {
+				line.append(String.format(" %8d", count));
+			}
+			interpreter.println(line.toString());
+		}
+		return null;
+	}
+	
+}
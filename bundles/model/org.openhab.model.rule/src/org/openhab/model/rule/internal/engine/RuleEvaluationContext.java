@@ -41,6 +41,17 @@ public class RuleEvaluationContext extends DefaultEvaluationContext {
 		super(new DefaultEvaluationContext());
 	}
 	
+	/**
+	 * Creates a context which falls back to the given parent for all values
+	 * it does not define itself. This allows several rules to share the values
+	 * of a single trigger while each of them has its own global context.
+	 * 
+	 * @param parent the context to use as parent
+	 */
+	public RuleEvaluationContext(IEvaluationContext parent) {
+		super(parent);
+	}
+	
 	public void setGlobalContext(IEvaluationContext context) {
 		this.globalContext = context;
 	}
@@ -0,0 +1,380 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.rule.internal.engine;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes rules on a bounded pool of threads instead of starting a new
+ * thread for every triggered rule.
+ * <p>
+ * Rule executions which cannot be started immediately are queued. If the
+ * queue is full, the configured {@link QueuePolicy} decides whether the new
+ * or the oldest queued execution is dropped. The caller is never blocked, as
+ * rules are usually triggered by the thread which dispatches the events. If
+ * serialization is enabled, every rule gets its own queue and never runs
+ * concurrently with itself.
+ * <p>
+ * While a rule is executed, its thread carries the name of the rule.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class RuleExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(RuleExecutor.class);
+
+	/** the policy which is applied when an execution cannot be queued */
+	public enum QueuePolicy {
+		/** drop the new execution */
+		DROP,
+		/** drop the oldest queued execution */
+		DROPOLDEST
+	}
+
+	public static final int DEFAULT_THREADS = 10;
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	private static final long KEEP_ALIVE = 60;
+
+	private int threads = DEFAULT_THREADS;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	private QueuePolicy policy = QueuePolicy.DROP;
+	private volatile boolean serialize = false;
+
+	private volatile ThreadPoolExecutor executor;
+
+	private final ConcurrentMap<String, RuleMetrics> metrics = new ConcurrentHashMap<String, RuleMetrics>();
+	private final ConcurrentMap<String, SerialQueue> serialQueues = new ConcurrentHashMap<String, SerialQueue>();
+
+	/**
+	 * Applies a new configuration. A running thread pool is shut down after it
+	 * has processed its queued executions, a new one is created on demand.
+	 * <p>
+	 * Without serialization the pool queue holds at most <code>queueSize</code>
+	 * executions. With serialization it holds at most one entry per rule, and
+	 * every rule queues at most <code>queueSize</code> executions itself.
+	 * 
+	 * @param threads the maximum number of rules which are executed in parallel
+	 * @param queueSize the maximum number of queued executions
+	 * @param policy the policy to apply if the queue is full
+	 * @param serialize <code>true</code>, if a rule must never run concurrently
+	 * with itself
+	 */
+	public synchronized void configure(int threads, int queueSize, QueuePolicy policy, boolean serialize) {
+		if(threads < 1 || queueSize < 1) {
+			throw new IllegalArgumentException("The number of threads and the queue size must be positive.");
+		}
+		if(this.threads != threads || this.queueSize != queueSize || this.serialize != serialize) {
+			shutdown();
+		}
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.policy = policy;
+		this.serialize = serialize;
+	}
+
+	/**
+	 * Queues the execution of a rule.
+	 * 
+	 * @param ruleName the name of the rule, used for serialization and metrics
+	 * @param execution the actual rule execution
+	 */
+	public void execute(String ruleName, Runnable execution) {
+		RuleMetrics ruleMetrics = getMetrics(ruleName);
+		RuleTask task = new RuleTask(ruleMetrics, execution);
+		ruleMetrics.queued();
+		if(serialize) {
+			getSerialQueue(ruleName).add(task);
+		} else {
+			getExecutor().execute(task);
+		}
+	}
+
+	/**
+	 * Stops accepting new executions. Already queued executions are still
+	 * processed.
+	 */
+	public synchronized void shutdown() {
+		if(executor!=null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the metrics of all rules which have been executed so far
+	 */
+	public Collection<RuleMetrics> getMetrics() {
+		return Collections.unmodifiableCollection(metrics.values());
+	}
+
+	/**
+	 * @return the number of threads which are currently executing rules
+	 */
+	public int getActiveCount() {
+		ThreadPoolExecutor current = executor;
+		return current == null ? 0 : current.getActiveCount();
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public QueuePolicy getPolicy() {
+		return policy;
+	}
+
+	public boolean isSerialize() {
+		return serialize;
+	}
+
+	private RuleMetrics getMetrics(String ruleName) {
+		RuleMetrics ruleMetrics = metrics.get(ruleName);
+		if(ruleMetrics==null) {
+			ruleMetrics = new RuleMetrics(ruleName);
+			RuleMetrics existing = metrics.putIfAbsent(ruleName, ruleMetrics);
+			if(existing!=null) {
+				ruleMetrics = existing;
+			}
+		}
+		return ruleMetrics;
+	}
+
+	private SerialQueue getSerialQueue(String ruleName) {
+		SerialQueue queue = serialQueues.get(ruleName);
+		if(queue==null) {
+			queue = new SerialQueue();
+			SerialQueue existing = serialQueues.putIfAbsent(ruleName, queue);
+			if(existing!=null) {
+				queue = existing;
+			}
+		}
+		return queue;
+	}
+
+	private ThreadPoolExecutor getExecutor() {
+		ThreadPoolExecutor current = executor;
+		if(current==null) {
+			synchronized(this) {
+				if(executor==null) {
+					BlockingQueue<Runnable> queue = serialize 
+						? new LinkedBlockingQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(queueSize);
+					executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+						queue, new RuleThreadFactory(), new QueueFullHandler());
+					executor.allowCoreThreadTimeOut(true);
+				}
+				current = executor;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Drops a runnable which has been rejected by the pool. A rejected serial
+	 * queue cannot run at all, so all of its executions are dropped.
+	 */
+	private static void discard(Runnable runnable) {
+		if(runnable instanceof RuleTask) {
+			RuleTask task = (RuleTask) runnable;
+			task.metrics.dropped();
+			logger.warn("Rule queue is full, dropped execution of rule '{}'", task.metrics.getRuleName());
+		} else if(runnable instanceof SerialQueue) {
+			((SerialQueue) runnable).discardAll();
+		}
+	}
+
+	/**
+	 * Drops the oldest execution which is waiting in the pool queue.
+	 * 
+	 * @return <code>false</code>, if there is nothing left to drop
+	 */
+	private static boolean discardOldest(BlockingQueue<Runnable> queue) {
+		Runnable oldest = queue.peek();
+		if(oldest instanceof SerialQueue) {
+			SerialQueue serialQueue = (SerialQueue) oldest;
+			if(serialQueue.discardOldest()) {
+				queue.remove(serialQueue);
+			}
+			return true;
+		} else if(oldest!=null && queue.remove(oldest)) {
+			discard(oldest);
+			return true;
+		}
+		return oldest!=null;
+	}
+
+	/**
+	 * A single execution of a rule which updates the rule metrics.
+	 */
+	private static class RuleTask implements Runnable {
+
+		private final RuleMetrics metrics;
+		private final Runnable execution;
+
+		RuleTask(RuleMetrics metrics, Runnable execution) {
+			this.metrics = metrics;
+			this.execution = execution;
+		}
+
+		public void run() {
+			Thread thread = Thread.currentThread();
+			String poolName = thread.getName();
+			thread.setName(metrics.getRuleName());
+			metrics.started();
+			long start = System.currentTimeMillis();
+			try {
+				execution.run();
+			} catch(RuntimeException e) {
+				logger.error("Error during the execution of rule '{}'", metrics.getRuleName(), e);
+			} finally {
+				metrics.finished(System.currentTimeMillis() - start);
+				thread.setName(poolName);
+			}
+		}
+	}
+
+	/**
+	 * The queue of a single rule if rules are serialized. At most one thread
+	 * of the pool works on a serial queue at any time.
+	 */
+	private class SerialQueue implements Runnable {
+
+		private final LinkedList<RuleTask> pending = new LinkedList<RuleTask>();
+		private boolean active = false;
+
+		void add(RuleTask task) {
+			synchronized(this) {
+				if(pending.size() >= queueSize) {
+					if(policy == QueuePolicy.DROPOLDEST) {
+						discard(pending.removeFirst());
+					} else {
+						discard(task);
+						return;
+					}
+				}
+				pending.add(task);
+				if(active) {
+					return;
+				}
+				active = true;
+			}
+			getExecutor().execute(this);
+		}
+
+		synchronized void discardAll() {
+			while(!pending.isEmpty()) {
+				discard(pending.removeFirst());
+			}
+			active = false;
+		}
+
+		/**
+		 * Drops the oldest pending execution of this rule.
+		 * 
+		 * @return <code>true</code>, if no executions are left and the queue
+		 * doesn't need to run anymore
+		 */
+		synchronized boolean discardOldest() {
+			if(!pending.isEmpty()) {
+				discard(pending.removeFirst());
+			}
+			if(pending.isEmpty()) {
+				active = false;
+				return true;
+			}
+			return false;
+		}
+
+		public void run() {
+			while(true) {
+				RuleTask next;
+				synchronized(this) {
+					next = pending.poll();
+					if(next==null) {
+						active = false;
+						return;
+					}
+				}
+				next.run();
+			}
+		}
+	}
+
+	/**
+	 * Applies the configured {@link QueuePolicy} when the pool queue is full.
+	 * Only a single execution is dropped at a time, even if the oldest entry
+	 * of the pool queue is the serial queue of a rule.
+	 */
+	private class QueueFullHandler implements RejectedExecutionHandler {
+
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+			if(!pool.isShutdown() && policy == QueuePolicy.DROPOLDEST) {
+				while(discardOldest(pool.getQueue())) {
+					if(pool.isShutdown()) {
+						break;
+					}
+					if(pool.getQueue().offer(runnable)) {
+						return;
+					}
+				}
+			}
+			discard(runnable);
+		}
+	}
+
+	private static class RuleThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			return new Thread(runnable, "RuleEngine-" + count.incrementAndGet());
+		}
+	}
+
+}
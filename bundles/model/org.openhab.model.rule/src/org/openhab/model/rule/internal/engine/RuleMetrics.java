@@ -0,0 +1,148 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.model.rule.internal.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the execution metrics of a single rule: the number of queued and
+ * running executions as well as a histogram of the execution times.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class RuleMetrics {
+
+	/** the upper bounds (exclusive) of the histogram buckets in milliseconds */
+	static final long[] BUCKET_LIMITS = new long[] { 10, 100, 1000, 10000 };
+
+	/** the labels of the histogram buckets, including the last unbounded one */
+	static final String[] BUCKET_LABELS = new String[] { "<10ms", "<100ms", "<1s", "<10s", ">=10s" };
+
+	private final String ruleName;
+	
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong totalTime = new AtomicLong();
+	private final AtomicLong maxTime = new AtomicLong();
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_LABELS.length);
+	
+	public RuleMetrics(String ruleName) {
+		this.ruleName = ruleName;
+	}
+	
+	public String getRuleName() {
+		return ruleName;
+	}
+	
+	void queued() {
+		queued.incrementAndGet();
+	}
+	
+	void dropped() {
+		queued.decrementAndGet();
+		dropped.incrementAndGet();
+	}
+	
+	void started() {
+		queued.decrementAndGet();
+		running.incrementAndGet();
+	}
+	
+	void finished(long durationMillis) {
+		running.decrementAndGet();
+		executed.incrementAndGet();
+		totalTime.addAndGet(durationMillis);
+		
+		long max = maxTime.get();
+		while(durationMillis > max && !maxTime.compareAndSet(max, durationMillis)) {
+			max = maxTime.get();
+		}
+		
+		int bucket = 0;
+		while(bucket < BUCKET_LIMITS.length && durationMillis >= BUCKET_LIMITS[bucket]) {
+			bucket++;
+		}
+		histogram.incrementAndGet(bucket);
+	}
+
+	/**
+	 * @return the number of executions which are waiting for a free thread
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the number of executions which are currently running
+	 */
+	public int getRunning() {
+		return running.get();
+	}
+
+	public long getExecuted() {
+		return executed.get();
+	}
+
+	/**
+	 * @return the number of executions which have been discarded because the
+	 * queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public double getAverageTime() {
+		long count = executed.get();
+		return count == 0 ? 0.0 : (double) totalTime.get() / count;
+	}
+	
+	public long getMaxTime() {
+		return maxTime.get();
+	}
+	
+	/**
+	 * Returns the number of executions per histogram bucket, the buckets are
+	 * described by {@link #BUCKET_LABELS}.
+	 * 
+	 * @return the execution counts per bucket
+	 */
+	public long[] getHistogram() {
+		long[] result = new long[histogram.length()];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = histogram.get(i);
+		}
+		return result;
+	}
+	
+}
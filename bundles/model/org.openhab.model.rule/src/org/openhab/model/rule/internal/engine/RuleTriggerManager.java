@@ -43,13 +43,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.openhab.core.items.Item;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
 import org.openhab.core.types.Type;
-import org.openhab.core.types.TypeParser;
 import org.openhab.model.rule.rules.ChangedEventTrigger;
 import org.openhab.model.rule.rules.CommandEventTrigger;
 import org.openhab.model.rule.rules.EventTrigger;
@@ -105,6 +105,10 @@ public class RuleTriggerManager {
 	private List<Rule> systemStartupTriggeredRules = Lists.newArrayList();
 	private List<Rule> systemShutdownTriggeredRules = Lists.newArrayList();
 	private List<Rule> timerEventTriggeredRules = Lists.newArrayList();
+	
+	// the compiled event triggers by item name and the version of the mapping tables they are based on
+	private Map<String, ItemTriggers> itemTriggers = new ConcurrentHashMap<String, ItemTriggers>();
+	private volatile int version = 0;
 
 	// the scheduler used for timer events
 	private Scheduler scheduler;
@@ -174,95 +178,59 @@ public class RuleTriggerManager {
 		return internalGetRules(triggerType, item, null, command);
 	}
 
-	private Iterable<Rule> getAllRules(TriggerTypes type, String itemName) {
-		switch(type) {
-			case STARTUP:  return systemStartupTriggeredRules;
-			case SHUTDOWN: return systemShutdownTriggeredRules;
-			case UPDATE:   return updateEventTriggeredRules.get(itemName);
-			case CHANGE:   return changedEventTriggeredRules.get(itemName);
-			case COMMAND:  return commandEventTriggeredRules.get(itemName);
-			default:       return Sets.newHashSet();
-		}
-	}
-
 	private Iterable<Rule> internalGetRules(TriggerTypes triggerType, Item item, Type oldType, Type newType) {
-		List<Rule> result = Lists.newArrayList();
-		Iterable<Rule> rules = getAllRules(triggerType, item.getName());
-		if(rules==null) {
-			rules = Lists.newArrayList();
-		}
 		switch(triggerType) {
 		case STARTUP:  return systemStartupTriggeredRules;
 		case SHUTDOWN: return systemShutdownTriggeredRules;
 		case TIMER :   return timerEventTriggeredRules;
-		case UPDATE:   
+		case UPDATE:
 			if(newType instanceof State) {
-				State state = (State) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof UpdateEventTrigger) {
-							UpdateEventTrigger ut = (UpdateEventTrigger) t;
-							if(ut.getItem().equals(item.getName())) {
-								if(ut.getState()!=null) {
-									State triggerState = TypeParser.parseState(item.getAcceptedDataTypes(), ut.getState());
-									if(!state.equals(triggerState)) {
-										continue;
-									}
-								}
-								result.add(rule);
-							}
-						}
-					}
-				}
+				return getItemTriggers(item).getUpdateRules((State) newType);
 			}
 			break;
 		case CHANGE:
 			if(newType instanceof State && oldType instanceof State) {
-				State newState = (State) newType;
-				State oldState = (State) oldType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof ChangedEventTrigger) {
-							ChangedEventTrigger ct = (ChangedEventTrigger) t;						
-							if(ct.getItem().equals(item.getName())) {
-								if(ct.getOldState()!=null) {
-									State triggerOldState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getOldState());
-									if(!oldState.equals(triggerOldState)) {
-										continue;
-									}								
-								}
-								if(ct.getNewState()!=null) {
-									State triggerNewState = TypeParser.parseState(item.getAcceptedDataTypes(), ct.getNewState());
-									if(!newState.equals(triggerNewState)) {
-										continue;
-									}								
-								}
-								result.add(rule);
-							}
-						}
-					}
-				}
+				return getItemTriggers(item).getChangeRules((State) oldType, (State) newType);
 			}
 			break;
-		case COMMAND:  
+		case COMMAND:
 			if(newType instanceof Command) {
-				Command command = (Command) newType;
-				for(Rule rule : rules) {
-					for(EventTrigger t : rule.getEventtrigger()) {
-						if (t instanceof CommandEventTrigger) {
-							CommandEventTrigger ct = (CommandEventTrigger) t;
-							Command triggerCommand = TypeParser.parseCommand(item.getAcceptedCommandTypes(), ct.getCommand());
-							if(ct.getItem().equals(item.getName()) &&
-									(triggerCommand==null || command.equals(triggerCommand))) {
-								result.add(rule);
-							}
-						}
-					}
-				}
+				return getItemTriggers(item).getCommandRules((Command) newType);
 			}
 			break;
 		}
-		return result;
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Returns the compiled event triggers for an item. They are compiled on
+	 * the first event of the item, because the state and command literals can
+	 * only be parsed with the types the item accepts.
+	 * 
+	 * @param item the item to get the triggers for
+	 * @return the compiled triggers
+	 */
+	private ItemTriggers getItemTriggers(Item item) {
+		int currentVersion = version;
+		ItemTriggers triggers = itemTriggers.get(item.getName());
+		if(triggers==null || !triggers.isValidFor(currentVersion, item)) {
+			String itemName = item.getName();
+			synchronized(this) {
+				triggers = new ItemTriggers(currentVersion, item, updateEventTriggeredRules.get(itemName), 
+						changedEventTriggeredRules.get(itemName), commandEventTriggeredRules.get(itemName));
+			}
+			itemTriggers.put(itemName, triggers);
+		}
+		return triggers;
+	}
+
+	/**
+	 * Discards all compiled triggers, must be called whenever the mapping
+	 * tables of the event triggers change.
+	 */
+	private synchronized void invalidateItemTriggers() {
+		version++;
+		itemTriggers.clear();
 	}
 
 	/**
@@ -274,9 +242,9 @@ public class RuleTriggerManager {
 		switch(type) {
 			case STARTUP:  	systemStartupTriggeredRules.clear(); break;
 			case SHUTDOWN: 	systemShutdownTriggeredRules.clear(); break;
-			case UPDATE:   	updateEventTriggeredRules.clear(); break;
-			case CHANGE:   	changedEventTriggeredRules.clear(); break;
-			case COMMAND:  	commandEventTriggeredRules.clear(); break;
+			case UPDATE:   	updateEventTriggeredRules.clear(); invalidateItemTriggers(); break;
+			case CHANGE:   	changedEventTriggeredRules.clear(); invalidateItemTriggers(); break;
+			case COMMAND:  	commandEventTriggeredRules.clear(); invalidateItemTriggers(); break;
 			case TIMER:    	for(Rule rule : timerEventTriggeredRules) {
 								removeTimerRule(rule);
 							}
@@ -341,6 +309,7 @@ public class RuleTriggerManager {
 				}
 			}
 		}
+		invalidateItemTriggers();
 	}
 		
 	/**
@@ -353,9 +322,9 @@ public class RuleTriggerManager {
 		switch(type) {
 			case STARTUP:  	systemStartupTriggeredRules.remove(rule); break;
 			case SHUTDOWN: 	systemShutdownTriggeredRules.remove(rule); break;
-			case UPDATE:   	updateEventTriggeredRules.remove(rule); break;
-			case CHANGE:   	changedEventTriggeredRules.remove(rule); break;
-			case COMMAND:  	commandEventTriggeredRules.remove(rule); break;
+			case UPDATE:   	removeRule(updateEventTriggeredRules, rule); break;
+			case CHANGE:   	removeRule(changedEventTriggeredRules, rule); break;
+			case COMMAND:  	removeRule(commandEventTriggeredRules, rule); break;
 			case TIMER:    	timerEventTriggeredRules.remove(rule); 
 							removeTimerRule(rule);
 							break;
@@ -385,6 +354,14 @@ public class RuleTriggerManager {
 		removeRules(STARTUP, Collections.singletonList(systemStartupTriggeredRules), ruleModel);
 		removeRules(SHUTDOWN, Collections.singletonList(systemShutdownTriggeredRules), ruleModel);		
 		removeRules(TIMER, Collections.singletonList(timerEventTriggeredRules), ruleModel);		
+		invalidateItemTriggers();
+	}
+
+	private void removeRule(Map<String, Set<Rule>> rulesByItem, Rule rule) {
+		for(Set<Rule> rules : rulesByItem.values()) {
+			rules.remove(rule);
+		}
+		invalidateItemTriggers();
 	}
 
 	private void removeRules(TriggerTypes type, Collection<? extends Collection<Rule>> ruleSets, RuleModel model) {
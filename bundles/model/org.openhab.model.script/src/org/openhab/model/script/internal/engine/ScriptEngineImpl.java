@@ -31,8 +31,12 @@ package org.openhab.model.script.internal.engine;
 import static com.google.common.collect.Iterables.filter;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
@@ -48,6 +52,7 @@ import org.eclipse.xtext.validation.CheckMode;
 import org.eclipse.xtext.validation.IResourceValidator;
 import org.eclipse.xtext.validation.Issue;
 import org.eclipse.xtext.xbase.XExpression;
+import org.eclipse.xtext.xbase.interpreter.IExpressionInterpreter;
 import org.openhab.core.scriptengine.Script;
 import org.openhab.core.scriptengine.ScriptEngine;
 import org.openhab.core.scriptengine.ScriptExecutionException;
@@ -56,6 +61,7 @@ import org.openhab.model.script.ScriptStandaloneSetup;
 
 import com.google.common.base.Predicate;
 import com.google.inject.Injector;
+import com.google.inject.Provider;
 
 /**
  * This is the implementation of a {@link ScriptEngine} which is made available as an OSGi service.
@@ -67,36 +73,123 @@ import com.google.inject.Injector;
 @SuppressWarnings("restriction")
 public class ScriptEngineImpl implements ScriptEngine {
 
+	/** the maximum number of scripts parsed from strings which are kept in the cache */
+	private static final int MAX_CACHED_SCRIPTS = 100;
+
 	protected Injector guiceInjector;
 	protected XtextResourceSet resourceSet;
 
+	// the interpreters are not thread-safe, so every thread gets its own instance which it reuses;
+	// they are replaced together with the injector which has created them
+	private volatile ThreadLocal<IExpressionInterpreter> interpreters;
+	
+	private final Provider<IExpressionInterpreter> interpreterProvider = new Provider<IExpressionInterpreter>() {
+		public IExpressionInterpreter get() {
+			ThreadLocal<IExpressionInterpreter> currentInterpreters = interpreters;
+			if(currentInterpreters==null) {
+				throw new IllegalStateException("The script engine is not active");
+			}
+			return currentInterpreters.get();
+		}
+	};
+
+	// the scripts parsed from strings by their source; evicted scripts lose their synthetic resource
+	private final Map<String, Script> scriptCache = new LinkedHashMap<String, Script>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+			if(size() > MAX_CACHED_SCRIPTS) {
+				removeResource(((ScriptImpl) eldest.getValue()).getXExpression());
+				return true;
+			}
+			return false;
+		}
+	};
+
 	public ScriptEngineImpl() {}
 	
 	public void activate() {
 		this.guiceInjector = new ScriptStandaloneSetup().createInjectorAndDoEMFRegistration();
 		this.resourceSet = guiceInjector.getInstance(XtextResourceSet.class);
 		resourceSet.addLoadOption(XtextResource.OPTION_RESOLVE_ALL, Boolean.TRUE);
+		this.interpreters = createInterpreters(guiceInjector);
 	}
 	
 	public void deactivate() {
+		synchronized(scriptCache) {
+			scriptCache.clear();
+		}
+		this.interpreters = null;
 		this.guiceInjector = null;
 		this.resourceSet = null;
 	}
+	
+	private static ThreadLocal<IExpressionInterpreter> createInterpreters(final Injector injector) {
+		return new ThreadLocal<IExpressionInterpreter>() {
+			@Override
+			protected IExpressionInterpreter initialValue() {
+				return injector.getInstance(IExpressionInterpreter.class);
+			}
+		};
+	}
 		
 	/**
 	 * {@inheritDoc}
+	 * 
+	 * Scripts are cached by their source, so that the same source is only
+	 * parsed and validated once.
 	 */
 	public Script newScriptFromString(String scriptAsString)
 			throws ScriptParsingException {
-		return newScriptFromXExpression(parseScriptIntoXTextEObject(scriptAsString));
+		synchronized(scriptCache) {
+			Script script = scriptCache.get(scriptAsString);
+			if(script!=null) {
+				return script;
+			}
+		}
+		XExpression expression = parseScriptIntoXTextEObject(scriptAsString);
+		Script script = newScriptFromXExpression(expression);
+		if(expression!=null) {
+			synchronized(scriptCache) {
+				Script existing = scriptCache.get(scriptAsString);
+				if(existing!=null) {
+					// another thread was faster, so we drop our own resource
+					removeResource(expression);
+					return existing;
+				}
+				scriptCache.put(scriptAsString, script);
+			}
+		}
+		return script;
 	}
 
 	/**
 	 * {@inheritDoc}
+	 * 
+	 * The script is created only once per expression and attached to it, so
+	 * that it is garbage collected together with the model it belongs to.
 	 */
 	public Script newScriptFromXExpression(XExpression expression) {
+		if(expression==null) {
+			return createScript(null);
+		}
+		synchronized(expression) {
+			for(Adapter adapter : expression.eAdapters()) {
+				if(adapter instanceof ScriptAdapter) {
+					return ((ScriptAdapter) adapter).getScript();
+				}
+			}
+			ScriptImpl script = createScript(expression);
+			expression.eAdapters().add(new ScriptAdapter(script));
+			return script;
+		}
+	}
+	
+	private ScriptImpl createScript(XExpression expression) {
 		ScriptImpl script = guiceInjector.getInstance(ScriptImpl.class);
 		script.setXExpression(expression);
+		script.setInterpreterProvider(interpreterProvider);
 		return script;
 	}
 
@@ -109,29 +202,55 @@ public class ScriptEngineImpl implements ScriptEngine {
 	}
 
 	private XExpression parseScriptIntoXTextEObject(String scriptAsString) throws ScriptParsingException {
-		Resource resource = resourceSet.createResource(computeUnusedUri(resourceSet)); // IS-A XtextResource
-		try {
-			resource.load(new StringInputStream(scriptAsString), resourceSet.getLoadOptions());
-		} catch (IOException e) {
-			throw new ScriptParsingException("Unexpected IOException; from close() of a String-based ByteArrayInputStream, no real I/O; how is that possible???", scriptAsString, e);
-		}
+		// the resource set is not thread-safe
+		synchronized(resourceSet) {
+			Resource resource = resourceSet.createResource(computeUnusedUri(resourceSet)); // IS-A XtextResource
+			boolean keepResource = false;
+			try {
+				try {
+					resource.load(new StringInputStream(scriptAsString), resourceSet.getLoadOptions());
+				} catch (IOException e) {
+					throw new ScriptParsingException("Unexpected IOException; from close() of a String-based ByteArrayInputStream, no real I/O; how is that possible???", scriptAsString, e);
+				}
+				
+				List<Diagnostic> errors = resource.getErrors();
+				if (errors.size() != 0) {
+					throw new ScriptParsingException("Failed to parse expression (due to managed SyntaxError/s)", scriptAsString).addDiagnosticErrors(errors);
+				}
+				
+				EList<EObject> contents = resource.getContents();
 		
-		List<Diagnostic> errors = resource.getErrors();
-		if (errors.size() != 0) {
-			throw new ScriptParsingException("Failed to parse expression (due to managed SyntaxError/s)", scriptAsString).addDiagnosticErrors(errors);
+				if (!contents.isEmpty()) {
+					Iterable<Issue> validationErrors = getValidationErrors(contents.get(0));
+					if(!validationErrors.iterator().hasNext()) {
+						keepResource = true;
+						return (XExpression) contents.get(0);
+					} else {
+						throw new ScriptParsingException("Failed to parse expression (due to managed ValidationError/s)", scriptAsString).addValidationIssues(validationErrors);
+					}
+				} else {
+					return null;
+				}
+			} finally {
+				// only resources of valid scripts are kept, all others would never be removed
+				if(!keepResource) {
+					resourceSet.getResources().remove(resource);
+				}
+			}
 		}
-		
-		EList<EObject> contents = resource.getContents();
-
-		if (!contents.isEmpty()) {
-			Iterable<Issue> validationErrors = getValidationErrors(contents.get(0));
-			if(!validationErrors.iterator().hasNext()) {
-				return (XExpression) contents.get(0);
-			} else {
-				throw new ScriptParsingException("Failed to parse expression (due to managed ValidationError/s)", scriptAsString).addValidationIssues(validationErrors);
+	}
+
+	/**
+	 * Removes the synthetic resource of a script from the resource set. The
+	 * resource is not unloaded, so that the script can still be executed by
+	 * anybody holding a reference to it.
+	 */
+	private void removeResource(XExpression expression) {
+		Resource resource = expression==null ? null : expression.eResource();
+		if(resource!=null) {
+			synchronized(resourceSet) {
+				resourceSet.getResources().remove(resource);
 			}
-		} else {
-			return null;
 		}
 	}
 
@@ -162,4 +281,21 @@ public class ScriptEngineImpl implements ScriptEngine {
 		return issues;
 	}
 
+	/**
+	 * EMF adapter which attaches the created script to its expression
+	 */
+	private static class ScriptAdapter extends AdapterImpl {
+		
+		private final Script script;
+
+		public ScriptAdapter(Script script) {
+			this.script = script;
+		}
+
+		public Script getScript() {
+			return script;
+		}
+		
+	}
+
 }
@@ -42,6 +42,8 @@ import com.google.inject.Provider;
 
 /**
  * This is the default implementation of a {@link Script}.
+ * Instances are cached and executed repeatedly, possibly by several threads
+ * at once; the interpreter is therefore taken from a provider on every execution.
  * 
  * @author Kai Kreuzer
  * @since 0.9.0
@@ -50,7 +52,7 @@ import com.google.inject.Provider;
 @SuppressWarnings("restriction")
 public class ScriptImpl implements Script {
 
-	@Inject protected IExpressionInterpreter interpreter;
+	@Inject protected Provider<IExpressionInterpreter> interpreterProvider;
 	@Inject protected Provider<IEvaluationContext> contextProvider;
 
 	private XExpression xExpression;
@@ -67,6 +69,11 @@ public class ScriptImpl implements Script {
 	XExpression getXExpression() {
 		return xExpression;
 	}
+
+	/* package-local */
+	void setInterpreterProvider(Provider<IExpressionInterpreter> interpreterProvider) {
+		this.interpreterProvider = interpreterProvider;
+	}
 	
 	public Object execute() throws ScriptExecutionException {
 	    IEvaluationContext evaluationContext = contextProvider.get();
@@ -76,7 +83,7 @@ public class ScriptImpl implements Script {
 	public Object execute(IEvaluationContext evaluationContext) throws ScriptExecutionException {
 		if(xExpression!=null) {
 		    try {
-		    	IEvaluationResult result = interpreter.evaluate(xExpression, evaluationContext, CancelIndicator.NullImpl);
+		    	IEvaluationResult result = interpreterProvider.get().evaluate(xExpression, evaluationContext, CancelIndicator.NullImpl);
 			    if(result==null) {
 			    	// this can only happen on an InterpreterCancelledException, i.e. NEVER ;-)
 			    	return null;
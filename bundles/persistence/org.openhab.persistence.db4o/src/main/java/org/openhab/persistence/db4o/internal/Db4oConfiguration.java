@@ -59,6 +59,15 @@ public class Db4oConfiguration implements ManagedService {
 	/** the amount of backup files allowed in DB_FOLDER_NAME (optional, defaults to '7') */
 	public static int maxBackups = 7;
 	
+	/** the number of days after which item states are removed (optional, defaults to '0' which keeps them forever) */
+	public static int retention = 0;
+	
+	/** the interval of removing old item states as Cron-Expression (optional, defaults to '0 30 0 * * ?' which means every night at 0:30) */
+	public static String retentionInterval = "0 30 0 * * ?";
+	
+	/** the defragmentation interval as Cron-Expression (optional, defaults to no defragmentation) */
+	public static String defragInterval = null;
+	
 	
 	/**
 	 * {@inheritDoc}
@@ -90,6 +99,24 @@ public class Db4oConfiguration implements ManagedService {
 					logger.warn("couldn't parse '{}' to an integer");
 				}
 			}
+
+			String retentionString = (String) config.get("retention");
+			if (StringUtils.isNotBlank(retentionString)) {
+				try {
+					retention = Integer.valueOf(retentionString);
+				}
+				catch (IllegalArgumentException iae) {
+					logger.warn("couldn't parse '{}' to an integer", retentionString);
+				}
+			}
+
+			String retentionIntervalString = (String) config.get("retentioninterval");
+			if (StringUtils.isNotBlank(retentionIntervalString)) {
+				retentionInterval = retentionIntervalString;
+			}
+
+			String defragIntervalString = (String) config.get("defraginterval");
+			defragInterval = StringUtils.isNotBlank(defragIntervalString) ? defragIntervalString : null;
 		}
 	}
 	
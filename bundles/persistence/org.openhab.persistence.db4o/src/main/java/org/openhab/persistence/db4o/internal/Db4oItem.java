@@ -34,7 +34,7 @@ import java.util.Date;
 import org.openhab.core.persistence.HistoricItem;
 import org.openhab.core.types.State;
 
-import com.db4o.config.Configuration;
+import com.db4o.config.CommonConfiguration;
 
 /**
  * This is a Java bean used to persist item states with timestamps in the database.
@@ -78,7 +78,14 @@ public class Db4oItem implements HistoricItem {
 		return DateFormat.getDateTimeInstance().format(timestamp) + ": " + name + " -> "+ state.toString();
 	}
 
-	static /* default */ void configure(Configuration config) {
+	/**
+	 * Configures the storage of the items. This has to be done before the
+	 * database is opened, as the indexes of the fields are only created
+	 * while opening it.
+	 * 
+	 * @param config the configuration to open the database with
+	 */
+	static /* default */ void configure(CommonConfiguration config) {
 		config.objectClass(Db4oItem.class).objectField("name").indexed(true);
 		config.objectClass(Db4oItem.class).objectField("timestamp").indexed(true);
 
@@ -30,7 +30,10 @@ package org.openhab.persistence.db4o.internal;
 
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.backupInterval;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.commitInterval;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.defragInterval;
 import static org.openhab.persistence.db4o.internal.Db4oConfiguration.maxBackups;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.retention;
+import static org.openhab.persistence.db4o.internal.Db4oConfiguration.retentionInterval;
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.SimpleScheduleBuilder.repeatSecondlyForever;
 import static org.quartz.TriggerBuilder.newTrigger;
@@ -38,19 +41,29 @@ import static org.quartz.impl.matchers.GroupMatcher.jobGroupEquals;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.openhab.core.items.Item;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PagedQueryResult;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
+import org.openhab.core.persistence.RawStatePersistenceService;
+import org.openhab.core.persistence.TimestampedPersistenceService;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.CronTrigger;
 import org.quartz.DisallowConcurrentExecution;
@@ -69,6 +82,9 @@ import org.slf4j.LoggerFactory;
 import com.db4o.Db4oEmbedded;
 import com.db4o.ObjectContainer;
 import com.db4o.ObjectSet;
+import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.defragment.Defragment;
+import com.db4o.defragment.DefragmentConfig;
 import com.db4o.ext.DatabaseClosedException;
 import com.db4o.ext.Db4oException;
 import com.db4o.ext.ExtObjectContainer;
@@ -81,7 +97,7 @@ import com.db4o.query.Query;
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class Db4oPersistenceService implements QueryablePersistenceService {
+public class Db4oPersistenceService implements BulkQueryablePersistenceService, RawStatePersistenceService, TimestampedPersistenceService {
 
 	private static final Logger logger = LoggerFactory.getLogger(Db4oPersistenceService.class);
 	
@@ -92,8 +108,17 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 
 	private static final String SCHEDULER_GROUP = "DB4O_SchedulerGroup";
 	
+	/** the number of item states which are removed within one transaction */
+	private static final int RETENTION_BATCH_SIZE = 1000;
+	
 	private static ObjectContainer db;
 	
+	/** 
+	 * guards the database against being closed while it is used, which
+	 * happens for defragmenting it
+	 */
+	private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
 	
 	public String getName() {
 		return SERVICE_NAME;
@@ -105,7 +130,6 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 			folder.mkdir();
 		}
 	    openDbFile();
-	    Db4oItem.configure(db.ext().configure());
 	    
 	    scheduleJob();
 	}
@@ -113,9 +137,14 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	public void deactivate() {
 		cancelAllJobs();
 		
-		if(db!=null) {
-			db.close();
-			db = null;
+		lock.writeLock().lock();
+		try {
+			if(db!=null) {
+				db.close();
+				db = null;
+			}
+		} finally {
+			lock.writeLock().unlock();
 		}
 	}
 	
@@ -125,31 +154,90 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	}
 
 	public void store(Item item, String alias) {
+		store(item, alias, new Date());
+	}
+
+	public void store(Item item, String alias, Date timestamp) {
 		if(alias==null) alias = item.getName();
 		
 		Db4oItem historicItem = new Db4oItem();
 		historicItem.setName(alias);
 		historicItem.setState(item.getState());
-		historicItem.setTimestamp(new Date());
+		historicItem.setTimestamp(timestamp);
 		
+		lock.readLock().lock();
 		try {
 			db.store(historicItem);
 			logger.debug("Stored item state '{}' -> '{}'", new String[] {historicItem.getName(), historicItem.getState().toString() } );
 		} catch(Db4oException e) {
 			db.rollback();
 			logger.warn("Error storing state for item '{}' as '{}': {}", new String[] { item.getName(), alias, e.getMessage() });
+		} finally {
+			lock.readLock().unlock();
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The query is executed when the first page is read. Only the identities
+	 * of the matching items are kept, the items themselves are activated when
+	 * their page is read, so no more than the requested page of the result
+	 * is loaded into memory.
+	 */
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		final FilterCriteria criteria = filter != null ? filter : new FilterCriteria();
+		
+		return new PagedQueryResult(criteria, PagedQueryResult.DEFAULT_FETCH_SIZE) {
+			private ObjectContainer container;
+			private ObjectSet<HistoricItem> results;
+			
+			protected List<HistoricItem> fetch(long offset, int count) {
+				lock.readLock().lock();
+				try {
+					// the query is executed again if the database has been reopened in between
+					if (results == null || container != db) {
+						Query query = createQuery(criteria);
+						if (query == null) {
+							return Collections.emptyList();
+						}
+						container = db;
+						results = query.execute();
+					}
+					if (offset >= results.size()) {
+						return Collections.emptyList();
+					}
+					int end = (int) Math.min(offset + count, results.size());
+					List<HistoricItem> items = new ArrayList<HistoricItem>(end - (int) offset);
+					for (int index = (int) offset; index < end; index++) {
+						items.add(results.get(index));
+					}
+					return items;
+				} finally {
+					lock.readLock().unlock();
+				}
+			}
+			
+			protected void release() {
+				results = null;
+				container = null;
+			}
+		};
+	}
+	
+	/**
+	 * Creates the query for the given filter, which uses the indexes of the
+	 * name and the timestamp.
+	 * 
+	 * @param filter the filter of the query
+	 * @return the query or <code>null</code> if the database couldn't be opened
+	 */
+	private Query createQuery(FilterCriteria filter) {
 		Query query = queryWithReconnect();
 		
 		if (query != null) {
 			query.constrain(Db4oItem.class);
 			
-			if (filter==null) {
-				filter = new FilterCriteria();
-			}
 			if (filter.getBeginDate()!=null) {
 				query.descend("timestamp").constrain(filter.getBeginDate()).greater().equal();
 			}
@@ -175,19 +263,44 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 			} else {
 				query.descend("timestamp").orderDescending();
 			}
-			ObjectSet<HistoricItem> results = query.execute();
+		}
+		
+		return query;
+	}
 	
-			int startIndex = filter.getPageNumber() * filter.getPageSize();
-			if (startIndex < results.size()) {
-				int endIndex = startIndex + filter.getPageSize();
-				if(endIndex > results.size()) {
-					endIndex = results.size();
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Every item is queried on the index of its name, so only its own
+	 * history is ordered and just the first result is read.
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> latest = new HashMap<String, HistoricItem>();
+		if (itemNames.isEmpty()) {
+			return latest;
+		}
+		
+		lock.readLock().lock();
+		try {
+			for(String itemName : itemNames) {
+				Query query = queryWithReconnect();
+				if (query == null) {
+					return latest;
+				}
+				
+				query.constrain(Db4oItem.class);
+				query.descend("name").constrain(itemName).equal();
+				query.descend("timestamp").orderDescending();
+				ObjectSet<Db4oItem> results = query.execute();
+				if(results.hasNext()) {
+					latest.put(itemName, results.next());
 				}
-				return results.subList(startIndex, endIndex);
 			}
+		} finally {
+			lock.readLock().unlock();
 		}
 		
-		return Collections.emptyList();
+		return latest;
 	}
 	
 	/**
@@ -211,13 +324,20 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	}
 
 	private static void openDbFile() {
-		db = Db4oEmbedded.openFile(Db4oEmbedded.newConfiguration(), DB_FOLDER_NAME + File.separator + DB_FILE_NAME);
+		db = Db4oEmbedded.openFile(createConfiguration(), DB_FOLDER_NAME + File.separator + DB_FILE_NAME);
+	}
+	
+	private static EmbeddedConfiguration createConfiguration() {
+		EmbeddedConfiguration config = Db4oEmbedded.newConfiguration();
+		Db4oItem.configure(config.common());
+		return config;
 	}
 	
 
 	/**
-	 * Schedules new quartz scheduler jobs for committing transactions and 
-	 * backing up the database
+	 * Schedules new quartz scheduler jobs for committing transactions, 
+	 * backing up the database, removing old item states and defragmenting
+	 * the database
 	 */
 	private void scheduleJob() {
 		try {
@@ -248,6 +368,34 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 
 			sched.scheduleJob(backupJob, backupTrigger);
 			logger.debug("Scheduled Backup-Job with cron expression '{}'", backupInterval);
+			
+			// schedule retention-job
+			JobDetail retentionJob = newJob(RetentionJob.class)
+					.withIdentity("Retention_DB", SCHEDULER_GROUP)
+					.build();
+			
+			CronTrigger retentionTrigger = newTrigger()
+					.withIdentity("Retention_DB", SCHEDULER_GROUP)
+					.withSchedule(CronScheduleBuilder.cronSchedule(retentionInterval))
+					.build();
+			
+			sched.scheduleJob(retentionJob, retentionTrigger);
+			logger.debug("Scheduled Retention-Job with cron expression '{}'", retentionInterval);
+			
+			// schedule defragment-job
+			if (defragInterval != null) {
+				JobDetail defragJob = newJob(DefragmentJob.class)
+						.withIdentity("Defragment_DB", SCHEDULER_GROUP)
+						.build();
+				
+				CronTrigger defragTrigger = newTrigger()
+						.withIdentity("Defragment_DB", SCHEDULER_GROUP)
+						.withSchedule(CronScheduleBuilder.cronSchedule(defragInterval))
+						.build();
+				
+				sched.scheduleJob(defragJob, defragTrigger);
+				logger.debug("Scheduled Defragment-Job with cron expression '{}'", defragInterval);
+			}
 		} catch (SchedulerException e) {
 			logger.warn("Could not create Job: {}", e.getMessage());
 		}		
@@ -283,6 +431,7 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 		@Override
 		public void execute(JobExecutionContext context) throws JobExecutionException {
 			long startTime = System.currentTimeMillis();
+			lock.readLock().lock();
 			try {
 				db.commit();
 				logger.trace("successfully commited db4o transaction in {}ms", System.currentTimeMillis() - startTime);
@@ -294,6 +443,8 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 					// ignore a failed rollback if database is closed (what happens regularly during shutdown)
 					logger.debug("Cannot roll back transaction because database is closed: {}", e.getMessage());
 				}
+			} finally {
+				lock.readLock().unlock();
 			}
 		}
 		
@@ -319,6 +470,7 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 				DATE_FORMATTER.format(System.currentTimeMillis()) + "_" + DB_FILE_NAME + ".bak";
 			
 			removeObsoleteBackupFiles(DB_FOLDER_NAME);
+			lock.readLock().lock();
 			try {
 				ExtObjectContainer extDb = db.ext();
 				if (!extDb.isClosed()) {
@@ -329,6 +481,8 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 				}
 			} catch(Db4oException e) {
 				logger.warn("Error creating backup '{}': {}", backupFileName, e.getMessage());
+			} finally {
+				lock.readLock().unlock();
 			}
 		}
 		
@@ -368,4 +522,127 @@ public class Db4oPersistenceService implements QueryablePersistenceService {
 	}
 	
 
+	/**
+	 * A quartz scheduler job to remove the item states which are older than
+	 * the configured retention. The states are deleted in transactions of
+	 * {@link #RETENTION_BATCH_SIZE} items, so that a large backlog doesn't
+	 * end up in one huge transaction. There can be only one instance of a
+	 * specific job type running at the same time.
+	 * 
+	 * @author agent
+	 * @since 1.4.0
+	 */
+	@DisallowConcurrentExecution
+	public static class RetentionJob implements Job {
+		
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			if (retention <= 0) {
+				return;
+			}
+			long startTime = System.currentTimeMillis();
+			Date cutoff = new Date(startTime - retention * 24L * 60L * 60L * 1000L);
+			int removed = 0;
+			
+			lock.readLock().lock();
+			try {
+				Query query = db.query();
+				query.constrain(Db4oItem.class);
+				query.descend("timestamp").constrain(cutoff).smaller();
+				ObjectSet<Db4oItem> results = query.execute();
+				
+				while (results.hasNext()) {
+					db.delete(results.next());
+					if (++removed % RETENTION_BATCH_SIZE == 0) {
+						db.commit();
+					}
+				}
+				db.commit();
+				logger.debug("successfully removed {} item states older than {} in {}ms", 
+					new Object[] { removed, cutoff, System.currentTimeMillis() - startTime });
+			} catch(Db4oException e) {
+				try {
+					db.rollback();
+				} catch(DatabaseClosedException dce) {
+					// the transaction is discarded anyway
+				}
+				logger.warn("Error removing old item states after {} removed ones: {}", removed, e.getMessage());
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+		
+	}
+	
+	/**
+	 * A quartz scheduler job to defragment the db4o database, which reclaims
+	 * the space of removed item states and rebuilds the indexes. The database
+	 * has to be closed meanwhile, so storing and querying item states is
+	 * blocked until the job has finished. There can be only one instance of
+	 * a specific job type running at the same time.
+	 * 
+	 * @author agent
+	 * @since 1.4.0
+	 */
+	@DisallowConcurrentExecution
+	public static class DefragmentJob implements Job {
+		
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			long startTime = System.currentTimeMillis();
+			String dbFileName = DB_FOLDER_NAME + File.separator + DB_FILE_NAME;
+			File backupFile = new File(dbFileName + ".defrag");
+			if (backupFile.exists()) {
+				// it might be the only intact copy of the database after a failed defragmentation
+				logger.warn("skipped defragmenting DB4O database because '{}' already exists", backupFile);
+				return;
+			}
+			
+			lock.writeLock().lock();
+			try {
+				if (db == null) {
+					return;
+				}
+				db.close();
+				
+				DefragmentConfig config = new DefragmentConfig(dbFileName, backupFile.getPath());
+				config.db4oConfig(createConfiguration());
+				config.forceBackupDelete(true);
+				Defragment.defrag(config);
+				
+				logger.debug("successfully defragmented DB4O database '{}' in {}ms", dbFileName, System.currentTimeMillis() - startTime);
+				if (!backupFile.delete()) {
+					logger.debug("couldn't delete file '{}'", backupFile);
+				}
+			} catch(IOException e) {
+				restoreDbFile(dbFileName, backupFile, e);
+			} catch(Db4oException e) {
+				restoreDbFile(dbFileName, backupFile, e);
+			} finally {
+				try {
+					if (db != null) {
+						openDbFile();
+					}
+				} finally {
+					lock.writeLock().unlock();
+				}
+			}
+		}
+		
+		/**
+		 * Puts the copy of the database back into place, which the defragmentation
+		 * has left behind on failure.
+		 */
+		private void restoreDbFile(String dbFileName, File backupFile, Exception e) {
+			logger.warn("Error defragmenting DB4O database '{}': {}", dbFileName, e.getMessage());
+			File dbFile = new File(dbFileName);
+			if (backupFile.exists() && (!dbFile.exists() || dbFile.delete())) {
+				if (!backupFile.renameTo(dbFile)) {
+					logger.error("couldn't restore DB4O database '{}' from '{}'", dbFileName, backupFile);
+				}
+			}
+		}
+		
+	}
+	
 }
@@ -0,0 +1,219 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.logging.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.FileAppender;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class ItemLogWriterTest {
+
+	/**
+	 * Records the appended messages instead of writing them to a file.
+	 */
+	private static class RecordingAppender extends FileAppender<ILoggingEvent> {
+		final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		volatile boolean stopped = false;
+
+		@Override
+		public void doAppend(ILoggingEvent event) {
+			messages.add(event.getMessage());
+		}
+
+		@Override
+		public void stop() {
+			stopped = true;
+		}
+	}
+
+	private class RecordingFactory implements ItemLogWriter.AppenderFactory {
+		private final Map<String, RecordingAppender> appenders = new HashMap<String, RecordingAppender>();
+		private int created = 0;
+
+		public synchronized FileAppender<ILoggingEvent> createAppender(String alias) {
+			if (alias.equals(failingAlias)) {
+				throw new IllegalStateException("Cannot open the file of " + alias);
+			}
+			RecordingAppender appender = new RecordingAppender();
+			appenders.put(alias, appender);
+			created++;
+			return appender;
+		}
+
+		synchronized RecordingAppender get(String alias) {
+			return appenders.get(alias);
+		}
+
+		synchronized int getCreated() {
+			return created;
+		}
+	}
+
+	private RecordingFactory factory = new RecordingFactory();
+
+	private volatile String failingAlias;
+
+	private ItemLogWriter writer;
+
+	@After
+	public void cleanUp() {
+		if (writer != null) {
+			writer.stop();
+		}
+	}
+
+	@Test
+	public void testEventsAreWrittenToTheFilesOfTheirAliases() {
+		writer = new ItemLogWriter(factory, 10, 100);
+		writer.add("A", createEvent("1"));
+		writer.add("B", createEvent("2"));
+		writer.add("A", createEvent("3"));
+		writer.start();
+		writer.stop();
+
+		assertEquals(2, factory.getCreated());
+		assertEquals("[1, 3]", factory.get("A").messages.toString());
+		assertEquals("[2]", factory.get("B").messages.toString());
+		assertTrue(factory.get("A").stopped);
+		assertTrue(factory.get("B").stopped);
+	}
+
+	@Test
+	public void testLeastRecentlyWrittenFileIsClosed() {
+		writer = new ItemLogWriter(factory, 2, 100);
+		writer.start();
+		writer.add("A", createEvent("1"));
+		writer.add("B", createEvent("2"));
+		waitForMessages("B", 1);
+		writer.add("A", createEvent("3"));
+		waitForMessages("A", 2);
+
+		// B has been written before A, so it is closed when C is opened
+		writer.add("C", createEvent("4"));
+		waitForMessages("C", 1);
+		assertTrue(factory.get("B").stopped);
+		assertFalse(factory.get("A").stopped);
+
+		// B is opened again and A is closed
+		writer.add("B", createEvent("5"));
+		waitForCreated(4);
+		waitForMessages("B", 1);
+		assertTrue(factory.get("A").stopped);
+		assertFalse(factory.get("C").stopped);
+	}
+
+	@Test
+	public void testOldestEventsAreDropped() {
+		writer = new ItemLogWriter(factory, 10, 2);
+		writer.add("A", createEvent("1"));
+		writer.add("A", createEvent("2"));
+		writer.add("A", createEvent("3"));
+		writer.start();
+		writer.stop();
+
+		assertEquals("[2, 3]", factory.get("A").messages.toString());
+	}
+
+	@Test
+	public void testFileWhichCannotBeOpenedIsSkipped() {
+		failingAlias = "B";
+		writer = new ItemLogWriter(factory, 10, 100);
+		writer.start();
+		writer.add("A", createEvent("1"));
+		writer.add("B", createEvent("2"));
+		writer.add("C", createEvent("3"));
+		waitForMessages("C", 1);
+		assertNull(factory.get("B"));
+
+		// the writer goes on with the next events
+		failingAlias = null;
+		writer.add("B", createEvent("4"));
+		writer.add("A", createEvent("5"));
+		writer.stop();
+		assertEquals("[1, 5]", factory.get("A").messages.toString());
+		assertEquals("[4]", factory.get("B").messages.toString());
+	}
+
+	private ILoggingEvent createEvent(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setMessage(message);
+		return event;
+	}
+
+	private void waitForMessages(String alias, int count) {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			RecordingAppender appender = factory.get(alias);
+			if (appender != null && appender.messages.size() >= count) {
+				return;
+			}
+			sleep();
+		}
+		fail("No " + count + " messages have been written to '" + alias + "'");
+	}
+
+	private void waitForCreated(int count) {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			if (factory.getCreated() >= count) {
+				return;
+			}
+			sleep();
+		}
+		fail("No " + count + " files have been opened");
+	}
+
+	private void sleep() {
+		try {
+			Thread.sleep(10);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
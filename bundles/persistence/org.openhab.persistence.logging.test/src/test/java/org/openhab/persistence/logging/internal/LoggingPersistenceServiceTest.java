@@ -0,0 +1,124 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.logging.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Hashtable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.service.cm.ConfigurationException;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class LoggingPersistenceServiceTest {
+
+	private LoggingPersistenceService service = new LoggingPersistenceService();
+
+	private Hashtable<String, String> config = new Hashtable<String, String>();
+
+	private FileAppender<ILoggingEvent> appender;
+
+	@After
+	public void cleanUp() {
+		if (appender != null) {
+			appender.stop();
+			new File(appender.getFile()).delete();
+		}
+		service.deactivate();
+	}
+
+	@Test
+	public void testFilesAreNotRolledOverByDefault() throws ConfigurationException {
+		service.updated(config);
+
+		appender = service.createAppender("Test");
+		assertFalse(appender instanceof RollingFileAppender);
+		assertEquals("logs" + File.separator + "Test.log", appender.getFile());
+	}
+
+	@Test
+	public void testFilesAreRolledOverDaily() throws ConfigurationException {
+		config.put("rollover", "daily");
+		config.put("compress", "true");
+		config.put("maxhistory", "7");
+		service.updated(config);
+
+		appender = service.createAppender("Test");
+		assertTrue(appender instanceof RollingFileAppender);
+		TimeBasedRollingPolicy<?> policy = (TimeBasedRollingPolicy<?>) ((RollingFileAppender<ILoggingEvent>) appender).getRollingPolicy();
+		assertEquals("logs" + File.separator + "Test.%d{yyyy-MM-dd}.log.gz", policy.getFileNamePattern());
+		assertEquals(7, policy.getMaxHistory());
+	}
+
+	@Test
+	public void testFilesAreRolledOverMonthly() throws ConfigurationException {
+		config.put("rollover", "Monthly");
+		service.updated(config);
+
+		appender = service.createAppender("Test");
+		TimeBasedRollingPolicy<?> policy = (TimeBasedRollingPolicy<?>) ((RollingFileAppender<ILoggingEvent>) appender).getRollingPolicy();
+		assertEquals("logs" + File.separator + "Test.%d{yyyy-MM}.log", policy.getFileNamePattern());
+	}
+
+	@Test
+	public void testUnknownRolloverIsRejected() {
+		config.put("rollover", "hourly");
+		try {
+			service.updated(config);
+			fail();
+		} catch (ConfigurationException e) {
+			assertEquals("logging:rollover", e.getProperty());
+		}
+	}
+
+	@Test
+	public void testInvalidNumberIsRejected() {
+		config.put("maxopen", "0");
+		try {
+			service.updated(config);
+			fail();
+		} catch (ConfigurationException e) {
+			assertEquals("logging:maxopen", e.getProperty());
+		}
+	}
+
+}
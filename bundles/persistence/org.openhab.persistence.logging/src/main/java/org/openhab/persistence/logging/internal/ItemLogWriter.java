@@ -0,0 +1,244 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.logging.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+
+/**
+ * Writes the logged item states to their files on a thread of its own, so
+ * that storing an item state only has to queue it. All events which are
+ * pending are written at once, grouped by file, and every file is flushed
+ * once per batch instead of once per event.
+ * <p>
+ * Only the <code>maxOpen</code> most recently written files are kept open;
+ * the appender of the least recently written one is stopped if another
+ * file has to be opened. If more than <code>queueSize</code> events are
+ * pending, the oldest ones are dropped.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class ItemLogWriter implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ItemLogWriter.class);
+
+	public static final int DEFAULT_MAX_OPEN = 100;
+
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	/**
+	 * Creates the appender of a log file, which is started already.
+	 */
+	public interface AppenderFactory {
+		FileAppender<ILoggingEvent> createAppender(String alias);
+	}
+
+	/**
+	 * An event which waits to be written.
+	 */
+	private static class PendingEvent {
+		final String alias;
+		final ILoggingEvent event;
+
+		PendingEvent(String alias, ILoggingEvent event) {
+			this.alias = alias;
+			this.event = event;
+		}
+	}
+
+	private final AppenderFactory factory;
+	private final int maxOpen;
+	private final int queueSize;
+
+	private final LinkedList<PendingEvent> entries = new LinkedList<PendingEvent>();
+
+	// the open appenders in the order of their last use, only accessed by the writer thread
+	private final LinkedHashMap<String, FileAppender<ILoggingEvent>> appenders = new LinkedHashMap<String, FileAppender<ILoggingEvent>>(16, 0.75f, true);
+
+	private long dropped = 0;
+
+	private volatile boolean running = false;
+	private Thread thread;
+
+	public ItemLogWriter(AppenderFactory factory, int maxOpen, int queueSize) {
+		this.factory = factory;
+		this.maxOpen = maxOpen;
+		this.queueSize = queueSize;
+	}
+
+	public void start() {
+		running = true;
+		thread = new Thread(this, "Logging persistence writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer after it has written the pending events and closes
+	 * all files.
+	 */
+	public void stop() {
+		running = false;
+		synchronized (entries) {
+			entries.notifyAll();
+		}
+		if (thread != null) {
+			try {
+				thread.join(10000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * Queues an event to be written to the log file of an alias. This never
+	 * blocks on file access.
+	 * 
+	 * @param alias the name of the log file
+	 * @param event the event to write
+	 */
+	public void add(String alias, ILoggingEvent event) {
+		synchronized (entries) {
+			if (entries.size() >= queueSize) {
+				entries.removeFirst();
+				if (dropped++ % 1000 == 0) {
+					logger.warn("More than {} item states are waiting to be logged, dropped {} states so far.", queueSize, dropped);
+				}
+			}
+			entries.addLast(new PendingEvent(alias, event));
+			if (entries.size() == 1) {
+				entries.notify();
+			}
+		}
+	}
+
+	public void run() {
+		while (running) {
+			write(take());
+		}
+
+		// write what is left before stopping
+		write(take());
+		for (FileAppender<ILoggingEvent> appender : appenders.values()) {
+			appender.stop();
+		}
+		appenders.clear();
+	}
+
+	/**
+	 * Waits for events and takes all of them.
+	 */
+	private List<PendingEvent> take() {
+		synchronized (entries) {
+			while (running && entries.isEmpty()) {
+				try {
+					entries.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			List<PendingEvent> batch = new ArrayList<PendingEvent>(entries);
+			entries.clear();
+			return batch;
+		}
+	}
+
+	/**
+	 * Writes the events of a batch, grouped by their log files. Every file is
+	 * only flushed after its last event of the batch. If a file cannot be
+	 * opened, its events are dropped and the other files are written anyway.
+	 */
+	private void write(List<PendingEvent> batch) {
+		Map<String, List<ILoggingEvent>> aliasEvents = new LinkedHashMap<String, List<ILoggingEvent>>();
+		for (PendingEvent pending : batch) {
+			List<ILoggingEvent> events = aliasEvents.get(pending.alias);
+			if (events == null) {
+				events = new ArrayList<ILoggingEvent>();
+				aliasEvents.put(pending.alias, events);
+			}
+			events.add(pending.event);
+		}
+
+		for (Map.Entry<String, List<ILoggingEvent>> entry : aliasEvents.entrySet()) {
+			List<ILoggingEvent> events = entry.getValue();
+			try {
+				FileAppender<ILoggingEvent> appender = getAppender(entry.getKey());
+				for (int index = 0; index < events.size(); index++) {
+					setImmediateFlush(appender, index == events.size() - 1);
+					appender.doAppend(events.get(index));
+				}
+				logger.debug("Logged {} item states to file '{}.log'", events.size(), entry.getKey());
+			} catch (RuntimeException e) {
+				logger.error("Could not log {} item states to file '{}.log'", new Object[] { events.size(), entry.getKey(), e });
+			}
+		}
+	}
+
+	/**
+	 * Returns the open appender of an alias, opening it and closing the least
+	 * recently used ones if necessary.
+	 */
+	private FileAppender<ILoggingEvent> getAppender(String alias) {
+		FileAppender<ILoggingEvent> appender = appenders.get(alias);
+		if (appender == null) {
+			Iterator<FileAppender<ILoggingEvent>> iterator = appenders.values().iterator();
+			while (appenders.size() >= maxOpen && iterator.hasNext()) {
+				iterator.next().stop();
+				iterator.remove();
+			}
+			appender = factory.createAppender(alias);
+			appenders.put(alias, appender);
+		}
+		return appender;
+	}
+
+	private void setImmediateFlush(FileAppender<ILoggingEvent> appender, boolean immediateFlush) {
+		Encoder<ILoggingEvent> encoder = appender.getEncoder();
+		if (encoder instanceof LayoutWrappingEncoder) {
+			((LayoutWrappingEncoder<?>) encoder).setImmediateFlush(immediateFlush);
+		}
+	}
+
+}
@@ -30,8 +30,6 @@ package org.openhab.persistence.logging.internal;
 
 import java.io.File;
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
@@ -45,16 +43,22 @@ import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 
 
 /**
  * This is a {@link PersistenceService} implementation, which logs item states through
  * a logback file appender.
+ * <p>
+ * The files are written by an {@link ItemLogWriter}, so storing an item state only
+ * queues it. The log files can be rolled over daily, weekly or monthly and the old
+ * files can be compressed.
  * 
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class LoggingPersistenceService implements PersistenceService, ManagedService {
+public class LoggingPersistenceService implements PersistenceService, ManagedService, ItemLogWriter.AppenderFactory {
 
 	private static final Logger logger = LoggerFactory.getLogger(LoggingPersistenceService.class);
 	
@@ -64,18 +68,22 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 	private static final String DEFAULT_PATTERN ="%date{ISO8601} - %-25logger: %msg%n";
 
 	private String pattern = null;
-	private boolean initialized = false;
 	
-	private Map<String,FileAppender<ILoggingEvent>> appenders = new HashMap<String,FileAppender<ILoggingEvent>>();
+	// the date pattern of the rolled over files, null if the files are not rolled over
+	private String rolloverPattern = null;
+	private boolean compress = false;
+	private int maxHistory = 0;
+	
+	private volatile ItemLogWriter writer = null;
 	
 	public void activate() {
 	}
 
-	public void deactivate() {
-		for(FileAppender<ILoggingEvent> appender : appenders.values()) {
-			appender.stop();
+	public synchronized void deactivate() {
+		if (writer != null) {
+			writer.stop();
+			writer = null;
 		}
-		appenders.clear();
 	}
 
 	/**
@@ -97,35 +105,42 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 	 * @{inheritDoc}
 	 */
 	public void store(Item item, String alias) {
-		if (initialized) {
-			FileAppender<ILoggingEvent> appender = appenders.get(alias);
-			if (appender==null) {
-				synchronized(appenders) {
-					// do a second check in case one exists by now
-					if (!appenders.containsKey(alias)) {
-						appender = createNewAppender(alias);
-						appenders.put(alias, appender);
-					}
-				}
-			}
-			
-			ItemLoggingEvent event = new ItemLoggingEvent(item);
-			appender.doAppend(event);
-			logger.debug("Logged item '{}' to file '{}.log'", new String[] { item.getName(), alias });
+		ItemLogWriter writer = this.writer;
+		if (writer != null) {
+			// the event takes the state and the time right away, it is written later on
+			writer.add(alias, new ItemLoggingEvent(item));
 		}
 	}
 
-	protected FileAppender<ILoggingEvent> createNewAppender(String alias) {
+	/**
+	 * @{inheritDoc}
+	 */
+	public FileAppender<ILoggingEvent> createAppender(String alias) {
 		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		String fileName = LOG_FOLDER + File.separator + alias + LOG_FILEEXT;
 		
 		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
 		encoder.setContext(context);
 		encoder.setPattern(pattern);
 		encoder.start();
 
-		FileAppender<ILoggingEvent> appender = new FileAppender<ILoggingEvent>();
+		FileAppender<ILoggingEvent> appender;
+		if (rolloverPattern != null) {
+			RollingFileAppender<ILoggingEvent> rollingAppender = new RollingFileAppender<ILoggingEvent>();
+			TimeBasedRollingPolicy<ILoggingEvent> policy = new TimeBasedRollingPolicy<ILoggingEvent>();
+			policy.setContext(context);
+			policy.setParent(rollingAppender);
+			policy.setFileNamePattern(LOG_FOLDER + File.separator + alias + ".%d{" + rolloverPattern + "}" 
+				+ LOG_FILEEXT + (compress ? ".gz" : ""));
+			policy.setMaxHistory(maxHistory);
+			policy.start();
+			rollingAppender.setRollingPolicy(policy);
+			appender = rollingAppender;
+		} else {
+			appender = new FileAppender<ILoggingEvent>();
+		}
 		appender.setAppend(true);
-		appender.setFile(LOG_FOLDER + File.separator + alias + LOG_FILEEXT);
+		appender.setFile(fileName);
 		appender.setEncoder(encoder);
 		appender.setContext(context);
 		appender.start();
@@ -144,8 +159,52 @@ public class LoggingPersistenceService implements PersistenceService, ManagedSer
 			if (StringUtils.isBlank(pattern)) {
 				pattern = DEFAULT_PATTERN;
 			}
-			initialized = true;
+			
+			int maxOpen = parseInt(config, "maxopen", ItemLogWriter.DEFAULT_MAX_OPEN, 1);
+			int queueSize = parseInt(config, "queuesize", ItemLogWriter.DEFAULT_QUEUE_SIZE, 1);
+			
+			String rollover = (String) config.get("rollover");
+			if (StringUtils.isBlank(rollover) || rollover.trim().equalsIgnoreCase("none")) {
+				rolloverPattern = null;
+			} else if (rollover.trim().equalsIgnoreCase("daily")) {
+				rolloverPattern = "yyyy-MM-dd";
+			} else if (rollover.trim().equalsIgnoreCase("weekly")) {
+				rolloverPattern = "yyyy-ww";
+			} else if (rollover.trim().equalsIgnoreCase("monthly")) {
+				rolloverPattern = "yyyy-MM";
+			} else {
+				throw new ConfigurationException("logging:rollover", "The value must be one of 'none', 'daily', 'weekly' or 'monthly': " + rollover);
+			}
+			compress = "true".equalsIgnoreCase((String) config.get("compress"));
+			maxHistory = parseInt(config, "maxhistory", 0, 0);
+			
+			// the files are opened again with the new settings
+			synchronized (this) {
+				if (writer != null) {
+					writer.stop();
+				}
+				writer = new ItemLogWriter(this, maxOpen, queueSize);
+				writer.start();
+			}
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private int parseInt(Dictionary config, String key, int defaultValue, int minValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		int result;
+		try {
+			result = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException("logging:" + key, "The value is not a valid number: " + value);
+		}
+		if (result < minValue) {
+			throw new ConfigurationException("logging:" + key, "The value must be at least " + minValue + ": " + value);
 		}
+		return result;
 	}
 	
 }
@@ -0,0 +1,288 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.rrd4j.core.RrdDb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recently used rrd4j databases open, so that a database file
+ * does not have to be opened and closed for every single update or query.
+ * <p>
+ * Every database has its own lock, so different databases can be accessed in
+ * parallel. If more databases than the configured limit are open, the least
+ * recently used ones are closed, unless they are in use at that moment. A
+ * database which is acquired again while it is being closed is only opened
+ * again after it has been closed, so a file is never opened twice.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class RRD4jDatabasePool {
+
+	private static final Logger logger = LoggerFactory.getLogger(RRD4jDatabasePool.class);
+
+	public static final int DEFAULT_MAX_OPEN = 200;
+
+	/**
+	 * Opens a database which is not yet in the pool.
+	 */
+	public interface Opener {
+		RrdDb open(String name) throws IOException;
+	}
+
+	/**
+	 * An entry of the pool. A handle is returned locked by
+	 * {@link RRD4jDatabasePool#acquire(String, Opener)} and must be passed to
+	 * {@link RRD4jDatabasePool#release(Handle)} when it is not needed anymore.
+	 */
+	public static class Handle {
+		
+		private final String name;
+		private final ReentrantLock lock = new ReentrantLock();
+		private RrdDb db;
+		private boolean closed = false;
+		
+		private Handle(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public RrdDb getDb() {
+			return db;
+		}
+		
+		private void close() {
+			closed = true;
+			if(db!=null) {
+				try {
+					db.close();
+				} catch (IOException e) {
+					logger.debug("Error closing rrd4j database '{}': {}", name, e.getMessage());
+				}
+				db = null;
+			}
+		}
+	}
+
+	private final LinkedHashMap<String, Handle> handles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+	
+	// the handles which have been removed from the pool, but may not be closed yet
+	private final Map<String, Handle> closing = new HashMap<String, Handle>();
+	
+	private int maxOpen = DEFAULT_MAX_OPEN;
+	
+	/**
+	 * Sets the maximum number of databases which are kept open.
+	 * 
+	 * @param maxOpen the maximum number of open databases
+	 */
+	public void setMaxOpen(int maxOpen) {
+		List<Handle> evicted;
+		synchronized(handles) {
+			this.maxOpen = maxOpen;
+			evicted = evict(null);
+		}
+		close(evicted);
+	}
+
+	public int getMaxOpen() {
+		return maxOpen;
+	}
+	
+	/**
+	 * Returns the locked handle of a database. The database is opened with the
+	 * given opener if it is not open yet; while this happens, only this single
+	 * database is locked.
+	 * 
+	 * @param name the name of the database
+	 * @param opener the opener to use if the database is not open
+	 * @return the locked handle or <code>null</code> if the database could not be opened
+	 */
+	public Handle acquire(String name, Opener opener) {
+		while(true) {
+			Handle handle;
+			Handle closingHandle = null;
+			boolean created = false;
+			List<Handle> evicted = null;
+			synchronized(handles) {
+				handle = handles.get(name);
+				if(handle==null) {
+					handle = new Handle(name);
+					// nobody else knows the handle yet, so this never blocks
+					handle.lock.lock();
+					created = true;
+					handles.put(name, handle);
+					closingHandle = closing.get(name);
+					evicted = evict(handle);
+				}
+			}
+			close(evicted);
+			
+			if(created) {
+				if(closingHandle!=null) {
+					// the file must not be opened again before the evicted handle has closed it
+					close(closingHandle);
+				}
+			} else {
+				handle.lock.lock();
+				if(handle.closed) {
+					// the handle has been evicted in the meantime, so we try again
+					handle.lock.unlock();
+					continue;
+				}
+			}
+			if(handle.db==null) {
+				try {
+					handle.db = opener.open(name);
+				} catch (IOException e) {
+					logger.error("Could not open rrd4j database '{}': {}", name, e.getMessage());
+				} catch (RuntimeException e) {
+					logger.debug("Could not open rrd4j database '{}': {}", name, e.getMessage());
+				}
+				if(handle.db==null) {
+					remove(handle);
+					handle.closed = true;
+					handle.lock.unlock();
+					return null;
+				}
+			}
+			return handle;
+		}
+	}
+
+	/**
+	 * Releases a handle which has been returned by {@link #acquire(String, Opener)}.
+	 * 
+	 * @param handle the handle to release
+	 */
+	public void release(Handle handle) {
+		handle.lock.unlock();
+	}
+	
+	/**
+	 * Closes all databases of the pool.
+	 */
+	public void closeAll() {
+		List<Handle> all;
+		synchronized(handles) {
+			all = new ArrayList<Handle>(handles.values());
+			for(Handle handle : all) {
+				closing.put(handle.name, handle);
+			}
+			handles.clear();
+		}
+		close(all);
+	}
+
+	/**
+	 * @return the number of databases in the pool
+	 */
+	public int size() {
+		synchronized(handles) {
+			return handles.size();
+		}
+	}
+	
+	private void remove(Handle handle) {
+		synchronized(handles) {
+			if(handles.get(handle.name)==handle) {
+				handles.remove(handle.name);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the least recently used handles which are not locked, until the
+	 * pool size is within its limit. Must be called while holding the pool lock.
+	 * The removed handles are kept as closing until they have been closed.
+	 * 
+	 * @param keep a handle which must not be removed, may be <code>null</code>
+	 * @return the removed handles, which still need to be closed
+	 */
+	private List<Handle> evict(Handle keep) {
+		List<Handle> evicted = null;
+		Iterator<Handle> iterator = handles.values().iterator();
+		int size = handles.size();
+		while(size > maxOpen && iterator.hasNext()) {
+			Handle handle = iterator.next();
+			if(handle!=keep && !handle.lock.isLocked()) {
+				iterator.remove();
+				closing.put(handle.name, handle);
+				size--;
+				if(evicted==null) {
+					evicted = new ArrayList<Handle>();
+				}
+				evicted.add(handle);
+			}
+		}
+		return evicted;
+	}
+	
+	private void close(List<Handle> evicted) {
+		if(evicted==null) {
+			return;
+		}
+		for(Handle handle : evicted) {
+			close(handle);
+		}
+	}
+	
+	/**
+	 * Closes a handle which has been removed from the pool. It is closed by
+	 * whoever gets its lock first, the evicting or the reopening thread.
+	 */
+	private void close(Handle handle) {
+		handle.lock.lock();
+		try {
+			handle.close();
+		} finally {
+			handle.lock.unlock();
+		}
+		synchronized(handles) {
+			if(closing.get(handle.name)==handle) {
+				closing.remove(handle.name);
+			}
+		}
+	}
+	
+}
@@ -31,15 +31,23 @@ package org.openhab.persistence.rrd4j.internal;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemNotFoundException;
 import org.openhab.core.items.ItemRegistry;
@@ -53,15 +61,24 @@ import org.openhab.core.library.types.OpenClosedType;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PagedQueryResult;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
+import org.openhab.core.persistence.TimestampedPersistenceService;
 import org.openhab.core.types.State;
+import org.openhab.persistence.rrd4j.internal.RRD4jDatabasePool.Handle;
+import org.openhab.persistence.rrd4j.internal.RRD4jWriteBuffer.PendingSample;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.rrd4j.ConsolFun;
 import org.rrd4j.DsType;
 import org.rrd4j.core.FetchData;
 import org.rrd4j.core.FetchRequest;
+import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.RrdNioBackendFactory;
 import org.rrd4j.core.Sample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,15 +91,29 @@ import org.slf4j.LoggerFactory;
  * @author Kai Kreuzer
  * @since 1.0.0
  */
-public class RRD4jService implements QueryablePersistenceService {
+public class RRD4jService implements BulkQueryablePersistenceService, AggregatingPersistenceService, 
+		TimestampedPersistenceService, ManagedService {
 
 	private static final String DATASOURCE_STATE = "state";
+	
+	// the delay in milliseconds after a full second before the buffered samples are written
+	private static final long WRITE_OFFSET = 50;
 
 	protected final static String DB_FOLDER = "etc/rrd4j";
 	
 	private static final Logger logger = LoggerFactory.getLogger(RRD4jService.class);
 
-	private Map<String,Timer> timers = new HashMap<String,Timer>();
+	// the values which have not been written yet, by database name
+	private final ConcurrentMap<String, RRD4jWriteBuffer> buffers = new ConcurrentHashMap<String, RRD4jWriteBuffer>();
+	
+	// the single thread which writes all buffered values
+	private ScheduledExecutorService writer;
+	
+	// the open databases, so that they do not need to be reopened for every update
+	private final RRD4jDatabasePool databases = new RRD4jDatabasePool();
+	
+	// the backend to use for the database files, null for the rrd4j default (NIO)
+	private RrdBackendFactory backendFactory = null;
 	
 	protected ItemRegistry itemRegistry;
 	
@@ -93,6 +124,42 @@ public class RRD4jService implements QueryablePersistenceService {
 	public void unsetItemRegistry(ItemRegistry itemRegistry) {
 		this.itemRegistry = null;
 	}
+	
+	public void activate() {
+		writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "RRD4j writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// run shortly after every full second, when the samples of the previous second are complete
+		long delay = 1000 - System.currentTimeMillis() % 1000 + WRITE_OFFSET;
+		writer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					flush(System.currentTimeMillis()/1000);
+				} catch (RuntimeException e) {
+					logger.warn("Error writing to rrd4j databases", e);
+				}
+			}
+		}, delay, 1000, TimeUnit.MILLISECONDS);
+	}
+	
+	public void deactivate() {
+		if(writer!=null) {
+			writer.shutdown();
+			try {
+				writer.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writer = null;
+		}
+		// write everything that is still buffered
+		flush(Long.MAX_VALUE);
+		databases.closeAll();
+	}
 
 	/**
 	 * @{inheritDoc}
@@ -103,71 +170,92 @@ public class RRD4jService implements QueryablePersistenceService {
 
 	/**
 	 * @{inheritDoc}
+	 * 
+	 * The value is only added to the write buffer of the database, it is
+	 * written by the writer thread as soon as its second is over.
 	 */
 	public void store(final Item item, final String alias) {
+		store(item, alias, new Date());
+	}
+
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * A value which is older than the last written sample of the database is
+	 * written as the next sample.
+	 */
+	public void store(Item item, String alias, Date timestamp) {
 		final String name = alias==null ? item.getName() : alias;
-		ConsolFun function = getConsolidationFunction(item);
-		RrdDb db = getDB(name, function);
-		if(db!=null) {
-			long now = System.currentTimeMillis()/1000;
-			if(function!=ConsolFun.AVERAGE) {
-				try {
+		DecimalType state = (DecimalType) item.getStateAs(DecimalType.class);
+		if (state!=null) {
+			RRD4jWriteBuffer buffer = buffers.get(name);
+			if(buffer==null) {
+				buffer = new RRD4jWriteBuffer(getConsolidationFunction(item));
+				RRD4jWriteBuffer existing = buffers.putIfAbsent(name, buffer);
+				if(existing!=null) {
+					buffer = existing;
+				}
+			}
+			buffer.add(timestamp.getTime()/1000, state.toBigDecimal().doubleValue());
+		}
+	}
+
+	/**
+	 * Writes the buffered samples of all databases whose second is over.
+	 * 
+	 * @param now the current time in seconds, {@link Long#MAX_VALUE} to write all samples
+	 */
+	private void flush(long now) {
+		for(Entry<String, RRD4jWriteBuffer> entry : buffers.entrySet()) {
+			RRD4jWriteBuffer buffer = entry.getValue();
+			if(buffer.isDue(now)) {
+				Handle handle = getDB(entry.getKey(), buffer.getConsolidationFunction());
+				if(handle!=null) {
+					try {
+						write(handle.getDb(), entry.getKey(), buffer, now);
+					} finally {
+						databases.release(handle);
+					}
+				} else {
+					// the database is not available, so there is no use in keeping the values
+					buffer.drain(now);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffered samples of a database. This must only be done while
+	 * holding the lock of the database, so that the samples are written in the
+	 * order of their timestamps.
+	 */
+	private void write(RrdDb db, String name, RRD4jWriteBuffer buffer, long now) {
+		for(PendingSample pending : buffer.drain(now)) {
+			long time = pending.getTime();
+			try {
+				if(buffer.getConsolidationFunction()!=ConsolFun.AVERAGE) {
 					// we store the last value again, so that the value change in the database is not interpolated, but
 					// happens right at this spot
-					if(now - 1 > db.getLastUpdateTime()) {
+					if(time - 1 > db.getLastUpdateTime()) {
 						// only do it if there is not already a value
 						double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
 						if(!Double.isNaN(lastValue)) {
 							Sample sample = db.createSample();
-				            sample.setTime(now - 1);
+				            sample.setTime(time - 1);
 				            sample.setValue(DATASOURCE_STATE, lastValue);
 				            sample.update();
-		                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, mapToState(lastValue, item.getName()));
+		                    logger.debug("Stored '{}' with value '{}' in rrd4j database", name, lastValue);
 						}
 					}
-				} catch (IOException e) {
-					logger.debug("Error re-storing last value: {}", e.getMessage());
 				}
-			}
-			try {
 				Sample sample = db.createSample();
-	            sample.setTime(now);
-	            
-	            DecimalType state = (DecimalType) item.getStateAs(DecimalType.class);
-	            if (state!=null) {
-                    double value = state.toBigDecimal().doubleValue();
-                    sample.setValue(DATASOURCE_STATE, value);
-                    sample.update();
-                    logger.debug("Stored '{}' with state '{}' in rrd4j database", name, item.getState());
-	            }
-			} catch (IllegalArgumentException e) {
-				if(e.getMessage().contains("at least one second step is required")) {
-
-					// we try to store the value one second later
-					TimerTask task = new TimerTask() {
-						public void run() {
-							store(item, name);
-						}
-					};
-					Timer timer = timers.get(name);
-					if(timer!=null) {
-						timer.cancel();
-						timers.remove(name);
-					}
-					timer = new Timer();
-					timers.put(name, timer);
-					timer.schedule(task, 1000);
-				} else {
-					logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
-				}
+	            sample.setTime(time);
+	            sample.setValue(DATASOURCE_STATE, pending.getValue());
+	            sample.update();
+	            logger.debug("Stored '{}' with value '{}' in rrd4j database", name, pending.getValue());
 			} catch (Exception e) {
 				logger.warn("Could not persist '{}' to rrd4j database: {}", new String[] { name, e.getMessage() });
 			}
-            try {
-				db.close();
-			} catch (IOException e) {
-				logger.debug("Error closing rrd4j database: {}", e.getMessage());
-			}
 		}
 	}
 
@@ -180,10 +268,16 @@ public class RRD4jService implements QueryablePersistenceService {
 	
 	@Override
 	public Iterable<HistoricItem> query(FilterCriteria filter) {
-		String itemName = filter.getItemName();
+		final String itemName = filter.getItemName();
 		ConsolFun consolidationFunction = getConsolidationFunction(itemName);
-		RrdDb db = getDB(itemName, consolidationFunction);
-		if(db!=null) {
+		RRD4jWriteBuffer buffer = buffers.get(itemName);
+		Handle handle = getDB(itemName, buffer==null ? consolidationFunction : buffer.getConsolidationFunction());
+		if(handle!=null) {
+			RrdDb db = handle.getDb();
+			if(buffer!=null) {
+				// make sure that the query sees all values that have been stored so far
+				write(db, itemName, buffer, Long.MAX_VALUE);
+			}
 			long start = 0L;
 			long end = filter.getEndDate()==null ? System.currentTimeMillis()/1000 - 1 : filter.getEndDate().getTime()/1000;
 
@@ -214,42 +308,194 @@ public class RRD4jService implements QueryablePersistenceService {
 				}
 				FetchRequest request = db.createFetchRequest(consolidationFunction, start, end, 1);
 
-				List<HistoricItem> items = new ArrayList<HistoricItem>();
 				FetchData result = request.fetchData();
+				final long firstTimestamp = result.getFirstTimestamp();
+				final long step = result.getRowCount() > 1 ? result.getStep() : 0;
+				final double[] values = result.getValues(DATASOURCE_STATE);
+				
+				// only the rows with values are part of the result
+				int count = 0;
+				final int[] rows = new int[values.length];
+				for(int row = 0; row < values.length; row++) {
+					if(!Double.isNaN(values[row])) {
+						rows[count++] = row;
+					}
+				}
+				final int size = count;
+				
+				// the historic items are only created while the result is iterated
+				return new PagedQueryResult(filter, PagedQueryResult.DEFAULT_FETCH_SIZE) {
+					protected List<HistoricItem> fetch(long offset, int count) {
+						if(offset >= size) {
+							return Collections.emptyList();
+						}
+						int end = (int) Math.min(offset + count, size);
+						List<HistoricItem> items = new ArrayList<HistoricItem>(end - (int) offset);
+						for(int index = (int) offset; index < end; index++) {
+							int row = rows[index];
+							items.add(new RRD4jItem(itemName, mapToState(values[row], itemName), new Date((firstTimestamp + row * step) * 1000)));
+						}
+						return items;
+					}
+				};
+			} catch (IOException e) {
+				logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
+			} finally {
+				databases.release(handle);
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Every item has its own database, so this reads the last value of each
+	 * database, but no databases are created for items which have none yet.
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> latest = new HashMap<String, HistoricItem>();
+		for(String itemName : itemNames) {
+			RRD4jWriteBuffer buffer = buffers.get(itemName);
+			if(buffer==null && !new File(DB_FOLDER + File.separator + itemName + ".rrd").exists()) {
+				continue;
+			}
+			Handle handle = getDB(itemName, buffer==null ? getConsolidationFunction(itemName) : buffer.getConsolidationFunction());
+			if(handle!=null) {
+				try {
+					RrdDb db = handle.getDb();
+					if(buffer!=null) {
+						write(db, itemName, buffer, Long.MAX_VALUE);
+					}
+					double lastValue = db.getLastDatasourceValue(DATASOURCE_STATE);
+					if(!Double.isNaN(lastValue)) {
+						latest.put(itemName, new RRD4jItem(itemName, mapToState(lastValue, itemName), new Date(db.getLastArchiveUpdateTime() * 1000)));
+					}
+				} catch (IOException e) {
+					logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
+				} finally {
+					databases.release(handle);
+				}
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean supportsAggregate(AggregateFunction function) {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The aggregates are computed from the consolidated values of the archive 
+	 * which is also used by {@link #query(FilterCriteria)}, so the results are
+	 * the same as when aggregating the query results, but no historic items
+	 * are created.
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, AggregateFunction function) {
+		if(filter.getBeginDate()==null) {
+			throw new UnsupportedOperationException("rrd4j does not allow aggregates without a begin date");
+		}
+		String itemName = filter.getItemName();
+		ConsolFun consolidationFunction = getConsolidationFunction(itemName);
+		long start = filter.getBeginDate().getTime()/1000;
+		long end = filter.getEndDate()==null ? System.currentTimeMillis()/1000 - 1 : filter.getEndDate().getTime()/1000;
+
+		int count = 0;
+		double sum = 0;
+		double first = Double.NaN, last = Double.NaN, minimum = Double.NaN, maximum = Double.NaN;
+		long firstTime = 0, lastTime = 0, minimumTime = 0, maximumTime = 0;
+		
+		RRD4jWriteBuffer buffer = buffers.get(itemName);
+		Handle handle = getDB(itemName, buffer==null ? consolidationFunction : buffer.getConsolidationFunction());
+		if(handle!=null) {
+			try {
+				RrdDb db = handle.getDb();
+				if(buffer!=null) {
+					write(db, itemName, buffer, Long.MAX_VALUE);
+				}
+				FetchData result = db.createFetchRequest(consolidationFunction, start, end, 1).fetchData();
 				long ts = result.getFirstTimestamp();
 				long step = result.getRowCount() > 1 ? result.getStep() : 0;
 				for(double value : result.getValues(DATASOURCE_STATE)) {
 					if(!Double.isNaN(value)) {
-						RRD4jItem rrd4jItem = new RRD4jItem(itemName, mapToState(value, itemName), new Date(ts * 1000));
-						items.add(rrd4jItem);
+						if(count==0) {
+							first = value;
+							firstTime = ts;
+						}
+						if(count==0 || value < minimum) {
+							minimum = value;
+							minimumTime = ts;
+						}
+						if(count==0 || value > maximum) {
+							maximum = value;
+							maximumTime = ts;
+						}
+						last = value;
+						lastTime = ts;
+						sum += value;
+						count++;
 					}
 					ts += step;
 				}
-				return items;
 			} catch (IOException e) {
 				logger.warn("Could not query rrd4j database for item '{}': {}", new String[] { itemName, e.getMessage() });
-			}	
+			} finally {
+				databases.release(handle);
+			}
+		}
+		
+		if(function==AggregateFunction.COUNT) {
+			return new RRD4jItem(itemName, new DecimalType(count), new Date(end * 1000));
+		} else if(count==0) {
+			return null;
+		}
+		switch(function) {
+			case FIRST : return new RRD4jItem(itemName, mapToState(first, itemName), new Date(firstTime * 1000));
+			case LAST : return new RRD4jItem(itemName, mapToState(last, itemName), new Date(lastTime * 1000));
+			case MINIMUM : return new RRD4jItem(itemName, mapToState(minimum, itemName), new Date(minimumTime * 1000));
+			case MAXIMUM : return new RRD4jItem(itemName, mapToState(maximum, itemName), new Date(maximumTime * 1000));
+			case SUM : return new RRD4jItem(itemName, new DecimalType(sum), new Date(end * 1000));
+			default : return new RRD4jItem(itemName, new DecimalType(sum / count), new Date(end * 1000));
 		}
-		return Collections.emptyList();
 	}
 
-	protected synchronized RrdDb getDB(String alias, ConsolFun function) {
+	/**
+	 * Returns the locked handle of a database from the pool, the database is
+	 * opened or created if necessary. The handle must be released after use.
+	 * 
+	 * @param alias the name of the database
+	 * @param function the consolidation function to use for a new database
+	 * @return the locked handle or <code>null</code>, if the database could not be opened
+	 */
+	protected Handle getDB(String alias, final ConsolFun function) {
+		return databases.acquire(alias, new RRD4jDatabasePool.Opener() {
+			public RrdDb open(String name) throws IOException {
+				return openDB(name, function);
+			}
+		});
+	}
+	
+	private RrdDb openDB(String alias, ConsolFun function) throws IOException {
 		RrdDb db = null;
         File file = new File(DB_FOLDER + File.separator + alias + ".rrd");
     	try {
             if (file.exists()) {
             	// recreate the RrdDb instance from the file
-            	db = new RrdDb(file.getAbsolutePath());
+            	db = backendFactory==null ? new RrdDb(file.getAbsolutePath()) : new RrdDb(file.getAbsolutePath(), backendFactory);
             } else {
             	File folder = new File(DB_FOLDER);
             	if(!folder.exists()) {
-            		folder.mkdir();
+            		folder.mkdirs();
             	}
             	// create a new database file
-                db = new RrdDb(getRrdDef(function, file));
+                RrdDef rrdDef = getRrdDef(function, file);
+                db = backendFactory==null ? new RrdDb(rrdDef) : new RrdDb(rrdDef, backendFactory);
             }
-		} catch (IOException e) {
-			logger.error("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
 		} catch(RejectedExecutionException e) {
 			// this happens if the system is shut down
 			logger.debug("Could not create rrd4j database file '{}': {}", new String[] { file.getAbsolutePath(), e.getMessage() });
@@ -285,6 +531,54 @@ public class RRD4jService implements QueryablePersistenceService {
 		return rrdDef;
 	}
 
+	/**
+	 * @{inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		int maxOpen = RRD4jDatabasePool.DEFAULT_MAX_OPEN;
+		RrdBackendFactory factory = null;
+		
+		if (config != null) {
+			String maxOpenString = (String) config.get("maxopen");
+			if (StringUtils.isNotBlank(maxOpenString)) {
+				try {
+					maxOpen = Integer.parseInt(maxOpenString.trim());
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("maxopen", "The value is not a valid number: " + maxOpenString);
+				}
+				if (maxOpen < 1) {
+					throw new ConfigurationException("maxopen", "The value must be positive: " + maxOpenString);
+				}
+			}
+			
+			String backendString = (String) config.get("backend");
+			if (StringUtils.isNotBlank(backendString)) {
+				try {
+					factory = RrdBackendFactory.getFactory(backendString.trim().toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new ConfigurationException("backend", "Unknown rrd4j backend '" + backendString + "', valid values are 'NIO', 'FILE' and 'SAFE'");
+				}
+			}
+			
+			String syncPeriodString = (String) config.get("syncperiod");
+			if (StringUtils.isNotBlank(syncPeriodString)) {
+				try {
+					RrdNioBackendFactory.setSyncPeriod(Integer.parseInt(syncPeriodString.trim()));
+				} catch (NumberFormatException e) {
+					throw new ConfigurationException("syncperiod", "The value is not a valid number: " + syncPeriodString);
+				}
+			}
+		}
+		
+		if (factory != backendFactory) {
+			// databases which are already open use the old backend
+			databases.closeAll();
+			backendFactory = factory;
+		}
+		databases.setMaxOpen(maxOpen);
+	}
+
 	static public ConsolFun getConsolidationFunction(Item item) {
 		if(item instanceof NumberItem) {
 			return ConsolFun.AVERAGE;
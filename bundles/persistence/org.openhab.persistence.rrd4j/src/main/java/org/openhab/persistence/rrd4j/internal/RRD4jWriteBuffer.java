@@ -0,0 +1,178 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.rrd4j.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.rrd4j.ConsolFun;
+
+/**
+ * Collects the values which are stored for a single rrd4j database until they
+ * can be written. rrd4j only accepts one sample per second, so all values of
+ * the same second are consolidated into one sample: with {@link ConsolFun#MAX}
+ * the maximum is written, otherwise the average.
+ * <p>
+ * If the last value of a second differs from the consolidated one, it is
+ * carried over to the next second, so that the database always ends up with
+ * the latest value. Samples are only handed out once their second is over,
+ * and always in ascending order of their timestamps.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class RRD4jWriteBuffer {
+
+	/**
+	 * A consolidated value which is ready to be written.
+	 */
+	public static class PendingSample {
+		
+		private final long time;
+		private final double value;
+
+		PendingSample(long time, double value) {
+			this.time = time;
+			this.value = value;
+		}
+
+		/**
+		 * @return the timestamp of the sample in seconds
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public double getValue() {
+			return value;
+		}
+	}
+
+	private final ConsolFun function;
+
+	// the second which is currently collected, -1 if there is none
+	private long second = -1;
+	private double max;
+	private double sum;
+	private int count;
+	private double last;
+
+	// the last second which has been handed out for writing
+	private long lastSecond = -1;
+
+	// the consolidated samples of completed seconds which still need to be written
+	private List<PendingSample> completed = null;
+
+	public RRD4jWriteBuffer(ConsolFun function) {
+		this.function = function;
+	}
+
+	public ConsolFun getConsolidationFunction() {
+		return function;
+	}
+
+	/**
+	 * Adds a value to the buffer.
+	 * 
+	 * @param time the time of the value in seconds
+	 * @param value the value to add
+	 */
+	public synchronized void add(long time, double value) {
+		while(second!=-1 && time > second) {
+			complete();
+		}
+		if(second==-1) {
+			// samples must have ascending timestamps, so late values are moved to the next free second
+			start(Math.max(time, lastSecond + 1), value);
+		} else {
+			accumulate(value);
+		}
+	}
+
+	/**
+	 * Removes and returns all samples whose second is before the given time.
+	 * 
+	 * @param now the current time in seconds, use {@link Long#MAX_VALUE} to 
+	 * get all samples including the current second
+	 * @return the samples to write in ascending order, never <code>null</code>
+	 */
+	public synchronized List<PendingSample> drain(long now) {
+		while(second!=-1 && second < now) {
+			complete();
+		}
+		if(completed==null) {
+			return Collections.emptyList();
+		}
+		List<PendingSample> result = completed;
+		completed = null;
+		return result;
+	}
+
+	/**
+	 * Checks whether {@link #drain(long)} would return any samples.
+	 * 
+	 * @param now the current time in seconds
+	 * @return <code>true</code>, if there are samples to write
+	 */
+	public synchronized boolean isDue(long now) {
+		return completed!=null || (second!=-1 && second < now);
+	}
+
+	private void start(long time, double value) {
+		second = time;
+		max = value;
+		sum = value;
+		count = 1;
+		last = value;
+	}
+
+	private void accumulate(double value) {
+		max = Math.max(max, value);
+		sum += value;
+		count++;
+		last = value;
+	}
+
+	private void complete() {
+		double consolidated = function==ConsolFun.MAX ? max : sum / count;
+		if(completed==null) {
+			completed = new ArrayList<PendingSample>(2);
+		}
+		completed.add(new PendingSample(second, consolidated));
+		lastSecond = second;
+		if(count > 1 && last!=consolidated) {
+			// the latest value is written in the next second, together with anything arriving then
+			start(second + 1, last);
+		} else {
+			second = -1;
+		}
+	}
+
+}
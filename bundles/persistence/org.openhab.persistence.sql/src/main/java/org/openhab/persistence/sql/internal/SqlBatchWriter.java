@@ -0,0 +1,364 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the stored item states to the database on a thread of its own. The
+ * rows are collected and inserted as JDBC batches per item table, either when
+ * <code>batchSize</code> rows are pending or when <code>flushInterval</code>
+ * has passed. The insert statements are prepared once per table.
+ * <p>
+ * If the connection fails, the rows are kept and written again after the
+ * writer has reconnected. Only if more than <code>queueSize</code> rows are
+ * pending, the oldest rows are dropped.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class SqlBatchWriter implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(SqlBatchWriter.class);
+
+	// the maximum time in milliseconds to wait before writing again after a failure
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	/**
+	 * A row which waits to be written.
+	 */
+	static class Row {
+		final String itemName;
+		final String sqlType;
+		final Timestamp time;
+		final String value;
+
+		Row(String itemName, String sqlType, Timestamp time, String value) {
+			this.itemName = itemName;
+			this.sqlType = sqlType;
+			this.time = time;
+			this.value = value;
+		}
+	}
+
+	private final SqlPersistenceService service;
+	private final SqlConnectionPool pool;
+	private final int batchSize;
+	private final long flushInterval;
+	private final int queueSize;
+
+	private final LinkedList<Row> rows = new LinkedList<Row>();
+
+	// the connection of the writer and the insert statements prepared on it
+	private Connection connection;
+	private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+	private long retryDelay = 0;
+	private long dropped = 0;
+
+	private volatile boolean running = false;
+	private Thread thread;
+
+	public SqlBatchWriter(SqlPersistenceService service, SqlConnectionPool pool, int batchSize, long flushInterval, int queueSize) {
+		this.service = service;
+		this.pool = pool;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.queueSize = queueSize;
+	}
+
+	public void start() {
+		running = true;
+		thread = new Thread(this, "SQL writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer after it has written the pending rows.
+	 */
+	public void stop() {
+		running = false;
+		synchronized (rows) {
+			rows.notifyAll();
+		}
+		if (thread != null) {
+			try {
+				thread.join(flushInterval + 10000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * Adds a row to be written with the next batch.
+	 */
+	public void add(Row row) {
+		synchronized (rows) {
+			if (rows.size() >= queueSize) {
+				rows.removeFirst();
+				if (dropped++ % 1000 == 0) {
+					logger.warn("SQL: More than {} rows are waiting to be written, dropped {} rows so far.", queueSize, dropped);
+				}
+			}
+			rows.addLast(row);
+			if (rows.size() >= batchSize) {
+				rows.notify();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of rows which wait to be written
+	 */
+	public int getPendingCount() {
+		synchronized (rows) {
+			return rows.size();
+		}
+	}
+
+	public void run() {
+		while (running) {
+			List<Row> batch = take();
+			if (!batch.isEmpty() && !write(batch)) {
+				putBack(batch);
+				waitForRetry();
+			}
+		}
+
+		// write what is left before stopping
+		List<Row> batch;
+		do {
+			batch = take();
+		} while (!batch.isEmpty() && write(batch));
+		if (!batch.isEmpty()) {
+			logger.error("SQL: Could not write {} rows before stopping.", batch.size() + getPendingCount());
+		}
+		closeConnection();
+	}
+
+	/**
+	 * Waits until a batch is complete or the flush interval has passed and
+	 * takes the rows of the batch.
+	 */
+	private List<Row> take() {
+		synchronized (rows) {
+			long timeout = System.currentTimeMillis() + flushInterval;
+			long wait;
+			while (running && rows.size() < batchSize && (wait = timeout - System.currentTimeMillis()) > 0) {
+				try {
+					rows.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			List<Row> batch = new ArrayList<Row>(Math.min(rows.size(), batchSize));
+			while (!rows.isEmpty() && batch.size() < batchSize) {
+				batch.add(rows.removeFirst());
+			}
+			return batch;
+		}
+	}
+
+	/**
+	 * Waits before writing again after a failure, unless the writer is stopped
+	 * in the meantime.
+	 */
+	private void waitForRetry() {
+		synchronized (rows) {
+			long timeout = System.currentTimeMillis() + retryDelay;
+			long wait;
+			while (running && (wait = timeout - System.currentTimeMillis()) > 0) {
+				try {
+					rows.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Puts the rows of a failed batch back in front of the pending rows.
+	 */
+	private void putBack(List<Row> batch) {
+		synchronized (rows) {
+			rows.addAll(0, batch);
+			while (rows.size() > queueSize) {
+				rows.removeFirst();
+				dropped++;
+			}
+		}
+	}
+
+	/**
+	 * Inserts the rows with a batch per item table in a single transaction.
+	 * 
+	 * @return false if the rows have to be written again
+	 */
+	private boolean write(List<Row> batch) {
+		Map<String, List<Row>> itemRows = new LinkedHashMap<String, List<Row>>();
+		for (Row row : batch) {
+			List<Row> list = itemRows.get(row.itemName);
+			if (list == null) {
+				list = new ArrayList<Row>();
+				itemRows.put(row.itemName, list);
+			}
+			list.add(row);
+		}
+
+		long timerStart = System.currentTimeMillis();
+		try {
+			if (connection == null) {
+				connection = pool.getConnection();
+				connection.setAutoCommit(false);
+			}
+			for (Entry<String, List<Row>> entry : itemRows.entrySet()) {
+				String itemName = entry.getKey();
+				List<Row> list = entry.getValue();
+				try {
+					String tableName = service.getTable(itemName, list.get(0).sqlType);
+					PreparedStatement statement = getStatement(tableName);
+					for (Row row : list) {
+						statement.setTimestamp(1, row.time);
+						statement.setString(2, row.value);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				} catch (SQLException e) {
+					if (isConnectionError(e)) {
+						throw e;
+					}
+					// errors of the data are not resolved by writing again
+					int failed = e instanceof BatchUpdateException ? countFailed((BatchUpdateException) e, list.size()) : list.size();
+					logger.error("SQL: Could not store {} rows of item '{}' in database: {}", failed, itemName, e.getMessage());
+				}
+			}
+			connection.commit();
+
+			logger.debug("SQL: Stored {} rows of {} items in {}ms", batch.size(), itemRows.size(), System.currentTimeMillis() - timerStart);
+			retryDelay = 0;
+			return true;
+		} catch (SQLException e) {
+			retryDelay = Math.min(Math.max(retryDelay * 2, 1000), MAX_RETRY_DELAY);
+			logger.warn("SQL: Could not write {} rows, retrying in {}ms: {}", batch.size(), retryDelay, e.getMessage());
+			if (connection != null) {
+				try {
+					connection.rollback();
+				} catch (SQLException ignore) {
+				}
+			}
+			invalidateConnection();
+			return false;
+		}
+	}
+
+	private PreparedStatement getStatement(String tableName) throws SQLException {
+		PreparedStatement statement = statements.get(tableName);
+		if (statement == null) {
+			statement = connection.prepareStatement("INSERT INTO " + tableName + " (TIME, VALUE) VALUES(?,?)");
+			statements.put(tableName, statement);
+		}
+		return statement;
+	}
+
+	private int countFailed(BatchUpdateException e, int count) {
+		int[] counts = e.getUpdateCounts();
+		if (counts == null || counts.length < count) {
+			return count - (counts == null ? 0 : counts.length);
+		}
+		int failed = 0;
+		for (int updateCount : counts) {
+			if (updateCount == Statement.EXECUTE_FAILED) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Checks whether an error is caused by the connection rather than by the
+	 * written data, so that writing again after reconnecting may succeed.
+	 */
+	static boolean isConnectionError(SQLException e) {
+		String state = e.getSQLState();
+		return e instanceof SQLRecoverableException
+				|| e instanceof SQLNonTransientConnectionException
+				|| (state != null && state.startsWith("08"));
+	}
+
+	private void invalidateConnection() {
+		statements.clear();
+		if (connection != null) {
+			pool.invalidate(connection);
+			connection = null;
+		}
+	}
+
+	private void closeConnection() {
+		for (PreparedStatement statement : statements.values()) {
+			try {
+				statement.close();
+			} catch (SQLException ignore) {
+			}
+		}
+		statements.clear();
+		if (connection != null) {
+			try {
+				connection.setAutoCommit(true);
+				pool.returnConnection(connection);
+			} catch (SQLException e) {
+				pool.invalidate(connection);
+			}
+			connection = null;
+		}
+	}
+
+}
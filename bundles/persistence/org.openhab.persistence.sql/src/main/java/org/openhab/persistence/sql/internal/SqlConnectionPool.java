@@ -0,0 +1,196 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.sql.internal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small pool of connections to the SQL database. Connections are opened
+ * when they are needed, up to the size of the pool, and are reused once they
+ * have been returned. Connections which failed are invalidated, so that a new
+ * connection is opened the next time one is needed.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class SqlConnectionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(SqlConnectionPool.class);
+
+	// the SQLState of errors while establishing a connection
+	static final String SQLSTATE_CONNECTION_FAILED = "08001";
+
+	// the maximum time in milliseconds to wait for a free connection
+	private static final long WAIT_TIMEOUT = 10000;
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int size;
+
+	private final LinkedList<Connection> idle = new LinkedList<Connection>();
+
+	// the number of connections which are open or being opened
+	private int open = 0;
+
+	private boolean closed = false;
+
+	public SqlConnectionPool(String url, String user, String password, int size) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.size = size;
+	}
+
+	/**
+	 * Returns a free connection of the pool, which has to be given back by
+	 * {@link #returnConnection(Connection)} or {@link #invalidate(Connection)}.
+	 * 
+	 * @return a connection to the database
+	 * @throws SQLException if no connection could be opened or none became free in time
+	 */
+	public Connection getConnection() throws SQLException {
+		synchronized (idle) {
+			long timeout = System.currentTimeMillis() + WAIT_TIMEOUT;
+			while (open >= size && idle.isEmpty() && !closed) {
+				long wait = timeout - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new SQLException("SQL: No free connection to database " + url + " after " + WAIT_TIMEOUT + "ms", SQLSTATE_CONNECTION_FAILED);
+				}
+				try {
+					idle.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("SQL: Interrupted while waiting for a connection", SQLSTATE_CONNECTION_FAILED);
+				}
+			}
+			if (closed) {
+				throw new SQLException("SQL: The connections to database " + url + " have been closed", SQLSTATE_CONNECTION_FAILED);
+			}
+			if (!idle.isEmpty()) {
+				return idle.removeFirst();
+			}
+			open++;
+		}
+
+		// the connection is opened without holding the lock, so that other
+		// threads can still use the idle connections meanwhile
+		try {
+			logger.debug("SQL: Attempting to connect to database " + url);
+			Connection connection = DriverManager.getConnection(url, user, password);
+			logger.debug("SQL: Connected to database " + url);
+			return connection;
+		} catch (SQLException e) {
+			release();
+			throw e;
+		} catch (RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a connection back to the pool, so that it can be used again.
+	 * 
+	 * @param connection the connection which has been taken from this pool
+	 */
+	public void returnConnection(Connection connection) {
+		synchronized (idle) {
+			if (!closed) {
+				idle.addFirst(connection);
+				idle.notify();
+				return;
+			}
+		}
+		invalidate(connection);
+	}
+
+	/**
+	 * Closes a connection which failed, instead of giving it back to the pool.
+	 * 
+	 * @param connection the connection which has been taken from this pool
+	 */
+	public void invalidate(Connection connection) {
+		close(connection);
+		release();
+	}
+
+	/**
+	 * Closes all idle connections, so that new connections are opened the
+	 * next time they are needed.
+	 */
+	public void reset() {
+		for (Connection connection : removeIdle()) {
+			invalidate(connection);
+		}
+	}
+
+	/**
+	 * Closes all idle connections. The connections which are in use are
+	 * closed when they are given back.
+	 */
+	public void close() {
+		synchronized (idle) {
+			closed = true;
+			idle.notifyAll();
+		}
+		reset();
+		logger.debug("SQL: Disconnected from database " + url);
+	}
+
+	private LinkedList<Connection> removeIdle() {
+		synchronized (idle) {
+			LinkedList<Connection> connections = new LinkedList<Connection>(idle);
+			idle.clear();
+			return connections;
+		}
+	}
+
+	private void release() {
+		synchronized (idle) {
+			open--;
+			idle.notify();
+		}
+	}
+
+	private void close(Connection connection) {
+		try {
+			connection.close();
+		} catch (Exception e) {
+			logger.debug("SQL: Failed closing a connection to the SQL database: {}", e.getMessage());
+		}
+	}
+
+}
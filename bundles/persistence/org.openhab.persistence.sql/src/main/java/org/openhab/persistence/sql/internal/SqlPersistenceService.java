@@ -30,18 +30,21 @@ package org.openhab.persistence.sql.internal;
 
 import java.text.SimpleDateFormat;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,10 +52,13 @@ import org.apache.commons.lang.StringUtils;
 import org.openhab.core.items.Item;
 import org.openhab.core.items.ItemRegistry;
 import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
 import org.openhab.core.persistence.FilterCriteria;
 import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PagedQueryResult;
 import org.openhab.core.persistence.PersistenceService;
-import org.openhab.core.persistence.QueryablePersistenceService;
+import org.openhab.core.persistence.TimestampedPersistenceService;
 import org.openhab.core.persistence.FilterCriteria.Ordering;
 import org.openhab.core.types.State;
 import org.osgi.service.cm.ConfigurationException;
@@ -68,16 +74,32 @@ import org.slf4j.LoggerFactory;
  * @author Chris Jackson
  * @since 1.1.0
  */
-public class SqlPersistenceService implements QueryablePersistenceService, ManagedService {
+public class SqlPersistenceService implements BulkQueryablePersistenceService, AggregatingPersistenceService,
+		TimestampedPersistenceService, ManagedService {
 
 	private static final Pattern EXTRACT_CONFIG_PATTERN = Pattern.compile("^(.*?)\\.([0-9.a-zA-Z]+)$");
 
 	private static final Logger logger = LoggerFactory.getLogger(SqlPersistenceService.class);
 
+	// the maximum number of item tables which are combined in a single query for the latest states
+	private static final int LATEST_QUERY_TABLES = 100;
+
+	// the default number of connections to the database
+	private static final int DEFAULT_POOL_SIZE = 3;
+
+	// the defaults of the writer: rows per batch, milliseconds between batches and pending rows
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	private static final int DEFAULT_QUEUE_SIZE = 100000;
+
 	private String driverClass;
 	private String url;
 	private String user;
 	private String password;
+	private int poolSize = DEFAULT_POOL_SIZE;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
 
 	private boolean initialized = false;
 	protected ItemRegistry itemRegistry;
@@ -86,9 +108,13 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 	private int errCnt;
 	private int errReconnectThreshold = 0;
 
-	private Connection connection = null;
+	private SqlConnectionPool pool = null;
+	private SqlBatchWriter writer = null;
+
+	// the item tables are read once the database can be reached
+	private volatile boolean tablesLoaded = false;
 
-	private Map<String, String> sqlTables = new HashMap<String, String>();
+	private Map<String, String> sqlTables = new ConcurrentHashMap<String, String>();
 	private Map<String, String> sqlTypes = new HashMap<String, String>();
 
 	public void activate() {
@@ -124,12 +150,30 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 		return "sql";
 	}
 
-	private String getTable(Item item) {
+	private String getSqlType(Item item) {
+		// Default the type to double
+		String mysqlType = new String("DOUBLE");
+		String itemType = item.getClass().toString().toUpperCase();
+		itemType = itemType.substring(itemType.lastIndexOf('.')+1);
+		if(sqlTypes.get(itemType) != null) {
+			mysqlType = sqlTypes.get(itemType);
+		}
+		return mysqlType;
+	}
+
+	/**
+	 * Returns the name of the table of an item, the table is created if it
+	 * does not exist yet.
+	 * 
+	 * @param itemName the name of the item
+	 * @param mysqlType the type of the value column of a new table
+	 * @return the name of the table
+	 * @throws SQLException if the table could not be created
+	 */
+	synchronized String getTable(String itemName, String mysqlType) throws SQLException {
 		Statement statement = null;
 		String sqlCmd = null;
 		int rowId = 0;
-		
-		String itemName = item.getName();
 
 		String tableName = sqlTables.get(itemName);
 
@@ -137,122 +181,97 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 		if (tableName != null)
 			return tableName;
 
-		// Create a new entry in the Items table. This is the translation of
-		// item name to table
+		Connection connection = getConnection();
+		SQLException error = null;
 		try {
-			sqlCmd = new String("INSERT INTO Items (ItemName) VALUES ('" + itemName + "')");
+			// the table may have been read with the connection
+			tableName = sqlTables.get(itemName);
+			if (tableName != null)
+				return tableName;
 
-			statement = connection.createStatement();
-			statement.executeUpdate(sqlCmd, Statement.RETURN_GENERATED_KEYS);
+			// Create a new entry in the Items table. This is the translation of
+			// item name to table
+			try {
+				sqlCmd = new String("INSERT INTO Items (ItemName) VALUES ('" + itemName + "')");
 
-			ResultSet resultSet = statement.getGeneratedKeys();
-			if (resultSet != null && resultSet.next()) {
-				rowId = resultSet.getInt(1);
-			}
+				statement = connection.createStatement();
+				statement.executeUpdate(sqlCmd, Statement.RETURN_GENERATED_KEYS);
 
-			if (rowId == 0) {
-				throw new SQLException("SQL: Creating table for item '" + itemName + "' failed.");
-			}
+				ResultSet resultSet = statement.getGeneratedKeys();
+				if (resultSet != null && resultSet.next()) {
+					rowId = resultSet.getInt(1);
+				}
 
-			// Create the table name
-			tableName = new String("Item" + rowId);
-			logger.debug("SQL: new item " + itemName + " is Item" + rowId);
-		} catch (SQLException e) {
-			logger.error("SQL: Could not create table for item '" + itemName + "': "	+ e.getMessage());
-		} finally {
-			if (statement != null) {
-				try {
-					statement.close();
-				} catch (SQLException logOrIgnore) {
+				if (rowId == 0) {
+					throw new SQLException("SQL: Creating table for item '" + itemName + "' failed.");
 				}
-			}
-		}
 
-		// An error occurred!
-		if (tableName == null)
-			return null;
+				// Create the table name
+				tableName = new String("Item" + rowId);
+				logger.debug("SQL: new item " + itemName + " is Item" + rowId);
+			} finally {
+				if (statement != null) {
+					try {
+						statement.close();
+					} catch (SQLException logOrIgnore) {
+					}
+				}
+			}
 
-		// Default the type to double
-		String mysqlType = new String("DOUBLE");
-		String itemType = item.getClass().toString().toUpperCase();
-		itemType = itemType.substring(itemType.lastIndexOf('.')+1);
-		if(sqlTypes.get(itemType) != null) {
-			mysqlType = sqlTypes.get(itemType);
-		}
+			// We have a rowId, create the table for the data
+			sqlCmd = new String("CREATE TABLE " + tableName + " (Time DATETIME, Value " + mysqlType + ", PRIMARY KEY(Time));");
+			logger.debug("SQL: " + sqlCmd);
 
-		// We have a rowId, create the table for the data
-		sqlCmd = new String("CREATE TABLE " + tableName + " (Time DATETIME, Value " + mysqlType + ", PRIMARY KEY(Time));");
-		logger.debug("SQL: " + sqlCmd);
-		
-		try {
-			statement = connection.createStatement();
-			statement.executeUpdate(sqlCmd);
+			try {
+				statement = connection.createStatement();
+				statement.executeUpdate(sqlCmd);
+
+				logger.debug("SQL: Table created for item '" + itemName + "' with datatype " + mysqlType + " in SQL database.");
+				sqlTables.put(itemName, tableName);
+			} finally {
+				if (statement != null) {
+					try {
+						statement.close();
+					} catch (Exception hidden) {
+					}
+				}
+			}
 
-			logger.debug("SQL: Table created for item '" + itemName + "' with datatype " + mysqlType + " in SQL database.");
-			sqlTables.put(itemName, tableName);
-		} catch (Exception e) {
+			return tableName;
+		} catch (SQLException e) {
+			error = e;
 			logger.error("SQL: Could not create table for item '" + itemName + "' with statement '" + sqlCmd + "': "
 					+ e.getMessage());
+			throw e;
 		} finally {
-			if (statement != null) {
-				try {
-					statement.close();
-				} catch (Exception hidden) {
-				}
-			}
+			releaseConnection(connection, error);
 		}
-
-		return tableName;
 	}
 
 	/**
-	 * @{inheritDoc
+	 * @{inheritDoc}
+	 * 
+	 * The state is only queued here, it is inserted into the database with
+	 * the next batch of the writer.
 	 */
 	public void store(Item item, String alias) {
-		if (initialized) {
-
-			if (!isConnected())
-				connectToDatabase();
-
-			if (isConnected()) {
-
-				String tableName = getTable(item);
-				if (tableName == null) {
-					logger.error("Unable to store item '{}'.", item.getName());
-					return;
-				}
-
-				String sqlCmd = null;
-				Statement statement = null;
-				try {
-					statement = connection.createStatement();
-					sqlCmd = new String("INSERT INTO " + tableName + " (TIME, VALUE) VALUES(NOW(),'" + item.getState().toString() + "');");
-					statement.executeUpdate(sqlCmd);
-
-					logger.debug("SQL: Stored item '{}' as '{}'[{}] in SQL database at {}.", item.getName(),
-							item.getState().toString(), item.getState().toString(), (new java.util.Date()).toString());
-					logger.debug("SQL: {}", sqlCmd);
-
-					// Success
-					errCnt = 0;
-				} catch (Exception e) {
-					errCnt++;
+		store(item, alias, new Date());
+	}
 
-					logger.error("SQL: Could not store item '{}' in database with statement '{}': {}",
-							item.getName(), sqlCmd, e.getMessage());
-				} finally {
-					if (statement != null) {
-						try {
-							statement.close();
-						} catch (Exception hidden) {
-						}
-					}
-				}
-			} else {
-				logger.warn(
-						"SQL: No connection to database. Can not persist item '{}'! Will retry connecting to database next time.",
-						item);
-			}
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * The state is only queued here, it is inserted into the database with
+	 * the next batch of the writer.
+	 */
+	public void store(Item item, String alias, Date timestamp) {
+		SqlBatchWriter writer = this.writer;
+		if (initialized && writer != null) {
+			Timestamp time = new Timestamp(timestamp.getTime());
+			writer.add(new SqlBatchWriter.Row(item.getName(), getSqlType(item), time, item.getState().toString()));
+
+			logger.debug("SQL: Queued item '{}' as '{}' for SQL database at {}.", item.getName(),
+					item.getState().toString(), time);
 		}
 	}
 
@@ -264,46 +283,79 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 	}
 
 	/**
-	 * Checks if we have a database connection
+	 * Takes a connection from the pool and reads the item tables, if this
+	 * has not been done yet. Every connection has to be given back by
+	 * {@link #releaseConnection(Connection, SQLException)}.
 	 * 
-	 * @return true if connection has been established, false otherwise
+	 * @return a connection to the database
+	 * @throws SQLException if there is no connection to the database
 	 */
-	private boolean isConnected() {
+	private Connection getConnection() throws SQLException {
+		SqlConnectionPool pool = this.pool;
+		if (pool == null) {
+			throw new SQLException("SQL: No connection to database configured.", SqlConnectionPool.SQLSTATE_CONNECTION_FAILED);
+		}
+
 		// Error check. If we have 'errReconnectThreshold' errors in a row, then reconnect to the database
 		if(errReconnectThreshold != 0 && errCnt > errReconnectThreshold) {
-			logger.debug("SQL: Error count exceeded " + errReconnectThreshold + ". Disconnecting database.");
-			disconnectFromDatabase();
+			logger.debug("SQL: Error count exceeded " + errReconnectThreshold + ". Reconnecting to database.");
+			errCnt = 0;
+			pool.reset();
 		}
-		return connection != null;
+
+		Connection connection = pool.getConnection();
+		if (!tablesLoaded) {
+			try {
+				loadTables(connection);
+			} catch (SQLException e) {
+				releaseConnection(connection, e);
+				throw e;
+			}
+		}
+		return connection;
 	}
 
 	/**
-	 * Connects to the database
+	 * Gives a connection back to the pool. Connections which failed are
+	 * closed, so that the next query opens a new connection.
+	 * 
+	 * @param connection the connection, may be <code>null</code>
+	 * @param error the error which occurred while using the connection or <code>null</code>
 	 */
-	private void connectToDatabase() {
-		try {
-			// Reset the error counter
+	private void releaseConnection(Connection connection, SQLException error) {
+		if (error == null) {
+			// Success
 			errCnt = 0;
-			
-			logger.debug("SQL: Attempting to connect to database " + url);
-			Class.forName(driverClass).newInstance();
-			connection = DriverManager.getConnection(url, user, password);
-			logger.debug("SQL: Connected to database " + url);
+		} else {
+			errCnt++;
+		}
+		if (connection != null) {
+			if (error != null && SqlBatchWriter.isConnectionError(error)) {
+				pool.invalidate(connection);
+			} else {
+				pool.returnConnection(connection);
+			}
+		}
+	}
+
+	/**
+	 * Creates the Items table if necessary and reads the tables of the items.
+	 */
+	private synchronized void loadTables(Connection connection) throws SQLException {
+		if (tablesLoaded) {
+			return;
+		}
 
-			Statement st = connection.createStatement();
+		Statement st = connection.createStatement();
+		try {
 			int result = st.executeUpdate("SHOW TABLES LIKE 'Items'");
-			st.close();
 			if (result == 0) {
-				st = connection.createStatement();
 				st.executeUpdate(
 						"CREATE TABLE Items (ItemId INT NOT NULL AUTO_INCREMENT,ItemName VARCHAR(200) NOT NULL,PRIMARY KEY (ItemId));",
 						Statement.RETURN_GENERATED_KEYS);
-				st.close();
 			}
 
 			// Retrieve the table array
-			st = connection.createStatement();
-
 			// Turn use of the cursor on.
 			st.setFetchSize(50);
 			ResultSet rs = st.executeQuery("SELECT ItemId, ItemName FROM Items");
@@ -311,7 +363,43 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 				sqlTables.put(rs.getString(2), "Item" + rs.getInt(1));
 			}
 			rs.close();
+		} finally {
 			st.close();
+		}
+		tablesLoaded = true;
+	}
+
+	/**
+	 * Checks if the database can be reached
+	 * 
+	 * @return true if the item tables have been read from the database, false otherwise
+	 */
+	private boolean isConnected() {
+		if (!tablesLoaded) {
+			try {
+				releaseConnection(getConnection(), null);
+			} catch (SQLException e) {
+				logger.warn("SQL: No connection to database: {}", e.getMessage());
+			}
+		}
+		return tablesLoaded;
+	}
+
+	/**
+	 * Connects to the database and starts the writer.
+	 */
+	private void connectToDatabase() {
+		try {
+			// Reset the error counter
+			errCnt = 0;
+
+			Class.forName(driverClass).newInstance();
+			// the writer keeps a connection of its own
+			pool = new SqlConnectionPool(url, user, password, Math.max(poolSize, 2));
+			writer = new SqlBatchWriter(this, pool, batchSize, flushInterval, queueSize);
+			writer.start();
+
+			releaseConnection(getConnection(), null);
 		} catch (Exception e) {
 			logger.error("SQL: Failed connecting to the SQL database using: driverClass=" + driverClass + ", url=" + url
 					+ ", user=" + user + ", password=" + password, e);
@@ -319,18 +407,18 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 	}
 
 	/**
-	 * Disconnects from the database
+	 * Writes the pending rows and disconnects from the database
 	 */
 	private void disconnectFromDatabase() {
-		if (isConnected()) {
-			try {
-				connection.close();
-				logger.debug("SQL: Disconnected from database " + url);
-			} catch (Exception e) {
-				logger.warn("SQL: Failed disconnecting from the SQL database", e);
-			}
-			connection = null;
+		if (writer != null) {
+			writer.stop();
+			writer = null;
 		}
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
+		tablesLoaded = false;
 	}
 
 	/**
@@ -407,6 +495,11 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 				errReconnectThreshold = Integer.parseInt(errorThresholdString);
 			}
 
+			poolSize = parseInt(config, "poolsize", DEFAULT_POOL_SIZE);
+			batchSize = parseInt(config, "batchsize", DEFAULT_BATCH_SIZE);
+			flushInterval = parseInt(config, "flushinterval", (int) DEFAULT_FLUSH_INTERVAL);
+			queueSize = parseInt(config, "queuesize", DEFAULT_QUEUE_SIZE);
+
 			disconnectFromDatabase();
 			connectToDatabase();
 
@@ -416,16 +509,33 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 		
 	}
 
-	@Override
-	public Iterable<HistoricItem> query(FilterCriteria filter) {
-		if (initialized) {
-			if (!isConnected()) {
-				connectToDatabase();
+	private int parseInt(Dictionary<String, ?> config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if (intValue > 0) {
+				return intValue;
 			}
+		} catch (NumberFormatException e) {
+		}
+		throw new ConfigurationException("sql:" + key, "The value '" + value + "' of sql:" + key + " is not a positive number");
+	}
 
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * The rows are read in pages while the result is iterated. Without an end
+	 * date, the result ends at the time it has been created, so that rows which
+	 * are stored in the meantime don't shift the following pages.
+	 */
+	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		if (initialized) {
 			SimpleDateFormat mysqlDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 			if (isConnected()) {
-				String itemName = filter.getItemName();
+				final String itemName = filter.getItemName();
 
 				String table= sqlTables.get(itemName);
 				if (table == null) {
@@ -442,71 +552,243 @@ public class SqlPersistenceService implements QueryablePersistenceService, Manag
 						filterString += " AND";
 					filterString += " TIME>'" + mysqlDateFormat.format(filter.getBeginDate()) + "'";
 				}
-				if (filter.getEndDate()!=null) {
-					if(filterString.isEmpty())
-						filterString += " WHERE";
-					else
-						filterString += " AND";
-					filterString += " TIME<'" + mysqlDateFormat.format(filter.getEndDate().getTime()) + "'";
-				}
+				Date endDate = filter.getEndDate()!=null ? filter.getEndDate() : new Date();
+				if(filterString.isEmpty())
+					filterString += " WHERE";
+				else
+					filterString += " AND";
+				filterString += " TIME<'" + mysqlDateFormat.format(endDate.getTime()) + "'";
 
 				if(filter.getOrdering()==Ordering.ASCENDING) {
-					filterString += " ORDER BY 'Time' ASC";
+					filterString += " ORDER BY Time ASC";
 				} else {
 					filterString += " ORDER BY Time DESC";
 				}
 
-				if(filter.getPageSize() != 0x7fffffff)
-					filterString += " LIMIT " + filter.getPageNumber() * filter.getPageSize() + "," + filter.getPageSize();
-				
-				try {
-					long timerStart = System.currentTimeMillis();
+				final String queryString = "SELECT Time, Value FROM " + table + filterString;
+				return new PagedQueryResult(filter, PagedQueryResult.DEFAULT_FETCH_SIZE) {
+					protected List<HistoricItem> fetch(long offset, int count) {
+						return queryPage(itemName, queryString + " LIMIT " + offset + "," + count);
+					}
+				};
+			}
+		}
+		return Collections.emptyList();
+	}
 
-					// Retrieve the table array
-					Statement st = connection.createStatement();
+	/**
+	 * Runs a query for a single page of historic items.
+	 * 
+	 * @param itemName the name of the queried item
+	 * @param queryString the query including the limit of the page
+	 * @return the historic items of the page, an empty list if the query failed
+	 */
+	private List<HistoricItem> queryPage(String itemName, String queryString) {
+		if (isConnected()) {
+			Connection connection = null;
+			SQLException error = null;
+			Statement st = null;
+			try {
+				long timerStart = System.currentTimeMillis();
 
-					String queryString = new String();
-					queryString = "SELECT Time, Value FROM " + table;
-					if(!filterString.isEmpty())
-						queryString += filterString;
-					
-					logger.debug("SQL: "+queryString);
+				connection = getConnection();
+				st = connection.createStatement();
+				logger.debug("SQL: "+queryString);
 
-					// Turn use of the cursor on.
-					st.setFetchSize(50);
+				// Turn use of the cursor on.
+				st.setFetchSize(50);
 
-					ResultSet rs = st.executeQuery(queryString);
+				ResultSet rs = st.executeQuery(queryString);
+
+				long count = 0;
+				double value;
+				List<HistoricItem> items = new ArrayList<HistoricItem>();
+				while (rs.next()) {
+					count++;
+
+					//TODO: Make this type specific ???
+					value = rs.getDouble(2);
+					State v = new DecimalType(value);
+
+					SqlItem sqlItem = new SqlItem(itemName, v, rs.getTimestamp(1));
+					items.add(sqlItem);
+				}
+
+				rs.close();
+
+				long timerStop = System.currentTimeMillis();
+				logger.debug("SQL: query returned {} rows in {}ms", count, timerStop - timerStart);
 
-					long count = 0;
-					double value;
-					List<HistoricItem> items = new ArrayList<HistoricItem>();
-					while (rs.next()) {
-						count++;
+				return items;
+			} catch (SQLException e) {
+				error = e;
+				logger.error("SQL: Error running querying : " + e.getMessage());
+			} finally {
+				if (st != null) {
+					try {
+						st.close();
+					} catch (Exception hidden) {
+					}
+				}
+				releaseConnection(connection, error);
+			}
+		}
+		return Collections.emptyList();
+	}
 
-						//TODO: Make this type specific ???
-						value = rs.getDouble(2);
-						State v = new DecimalType(value);
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * The latest rows of the item tables are selected with a single statement
+	 * for up to 100 items.
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> latest = new HashMap<String, HistoricItem>();
+		if (initialized) {
+			if (isConnected()) {
+				List<String> names = new ArrayList<String>();
+				List<String> tables = new ArrayList<String>();
+				for (String itemName : itemNames) {
+					String table = sqlTables.get(itemName);
+					if (table != null) {
+						names.add(itemName);
+						tables.add(table);
+					}
+				}
 
-						SqlItem sqlItem = new SqlItem(itemName, v, rs.getTimestamp(1));
-						items.add(sqlItem);
+				for (int start = 0; start < names.size(); start += LATEST_QUERY_TABLES) {
+					int end = Math.min(start + LATEST_QUERY_TABLES, names.size());
+					StringBuilder queryString = new StringBuilder();
+					for (int index = start; index < end; index++) {
+						if (index > start)
+							queryString.append(" UNION ALL ");
+						queryString.append("(SELECT " + index + ", Time, Value FROM " + tables.get(index) + " ORDER BY Time DESC LIMIT 1)");
+					}
+					logger.debug("SQL: " + queryString);
+
+					Connection connection = null;
+					SQLException error = null;
+					Statement st = null;
+					try {
+						long timerStart = System.currentTimeMillis();
+						connection = getConnection();
+						st = connection.createStatement();
+						ResultSet rs = st.executeQuery(queryString.toString());
+						while (rs.next()) {
+							String itemName = names.get(rs.getInt(1));
+							// the tables have different value types, so the union returns them as strings
+							String value = rs.getString(3);
+							try {
+								if (value != null) {
+									latest.put(itemName, new SqlItem(itemName, new DecimalType(value), rs.getTimestamp(2)));
+								}
+							} catch (NumberFormatException e) {
+								logger.debug("SQL: Latest value '{}' of item '{}' is not a number.", value, itemName);
+							}
+						}
+						rs.close();
+
+						logger.debug("SQL: queried the latest states of {} items in {}ms", end - start, System.currentTimeMillis() - timerStart);
+					} catch (SQLException e) {
+						error = e;
+						logger.error("SQL: Error querying the latest states : " + e.getMessage());
+					} finally {
+						if (st != null) {
+							try {
+								st.close();
+							} catch (Exception hidden) {
+							}
+						}
+						releaseConnection(connection, error);
 					}
+				}
+			}
+		}
+		return latest;
+	}
 
-					rs.close();
-					st.close();
+	/**
+	 * @{inheritDoc}
+	 */
+	public boolean supportsAggregate(AggregateFunction function) {
+		return true;
+	}
 
-					long timerStop = System.currentTimeMillis();
-					logger.debug("SQL: query returned {} rows in {}ms", count, timerStop - timerStart);
-					
-					// Success
-					errCnt = 0;
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * The aggregate is computed by the database, so that only a single row is
+	 * returned.
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, AggregateFunction function) {
+		if (initialized) {
+			SimpleDateFormat mysqlDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+			if (isConnected()) {
+				String itemName = filter.getItemName();
+				Date end = filter.getEndDate()!=null ? filter.getEndDate() : new Date();
+
+				String table = sqlTables.get(itemName);
+				if (table == null) {
+					logger.error("SQL: Unable to find table for query '" + itemName + "'.");
+					return function == AggregateFunction.COUNT ? new SqlItem(itemName, DecimalType.ZERO, end) : null;
+				}
+
+				String filterString = " WHERE Value IS NOT NULL";
+				if (filter.getBeginDate()!=null) {
+					filterString += " AND TIME>'" + mysqlDateFormat.format(filter.getBeginDate()) + "'";
+				}
+				if (filter.getEndDate()!=null) {
+					filterString += " AND TIME<'" + mysqlDateFormat.format(filter.getEndDate().getTime()) + "'";
+				}
+
+				String queryString;
+				switch (function) {
+					case AVERAGE : queryString = "SELECT AVG(Value), COUNT(*) FROM " + table + filterString; break;
+					case SUM : queryString = "SELECT SUM(Value), COUNT(*) FROM " + table + filterString; break;
+					case COUNT : queryString = "SELECT COUNT(*), COUNT(*) FROM " + table + filterString; break;
+					case MINIMUM : queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Value ASC, Time ASC LIMIT 1"; break;
+					case MAXIMUM : queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Value DESC, Time ASC LIMIT 1"; break;
+					case FIRST : queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Time ASC LIMIT 1"; break;
+					default : queryString = "SELECT Time, Value FROM " + table + filterString + " ORDER BY Time DESC LIMIT 1"; break;
+				}
+				logger.debug("SQL: " + queryString);
 
-					return items;
+				Connection connection = null;
+				SQLException error = null;
+				Statement st = null;
+				try {
+					connection = getConnection();
+					st = connection.createStatement();
+					ResultSet rs = st.executeQuery(queryString);
+					HistoricItem result = null;
+					if (rs.next()) {
+						if (function == AggregateFunction.AVERAGE || function == AggregateFunction.SUM || function == AggregateFunction.COUNT) {
+							// aggregates over no rows are NULL, except for the count
+							if (rs.getLong(2) > 0 || function == AggregateFunction.COUNT) {
+								result = new SqlItem(itemName, new DecimalType(rs.getDouble(1)), end);
+							}
+						} else {
+							result = new SqlItem(itemName, new DecimalType(rs.getDouble(2)), rs.getTimestamp(1));
+						}
+					}
+					rs.close();
+
+					return result;
 				} catch (SQLException e) {
-					errCnt++;
-					logger.error("SQL: Error running querying : " + e.getMessage());
+					error = e;
+					logger.error("SQL: Error running aggregate query : " + e.getMessage());
+				} finally {
+					if (st != null) {
+						try {
+							st.close();
+						} catch (Exception hidden) {
+						}
+					}
+					releaseConnection(connection, error);
 				}
 			}
 		}
-		return Collections.emptyList();
+		return null;
 	}
+
 }
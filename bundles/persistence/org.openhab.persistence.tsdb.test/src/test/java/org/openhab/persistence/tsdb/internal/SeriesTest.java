@@ -0,0 +1,252 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ * @since 1.4.0
+ */
+public class SeriesTest {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private File folder = new File("./target/etc/tsdb/Test");
+
+	private Series series;
+
+	@Before
+	public void init() throws IOException {
+		folder.mkdirs();
+		FileUtils.cleanDirectory(folder);
+		series = new Series("Test", folder, 100, DAY, 1024 * 1024);
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		series.close();
+	}
+
+	@Test
+	public void testSamplesAreReadAsWritten() throws IOException {
+		long[] times = new long[1000];
+		double[] values = new double[times.length];
+		Random random = new Random(0);
+		long time = 1000000L;
+		for (int index = 0; index < times.length; index++) {
+			// regular and irregular intervals, repeated and changing values
+			time += index % 7 == 0 ? random.nextInt(100000) : 1000;
+			times[index] = time;
+			values[index] = index % 3 == 0 ? values[Math.max(index - 1, 0)] : random.nextGaussian() * 1000;
+			series.add(times[index], values[index]);
+			if (index == 550) {
+				series.flush();
+			}
+		}
+
+		SampleCursor cursor = new SampleCursor(series.getBlocks(Long.MIN_VALUE, Long.MAX_VALUE), Long.MIN_VALUE, Long.MAX_VALUE, false);
+		for (int index = 0; index < times.length; index++) {
+			assertTrue(cursor.next());
+			assertEquals(times[index], cursor.getTime());
+			assertEquals(values[index], cursor.getValue(), 0.0d);
+		}
+		assertFalse(cursor.next());
+	}
+
+	@Test
+	public void testRangeIsReadDescending() throws IOException {
+		for (int index = 0; index < 1000; index++) {
+			series.add(index * 1000L, index);
+		}
+
+		SampleCursor cursor = new SampleCursor(series.getBlocks(250500, 749500), 250500, 749500, true);
+		assertEquals(300, cursor.skip(300));
+		assertTrue(cursor.next());
+		assertEquals(449000, cursor.getTime());
+		assertEquals(449.0d, cursor.getValue(), 0.0d);
+		assertEquals(198, cursor.skip(1000));
+		assertFalse(cursor.next());
+	}
+
+	@Test
+	public void testIncompleteBlockIsCutOff() throws IOException {
+		for (int index = 0; index < 250; index++) {
+			series.add(index * 1000L, index);
+		}
+		series.close();
+
+		// simulate a block which has not been written completely
+		File file = folder.listFiles()[0];
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		output.setLength(output.length() - 10);
+		output.close();
+
+		series = new Series("Test", folder, 100, DAY, 1024 * 1024);
+		assertEquals(200, getCount(series));
+		assertEquals(199000, series.getLastTime());
+		series.add(300000, 300);
+		assertEquals(201, getCount(series));
+	}
+
+	@Test
+	public void testCompactionRemovesOldSamples() throws IOException {
+		// three days with a small block every hour
+		for (int hour = 0; hour < 72; hour++) {
+			for (int minute = 0; minute < 60; minute++) {
+				series.add(hour * DAY / 24 + minute * 60000L, minute);
+			}
+			series.flush();
+		}
+		assertEquals(3, folder.list().length);
+
+		series.compact(DAY + DAY / 2);
+
+		// the first day is deleted, the second one is cut and rewritten with full blocks
+		assertEquals(2, folder.list().length);
+		assertEquals(36 * 60, getCount(series));
+		for (Series.BlockRef ref : series.getBlocks(Long.MIN_VALUE, 2 * DAY - 1)) {
+			assertTrue(ref.block.firstTime >= DAY + DAY / 2);
+		}
+	}
+
+	@Test
+	public void testSamplesAreReadWhileAppending() throws IOException {
+		// the segment grows beyond a mapped chunk while its last blocks are read
+		series = new Series("Test", folder, 100, Long.MAX_VALUE, 4 * Segment.CHUNK_SIZE);
+		int blocks = 0;
+		long time = 0;
+		while (new File(folder, "0" + Series.EXTENSION).length() < 2 * Segment.CHUNK_SIZE) {
+			for (int index = 0; index < 100; index++) {
+				series.add(time, time % 1000);
+				time += 1000;
+			}
+			blocks++;
+			if (blocks % 500 == 0) {
+				SampleCursor cursor = new SampleCursor(series.getBlocks(time - 100000, time), time - 100000, time, true);
+				assertTrue(cursor.next());
+				assertEquals(time - 1000, cursor.getTime());
+				assertEquals((time - 1000) % 1000, cursor.getValue(), 0.0d);
+			}
+		}
+		assertEquals(blocks * 100, getCount(series));
+	}
+
+	@Test
+	public void testActiveSegmentExpires() throws IOException {
+		for (int index = 0; index < 250; index++) {
+			series.add(index * 1000L, index);
+		}
+		series.flush();
+		assertEquals(1, folder.list().length);
+
+		series.compact(125000);
+
+		// the expired samples are removed and the next samples are written to a new segment
+		assertEquals(125, getCount(series));
+		series.add(300000, 300);
+		series.flush();
+		assertEquals(2, folder.list().length);
+
+		series.compact(Long.MAX_VALUE);
+		assertEquals(0, folder.list().length);
+		assertEquals(0, getCount(series));
+	}
+
+	@Test
+	public void testBlocksOfDeletedSegmentAreNotRead() throws IOException {
+		for (int index = 0; index < 250; index++) {
+			series.add(index * 1000L, index);
+		}
+		series.flush();
+		SampleCursor cursor = new SampleCursor(series.getBlocks(Long.MIN_VALUE, Long.MAX_VALUE), Long.MIN_VALUE, Long.MAX_VALUE, false);
+
+		series.compact(Long.MAX_VALUE);
+
+		assertEquals(0, folder.list().length);
+		assertFalse(cursor.next());
+	}
+
+	@Test
+	public void testCompactedSegmentIsRecovered() throws IOException {
+		for (int index = 0; index < 250; index++) {
+			series.add(index * 1000L, index);
+		}
+		series.close();
+
+		// a compaction which has been interrupted after deleting the segment
+		File segment = folder.listFiles()[0];
+		File temp = new File(folder, segment.getName() + ".tmp");
+		assertTrue(segment.renameTo(temp));
+
+		series = new Series("Test", folder, 100, DAY, 1024 * 1024);
+		assertEquals(250, getCount(series));
+		assertTrue(segment.exists());
+		assertFalse(temp.exists());
+	}
+
+	@Test
+	public void testIncompleteCompactionIsDiscarded() throws IOException {
+		for (int index = 0; index < 250; index++) {
+			series.add(index * 1000L, index);
+		}
+		series.close();
+
+		// a compaction which has been interrupted while writing
+		File segment = folder.listFiles()[0];
+		File temp = new File(folder, segment.getName() + ".tmp");
+		FileUtils.writeStringToFile(temp, "incomplete");
+
+		series = new Series("Test", folder, 100, DAY, 1024 * 1024);
+		assertEquals(250, getCount(series));
+		assertFalse(temp.exists());
+	}
+
+	private int getCount(Series series) throws IOException {
+		SampleCursor cursor = new SampleCursor(series.getBlocks(Long.MIN_VALUE, Long.MAX_VALUE), Long.MIN_VALUE, Long.MAX_VALUE, false);
+		int count = 0;
+		while (cursor.next()) {
+			count++;
+		}
+		return count;
+	}
+
+}
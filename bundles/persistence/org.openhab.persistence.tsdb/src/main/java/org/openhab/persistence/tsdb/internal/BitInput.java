@@ -0,0 +1,82 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the bits written by a {@link BitOutput} from a part of a buffer. The
+ * buffer is only read by absolute positions, so several inputs can read the
+ * same buffer at the same time.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class BitInput {
+
+	private final ByteBuffer buffer;
+
+	private final int offset;
+
+	// the number of bits read
+	private long position = 0;
+
+	/**
+	 * @param buffer the buffer to read
+	 * @param offset the index of the first byte to read in the buffer
+	 */
+	public BitInput(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	public boolean readBit() {
+		return readBits(1) != 0;
+	}
+
+	/**
+	 * Reads a value, the most significant bit first.
+	 * 
+	 * @param bits the number of bits to read, between 1 and 64
+	 * @return the value of the bits
+	 */
+	public long readBits(int bits) {
+		long value = 0;
+		while (bits > 0) {
+			int available = 8 - (int) (position & 7);
+			int count = Math.min(available, bits);
+			int current = buffer.get(offset + (int) (position >>> 3)) & 0xFF;
+			value = (value << count) | ((current >>> (available - count)) & ((1 << count) - 1));
+			position += count;
+			bits -= count;
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.util.Arrays;
+
+/**
+ * Writes single bits and groups of bits into a growing byte array, starting
+ * with the most significant bit of every byte.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class BitOutput {
+
+	private byte[] bytes;
+
+	// the number of bits written
+	private long position = 0;
+
+	public BitOutput(int initialCapacity) {
+		bytes = new byte[Math.max(initialCapacity, 8)];
+	}
+
+	public void writeBit(boolean bit) {
+		writeBits(bit ? 1 : 0, 1);
+	}
+
+	/**
+	 * Writes the lowest bits of a value, the most significant one first.
+	 * 
+	 * @param value the value to write
+	 * @param bits the number of bits to write, between 1 and 64
+	 */
+	public void writeBits(long value, int bits) {
+		while (bits > 0) {
+			int index = (int) (position >>> 3);
+			if (index >= bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			}
+			int available = 8 - (int) (position & 7);
+			int count = Math.min(available, bits);
+			int chunk = (int) (value >>> (bits - count)) & ((1 << count) - 1);
+			bytes[index] |= chunk << (available - count);
+			position += count;
+			bits -= count;
+		}
+	}
+
+	/**
+	 * @return the number of bytes which contain the written bits
+	 */
+	public int getLength() {
+		return (int) ((position + 7) >>> 3);
+	}
+
+	/**
+	 * @return a copy of the bytes which contain the written bits
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, getLength());
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The header of a block of samples, which is kept in memory as the time index
+ * of a series. Besides the position of the samples, the header summarizes them,
+ * so that aggregates over a whole block can be computed without decoding it.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class Block {
+
+	/** the size of a header in bytes */
+	public static final int HEADER_SIZE = 2 * 4 + 10 * 8;
+
+	final long offset;
+	final int length;
+	final int count;
+	final long firstTime;
+	final long lastTime;
+	final double firstValue;
+	final double lastValue;
+	final double minimum;
+	final long minimumTime;
+	final double maximum;
+	final long maximumTime;
+	final double sum;
+
+	/**
+	 * @param offset the position of the header in its segment
+	 * @param length the number of bytes of the encoded samples
+	 * @param count the number of samples
+	 */
+	public Block(long offset, int length, int count, long firstTime, long lastTime, double firstValue, double lastValue,
+			double minimum, long minimumTime, double maximum, long maximumTime, double sum) {
+		this.offset = offset;
+		this.length = length;
+		this.count = count;
+		this.firstTime = firstTime;
+		this.lastTime = lastTime;
+		this.firstValue = firstValue;
+		this.lastValue = lastValue;
+		this.minimum = minimum;
+		this.minimumTime = minimumTime;
+		this.maximum = maximum;
+		this.maximumTime = maximumTime;
+		this.sum = sum;
+	}
+
+	/**
+	 * Reads a header.
+	 * 
+	 * @param buffer the buffer to read from its current position
+	 * @param offset the position of the header in its segment
+	 */
+	public static Block read(ByteBuffer buffer, long offset) {
+		int length = buffer.getInt();
+		int count = buffer.getInt();
+		long firstTime = buffer.getLong();
+		long lastTime = buffer.getLong();
+		double firstValue = buffer.getDouble();
+		double lastValue = buffer.getDouble();
+		double minimum = buffer.getDouble();
+		long minimumTime = buffer.getLong();
+		double maximum = buffer.getDouble();
+		long maximumTime = buffer.getLong();
+		double sum = buffer.getDouble();
+		// the last field is reserved for a checksum of the header
+		long check = buffer.getLong();
+		if (check != checksum(length, count, firstTime, lastTime)) {
+			return null;
+		}
+		return new Block(offset, length, count, firstTime, lastTime, firstValue, lastValue, minimum, minimumTime,
+				maximum, maximumTime, sum);
+	}
+
+	/**
+	 * Writes the header to the current position of a buffer.
+	 */
+	public void write(ByteBuffer buffer) {
+		buffer.putInt(length);
+		buffer.putInt(count);
+		buffer.putLong(firstTime);
+		buffer.putLong(lastTime);
+		buffer.putDouble(firstValue);
+		buffer.putDouble(lastValue);
+		buffer.putDouble(minimum);
+		buffer.putLong(minimumTime);
+		buffer.putDouble(maximum);
+		buffer.putLong(maximumTime);
+		buffer.putDouble(sum);
+		buffer.putLong(checksum(length, count, firstTime, lastTime));
+	}
+
+	private static long checksum(int length, int count, long firstTime, long lastTime) {
+		return (31L * length + count) * 31L + (firstTime ^ (lastTime << 1));
+	}
+
+	/**
+	 * @return true if all samples of this block are within the given time range
+	 */
+	public boolean isWithin(long begin, long end) {
+		return firstTime >= begin && lastTime <= end;
+	}
+
+	/**
+	 * @return true if some samples of this block may be within the given time range
+	 */
+	public boolean overlaps(long begin, long end) {
+		return lastTime >= begin && firstTime <= end;
+	}
+
+}
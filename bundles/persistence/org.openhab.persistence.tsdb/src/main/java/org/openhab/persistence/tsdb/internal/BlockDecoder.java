@@ -0,0 +1,122 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the samples which have been compressed by a {@link BlockEncoder}.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class BlockDecoder {
+
+	private final BitInput input;
+
+	private final int count;
+
+	private int read = 0;
+
+	private long time;
+	private long delta;
+	private long valueBits;
+	private int leadingZeros;
+	private int trailingZeros;
+
+	/**
+	 * @param buffer the buffer which contains the encoded samples
+	 * @param offset the index of the first encoded byte in the buffer
+	 * @param count the number of encoded samples
+	 */
+	public BlockDecoder(ByteBuffer buffer, int offset, int count) {
+		this.input = new BitInput(buffer, offset);
+		this.count = count;
+	}
+
+	/**
+	 * Reads the next sample, whose time and value are returned by
+	 * {@link #getTime()} and {@link #getValue()} afterwards.
+	 * 
+	 * @return false if all samples have been read
+	 */
+	public boolean next() {
+		if (read >= count) {
+			return false;
+		}
+		if (read == 0) {
+			time = input.readBits(64);
+			valueBits = input.readBits(64);
+		} else {
+			readTime();
+			readValue();
+		}
+		read++;
+		return true;
+	}
+
+	private void readTime() {
+		int prefix = 0;
+		while (prefix < 5 && input.readBit()) {
+			prefix++;
+		}
+		long deltaOfDelta;
+		switch (prefix) {
+			case 0 : deltaOfDelta = 0; break;
+			case 1 : deltaOfDelta = input.readBits(7) - 63; break;
+			case 2 : deltaOfDelta = input.readBits(9) - 255; break;
+			case 3 : deltaOfDelta = input.readBits(12) - 2047; break;
+			case 4 : deltaOfDelta = (int) input.readBits(32); break;
+			default : deltaOfDelta = input.readBits(64); break;
+		}
+		delta += deltaOfDelta;
+		time += delta;
+	}
+
+	private void readValue() {
+		if (!input.readBit()) {
+			return;
+		}
+		if (input.readBit()) {
+			leadingZeros = (int) input.readBits(5);
+			int meaningfulBits = (int) input.readBits(6) + 1;
+			trailingZeros = 64 - leadingZeros - meaningfulBits;
+		}
+		valueBits ^= input.readBits(64 - leadingZeros - trailingZeros) << trailingZeros;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getValue() {
+		return Double.longBitsToDouble(valueBits);
+	}
+
+}
@@ -0,0 +1,187 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+/**
+ * Compresses the samples of a block as described for the Gorilla time series
+ * database of Facebook. Timestamps are written as the difference of their
+ * delta to the previous delta, which only takes a single bit for samples at
+ * regular intervals. Values are written as the XOR to the previous value, of
+ * which only the bits between the leading and trailing zeros are kept.
+ * <p>
+ * Besides the encoded samples, the encoder keeps the summary of the block
+ * which is written to its header.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class BlockEncoder {
+
+	private final BitOutput output;
+
+	private int count = 0;
+
+	private long firstTime;
+	private long lastTime;
+	private long lastDelta;
+
+	private double firstValue;
+	private long lastValueBits;
+	private int lastLeadingZeros;
+	private int lastTrailingZeros;
+
+	private double minimum;
+	private long minimumTime;
+	private double maximum;
+	private long maximumTime;
+	private double sum;
+
+	public BlockEncoder(int expectedSamples) {
+		// most samples take less than two bytes
+		output = new BitOutput(expectedSamples * 2);
+	}
+
+	/**
+	 * Adds a sample to the block.
+	 * 
+	 * @param time the time of the sample in milliseconds, which must not be before the time of the previous sample
+	 * @param value the value of the sample
+	 */
+	public void add(long time, double value) {
+		long valueBits = Double.doubleToLongBits(value);
+		if (count == 0) {
+			output.writeBits(time, 64);
+			output.writeBits(valueBits, 64);
+			firstTime = time;
+			firstValue = value;
+			lastDelta = 0;
+			lastLeadingZeros = Integer.MAX_VALUE;
+			minimum = value;
+			minimumTime = time;
+			maximum = value;
+			maximumTime = time;
+		} else {
+			writeTime(time);
+			writeValue(valueBits);
+			if (value < minimum) {
+				minimum = value;
+				minimumTime = time;
+			}
+			if (value > maximum) {
+				maximum = value;
+				maximumTime = time;
+			}
+		}
+		lastTime = time;
+		lastValueBits = valueBits;
+		sum += value;
+		count++;
+	}
+
+	private void writeTime(long time) {
+		long delta = time - lastTime;
+		long deltaOfDelta = delta - lastDelta;
+		if (deltaOfDelta == 0) {
+			output.writeBit(false);
+		} else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+			output.writeBits(0x2, 2);
+			output.writeBits(deltaOfDelta + 63, 7);
+		} else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+			output.writeBits(0x6, 3);
+			output.writeBits(deltaOfDelta + 255, 9);
+		} else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+			output.writeBits(0xE, 4);
+			output.writeBits(deltaOfDelta + 2047, 12);
+		} else if (deltaOfDelta >= Integer.MIN_VALUE && deltaOfDelta <= Integer.MAX_VALUE) {
+			output.writeBits(0x1E, 5);
+			output.writeBits(deltaOfDelta, 32);
+		} else {
+			output.writeBits(0x1F, 5);
+			output.writeBits(deltaOfDelta, 64);
+		}
+		lastDelta = delta;
+	}
+
+	private void writeValue(long valueBits) {
+		long xor = valueBits ^ lastValueBits;
+		if (xor == 0) {
+			output.writeBit(false);
+			return;
+		}
+		output.writeBit(true);
+
+		// the number of leading zeros is written with 5 bits
+		int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+		int trailingZeros = Long.numberOfTrailingZeros(xor);
+		if (leadingZeros >= lastLeadingZeros && trailingZeros >= lastTrailingZeros) {
+			// the meaningful bits fit into those of the previous value
+			output.writeBit(false);
+			output.writeBits(xor >>> lastTrailingZeros, 64 - lastLeadingZeros - lastTrailingZeros);
+		} else {
+			int meaningfulBits = 64 - leadingZeros - trailingZeros;
+			output.writeBit(true);
+			output.writeBits(leadingZeros, 5);
+			output.writeBits(meaningfulBits - 1, 6);
+			output.writeBits(xor >>> trailingZeros, meaningfulBits);
+			lastLeadingZeros = leadingZeros;
+			lastTrailingZeros = trailingZeros;
+		}
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getLastTime() {
+		return lastTime;
+	}
+
+	public double getLastValue() {
+		return Double.longBitsToDouble(lastValueBits);
+	}
+
+	/**
+	 * Creates the summary of the encoded samples, to be written before them.
+	 * 
+	 * @param offset the position of the block in its segment
+	 * @return the header of the block
+	 */
+	public Block createBlock(long offset) {
+		return new Block(offset, output.getLength(), count, firstTime, lastTime, firstValue, getLastValue(),
+				minimum, minimumTime, maximum, maximumTime, sum);
+	}
+
+	/**
+	 * @return a copy of the encoded samples
+	 */
+	public byte[] toByteArray() {
+		return output.toByteArray();
+	}
+
+}
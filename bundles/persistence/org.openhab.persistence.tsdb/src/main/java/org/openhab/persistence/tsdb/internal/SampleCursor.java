@@ -0,0 +1,155 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.util.List;
+
+import org.openhab.persistence.tsdb.internal.Series.BlockRef;
+
+/**
+ * Iterates over the samples of a time range in ascending or descending order.
+ * Only one block is decoded at a time, and blocks which are skipped as a whole
+ * are not decoded at all.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class SampleCursor {
+
+	private final List<BlockRef> blocks;
+	private final long begin;
+	private final long end;
+	private final boolean descending;
+
+	// the index of the next block to decode, in the order of iteration
+	private int nextBlock = 0;
+
+	// the samples of the current block within the time range
+	private long[] times = new long[0];
+	private double[] values = new double[0];
+	private int size = 0;
+	private int index = 0;
+
+	private long time;
+	private double value;
+
+	/**
+	 * @param blocks the blocks in ascending order of time
+	 * @param begin the time of the first sample to return
+	 * @param end the time of the last sample to return
+	 * @param descending true to return the latest sample first
+	 */
+	public SampleCursor(List<BlockRef> blocks, long begin, long end, boolean descending) {
+		this.blocks = blocks;
+		this.begin = begin;
+		this.end = end;
+		this.descending = descending;
+	}
+
+	/**
+	 * Moves to the next sample, whose time and value are returned by
+	 * {@link #getTime()} and {@link #getValue()} afterwards.
+	 * 
+	 * @return false if there are no more samples
+	 */
+	public boolean next() {
+		while (index >= size) {
+			if (nextBlock >= blocks.size()) {
+				return false;
+			}
+			decode(getBlock(nextBlock++));
+		}
+		int position = descending ? size - 1 - index : index;
+		time = times[position];
+		value = values[position];
+		index++;
+		return true;
+	}
+
+	/**
+	 * Skips samples without returning them.
+	 * 
+	 * @param count the number of samples to skip
+	 * @return the number of samples skipped, less than <code>count</code> if there are no more samples
+	 */
+	public long skip(long count) {
+		long skipped = 0;
+		while (skipped < count) {
+			if (index < size) {
+				int step = (int) Math.min(size - index, count - skipped);
+				index += step;
+				skipped += step;
+			} else if (nextBlock < blocks.size()) {
+				BlockRef ref = getBlock(nextBlock);
+				if (ref.block.isWithin(begin, end) && ref.block.count <= count - skipped) {
+					// the samples of the whole block are skipped without decoding them
+					skipped += ref.block.count;
+					nextBlock++;
+				} else {
+					decode(ref);
+					nextBlock++;
+				}
+			} else {
+				break;
+			}
+		}
+		return skipped;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	private BlockRef getBlock(int position) {
+		return blocks.get(descending ? blocks.size() - 1 - position : position);
+	}
+
+	private void decode(BlockRef ref) {
+		if (times.length < ref.block.count) {
+			times = new long[ref.block.count];
+			values = new double[ref.block.count];
+		}
+		size = 0;
+		index = 0;
+		BlockDecoder decoder = ref.decode();
+		while (decoder.next()) {
+			long sampleTime = decoder.getTime();
+			if (sampleTime >= begin && sampleTime <= end) {
+				times[size] = sampleTime;
+				values[size] = decoder.getValue();
+				size++;
+			}
+		}
+	}
+
+}
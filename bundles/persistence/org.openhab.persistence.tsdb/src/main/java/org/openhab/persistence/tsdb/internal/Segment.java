@@ -0,0 +1,369 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A file of a series, which holds a sequence of blocks. Blocks are only
+ * appended to the file and never changed afterwards, they are read from
+ * memory mappings of the file.
+ * <p>
+ * The file is mapped in chunks, so that appending a block does not remap the
+ * whole file. The samples of a block are copied from the mapping when they are
+ * read, so that no reader refers to a mapping once it is released.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class Segment {
+
+	private static final Logger logger = LoggerFactory.getLogger(Segment.class);
+
+	// "OHTS" followed by the version of the format
+	private static final int MAGIC = 0x4F485453;
+	private static final int VERSION = 1;
+	private static final int FILE_HEADER_SIZE = 8;
+
+	// the tail of a segment which is appended to is read from the file until it has grown to a chunk of this size
+	static final int CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * A mapped part of the file, which ends at a block boundary.
+	 */
+	private static class Chunk {
+		final long offset;
+		final MappedByteBuffer buffer;
+
+		Chunk(long offset, MappedByteBuffer buffer) {
+			this.offset = offset;
+			this.buffer = buffer;
+		}
+	}
+
+	private final File file;
+
+	private final List<Block> blocks = new ArrayList<Block>();
+
+	private long size;
+
+	// the file is only kept open while blocks are appended
+	private RandomAccessFile output;
+
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+	// the end of the last chunk
+	private long mappedSize;
+
+	private boolean released = false;
+
+	private Segment(File file, long size) {
+		this.file = file;
+		this.size = size;
+		this.mappedSize = FILE_HEADER_SIZE;
+	}
+
+	/**
+	 * Creates a new empty segment file.
+	 */
+	public static Segment create(File file) throws IOException {
+		Segment segment = new Segment(file, FILE_HEADER_SIZE);
+		segment.output = new RandomAccessFile(file, "rw");
+		segment.output.setLength(0);
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		segment.output.getChannel().write(header, 0);
+		return segment;
+	}
+
+	/**
+	 * Opens an existing segment file and reads the headers of its blocks. If
+	 * the last block has not been written completely, it is cut off.
+	 * 
+	 * @return the segment or <code>null</code> if the file is not a segment
+	 */
+	public static Segment open(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "rw");
+		try {
+			// the headers are read without mapping the file, which could not be cut off while it is mapped
+			FileChannel channel = input.getChannel();
+			long length = channel.size();
+			if (length < FILE_HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+			header.limit(FILE_HEADER_SIZE);
+			read(channel, header, 0);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				return null;
+			}
+
+			Segment segment = new Segment(file, FILE_HEADER_SIZE);
+			while (segment.size + Block.HEADER_SIZE <= length) {
+				header.clear();
+				read(channel, header, segment.size);
+				Block block = Block.read(header, segment.size);
+				if (block == null || block.count <= 0 || segment.size + Block.HEADER_SIZE + block.length > length) {
+					break;
+				}
+				segment.blocks.add(block);
+				segment.size += Block.HEADER_SIZE + block.length;
+			}
+			if (segment.size < length) {
+				logger.warn("Cutting off {} bytes of an incompletely written block of segment '{}'", length - segment.size, file);
+				channel.truncate(segment.size);
+			}
+			return segment;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Appends the samples of an encoder as a new block.
+	 */
+	public synchronized Block append(BlockEncoder encoder) throws IOException {
+		if (output == null) {
+			output = new RandomAccessFile(file, "rw");
+		}
+		Block block = encoder.createBlock(size);
+		byte[] data = encoder.toByteArray();
+		ByteBuffer bytes = ByteBuffer.allocate(Block.HEADER_SIZE + data.length);
+		block.write(bytes);
+		bytes.put(data);
+		bytes.flip();
+
+		FileChannel channel = output.getChannel();
+		long position = size;
+		while (bytes.hasRemaining()) {
+			position += channel.write(bytes, position);
+		}
+		size = position;
+		blocks.add(block);
+		return block;
+	}
+
+	/**
+	 * Closes the file for appending, it can still be read afterwards.
+	 */
+	public synchronized void close() {
+		if (output != null) {
+			try {
+				output.getChannel().force(false);
+				output.close();
+			} catch (IOException e) {
+				logger.warn("Could not close segment '{}': {}", file, e.getMessage());
+			}
+			output = null;
+		}
+	}
+
+	/**
+	 * Reads the encoded samples of a block. The blocks after the last chunk
+	 * are mapped as a new chunk, unless the segment is still appended to and
+	 * they are smaller than {@link #CHUNK_SIZE}; then they are read from the
+	 * file.
+	 * 
+	 * @return a copy of the samples or <code>null</code> if the segment has been released
+	 */
+	public synchronized ByteBuffer read(Block block) throws IOException {
+		if (released) {
+			return null;
+		}
+		long position = block.offset + Block.HEADER_SIZE;
+		ByteBuffer data = ByteBuffer.allocate(block.length);
+		if (position + block.length > mappedSize) {
+			if (output != null && size - mappedSize < CHUNK_SIZE) {
+				read(output.getChannel(), data, position);
+				return data;
+			}
+			map();
+		}
+		for (int index = chunks.size() - 1; index >= 0; index--) {
+			Chunk chunk = chunks.get(index);
+			if (chunk.offset <= position) {
+				ByteBuffer source = chunk.buffer.duplicate();
+				source.position((int) (position - chunk.offset));
+				source.limit(source.position() + block.length);
+				data.put(source);
+				data.flip();
+				return data;
+			}
+		}
+		throw new IOException("Block at " + block.offset + " is not within segment '" + file + "'");
+	}
+
+	/**
+	 * Maps the blocks after the last chunk as a new chunk.
+	 */
+	private void map() throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = input.getChannel().map(MapMode.READ_ONLY, mappedSize, size - mappedSize);
+			chunks.add(new Chunk(mappedSize, buffer));
+			mappedSize = size;
+		} finally {
+			// the mapping stays valid after the file has been closed
+			input.close();
+		}
+	}
+
+	/**
+	 * Fills a buffer from a position of a file and flips it.
+	 */
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Closes the file and releases its mappings, the blocks cannot be read
+	 * anymore afterwards. The file can be deleted or replaced then, which
+	 * fails on some systems while it is mapped.
+	 */
+	public synchronized void release() {
+		close();
+		for (Chunk chunk : chunks) {
+			unmap(chunk.buffer);
+		}
+		chunks.clear();
+		mappedSize = FILE_HEADER_SIZE;
+		released = true;
+	}
+
+	/**
+	 * Releases a mapping right away instead of waiting for it to be garbage
+	 * collected. This is only possible on JVMs which expose the cleaner of a
+	 * mapping, otherwise the mapping is left to the garbage collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+			}
+		} catch (Exception e) {
+			logger.debug("Could not release mapping: {}", e.toString());
+		}
+	}
+
+	/**
+	 * Releases and deletes the file.
+	 */
+	public synchronized boolean delete() {
+		release();
+		return file.delete();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized List<Block> getBlocks() {
+		return Collections.unmodifiableList(new ArrayList<Block>(blocks));
+	}
+
+	/**
+	 * Finds the blocks with samples in a time range, the first of them by a
+	 * binary search.
+	 */
+	public synchronized List<Block> findBlocks(long begin, long end) {
+		int low = 0;
+		int high = blocks.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (blocks.get(middle).lastTime < begin) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		List<Block> found = new ArrayList<Block>();
+		for (int index = low; index < blocks.size() && blocks.get(index).firstTime <= end; index++) {
+			found.add(blocks.get(index));
+		}
+		return found;
+	}
+
+	public synchronized boolean isEmpty() {
+		return blocks.isEmpty();
+	}
+
+	/**
+	 * @return the time of the first sample, the segment must not be empty
+	 */
+	public synchronized long getFirstTime() {
+		return blocks.get(0).firstTime;
+	}
+
+	/**
+	 * @return the time of the last sample, the segment must not be empty
+	 */
+	public synchronized long getLastTime() {
+		return blocks.get(blocks.size() - 1).lastTime;
+	}
+
+	/**
+	 * @return the number of samples in the segment
+	 */
+	public synchronized long getCount() {
+		long count = 0;
+		for (Block block : blocks) {
+			count += block.count;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,441 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The samples of a single item, which are kept in a folder of segment files.
+ * New samples are collected in an open block, which is appended to the last
+ * segment once it is full or flushed. A new segment is started when the last
+ * one has become too large or spans too much time.
+ * <p>
+ * Only segments which are not appended to anymore are compacted, which removes
+ * the samples beyond the retention time and merges small blocks. The last
+ * segment is not appended to anymore once it has samples beyond the retention
+ * time, so that these are removed as well.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class Series {
+
+	private static final Logger logger = LoggerFactory.getLogger(Series.class);
+
+	static final String EXTENSION = ".seg";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	/**
+	 * A block together with the segment from which it is read, or with its
+	 * samples if it is the open block.
+	 */
+	public static class BlockRef {
+		final Block block;
+		private final Segment segment;
+		private final ByteBuffer data;
+
+		BlockRef(Block block, Segment segment) {
+			this.block = block;
+			this.segment = segment;
+			this.data = null;
+		}
+
+		BlockRef(Block block, ByteBuffer data) {
+			this.block = block;
+			this.segment = null;
+			this.data = data;
+		}
+
+		/**
+		 * Reads the samples of the block. If its segment has been deleted or
+		 * compacted since the block has been found, there are no samples.
+		 */
+		public BlockDecoder decode() {
+			ByteBuffer samples = data;
+			if (segment != null) {
+				try {
+					samples = segment.read(block);
+				} catch (IOException e) {
+					logger.error("Could not read a block of segment '{}': {}", segment.getFile(), e.getMessage());
+				}
+			}
+			if (samples == null) {
+				return new BlockDecoder(ByteBuffer.allocate(0), 0, 0);
+			}
+			return new BlockDecoder(samples, 0, block.count);
+		}
+	}
+
+	private final String name;
+	private final File folder;
+	private final int blockSize;
+	private final long segmentDuration;
+	private final long segmentSize;
+
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	private BlockEncoder open;
+
+	// true if the next block is written to a new segment
+	private boolean rollover = false;
+
+	private boolean loaded = false;
+	private long lastTime = Long.MIN_VALUE;
+	private double lastValue;
+
+	/**
+	 * @param name the name of the item
+	 * @param folder the folder of the segment files
+	 * @param blockSize the number of samples per block
+	 * @param segmentDuration the maximum time in milliseconds between the first and the last sample of a segment
+	 * @param segmentSize the maximum size of a segment file in bytes
+	 */
+	public Series(String name, File folder, int blockSize, long segmentDuration, long segmentSize) {
+		this.name = name;
+		this.folder = folder;
+		this.blockSize = blockSize;
+		this.segmentDuration = segmentDuration;
+		this.segmentSize = segmentSize;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Reads the segment files of the series, if this has not been done yet.
+	 */
+	private void load() throws IOException {
+		if (loaded) {
+			return;
+		}
+		File[] files = folder.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(EXTENSION) || name.endsWith(TEMP_EXTENSION);
+			}
+		});
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(TEMP_EXTENSION)) {
+					file = recover(file);
+					if (file == null) {
+						continue;
+					}
+				}
+				Segment segment = Segment.open(file);
+				if (segment == null) {
+					logger.warn("Ignoring file '{}', which is not a segment of item '{}'", file, name);
+				} else if (segment.isEmpty()) {
+					file.delete();
+				} else {
+					segments.add(segment);
+				}
+			}
+		}
+		Collections.sort(segments, new Comparator<Segment>() {
+			public int compare(Segment first, Segment second) {
+				long difference = first.getFirstTime() - second.getFirstTime();
+				return difference != 0 ? (difference < 0 ? -1 : 1) : first.getFile().getName().compareTo(second.getFile().getName());
+			}
+		});
+		if (!segments.isEmpty()) {
+			List<Block> blocks = segments.get(segments.size() - 1).getBlocks();
+			Block last = blocks.get(blocks.size() - 1);
+			lastTime = last.lastTime;
+			lastValue = last.lastValue;
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Handles the file of an interrupted compaction. As long as the segment
+	 * exists, the file is incomplete or a copy of it; otherwise the compaction
+	 * has been interrupted between deleting the segment and renaming the
+	 * compacted file, which then replaces the segment.
+	 * 
+	 * @param temp the file written by the compaction
+	 * @return the recovered segment file or <code>null</code> if there is none
+	 */
+	private File recover(File temp) {
+		String fileName = temp.getName();
+		File file = new File(folder, fileName.substring(0, fileName.length() - TEMP_EXTENSION.length()));
+		if (file.exists()) {
+			temp.delete();
+			return null;
+		}
+		if (!temp.renameTo(file)) {
+			logger.warn("Could not recover compacted segment '{}' of item '{}'", temp, name);
+			return null;
+		}
+		logger.info("Recovered compacted segment '{}' of item '{}'", file.getName(), name);
+		return file;
+	}
+
+	/**
+	 * Adds a sample to the open block, which is written once it is full.
+	 * Samples must be added in order of time, so an earlier time is replaced
+	 * by the time of the last sample.
+	 */
+	public synchronized void add(long time, double value) throws IOException {
+		load();
+		if (time < lastTime) {
+			time = lastTime;
+		}
+		if (open == null) {
+			open = new BlockEncoder(blockSize);
+		}
+		open.add(time, value);
+		lastTime = time;
+		lastValue = value;
+		if (open.getCount() >= blockSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the open block, even if it is not full.
+	 */
+	public synchronized void flush() throws IOException {
+		if (open == null || open.getCount() == 0) {
+			return;
+		}
+		BlockEncoder encoder = open;
+		Block first = encoder.createBlock(0);
+		Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (last == null || rollover || last.getSize() >= segmentSize || first.firstTime - last.getFirstTime() >= segmentDuration) {
+			if (last != null) {
+				last.close();
+			}
+			if (!folder.exists() && !folder.mkdirs()) {
+				throw new IOException("Could not create folder '" + folder + "'");
+			}
+			last = Segment.create(new File(folder, first.firstTime + EXTENSION));
+			segments.add(last);
+			rollover = false;
+		}
+		last.append(encoder);
+		open = null;
+	}
+
+	/**
+	 * Returns the blocks with samples in a time range, including a copy of
+	 * the open block. The samples of the segments are not read before the
+	 * blocks are decoded.
+	 */
+	public synchronized List<BlockRef> getBlocks(long begin, long end) throws IOException {
+		load();
+		List<BlockRef> refs = new ArrayList<BlockRef>();
+		for (Segment segment : segments) {
+			if (segment.getLastTime() < begin || segment.getFirstTime() > end) {
+				continue;
+			}
+			for (Block block : segment.findBlocks(begin, end)) {
+				refs.add(new BlockRef(block, segment));
+			}
+		}
+		if (open != null && open.getCount() > 0) {
+			Block block = open.createBlock(0);
+			if (block.overlaps(begin, end)) {
+				refs.add(new BlockRef(block, ByteBuffer.wrap(open.toByteArray())));
+			}
+		}
+		return refs;
+	}
+
+	/**
+	 * @return true if the series has no samples
+	 */
+	public synchronized boolean isEmpty() throws IOException {
+		load();
+		return lastTime == Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return the time of the last sample in milliseconds
+	 */
+	public synchronized long getLastTime() {
+		return lastTime;
+	}
+
+	public synchronized double getLastValue() {
+		return lastValue;
+	}
+
+	/**
+	 * Compacts the segments which are not appended to anymore. Segments with
+	 * only samples before the cutoff are deleted, the others are rewritten
+	 * without these samples and with full blocks if they have more blocks
+	 * than necessary.
+	 * 
+	 * @param cutoff the time in milliseconds before which samples are removed
+	 */
+	public void compact(long cutoff) throws IOException {
+		List<Segment> closed;
+		synchronized (this) {
+			load();
+			if (segments.isEmpty()) {
+				return;
+			}
+			Segment last = segments.get(segments.size() - 1);
+			if (last.getFirstTime() < cutoff) {
+				last.close();
+				rollover = true;
+				closed = new ArrayList<Segment>(segments);
+			} else {
+				closed = new ArrayList<Segment>(segments.subList(0, segments.size() - 1));
+			}
+		}
+
+		for (Segment segment : closed) {
+			if (segment.getLastTime() < cutoff) {
+				synchronized (this) {
+					segments.remove(segment);
+				}
+				segment.delete();
+				logger.debug("Deleted segment '{}' of item '{}' beyond the retention time", segment.getFile().getName(), name);
+				continue;
+			}
+			long count = segment.getCount();
+			int necessaryBlocks = (int) ((count + blockSize - 1) / blockSize);
+			if (segment.getFirstTime() >= cutoff && segment.getBlocks().size() <= necessaryBlocks) {
+				continue;
+			}
+
+			// the segment is rewritten without holding the lock, since it is not changed anymore
+			File temp = rewrite(segment, cutoff);
+			synchronized (this) {
+				int index = segments.indexOf(segment);
+				if (index < 0) {
+					if (temp != null) {
+						temp.delete();
+					}
+				} else if (temp == null) {
+					segments.remove(index);
+					segment.delete();
+				} else {
+					segments.set(index, replace(segment, temp));
+				}
+			}
+			logger.debug("Compacted segment '{}' of item '{}'", segment.getFile().getName(), name);
+		}
+	}
+
+	/**
+	 * Writes the samples of a segment from the cutoff on to a temporary file.
+	 * 
+	 * @return the file or <code>null</code> if there are no samples to keep
+	 */
+	private File rewrite(Segment segment, long cutoff) throws IOException {
+		File temp = new File(folder, segment.getFile().getName() + TEMP_EXTENSION);
+		Segment target = Segment.create(temp);
+		try {
+			BlockEncoder encoder = null;
+			for (Block block : segment.getBlocks()) {
+				if (block.lastTime < cutoff) {
+					continue;
+				}
+				ByteBuffer samples = segment.read(block);
+				if (samples == null) {
+					throw new IOException("Segment '" + segment.getFile() + "' has been released");
+				}
+				BlockDecoder decoder = new BlockDecoder(samples, 0, block.count);
+				while (decoder.next()) {
+					if (decoder.getTime() < cutoff) {
+						continue;
+					}
+					if (encoder == null) {
+						encoder = new BlockEncoder(blockSize);
+					}
+					encoder.add(decoder.getTime(), decoder.getValue());
+					if (encoder.getCount() >= blockSize) {
+						target.append(encoder);
+						encoder = null;
+					}
+				}
+			}
+			if (encoder != null) {
+				target.append(encoder);
+			}
+		} finally {
+			target.release();
+		}
+
+		if (target.isEmpty()) {
+			temp.delete();
+			return null;
+		}
+		return temp;
+	}
+
+	/**
+	 * Replaces a segment by its compacted file, the segment is released
+	 * before, since its file cannot be replaced on some systems while it is
+	 * mapped.
+	 */
+	private Segment replace(Segment segment, File temp) throws IOException {
+		segment.release();
+		// the compacted file replaces the segment under its name; if the segment
+		// has to be deleted first, the compacted file is recovered when loading
+		File file = segment.getFile();
+		if (!temp.renameTo(file)) {
+			segment.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Could not replace segment '" + file + "'");
+			}
+		}
+		return Segment.open(file);
+	}
+
+	/**
+	 * Writes the open block and releases the segment files, which are loaded
+	 * again if the series is used afterwards.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			for (Segment segment : segments) {
+				segment.release();
+			}
+			segments.clear();
+			loaded = false;
+		}
+	}
+
+}
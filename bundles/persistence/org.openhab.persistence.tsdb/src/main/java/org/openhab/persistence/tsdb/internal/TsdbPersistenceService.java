@@ -0,0 +1,587 @@
+/**
+ * openHAB, the open Home Automation Bus.
+ * Copyright (C) 2010-2013, openHAB.org <admin@openhab.org>
+ *
+ * See the contributors.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation; either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ * Additional permission under GNU GPL version 3 section 7
+ *
+ * If you modify this Program, or any covered work, by linking or
+ * combining it with Eclipse (or a modified version of that library),
+ * containing parts covered by the terms of the Eclipse Public License
+ * (EPL), the licensors of this Program grant you additional permission
+ * to convey the resulting work.
+ */
+package org.openhab.persistence.tsdb.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang.StringUtils;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemRegistry;
+import org.openhab.core.library.items.ContactItem;
+import org.openhab.core.library.items.DimmerItem;
+import org.openhab.core.library.items.SwitchItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.persistence.AggregatingPersistenceService;
+import org.openhab.core.persistence.BulkQueryablePersistenceService;
+import org.openhab.core.persistence.FilterCriteria;
+import org.openhab.core.persistence.FilterCriteria.Operator;
+import org.openhab.core.persistence.FilterCriteria.Ordering;
+import org.openhab.core.persistence.HistoricItem;
+import org.openhab.core.persistence.PagedQueryResult;
+import org.openhab.core.persistence.PersistenceService;
+import org.openhab.core.persistence.TimestampedPersistenceService;
+import org.openhab.core.types.State;
+import org.openhab.persistence.tsdb.internal.Series.BlockRef;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is the implementation of an embedded time series {@link PersistenceService}
+ * for numeric states. Every item has a folder of append-only segment files,
+ * which hold blocks of compressed samples. The headers of the blocks serve as
+ * the time index of the queries and as precomputed aggregates.
+ * <p>
+ * The open blocks are written every <code>flushinterval</code> seconds. Once
+ * an hour, the segments are compacted and samples which are older than the
+ * retention time of their item are removed.
+ * 
+ * @author agent
+ * @since 1.4.0
+ */
+public class TsdbPersistenceService implements BulkQueryablePersistenceService, AggregatingPersistenceService,
+		TimestampedPersistenceService, ManagedService {
+
+	private static final Logger logger = LoggerFactory.getLogger(TsdbPersistenceService.class);
+
+	protected final static String DB_FOLDER = "etc/tsdb";
+
+	// the number of samples per block
+	private static final int BLOCK_SIZE = 1024;
+
+	// a new segment is started every day or when the last one has reached 16MB
+	private static final long SEGMENT_DURATION = TimeUnit.DAYS.toMillis(1);
+	private static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private static final int DEFAULT_FLUSH_INTERVAL = 60;
+	private static final long COMPACTION_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+	private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+	// samples are only stored while the service is active, since the series are not written anymore afterwards
+	private final ReadWriteLock activeLock = new ReentrantReadWriteLock();
+	private boolean active = false;
+
+	// the thread which writes the open blocks and compacts the segments
+	private ScheduledExecutorService maintenance;
+	private ScheduledFuture<?> flushJob;
+
+	private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+	// the retention times in days, 0 to keep the samples forever
+	private int retention = 0;
+	private Map<String, Integer> itemRetentions = Collections.emptyMap();
+
+	protected ItemRegistry itemRegistry;
+
+	public void setItemRegistry(ItemRegistry itemRegistry) {
+		this.itemRegistry = itemRegistry;
+	}
+
+	public void unsetItemRegistry(ItemRegistry itemRegistry) {
+		this.itemRegistry = null;
+	}
+
+	public void activate() {
+		maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TSDB maintenance");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduleFlush();
+		maintenance.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					compact(System.currentTimeMillis());
+				} catch (RuntimeException e) {
+					logger.warn("Error compacting the time series", e);
+				}
+			}
+		}, TimeUnit.MINUTES.toMillis(1), COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+		activeLock.writeLock().lock();
+		try {
+			active = true;
+		} finally {
+			activeLock.writeLock().unlock();
+		}
+	}
+
+	public void deactivate() {
+		activeLock.writeLock().lock();
+		try {
+			active = false;
+		} finally {
+			activeLock.writeLock().unlock();
+		}
+		if (maintenance != null) {
+			maintenance.shutdown();
+			try {
+				maintenance.awaitTermination(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			maintenance = null;
+			flushJob = null;
+		}
+		for (Series itemSeries : series.values()) {
+			try {
+				itemSeries.close();
+			} catch (IOException e) {
+				logger.error("Could not write the samples of item '{}': {}", itemSeries.getName(), e.getMessage());
+			}
+		}
+		series.clear();
+	}
+
+	private synchronized void scheduleFlush() {
+		if (flushJob != null) {
+			flushJob.cancel(false);
+		}
+		if (maintenance != null) {
+			flushJob = maintenance.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					flush();
+				}
+			}, flushInterval, flushInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Writes the open blocks of all items.
+	 */
+	private void flush() {
+		for (Series itemSeries : series.values()) {
+			try {
+				itemSeries.flush();
+			} catch (IOException e) {
+				logger.error("Could not write the samples of item '{}': {}", itemSeries.getName(), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Compacts the segments of all items, including those which have not
+	 * been used since the start.
+	 */
+	private void compact(long now) {
+		String[] names = new File(DB_FOLDER).list();
+		if (names == null) {
+			return;
+		}
+		for (String name : names) {
+			Series itemSeries = getSeries(name, false);
+			if (itemSeries == null) {
+				continue;
+			}
+			Integer days = itemRetentions.get(name);
+			if (days == null) {
+				days = retention;
+			}
+			long cutoff = days > 0 ? now - TimeUnit.DAYS.toMillis(days) : Long.MIN_VALUE;
+			try {
+				itemSeries.compact(cutoff);
+			} catch (IOException e) {
+				logger.error("Could not compact the samples of item '{}': {}", name, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @param name the name of the item
+	 * @param create true to create the series if the item has no samples yet
+	 * @return the series or <code>null</code> if there are no samples and <code>create</code> is false
+	 */
+	private Series getSeries(String name, boolean create) {
+		Series itemSeries = series.get(name);
+		if (itemSeries == null) {
+			File folder = new File(DB_FOLDER, name);
+			if (!create && !folder.isDirectory()) {
+				return null;
+			}
+			itemSeries = new Series(name, folder, BLOCK_SIZE, SEGMENT_DURATION, SEGMENT_SIZE);
+			Series existing = series.putIfAbsent(name, itemSeries);
+			if (existing != null) {
+				itemSeries = existing;
+			}
+		}
+		return itemSeries;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public String getName() {
+		return "tsdb";
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Item item, String alias) {
+		store(item, alias, new Date());
+	}
+
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * A value which is older than the last value of the series is stored with
+	 * the time of the last value.
+	 */
+	public void store(Item item, String alias, Date timestamp) {
+		DecimalType state = (DecimalType) item.getStateAs(DecimalType.class);
+		if (state == null) {
+			return;
+		}
+		String name = alias == null ? item.getName() : alias;
+		activeLock.readLock().lock();
+		try {
+			if (!active) {
+				logger.debug("Not storing the state of item '{}', since the service is not active", name);
+				return;
+			}
+			getSeries(name, true).add(timestamp.getTime(), state.toBigDecimal().doubleValue());
+		} catch (IOException e) {
+			logger.error("Could not store the state of item '{}': {}", name, e.getMessage());
+		} finally {
+			activeLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void store(Item item) {
+		store(item, null);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * Only the blocks within the time range of the filter are read, one
+	 * after the other while the result is iterated.
+	 */
+	public Iterable<HistoricItem> query(FilterCriteria filter) {
+		final String itemName = filter.getItemName();
+		Series itemSeries = itemName == null ? null : getSeries(itemName, false);
+		if (itemSeries == null) {
+			return Collections.emptyList();
+		}
+
+		final long begin = filter.getBeginDate() != null ? filter.getBeginDate().getTime() : Long.MIN_VALUE;
+		final long end = filter.getEndDate() != null ? filter.getEndDate().getTime() : Long.MAX_VALUE;
+		final boolean descending = filter.getOrdering() == Ordering.DESCENDING;
+		final Operator operator = filter.getState() != null ? filter.getOperator() : null;
+		final double operand = operator != null ? toDouble(filter.getState()) : Double.NaN;
+
+		final List<BlockRef> blocks;
+		try {
+			blocks = itemSeries.getBlocks(begin, end);
+		} catch (IOException e) {
+			logger.error("Could not query the samples of item '{}': {}", itemName, e.getMessage());
+			return Collections.emptyList();
+		}
+
+		return new PagedQueryResult(filter, PagedQueryResult.DEFAULT_FETCH_SIZE) {
+			private SampleCursor cursor;
+			// the number of samples returned or skipped by the cursor
+			private long position;
+
+			protected List<HistoricItem> fetch(long offset, int count) {
+				if (cursor == null || position != offset) {
+					cursor = new SampleCursor(blocks, begin, end, descending);
+					position = 0;
+					if (operator == null) {
+						position = cursor.skip(offset);
+					} else {
+						while (position < offset && nextMatching(cursor, operator, operand)) {
+							position++;
+						}
+					}
+				}
+				List<HistoricItem> items = new ArrayList<HistoricItem>(count);
+				while (items.size() < count && nextMatching(cursor, operator, operand)) {
+					items.add(new TsdbItem(itemName, mapToState(cursor.getValue(), itemName), new Date(cursor.getTime())));
+					position++;
+				}
+				return items;
+			}
+
+			protected void release() {
+				cursor = null;
+			}
+		};
+	}
+
+	private boolean nextMatching(SampleCursor cursor, Operator operator, double operand) {
+		while (cursor.next()) {
+			if (operator == null || matches(cursor.getValue(), operator, operand)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean matches(double value, Operator operator, double operand) {
+		switch (operator) {
+			case EQ : return value == operand;
+			case NEQ : return value != operand;
+			case GT : return value > operand;
+			case LT : return value < operand;
+			case GTE : return value >= operand;
+			case LTE : return value <= operand;
+			default : return true;
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * The latest sample of every item is known without reading its segments.
+	 */
+	public Map<String, HistoricItem> queryLatest(Collection<String> itemNames) {
+		Map<String, HistoricItem> latest = new HashMap<String, HistoricItem>();
+		for (String itemName : itemNames) {
+			Series itemSeries = getSeries(itemName, false);
+			if (itemSeries == null) {
+				continue;
+			}
+			try {
+				synchronized (itemSeries) {
+					if (!itemSeries.isEmpty()) {
+						latest.put(itemName, new TsdbItem(itemName, mapToState(itemSeries.getLastValue(), itemName),
+								new Date(itemSeries.getLastTime())));
+					}
+				}
+			} catch (IOException e) {
+				logger.error("Could not read the samples of item '{}': {}", itemName, e.getMessage());
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public boolean supportsAggregate(AggregateFunction function) {
+		return true;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 * 
+	 * Blocks which are completely within the time range are aggregated by
+	 * their headers, only the blocks at the borders of the range are decoded.
+	 */
+	public HistoricItem aggregate(FilterCriteria filter, AggregateFunction function) {
+		String itemName = filter.getItemName();
+		long begin = filter.getBeginDate() != null ? filter.getBeginDate().getTime() : Long.MIN_VALUE;
+		long end = filter.getEndDate() != null ? filter.getEndDate().getTime() : Long.MAX_VALUE;
+		Date endDate = filter.getEndDate() != null ? filter.getEndDate() : new Date();
+
+		List<BlockRef> blocks = Collections.emptyList();
+		Series itemSeries = itemName == null ? null : getSeries(itemName, false);
+		if (itemSeries != null) {
+			try {
+				blocks = itemSeries.getBlocks(begin, end);
+			} catch (IOException e) {
+				logger.error("Could not query the samples of item '{}': {}", itemName, e.getMessage());
+				return null;
+			}
+		}
+
+		long count = 0;
+		double sum = 0;
+		double first = Double.NaN, last = Double.NaN, minimum = Double.NaN, maximum = Double.NaN;
+		long firstTime = 0, lastTime = 0, minimumTime = 0, maximumTime = 0;
+		for (BlockRef ref : blocks) {
+			Block block = ref.block;
+			if (block.isWithin(begin, end)) {
+				if (count == 0) {
+					first = block.firstValue;
+					firstTime = block.firstTime;
+				}
+				if (count == 0 || block.minimum < minimum) {
+					minimum = block.minimum;
+					minimumTime = block.minimumTime;
+				}
+				if (count == 0 || block.maximum > maximum) {
+					maximum = block.maximum;
+					maximumTime = block.maximumTime;
+				}
+				last = block.lastValue;
+				lastTime = block.lastTime;
+				sum += block.sum;
+				count += block.count;
+			} else {
+				BlockDecoder decoder = ref.decode();
+				while (decoder.next()) {
+					long time = decoder.getTime();
+					if (time < begin || time > end) {
+						continue;
+					}
+					double value = decoder.getValue();
+					if (count == 0) {
+						first = value;
+						firstTime = time;
+					}
+					if (count == 0 || value < minimum) {
+						minimum = value;
+						minimumTime = time;
+					}
+					if (count == 0 || value > maximum) {
+						maximum = value;
+						maximumTime = time;
+					}
+					last = value;
+					lastTime = time;
+					sum += value;
+					count++;
+				}
+			}
+		}
+
+		if (function == AggregateFunction.COUNT) {
+			return new TsdbItem(itemName, new DecimalType(count), endDate);
+		}
+		if (count == 0) {
+			return null;
+		}
+		switch (function) {
+			case FIRST : return new TsdbItem(itemName, mapToState(first, itemName), new Date(firstTime));
+			case LAST : return new TsdbItem(itemName, mapToState(last, itemName), new Date(lastTime));
+			case MINIMUM : return new TsdbItem(itemName, mapToState(minimum, itemName), new Date(minimumTime));
+			case MAXIMUM : return new TsdbItem(itemName, mapToState(maximum, itemName), new Date(maximumTime));
+			case SUM : return new TsdbItem(itemName, new DecimalType(sum), endDate);
+			default : return new TsdbItem(itemName, new DecimalType(sum / count), endDate);
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@SuppressWarnings("rawtypes")
+	public void updated(Dictionary config) throws ConfigurationException {
+		int interval = DEFAULT_FLUSH_INTERVAL;
+		int days = 0;
+		Map<String, Integer> retentions = new HashMap<String, Integer>();
+
+		if (config != null) {
+			Enumeration keys = config.keys();
+			while (keys.hasMoreElements()) {
+				String key = (String) keys.nextElement();
+				if (key.startsWith("retention.")) {
+					retentions.put(key.substring("retention.".length()), parseInt(config, key, 0));
+				}
+			}
+			interval = parseInt(config, "flushinterval", DEFAULT_FLUSH_INTERVAL);
+			if (interval < 1) {
+				throw new ConfigurationException("tsdb:flushinterval", "The value must be positive: " + interval);
+			}
+			days = parseInt(config, "retention", 0);
+		}
+
+		retention = days;
+		itemRetentions = retentions;
+		if (interval != flushInterval) {
+			flushInterval = interval;
+			scheduleFlush();
+		}
+	}
+
+	private int parseInt(Dictionary<?, ?> config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if (intValue < 0) {
+				throw new ConfigurationException("tsdb:" + key, "The value must not be negative: " + value);
+			}
+			return intValue;
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException("tsdb:" + key, "The value is not a valid number: " + value);
+		}
+	}
+
+	private double toDouble(State state) {
+		if (state instanceof DecimalType) {
+			return ((DecimalType) state).toBigDecimal().doubleValue();
+		} else if (state instanceof OnOffType) {
+			return state == OnOffType.ON ? 1.0d : 0.0d;
+		} else if (state instanceof OpenClosedType) {
+			return state == OpenClosedType.OPEN ? 1.0d : 0.0d;
+		}
+		// a state which is not numeric is not equal to any sample
+		return Double.NaN;
+	}
+
+	private State mapToState(double value, String itemName) {
+		if (itemRegistry != null) {
+			try {
+				Item item = itemRegistry.getItem(itemName);
+				if (item instanceof SwitchItem && !(item instanceof DimmerItem)) {
+					return value == 0.0d ? OnOffType.OFF : OnOffType.ON;
+				} else if (item instanceof ContactItem) {
+					return value == 0.0d ? OpenClosedType.CLOSED : OpenClosedType.OPEN;
+				}
+			} catch (ItemNotFoundException e) {
+				logger.debug("Could not find item '{}' in registry", itemName);
+			}
+		}
+		// just return a DecimalType as a fallback
+		return new DecimalType(value);
+	}
+
+}